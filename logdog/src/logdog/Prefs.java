@@ -42,6 +42,14 @@ public class Prefs {
     private static final String PREFS_LATEST_CHECKED_VERSION = "latest_checked_version";
     private static final String PREFS_SHAPES_IN_CHARTS = "shapes_in_charts";
     private static final String PREFS_WEBBROWSER_SEARCH = "webbrowser_search";
+    private static final String PREFS_BINARY_LOGCAT = "binary_logcat";
+    private static final String PREFS_LINEAR_REGEXP = "linear_regexp";
+    private static final String PREFS_LOG_VIEW_BUFFER_MB = "log_view_buffer_mb";
+    private static final String PREFS_LOG_VIEW_SPILL = "log_view_spill";
+
+    // Memory for the lines of each log view, outside of the Java heap.
+    public static final int DEFAULT_LOG_VIEW_BUFFER_MB = 256;
+    public static final int MIN_LOG_VIEW_BUFFER_MB = 16;
 
     private Preferences mPrefs;
 
@@ -157,6 +165,80 @@ public class Prefs {
         }
     }
 
+    public boolean getBinaryLogcat() {
+        if (ok()) {
+            return mPrefs.getBoolean(PREFS_BINARY_LOGCAT, false);
+        }
+        return false;
+    }
+
+    public void putBinaryLogcat(boolean binaryLogcat) {
+        try {
+            if (okThrow()) {
+                mPrefs.putBoolean(PREFS_BINARY_LOGCAT, binaryLogcat);
+            }
+        } catch (BackingStoreException excep) {
+            Logger.logExcep(excep);
+        }
+    }
+
+    public boolean getLinearRegExp() {
+        if (ok()) {
+            return mPrefs.getBoolean(PREFS_LINEAR_REGEXP, false);
+        }
+        return false;
+    }
+
+    public void putLinearRegExp(boolean linearRegExp) {
+        try {
+            if (okThrow()) {
+                mPrefs.putBoolean(PREFS_LINEAR_REGEXP, linearRegExp);
+            }
+        } catch (BackingStoreException excep) {
+            Logger.logExcep(excep);
+        }
+    }
+
+    public int getLogViewBufferMB() {
+        if (ok()) {
+            return Math.max(MIN_LOG_VIEW_BUFFER_MB,
+                            mPrefs.getInt(PREFS_LOG_VIEW_BUFFER_MB, DEFAULT_LOG_VIEW_BUFFER_MB));
+        }
+        return DEFAULT_LOG_VIEW_BUFFER_MB;
+    }
+
+    public void putLogViewBufferMB(int megaBytes) {
+        try {
+            if (okThrow()) {
+                mPrefs.putInt(PREFS_LOG_VIEW_BUFFER_MB, Math.max(MIN_LOG_VIEW_BUFFER_MB, megaBytes));
+            }
+        } catch (BackingStoreException excep) {
+            Logger.logExcep(excep);
+        }
+    }
+
+    /**
+     * @return true to keep the lines of log views in memory-mapped
+     * files in the temp directory, see LogLineStore, instead of in
+     * memory. The buffer size is then the disk space of each view.
+     */
+    public boolean getLogViewSpill() {
+        if (ok()) {
+            return mPrefs.getBoolean(PREFS_LOG_VIEW_SPILL, false);
+        }
+        return false;
+    }
+
+    public void putLogViewSpill(boolean spill) {
+        try {
+            if (okThrow()) {
+                mPrefs.putBoolean(PREFS_LOG_VIEW_SPILL, spill);
+            }
+        } catch (BackingStoreException excep) {
+            Logger.logExcep(excep);
+        }
+    }
+
     public String getWebBrowserSearchString() {
         if (ok()) {
             return mPrefs.get(PREFS_WEBBROWSER_SEARCH, null);
@@ -34,12 +34,14 @@ import org.jfree.ui.RefineryUtilities;
 
 import java.awt.Cursor;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import javax.swing.JFrame;
 import logdog.model.LogLineMatcher;
 import logdog.model.LogLineMatcher.Group;
 import logdog.model.LogLineMatcherManager;
+import logdog.model.RegExpCostAnalyzer;
 import logdog.view.LLMView;
 
 /**
@@ -97,6 +99,10 @@ public class LLMController {
         }
     }
 
+    public ArrayList<RegExpCostAnalyzer.Report> editAnalyzeCost(RegExpCostAnalyzer.SampleLines sampleLines) {
+        return mLLMMgr.editAnalyzeCost(sampleLines);
+    }
+
     public void editSave() {
         mLLMMgr.editSave();  // throws
     }
@@ -172,4 +178,8 @@ public class LLMController {
     public void setFilePath(File xmlPath) {
         mLLMMgr.setFilePath(xmlPath);
     }
+
+    public void dumpProfile(File file) throws IOException {
+        mLLMMgr.dumpProfile(file);
+    }
 }
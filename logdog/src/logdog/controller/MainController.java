@@ -35,6 +35,7 @@ import org.jfree.ui.RefineryUtilities;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
@@ -151,6 +152,19 @@ public class MainController
         }
     }
 
+    /**
+     * Called from ChartView when devices have been connected or
+     * disconnected.
+     *
+     * @param serials The serials of all devices ready for use.
+     */
+    public void onDevicesChanged(List<String> serials) {
+        LogSource.setDeviceSerials(serials);
+        if (mLLMMgr != null) {
+            mLLMMgr.updateDeviceLLMs();
+        }
+    }
+
     public void createFromFile(final File xmlPath)
         throws IOException {
         mLLMMgr = LogLineMatcherManager.createFromFile(xmlPath);
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import logdog.utils.AdbClient;
+import logdog.utils.Logger;
+
+/**
+ * Reads the output of a shell command, e.g. logcat, on the device
+ * through the adb server without executing the adb binary.
+ */
+class AdbShellStream implements LogSourceStream {
+
+    private final AdbClient mAdbClient;
+    private final String mCommand;
+    private final boolean mBinary;
+    private volatile Socket mSocket;
+
+    AdbShellStream(AdbClient adbClient, String command) {
+        this(adbClient, command, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param adbClient
+     * @param command
+     * @param binary If true the output is binary and read through the
+     *               exec: service not having a pty mangling it.
+     */
+    AdbShellStream(AdbClient adbClient, String command, boolean binary) {
+        mAdbClient = adbClient;
+        mCommand = command;
+        mBinary = binary;
+    }
+
+    @Override
+    public ReadableByteChannel open(long resumeMillis) throws IOException, InterruptedException {
+        // Same as 'adb logcat' waiting for the device to become available.
+        mAdbClient.waitForDevice(0);
+        String command = mCommand;
+        if (resumeMillis != -1) {
+            command += " -T " + formatResumeTime(resumeMillis);
+        }
+        mSocket = mBinary ?
+            mAdbClient.openService("exec:" + command) :
+            mAdbClient.openShell(command);
+        return Channels.newChannel(mSocket.getInputStream());
+    }
+
+    /**
+     * Format the time for 'logcat -T'. Binary lines have their time in
+     * seconds since the epoch so use that format to not depend on the
+     * time zone of the device. Text lines were parsed in the local time
+     * zone so format them back the same way.
+     */
+    private String formatResumeTime(long millis) {
+        if (mBinary) {
+            return String.format("%d.%03d", millis / 1000, millis % 1000);
+        }
+        return new SimpleDateFormat("''MM-dd HH:mm:ss.SSS''").format(new Date(millis));
+    }
+
+    @Override
+    public boolean isBinary() {
+        return mBinary;
+    }
+
+    @Override
+    public void close() {
+        Socket socket = mSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException excep) {
+                Logger.logExcep(excep);
+            }
+            mSocket = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (mBinary ? "adb exec:" : "adb shell:") + mCommand;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton finding all occurrences of a set of literals
+ * in one pass over a line, no matter how many literals there are.
+ *
+ * Transitions on ASCII chars are resolved into a table when built so
+ * scanning ASCII text is one array lookup per char. Other chars follow
+ * the failure links.
+ */
+final class AhoCorasick {
+
+    private static final int ASCII_COUNT = 128;
+    private static final int ROOT = 0;
+
+    private final int mLiteralCount;
+    // Per node:
+    private final int[] mAsciiNext;  // node * ASCII_COUNT + char -> node
+    private final char[][] mKeys;    // sorted non-ASCII chars of the trie edges
+    private final int[][] mChildren; // the nodes of mKeys
+    private final int[] mFail;
+    private final int[] mLiteral;    // the literal ending at the node or -1
+    private final int[] mOutput;     // the next node on the failure path having a literal or -1
+
+    /**
+     * Constructor.
+     *
+     * @param literals Non-empty literals, the index in the array is
+     *                 the id reported by find().
+     */
+    AhoCorasick(String[] literals) {
+        mLiteralCount = literals.length;
+
+        // Build the trie.
+        ArrayList<TreeMap<Character, Integer>> edges = new ArrayList<TreeMap<Character, Integer>>();
+        ArrayList<Integer> nodeLiterals = new ArrayList<Integer>();
+        edges.add(new TreeMap<Character, Integer>());
+        nodeLiterals.add(-1);
+        for (int id = 0; id < literals.length; ++id) {
+            String literal = literals[id];
+            int node = ROOT;
+            for (int index = 0; index < literal.length(); ++index) {
+                Character ch = literal.charAt(index);
+                Integer next = edges.get(node).get(ch);
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new TreeMap<Character, Integer>());
+                    nodeLiterals.add(-1);
+                    edges.get(node).put(ch, next);
+                }
+                node = next;
+            }
+            if (nodeLiterals.get(node) == -1) {
+                nodeLiterals.set(node, id);
+            }
+        }
+
+        int nodeCount = edges.size();
+        mAsciiNext = new int[nodeCount * ASCII_COUNT];
+        mKeys = new char[nodeCount][];
+        mChildren = new int[nodeCount][];
+        mFail = new int[nodeCount];
+        mLiteral = new int[nodeCount];
+        mOutput = new int[nodeCount];
+        for (int node = 0; node < nodeCount; ++node) {
+            TreeMap<Character, Integer> nodeEdges = edges.get(node);
+            mKeys[node] = new char[nodeEdges.size()];
+            mChildren[node] = new int[nodeEdges.size()];
+            int index = 0;
+            for (Map.Entry<Character, Integer> edge : nodeEdges.entrySet()) {
+                mKeys[node][index] = edge.getKey();
+                mChildren[node][index] = edge.getValue();
+                ++index;
+            }
+            mLiteral[node] = nodeLiterals.get(node);
+        }
+
+        // Failure links and the ASCII table, breadth first so the
+        // failure node of a node is done before the node.
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        mFail[ROOT] = ROOT;
+        mOutput[ROOT] = -1;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int index = 0; index < mKeys[node].length; ++index) {
+                char ch = mKeys[node][index];
+                int child = mChildren[node][index];
+                mFail[child] = node == ROOT ? ROOT : next(mFail[node], ch);
+                int fail = mFail[child];
+                mOutput[child] = mLiteral[fail] != -1 ? fail : mOutput[fail];
+                queue[tail++] = child;
+            }
+            for (char ch = 0; ch < ASCII_COUNT; ++ch) {
+                int child = findChild(node, ch);
+                if (child != -1) {
+                    mAsciiNext[node * ASCII_COUNT + ch] = child;
+                } else {
+                    mAsciiNext[node * ASCII_COUNT + ch] =
+                        node == ROOT ? ROOT : mAsciiNext[mFail[node] * ASCII_COUNT + ch];
+                }
+            }
+        }
+    }
+
+    int getLiteralCount() {
+        return mLiteralCount;
+    }
+
+    private int findChild(int node, char ch) {
+        int index = Arrays.binarySearch(mKeys[node], ch);
+        return index >= 0 ? mChildren[node][index] : -1;
+    }
+
+    private int next(int node, char ch) {
+        if (ch < ASCII_COUNT) {
+            return mAsciiNext[node * ASCII_COUNT + ch];
+        }
+        while (true) {
+            int child = findChild(node, ch);
+            if (child != -1) {
+                return child;
+            }
+            if (node == ROOT) {
+                return ROOT;
+            }
+            node = mFail[node];
+        }
+    }
+
+    /**
+     * Find the literals occurring in text[start, end).
+     *
+     * @param text
+     * @param start
+     * @param end
+     * @param found Set to 'stamp' at the id of each literal found.
+     * @param stamp
+     *
+     * @return the number of distinct literals found.
+     */
+    int find(CharSequence text, int start, int end, int[] found, int stamp) {
+        int count = 0;
+        int node = ROOT;
+        for (int index = start; index < end; ++index) {
+            char ch = text.charAt(index);
+            node = ch < ASCII_COUNT ? mAsciiNext[node * ASCII_COUNT + ch] : next(node, ch);
+            int out = mLiteral[node] != -1 ? node : mOutput[node];
+            while (out != -1) {
+                int id = mLiteral[out];
+                if (found[id] != stamp) {
+                    found[id] = stamp;
+                    ++count;
+                }
+                out = mOutput[out];
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Calendar;
+
+/**
+ * Decodes the output of 'logcat -B', a stream of little endian
+ * struct logger_entry:
+ *
+ *   uint16_t len;       length of the payload
+ *   uint16_t hdr_size;  0 in v1 where the header is 20 bytes
+ *   int32_t  pid;
+ *   int32_t  tid;
+ *   int32_t  sec;
+ *   int32_t  nsec;
+ *   uint32_t lid;       v3 and later (hdr_size 24 or more)
+ *   uint32_t uid;       v4 (hdr_size 28)
+ *
+ * The payload of text buffers is the priority byte followed by the
+ * NUL terminated tag and message. The payload of the events buffer is
+ * an int32 tag number followed by a typed value.
+ *
+ * The header fields are set on the LogLine as decoded so nothing is
+ * parsed from text. The text of the line is formatted the same way as
+ * 'logcat -v threadtime' for the matchers and the views. Messages
+ * with several lines give one LogLine per line, same as logcat.
+ *
+ * Not thread-safe, owned by the LogSource reader thread.
+ */
+class BinaryLogDecoder implements LogLineReader {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int HEADER_SIZE_V1 = 20;
+    private static final int HEADER_SIZE_LID = 24;  // first version having lid
+    private static final int HEADER_SIZE_MAX = 128;
+
+
+    // Types of values in event payloads:
+    private static final int EVENT_TYPE_INT = 0;
+    private static final int EVENT_TYPE_LONG = 1;
+    private static final int EVENT_TYPE_STRING = 2;
+    private static final int EVENT_TYPE_LIST = 3;
+    private static final int EVENT_TYPE_FLOAT = 4;
+
+    private static final int TAG_WIDTH = 8;
+
+    private static final char[] sLevels = {
+        '?', '?', 'V', 'D', 'I', 'W', 'E', 'F', 'S'
+    };
+
+    private final ReadableByteChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final byte[] mBytes;
+    private int mStart;  // start of data not decoded yet
+    private int mEnd;    // end of data read
+    private boolean mEof;
+
+    // The current entry.
+    private long mMillis;
+    private int mNanos;
+    private int mPid;
+    private int mTid;
+    private int mLogId;
+    private char mLevel;
+    private byte[] mTagBytes;
+    private int mTagOffset;
+    private int mTagLength;
+    private byte[] mMsgBytes;
+    private int mMsgPos;   // start of the next message line
+    private int mMsgEnd;
+    private boolean mHasMsgLine;
+
+    // Decoded events are formatted here.
+    private byte[] mEventTag = new byte[16];
+    private byte[] mEventText = new byte[256];
+    private int mEventTextLength;
+
+    // The current line formatted as '-v threadtime'.
+    private byte[] mLine = new byte[1024];
+    private int mLineLength;
+    private boolean mLineAscii;
+    private int mTagStart;
+    private int mTagEnd;
+    private int mMsgStart;
+
+    private final CharsetDecoder mDecoder;
+    private char[] mChars = new char[1024];
+    private int mCharCount;
+
+    // Local time of the start of the hour, mHourPrefix is "MM-dd HH".
+    private final Calendar mCalendar = Calendar.getInstance();
+    private long mHourStartMillis = Long.MAX_VALUE;
+    private final byte[] mHourPrefix = new byte[8];
+
+    BinaryLogDecoder(ReadableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    BinaryLogDecoder(ReadableByteChannel channel, int bufferSize) {
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mBytes = mBuffer.array();
+        mDecoder = LogLine.UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        while (!mHasMsgLine) {
+            if (!readEntry()) {
+                return false;
+            }
+        }
+
+        int lineEnd = mMsgPos;
+        while (lineEnd < mMsgEnd && mMsgBytes[lineEnd] != '\n') {
+            ++lineEnd;
+        }
+        formatLine(mMsgPos, lineEnd);
+        mMsgPos = lineEnd + 1;
+        mHasMsgLine = lineEnd < mMsgEnd;
+        return true;
+    }
+
+    /**
+     * Read and decode the next entry.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    private boolean readEntry() throws IOException {
+        if (!ensure(4)) {
+            return false;
+        }
+        int payloadLength = mBuffer.getShort(mStart) & 0xffff;
+        int headerSize = mBuffer.getShort(mStart + 2) & 0xffff;
+        if (headerSize == 0) {
+            headerSize = HEADER_SIZE_V1;
+        }
+        if (headerSize < HEADER_SIZE_V1 || headerSize > HEADER_SIZE_MAX) {
+            throw new IOException(String.format("Invalid binary log entry, header size %d",
+                                                headerSize));
+        }
+        if (!ensure(headerSize + payloadLength)) {
+            return false;
+        }
+
+        mPid = mBuffer.getInt(mStart + 4);
+        mTid = mBuffer.getInt(mStart + 8);
+        long sec = mBuffer.getInt(mStart + 12) & 0xffffffffL;
+        mNanos = mBuffer.getInt(mStart + 16);
+        mMillis = sec * 1000 + mNanos / 1000000;
+        mLogId = headerSize >= HEADER_SIZE_LID ? mBuffer.getInt(mStart + 20) : -1;
+
+        int payload = mStart + headerSize;
+        int payloadEnd = payload + payloadLength;
+        mStart = payloadEnd;
+        // These buffers have binary payloads:
+        if (mLogId == LogcatMux.LOG_ID_EVENTS || mLogId == LogcatMux.LOG_ID_STATS ||
+            mLogId == LogcatMux.LOG_ID_SECURITY) {
+            decodeEvent(payload, payloadEnd);
+        } else {
+            decodeText(payload, payloadEnd);
+        }
+        return true;
+    }
+
+    private void decodeText(int payload, int payloadEnd) {
+        int priority = payload < payloadEnd ? mBytes[payload] : 0;
+        mLevel = priority >= 0 && priority < sLevels.length ? sLevels[priority] : '?';
+
+        int tagEnd = payload + 1;
+        while (tagEnd < payloadEnd && mBytes[tagEnd] != 0) {
+            ++tagEnd;
+        }
+        mTagBytes = mBytes;
+        mTagOffset = Math.min(payload + 1, payloadEnd);
+        mTagLength = tagEnd - mTagOffset;
+
+        int msg = Math.min(tagEnd + 1, payloadEnd);
+        int msgEnd = msg;
+        while (msgEnd < payloadEnd && mBytes[msgEnd] != 0) {
+            ++msgEnd;
+        }
+        while (msgEnd > msg && mBytes[msgEnd - 1] == '\n') {
+            --msgEnd;
+        }
+        mMsgBytes = mBytes;
+        mMsgPos = msg;
+        mMsgEnd = msgEnd;
+        mHasMsgLine = true;
+    }
+
+    private void decodeEvent(int payload, int payloadEnd) {
+        mLevel = 'I';
+        int tagNumber = payloadEnd - payload >= 4 ? mBuffer.getInt(payload) : 0;
+        // The tag names are in /system/etc/event-log-tags on the
+        // device, we show the number.
+        mEventTag = appendDecimal(mEventTag, 0, tagNumber);
+        mTagBytes = mEventTag;
+        mTagOffset = 0;
+        mTagLength = decimalLength(tagNumber);
+
+        mEventTextLength = 0;
+        if (payloadEnd - payload > 4) {
+            decodeEventValue(payload + 4, payloadEnd);
+        }
+        mMsgBytes = mEventText;
+        mMsgPos = 0;
+        mMsgEnd = mEventTextLength;
+        mHasMsgLine = true;
+    }
+
+    /**
+     * Format one typed event value into mEventText.
+     *
+     * @return the position after the value or -1 if truncated
+     */
+    private int decodeEventValue(int pos, int end) {
+        if (pos >= end) {
+            return -1;
+        }
+        int type = mBytes[pos++];
+        switch (type) {
+        case EVENT_TYPE_INT:
+            if (end - pos < 4) {
+                return -1;
+            }
+            appendEventText(Integer.toString(mBuffer.getInt(pos)));
+            return pos + 4;
+
+        case EVENT_TYPE_LONG:
+            if (end - pos < 8) {
+                return -1;
+            }
+            appendEventText(Long.toString(mBuffer.getLong(pos)));
+            return pos + 8;
+
+        case EVENT_TYPE_FLOAT:
+            if (end - pos < 4) {
+                return -1;
+            }
+            appendEventText(Float.toString(mBuffer.getFloat(pos)));
+            return pos + 4;
+
+        case EVENT_TYPE_STRING: {
+            if (end - pos < 4) {
+                return -1;
+            }
+            int length = mBuffer.getInt(pos);
+            pos += 4;
+            if (length < 0 || length > end - pos) {
+                return -1;
+            }
+            appendEventText(mBytes, pos, length);
+            return pos + length;
+        }
+
+        case EVENT_TYPE_LIST: {
+            if (end - pos < 1) {
+                return -1;
+            }
+            int count = mBytes[pos++] & 0xff;
+            appendEventText("[");
+            for (int index = 0; index < count && pos != -1; ++index) {
+                if (index > 0) {
+                    appendEventText(",");
+                }
+                pos = decodeEventValue(pos, end);
+            }
+            appendEventText("]");
+            return pos;
+        }
+        }
+        return -1;
+    }
+
+    private void appendEventText(String text) {
+        int length = text.length();
+        ensureEventText(length);
+        for (int index = 0; index < length; ++index) {
+            mEventText[mEventTextLength++] = (byte) text.charAt(index);
+        }
+    }
+
+    private void appendEventText(byte[] bytes, int offset, int length) {
+        ensureEventText(length);
+        System.arraycopy(bytes, offset, mEventText, mEventTextLength, length);
+        mEventTextLength += length;
+    }
+
+    private void ensureEventText(int length) {
+        if (mEventTextLength + length > mEventText.length) {
+            byte[] text = new byte[Math.max(mEventTextLength + length, mEventText.length * 2)];
+            System.arraycopy(mEventText, 0, text, 0, mEventTextLength);
+            mEventText = text;
+        }
+    }
+
+    /**
+     * Format the header and the message line [msg, msgEnd) into mLine
+     * as "MM-dd HH:mm:ss.SSS  pid  tid L tag     : message".
+     */
+    private void formatLine(int msg, int msgEnd) {
+        int msgLength = msgEnd - msg;
+        int maxLength = LogLine.TIMESTAMP_LEN + 2 * 12 + 4 + Math.max(mTagLength, TAG_WIDTH) + 2 +
+            msgLength;
+        if (mLine.length < maxLength) {
+            mLine = new byte[Math.max(maxLength, mLine.length * 2)];
+        }
+
+        int pos = formatTimestamp(mMillis);
+        mLine[pos++] = ' ';
+        pos = appendPadded(pos, mPid, 5);
+        mLine[pos++] = ' ';
+        pos = appendPadded(pos, mTid, 5);
+        mLine[pos++] = ' ';
+        mLine[pos++] = (byte) mLevel;
+        mLine[pos++] = ' ';
+
+        mTagStart = pos;
+        System.arraycopy(mTagBytes, mTagOffset, mLine, pos, mTagLength);
+        pos += mTagLength;
+        mTagEnd = pos;
+        while (pos < mTagStart + TAG_WIDTH) {
+            mLine[pos++] = ' ';
+        }
+        mLine[pos++] = ':';
+        mLine[pos++] = ' ';
+
+        mMsgStart = pos;
+        System.arraycopy(mMsgBytes, msg, mLine, pos, msgLength);
+        pos += msgLength;
+        mLineLength = pos;
+
+        int highBits = 0;
+        for (int index = mTagStart; index < mLineLength; ++index) {
+            highBits |= mLine[index];
+        }
+        mLineAscii = highBits >= 0;
+    }
+
+    /**
+     * Format "MM-dd HH:mm:ss.SSS" in local time at the start of mLine.
+     *
+     * @return the length of the timestamp
+     */
+    private int formatTimestamp(long millis) {
+        if (millis < mHourStartMillis || millis >= mHourStartMillis + 3600000) {
+            mCalendar.setTimeInMillis(millis);
+            mCalendar.set(Calendar.MINUTE, 0);
+            mCalendar.set(Calendar.SECOND, 0);
+            mCalendar.set(Calendar.MILLISECOND, 0);
+            mHourStartMillis = mCalendar.getTimeInMillis();
+            appendTwoDigits(mHourPrefix, 0, mCalendar.get(Calendar.MONTH) + 1);
+            mHourPrefix[2] = '-';
+            appendTwoDigits(mHourPrefix, 3, mCalendar.get(Calendar.DAY_OF_MONTH));
+            mHourPrefix[5] = ' ';
+            appendTwoDigits(mHourPrefix, 6, mCalendar.get(Calendar.HOUR_OF_DAY));
+        }
+        System.arraycopy(mHourPrefix, 0, mLine, 0, mHourPrefix.length);
+
+        int inHour = (int) (millis - mHourStartMillis);
+        mLine[8] = ':';
+        appendTwoDigits(mLine, 9, inHour / 60000);
+        mLine[11] = ':';
+        appendTwoDigits(mLine, 12, inHour / 1000 % 60);
+        mLine[14] = '.';
+        int ms = inHour % 1000;
+        mLine[15] = (byte) ('0' + ms / 100);
+        mLine[16] = (byte) ('0' + ms / 10 % 10);
+        mLine[17] = (byte) ('0' + ms % 10);
+        return LogLine.TIMESTAMP_LEN;
+    }
+
+    private static void appendTwoDigits(byte[] dest, int pos, int value) {
+        dest[pos] = (byte) ('0' + value / 10);
+        dest[pos + 1] = (byte) ('0' + value % 10);
+    }
+
+    /**
+     * Append 'value' right aligned in 'width' characters.
+     */
+    private int appendPadded(int pos, int value, int width) {
+        for (int length = decimalLength(value); length < width; ++length) {
+            mLine[pos++] = ' ';
+        }
+        appendDecimal(mLine, pos, value);
+        return pos + decimalLength(value);
+    }
+
+    private static int decimalLength(int value) {
+        int length = value < 0 ? 2 : 1;
+        for (long rest = Math.abs((long) value); rest >= 10; rest /= 10) {
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * Write 'value' in decimal at 'pos', growing 'dest' if needed.
+     *
+     * @return 'dest' or the new array
+     */
+    private static byte[] appendDecimal(byte[] dest, int pos, int value) {
+        int length = decimalLength(value);
+        if (dest.length < pos + length) {
+            byte[] bigger = new byte[pos + length];
+            System.arraycopy(dest, 0, bigger, 0, pos);
+            dest = bigger;
+        }
+        long rest = value;
+        int first = pos;
+        if (rest < 0) {
+            dest[first++] = '-';
+            rest = -rest;
+        }
+        for (int index = pos + length - 1; index >= first; --index) {
+            dest[index] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        }
+        return dest;
+    }
+
+    @Override
+    public void copyTo(LogLine logLine, TimestampParser tsParser) {
+        if (mLineAscii) {
+            logLine.setAscii(mLine, 0, mLineLength, null);
+            logLine.setHeader(mMillis, mNanos, mPid, mTid, mLevel, mTagStart, mTagEnd, mMsgStart);
+            logLine.setBufferId(mLogId);
+            return;
+        }
+
+        // The header is ASCII, decode the tag and the message separately
+        // to get their positions in characters.
+        if (mChars.length < mLineLength) {
+            mChars = new char[Math.max(mLineLength, mChars.length * 2)];
+        }
+        for (mCharCount = 0; mCharCount < mTagStart; ++mCharCount) {
+            mChars[mCharCount] = (char) mLine[mCharCount];
+        }
+        decode(mTagStart, mTagEnd);
+        int tagEnd = mCharCount;
+        for (int index = mTagEnd; index < mMsgStart; ++index) {
+            mChars[mCharCount++] = (char) mLine[index];
+        }
+        int msgStart = mCharCount;
+        decode(mMsgStart, mLineLength);
+
+        logLine.setChars(mLine, 0, mLineLength, mChars, mCharCount, null);
+        logLine.setHeader(mMillis, mNanos, mPid, mTid, mLevel, mTagStart, tagEnd, msgStart);
+        logLine.setBufferId(mLogId);
+    }
+
+    private void decode(int start, int end) {
+        ByteBuffer in = ByteBuffer.wrap(mLine, start, end - start);
+        CharBuffer out = CharBuffer.wrap(mChars, mCharCount, mChars.length - mCharCount);
+        mDecoder.reset();
+        mDecoder.decode(in, out, true);
+        mDecoder.flush(out);
+        mCharCount = out.position();
+    }
+
+    /**
+     * Make sure 'count' bytes from mStart are in the buffer.
+     *
+     * @return false if the stream ended before that
+     */
+    private boolean ensure(int count) throws IOException {
+        while (mEnd - mStart < count) {
+            if (mEof) {
+                return false;
+            }
+            if (mStart + count > mBytes.length) {
+                // Move the partial entry to the start of the buffer.
+                int length = mEnd - mStart;
+                System.arraycopy(mBytes, mStart, mBytes, 0, length);
+                mStart = 0;
+                mEnd = length;
+            }
+            mBuffer.limit(mBytes.length);
+            mBuffer.position(mEnd);
+            int read = mChannel.read(mBuffer);  // blocks until data is available
+            if (read < 0) {
+                mEof = true;
+            } else {
+                mEnd += read;
+            }
+        }
+        return true;
+    }
+}
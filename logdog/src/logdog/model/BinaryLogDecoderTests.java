@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class BinaryLogDecoderTests {
+
+    // Recorded 'logcat -B' output: v4 entries from main and events and one v1 entry.
+    private static final String FIXTURE = "test/logcat_binary.bin";
+    private static final long SEC = 1760704496L;
+
+    private TimestampParser mTsParser = new TimestampParser();
+    private SimpleDateFormat mFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Decode the fixture into new LogLine objects.
+     */
+    private ArrayList<LogLine> decode(int bufferSize) throws IOException {
+        InputStream stream = getClass().getResourceAsStream(FIXTURE);
+        assertNotNull(stream);
+        BinaryLogDecoder decoder = new BinaryLogDecoder(Channels.newChannel(stream), bufferSize);
+        ArrayList<LogLine> lines = new ArrayList<LogLine>();
+        while (decoder.nextLine()) {
+            LogLine line = new LogLine();
+            decoder.copyTo(line, mTsParser);
+            lines.add(line);
+        }
+        stream.close();
+        return lines;
+    }
+
+    private String timestamp(long millis) {
+        return mFormat.format(new Date(millis));
+    }
+
+    @Test
+    public void decodeFixture() throws IOException {
+        ArrayList<LogLine> lines = decode(BinaryLogDecoder.BUFFER_SIZE);
+        assertEquals(6, lines.size());
+
+        LogLine line = lines.get(0);
+        assertEquals(SEC * 1000 + 789, line.getMillis());
+        assertEquals(789123456, line.getNanos());
+        assertEquals(1234, line.getPid());
+        assertEquals(5678, line.getTid());
+        assertEquals('D', line.getLevel());
+        assertEquals("dalvikvm", line.getTag());
+        assertEquals("GC freed 1024K", line.getMessage());
+        assertEquals(timestamp(line.getMillis()) + "  1234  5678 D dalvikvm: GC freed 1024K",
+                     line.getText());
+
+        // One line per line in the message.
+        assertEquals("AndroidRuntime", lines.get(1).getTag());
+        assertEquals('E', lines.get(1).getLevel());
+        assertEquals("FATAL EXCEPTION: main", lines.get(1).getMessage());
+        assertEquals("Process: com.example, PID: 1234", lines.get(2).getMessage());
+        assertEquals(lines.get(1).getNanos(), lines.get(2).getNanos());
+
+        line = lines.get(3);
+        assertEquals(timestamp(line.getMillis()) + "   567   890 I 2722    : [95,4012,ok]",
+                     line.getText());
+
+        line = lines.get(4);
+        assertEquals("R\u00e4ks", line.getTag());
+        assertEquals("sm\u00f6rg\u00e5s", line.getMessage());
+        // Padded by bytes like printf("%-8s") in logcat.
+        assertEquals(timestamp(line.getMillis()) + "  2000  2001 I R\u00e4ks   : sm\u00f6rg\u00e5s",
+                     line.getText());
+
+        line = lines.get(5);
+        assertEquals((SEC + 3601) * 1000 + 999, line.getMillis());
+        assertEquals(999999999, line.getNanos());
+        assertEquals("init", line.getTag());
+        assertEquals("starting", line.getMessage());
+    }
+
+    @Test
+    public void sameAsTextParsing() throws IOException {
+        // The text of a decoded line parses to the same header.
+        for (LogLine line : decode(BinaryLogDecoder.BUFFER_SIZE)) {
+            LogLine parsed = new LogLine();
+            parsed.set(line.getText(), mTsParser);
+            assertEquals(line.getPid(), parsed.getPid());
+            assertEquals(line.getTid(), parsed.getTid());
+            assertEquals(line.getLevel(), parsed.getLevel());
+            assertEquals(line.getTag(), parsed.getTag());
+            assertEquals(line.getMessage(), parsed.getMessage());
+            assertEquals(line.getMillis() % (24 * 3600 * 1000), parsed.getMillis() % (24 * 3600 * 1000));
+        }
+    }
+
+    @Test
+    public void entriesSpanningBufferRefills() throws IOException {
+        ArrayList<LogLine> expected = decode(BinaryLogDecoder.BUFFER_SIZE);
+        ArrayList<LogLine> lines = decode(128);
+        assertEquals(expected.size(), lines.size());
+        for (int index = 0; index < lines.size(); ++index) {
+            assertEquals(expected.get(index).getText(), lines.get(index).getText());
+        }
+    }
+}
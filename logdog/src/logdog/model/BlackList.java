@@ -38,7 +38,10 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -49,11 +52,280 @@ import logdog.utils.Utils;
  * This class maintains a list of regular expressions. Currently used
  * by LogSource to skip log lines and to listen for log lines that are
  * trigger events.
+ *
+ * found() is called for every line on the filter thread of the
+ * LogSource while the list is edited from the UI. Edits are therefore
+ * made on a copy of the current Entries which is then published via
+ * the volatile mEntries so found() never has to lock.
+ *
+ * The entries are sorted by kind when published so found() need not
+ * run one regexp after the other, see Entries:
+ *
+ * - Entries for one log tag, like those from LogSource.parseToLogTag(),
+ *   are looked up by the tag of the line. That is only a fast path, the
+ *   regexps are not anchored: on a miss they are still found by their
+ *   tag text, e.g. "ActivityManager:", anywhere in the line with the
+ *   contained literals below.
+ * - Entries for one whole line, like those from
+ *   LogSource.parseToRegExp(), are looked up by the end of the line in
+ *   a SuffixTrie.
+ * - Entries for lines containing some literal text are all found in
+ *   one pass over the line by an AhoCorasick automaton.
+ * - The regexps of other entries are only run if the same automaton
+ *   finds the literal they require, see RegExpLiterals.
+ *
+ * This keeps the cost per line about the same however many entries
+ * there are.
+ *
+ * Chatty processes log the same tag thousands of times a second, so
+ * the result of looking up the tag is kept in a TagVerdictCache per
+ * thread and snapshot. An edit publishes a new snapshot, which drops
+ * the cached verdicts.
+ *
+ * The hits of each entry are counted, see getHits(), and the regexps
+ * that still have to be run are tried in the order of their hits so
+ * far. found() sorts them again every REORDER_LINES lines if the
+ * order has changed.
  */
 public class BlackList {
 
-    private StringBuilder mRegExps = new StringBuilder(400);
-    private ArrayList<Pattern> mPatterns = new ArrayList<Pattern>(10);
+    private static final int NO_PADDING = -1;
+    private static final int NO_ENTRY = -1;
+    private static final int REORDER_LINES = 64 * 1024;
+    // Verdicts of the tag lookup, see findTag():
+    private static final int VERDICT_CACHE_SIZE = 1024;
+    private static final int RUN_TAG_REGEXPS = -2;
+
+    /**
+     * A regexp that has to be run.
+     */
+    private static class Entry {
+        final Pattern mPattern;
+        final int mId;         // index in Entries.mPatterns and mHits
+        final int mLiteralId;  // in Entries.mAhoCorasick, if prefiltered or tagged
+
+        Entry(Pattern pattern, int id, int literalId) {
+            mPattern = pattern;
+            mId = id;
+            mLiteralId = literalId;
+        }
+    }
+
+    /**
+     * The entries for one log tag. The regexps of mEntries only need
+     * to be run if the padding of the tag in the line, i.e. the
+     * number of spaces before the ':', is not in mPaddings.
+     */
+    private static class TagEntries {
+        int[] mPaddings = new int[0];  // of the entries that are just the tag
+        int[] mPaddingIds = new int[0];
+        Entry[] mEntries = new Entry[0];
+    }
+
+    /**
+     * Immutable snapshot of the regular expressions, except for the
+     * hits.
+     */
+    private static class Entries {
+        final String mRegExps;  // one regexp per line
+        final Pattern[] mPatterns;
+        final AtomicLongArray mHits;  // per pattern
+        final int[] mOrder;           // of mPatterns, by hits when created
+        // The entries by kind, see the class comment:
+        final LogTagMap<TagEntries> mTagged = new LogTagMap<TagEntries>();
+        final Entry[] mAllTagged;  // for lines without a tag
+        final SuffixTrie mLineEnds = new SuffixTrie();
+        final AhoCorasick mAhoCorasick;
+        final int[] mContainedIds;  // per literal id: the entry blacklisting if found, or NO_ENTRY
+        final Entry[] mPrefiltered;
+        final Entry[] mUnfiltered;
+
+        Entries(String regExps, Pattern[] patterns, AtomicLongArray hits) {
+            mRegExps = regExps;
+            mPatterns = patterns;
+            mHits = hits;
+            mOrder = sortByHits(hits);
+            ArrayList<Entry> allTagged = new ArrayList<Entry>();
+            HashMap<String, Integer> literalIds = new HashMap<String, Integer>();
+            ArrayList<String> literals = new ArrayList<String>();
+            ArrayList<Integer> containedIds = new ArrayList<Integer>();
+            ArrayList<Entry> prefiltered = new ArrayList<Entry>();
+            ArrayList<Entry> unfiltered = new ArrayList<Entry>();
+            for (int id : mOrder) {
+                Pattern pattern = patterns[id];
+                String regExp = LogSource.getRegExp(pattern);
+                String tag = RegExpLiterals.getLogTag(regExp);
+                if (tag != null) {
+                    // Also found by the tag text in the line, see the class comment.
+                    int literalId = getLiteralId(RegExpLiterals.getLogTagLiteral(regExp),
+                                                 literalIds, literals, containedIds);
+                    TagEntries tagEntries = mTagged.get(tag);
+                    if (tagEntries == null) {
+                        tagEntries = new TagEntries();
+                        mTagged.put(tag, tagEntries);
+                    }
+                    int padding = getTagPadding(regExp, tag);
+                    if (padding != NO_PADDING) {
+                        int count = tagEntries.mPaddings.length;
+                        tagEntries.mPaddings = Arrays.copyOf(tagEntries.mPaddings, count + 1);
+                        tagEntries.mPaddings[count] = padding;
+                        tagEntries.mPaddingIds = Arrays.copyOf(tagEntries.mPaddingIds, count + 1);
+                        tagEntries.mPaddingIds[count] = id;
+                        if (containedIds.get(literalId) == NO_ENTRY) {
+                            containedIds.set(literalId, id);
+                        }
+                    }
+                    Entry entry = new Entry(pattern, id, literalId);
+                    tagEntries.mEntries = Arrays.copyOf(tagEntries.mEntries,
+                                                        tagEntries.mEntries.length + 1);
+                    tagEntries.mEntries[tagEntries.mEntries.length - 1] = entry;
+                    allTagged.add(entry);
+                    if (padding == NO_PADDING) {
+                        prefiltered.add(entry);
+                    }
+                    continue;
+                }
+
+                int bodyStart = getAnyPrefixLength(regExp);
+                String lineEnd = bodyStart > 0 && regExp.endsWith("$") ?
+                    RegExpLiterals.getLiteral(regExp, bodyStart, regExp.length() - 1) : null;
+                if (lineEnd != null) {
+                    mLineEnds.add(lineEnd, id);
+                    continue;
+                }
+
+                String literal = bodyStart > 0 ?
+                    RegExpLiterals.getLiteral(regExp, bodyStart,
+                                              regExp.length() - getAnySuffixLength(regExp)) : null;
+                boolean isContained = literal != null;
+                if (!isContained) {
+                    literal = RegExpLiterals.getRequiredLiteral(regExp);
+                    if (literal == null) {
+                        unfiltered.add(new Entry(pattern, id, NO_ENTRY));
+                        continue;
+                    }
+                }
+                int literalId = getLiteralId(literal, literalIds, literals, containedIds);
+                if (isContained) {
+                    if (containedIds.get(literalId) == NO_ENTRY) {
+                        containedIds.set(literalId, id);
+                    }
+                } else {
+                    prefiltered.add(new Entry(pattern, id, literalId));
+                }
+            }
+            mAllTagged = allTagged.toArray(new Entry[allTagged.size()]);
+            mAhoCorasick = new AhoCorasick(literals.toArray(new String[literals.size()]));
+            mContainedIds = new int[literals.size()];
+            for (int literalId = 0; literalId < mContainedIds.length; ++literalId) {
+                mContainedIds[literalId] = containedIds.get(literalId);
+            }
+            mPrefiltered = prefiltered.toArray(new Entry[prefiltered.size()]);
+            mUnfiltered = unfiltered.toArray(new Entry[unfiltered.size()]);
+        }
+
+        private static int getLiteralId(String literal, HashMap<String, Integer> literalIds,
+                                        ArrayList<String> literals,
+                                        ArrayList<Integer> containedIds) {
+            Integer literalId = literalIds.get(literal);
+            if (literalId == null) {
+                literalId = literals.size();
+                literalIds.put(literal, literalId);
+                literals.add(literal);
+                containedIds.add(NO_ENTRY);
+            }
+            return literalId;
+        }
+
+        /**
+         * @return The indexes of 'hits', most hits first.
+         */
+        static int[] sortByHits(final AtomicLongArray hits) {
+            Integer[] order = new Integer[hits.length()];
+            final long[] snapshot = new long[hits.length()];
+            for (int index = 0; index < order.length; ++index) {
+                order[index] = index;
+                snapshot[index] = hits.get(index);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer first, Integer second) {
+                    long diff = snapshot[second] - snapshot[first];
+                    return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+                }
+            });
+            int[] sorted = new int[order.length];
+            for (int index = 0; index < order.length; ++index) {
+                sorted[index] = order[index];
+            }
+            return sorted;
+        }
+
+        /**
+         * @return The number of spaces between 'tag' and the ':' if
+         * 'regExp' is nothing but ".*?", the tag, the spaces and ':'
+         * (and maybe ".*?" again), otherwise NO_PADDING.
+         */
+        private static int getTagPadding(String regExp, String tag) {
+            int tagStart = getAnyPrefixLength(regExp);
+            int colon = regExp.indexOf(':', tagStart);
+            if (!regExp.startsWith(tag, tagStart) ||
+                colon + 1 != regExp.length() - getAnySuffixLength(regExp)) {
+                return NO_PADDING;
+            }
+            for (int index = tagStart + tag.length(); index < colon; ++index) {
+                if (regExp.charAt(index) != ' ') {
+                    return NO_PADDING;
+                }
+            }
+            return colon - tagStart - tag.length();
+        }
+
+        /**
+         * @return The length of a leading ".*?" or ".*", else 0.
+         */
+        private static int getAnyPrefixLength(String regExp) {
+            return regExp.startsWith(".*?") ? 3 : regExp.startsWith(".*") ? 2 : 0;
+        }
+
+        /**
+         * @return The length of a trailing ".*?" or ".*", else 0.
+         */
+        private static int getAnySuffixLength(String regExp) {
+            if (regExp.endsWith(".*?") && !regExp.endsWith("\\.*?")) {
+                return 3;
+            }
+            if (regExp.endsWith(".*") && !regExp.endsWith("\\.*")) {
+                return 2;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * What found() needs per thread.
+     */
+    private static class Scratch {
+        int[] mFound = new int[0];
+        int[] mTried = new int[0];  // per entry id, the regexps run for the line
+        int mStamp;                 // of the line, in mFound and mTried
+        TagEntries[] mBuckets = new TagEntries[0];
+        int mLines;  // since the last check of the order
+        // Verdicts of findTag() for the snapshot in mCacheEntries:
+        final TagVerdictCache mCache = new TagVerdictCache(VERDICT_CACHE_SIZE);
+        Entries mCacheEntries;
+    }
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final Entries EMPTY = new Entries("", new Pattern[0], new AtomicLongArray(0));
+
+    private volatile Entries mEntries = EMPTY;
     private BlackListListener mListener;
 
     void setListener(BlackListListener listener) {
@@ -84,7 +356,22 @@ public class BlackList {
     }
 
     public String toString() {
-        return mRegExps.toString();
+        return mEntries.mRegExps;
+    }
+
+    /**
+     * Get the number of lines each entry has blacklisted. Entries
+     * kept when the blacklist is edited keep their hits.
+     *
+     * @return The hits per entry, in the order of toString().
+     */
+    public long[] getHits() {
+        AtomicLongArray hits = mEntries.mHits;
+        long[] copy = new long[hits.length()];
+        for (int index = 0; index < copy.length; ++index) {
+            copy[index] = hits.get(index);
+        }
+        return copy;
     }
 
     /**
@@ -96,18 +383,24 @@ public class BlackList {
      * @return -1 if successful else the line number of the first failing regexp.
      * @throws IOException
      */
-    int readFrom(File file) throws IOException {
+    synchronized int readFrom(File file) throws IOException {
         BufferedReader reader = null;
         try {
             reader = new BufferedReader(new FileReader(file));
-            clearNoNotify();
+            StringBuilder regExps = new StringBuilder(400);
+            ArrayList<Pattern> patterns = new ArrayList<Pattern>(10);
             int line = -1;
             String regExp = null;
-            while ((regExp = reader.readLine()) != null) {
-                ++line;
-                if (!addNoNotify(regExp)) {
-                    return line;
+            try {
+                while ((regExp = reader.readLine()) != null) {
+                    ++line;
+                    if (!compile(regExp, regExps, patterns)) {
+                        return line;
+                    }
                 }
+            } finally {
+                // Keep what was read until the failing line.
+                publish(regExps, patterns);
             }
             return -1;  // success
         } catch (FileNotFoundException excep) {
@@ -132,7 +425,7 @@ public class BlackList {
         BufferedWriter writer = null;
         try {
             writer = new BufferedWriter(new FileWriter(file));
-            String[] regExps = mRegExps.toString().split("\n");
+            String[] regExps = mEntries.mRegExps.split("\n");
             for (String regExp : regExps) {
                 writer.write(regExp);
                 writer.write("\n");
@@ -154,13 +447,8 @@ public class BlackList {
         }
     }
 
-    private void clearNoNotify() {
-        mRegExps.setLength(0);
-        mPatterns.clear();
-    }
-
-    void clear() {
-        clearNoNotify();
+    synchronized void clear() {
+        mEntries = EMPTY;
         notifyListener(false);  // not considered dirty
     }
 
@@ -170,16 +458,19 @@ public class BlackList {
         return ret;
     }
 
-    boolean replaceBlackList(String blacklistLines) {
+    synchronized boolean replaceBlackList(String blacklistLines) {
         boolean ret = false;
         if (blacklistLines != null) {
-            clear();
+            StringBuilder regExps = new StringBuilder(400);
+            ArrayList<Pattern> patterns = new ArrayList<Pattern>(10);
             String[] regExpArray = blacklistLines.split("\n");
             for (String regExp : regExpArray) {
                 if (!Utils.emptyString(regExp)) {
-                    addNoNotify(regExp);
+                    compile(regExp, regExps, patterns);
                 }
             }
+            // Swap in one go, no lines slip through while replacing.
+            publish(regExps, patterns);
             notifyListener(true);
             ret = true;
         }
@@ -187,15 +478,36 @@ public class BlackList {
         return ret;
     }
 
-    public boolean addNoNotify(String regExp) {
+    public synchronized boolean addNoNotify(String regExp) {
+        Entries entries = mEntries;
+        StringBuilder regExps = new StringBuilder(entries.mRegExps);
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>(Arrays.asList(entries.mPatterns));
+        if (!compile(regExp, regExps, patterns)) {
+            return false;
+        }
+        publish(regExps, patterns);
+        return true;
+    }
+
+    /**
+     * Compile 'regExp' and append it to 'regExps' and 'patterns'.
+     *
+     * @param regExp
+     * @param regExps
+     * @param patterns
+     *
+     * @return false if 'regExp' is not valid.
+     */
+    private static boolean compile(String regExp, StringBuilder regExps,
+                                   ArrayList<Pattern> patterns) {
         try {
             regExp = regExp.trim();
             Pattern pattern = LogSource.compileRegExp(regExp);
-            if (mRegExps.length() > 0) {
-                mRegExps.append('\n');
+            if (regExps.length() > 0) {
+                regExps.append('\n');
             }
-            mRegExps.append(regExp);
-            mPatterns.add(pattern);
+            regExps.append(regExp);
+            patterns.add(pattern);
         } catch (PatternSyntaxException excep) {
             Logger.logExcep(excep);
             return false;
@@ -203,19 +515,199 @@ public class BlackList {
         return true;
     }
 
-    public boolean found(String logLine) {
-        if (mPatterns.size() > 0) {
-            for (Pattern pattern : mPatterns) {
-                Matcher matcher = pattern.matcher(logLine);
-                if (matcher.find()) {
+    private void publish(StringBuilder regExps, ArrayList<Pattern> patterns) {
+        // Keep the hits of the entries already in the list.
+        Entries entries = mEntries;
+        HashMap<String, Long> oldHits = new HashMap<String, Long>();
+        for (int index = 0; index < entries.mPatterns.length; ++index) {
+            oldHits.put(entries.mPatterns[index].pattern(), entries.mHits.get(index));
+        }
+        AtomicLongArray hits = new AtomicLongArray(patterns.size());
+        for (int index = 0; index < patterns.size(); ++index) {
+            Long hit = oldHits.get(patterns.get(index).pattern());
+            if (hit != null) {
+                hits.set(index, hit);
+            }
+        }
+        mEntries = new Entries(regExps.toString(), patterns.toArray(new Pattern[patterns.size()]),
+                               hits);
+    }
+
+    /**
+     * Sort the regexps of 'entries' by their hits if that changes their
+     * order. Called on the thread calling found().
+     */
+    private void reorder(Entries entries) {
+        if (Arrays.equals(entries.mOrder, Entries.sortByHits(entries.mHits))) {
+            return;
+        }
+        Entries sorted = new Entries(entries.mRegExps, entries.mPatterns, entries.mHits);
+        synchronized (this) {
+            if (mEntries == entries) {  // else edited meanwhile
+                mEntries = sorted;
+            }
+        }
+    }
+
+    public boolean found(CharSequence logLine) {
+        Entries entries = mEntries;
+        if (!(logLine instanceof LogLine)) {
+            for (int id = 0; id < entries.mPatterns.length; ++id) {
+                if (LogSource.matchRegExp(entries.mPatterns[id], logLine) != null) {
+                    entries.mHits.incrementAndGet(id);
                     return true;
                 }
             }
+            return false;
+        }
+        LogLine line = (LogLine) logLine;
+        if (!line.hasHeader() || entries.mPatterns.length == 0) {
+            return false;  // as LogSource.matchRegExp()
+        }
+
+        Scratch scratch = sScratch.get();
+        if (++scratch.mLines >= REORDER_LINES) {
+            scratch.mLines = 0;
+            reorder(entries);
+        }
+        int id = find(entries, line, scratch);
+        if (id == NO_ENTRY) {
+            return false;
+        }
+        entries.mHits.incrementAndGet(id);
+        return true;
+    }
+
+    /**
+     * @return The entry blacklisting 'line', or NO_ENTRY.
+     */
+    private static int find(Entries entries, LogLine line, Scratch scratch) {
+        if (scratch.mTried.length < entries.mPatterns.length) {
+            scratch.mTried = new int[entries.mPatterns.length];
+        }
+        if (++scratch.mStamp == 0) {  // wrapped, forget old stamps
+            Arrays.fill(scratch.mFound, 0);
+            Arrays.fill(scratch.mTried, 0);
+            scratch.mStamp = 1;
+        }
+
+        if (entries.mTagged.size() > 0) {
+            int id = line.getTagStart() == -1 ?
+                find(entries.mAllTagged, line, scratch) : findTag(entries, line, scratch);
+            if (id != NO_ENTRY) {
+                return id;
+            }
+        }
+
+        int id = entries.mLineEnds.findSuffix(line, LogLine.TIMESTAMP_LEN, line.length());
+        if (id != SuffixTrie.NOT_FOUND) {
+            return id;
+        }
+
+        if (entries.mAhoCorasick.getLiteralCount() > 0) {
+            if (scratch.mFound.length < entries.mAhoCorasick.getLiteralCount()) {
+                scratch.mFound = new int[entries.mAhoCorasick.getLiteralCount()];
+            }
+            int[] found = scratch.mFound;
+            int stamp = scratch.mStamp;
+            if (entries.mAhoCorasick.find(line, LogLine.TIMESTAMP_LEN, line.length(),
+                                          found, stamp) > 0) {
+                for (int literalId = 0; literalId < entries.mContainedIds.length; ++literalId) {
+                    if (entries.mContainedIds[literalId] != NO_ENTRY && found[literalId] == stamp) {
+                        return entries.mContainedIds[literalId];
+                    }
+                }
+                for (Entry entry : entries.mPrefiltered) {
+                    if (found[entry.mLiteralId] == stamp && scratch.mTried[entry.mId] != stamp &&
+                        LogSource.matchRegExp(entry.mPattern, line) != null) {
+                        return entry.mId;
+                    }
+                }
+            }
+        }
+        return find(entries.mUnfiltered, line, scratch);
+    }
+
+    /**
+     * Look up the entries for the tag of 'line' and for all tags it
+     * ends with. What that gives only depends on the tag and its
+     * padding so it is cached.
+     */
+    private static int findTag(Entries entries, LogLine line, Scratch scratch) {
+        int padding = 0;
+        for (int index = line.getTagEnd(); index < line.length() && line.charAt(index) == ' ';
+             ++index) {
+            ++padding;
+        }
+        if (line.getTagEnd() + padding == line.length() ||
+            line.charAt(line.getTagEnd() + padding) != ':') {
+            padding = NO_PADDING;
+        }
+
+        if (scratch.mCacheEntries != entries) {
+            scratch.mCache.clear();
+            scratch.mCacheEntries = entries;
+        }
+        int verdict = scratch.mCache.get(line, padding);
+        if (verdict == TagVerdictCache.NOT_CACHED) {
+            verdict = findTagOnly(entries, line, padding, scratch);
+            scratch.mCache.put(line, padding, verdict);
+        }
+        if (verdict != RUN_TAG_REGEXPS) {
+            return verdict;
+        }
+
+        int count = entries.mTagged.getSuffixes(line, scratch.mBuckets);
+        for (int index = 0; index < count; ++index) {
+            int id = find(scratch.mBuckets[index].mEntries, line, scratch);
+            if (id != NO_ENTRY) {
+                return id;
+            }
+        }
+        return NO_ENTRY;
+    }
+
+    /**
+     * Look up the entries that are just a tag.
+     *
+     * @return The id of the entry, NO_ENTRY if there are no entries
+     * for the tag, or RUN_TAG_REGEXPS if the regexps of the entries
+     * for the tag must be run to know.
+     */
+    private static int findTagOnly(Entries entries, LogLine line, int padding, Scratch scratch) {
+        if (scratch.mBuckets.length < entries.mTagged.getMaxSuffixCount()) {
+            scratch.mBuckets = new TagEntries[entries.mTagged.getMaxSuffixCount()];
+        }
+        int count = entries.mTagged.getSuffixes(line, scratch.mBuckets);
+        for (int index = 0; index < count; ++index) {
+            TagEntries tagEntries = scratch.mBuckets[index];
+            for (int paddingIndex = 0; paddingIndex < tagEntries.mPaddings.length; ++paddingIndex) {
+                if (tagEntries.mPaddings[paddingIndex] == padding) {
+                    return tagEntries.mPaddingIds[paddingIndex];
+                }
+            }
+        }
+        return count > 0 ? RUN_TAG_REGEXPS : NO_ENTRY;
+    }
+
+    /**
+     * Run the regexps of 'entries', skipping those already run for the
+     * line.
+     */
+    private static int find(Entry[] entries, LogLine line, Scratch scratch) {
+        for (Entry entry : entries) {
+            if (scratch.mTried[entry.mId] == scratch.mStamp) {
+                continue;
+            }
+            scratch.mTried[entry.mId] = scratch.mStamp;
+            if (LogSource.matchRegExp(entry.mPattern, line) != null) {
+                return entry.mId;
+            }
         }
-        return false;
+        return NO_ENTRY;
     }
 
     public boolean hasItems() {
-        return mPatterns.size() > 0;
+        return mEntries.mPatterns.length > 0;
     }
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.Random;
+
+
+/**
+ * Compares running every regexp of a BlackList on each log line with
+ * BlackList.found(), for blacklists of growing size. Run with:
+ *
+ *   java -cp classes logdog.model.BlackListBenchmark [lines]
+ *
+ * The entries are a mix of what LogSourceView adds: whole lines, log
+ * tags and hand written regexps. Prints the time per line after a
+ * warmup round.
+ */
+public class BlackListBenchmark {
+
+    private static final int[] ENTRY_COUNTS = {10, 50, 200, 1000};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private static String createLine(Random random, int index) {
+        return String.format("10-17 12:%02d:%02d.%03d  %4d  %4d D %-8s: event %d state %s",
+                             index / 60000 % 60, index / 1000 % 60, index % 1000,
+                             random.nextInt(5000), random.nextInt(5000),
+                             "Tag" + random.nextInt(2000), random.nextInt(5000),
+                             random.nextBoolean() ? "on" : "off");
+    }
+
+    private static BlackList createBlackList(int entryCount) {
+        Random random = new Random(17);
+        BlackList blackList = new BlackList(new LogSource("benchmark", "cat"));
+        StringBuilder entries = new StringBuilder();
+        for (int index = 0; index < entryCount; ++index) {
+            String line = createLine(random, index);
+            switch (index % 3) {
+            case 0:
+                entries.append(LogSource.parseToRegExp(line));
+                break;
+            case 1:
+                entries.append(LogSource.parseToLogTag(line));
+                break;
+            default:
+                entries.append(String.format(".*?event %d state (on|off)$", index));
+                break;
+            }
+            entries.append('\n');
+        }
+        blackList.replaceBlackList(entries.toString());
+        return blackList;
+    }
+
+    private static long runEveryRegExp(String[] texts, BlackList blackList) {
+        long start = System.nanoTime();
+        for (String text : texts) {
+            blackList.found(text);  // not a LogLine, every regexp is run
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runFound(LogLine[] lines, BlackList blackList) {
+        long start = System.nanoTime();
+        for (LogLine line : lines) {
+            blackList.found(line);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        Random random = new Random(4711);
+        TimestampParser tsParser = new TimestampParser();
+        String[] texts = new String[lineCount];
+        LogLine[] lines = new LogLine[lineCount];
+        for (int index = 0; index < lineCount; ++index) {
+            texts[index] = createLine(random, index);
+            lines[index] = new LogLine();
+            lines[index].set(texts[index], tsParser);
+        }
+
+        for (int entryCount : ENTRY_COUNTS) {
+            BlackList blackList = createBlackList(entryCount);
+            for (int round = 0; round < WARMUP_ROUNDS; ++round) {
+                runEveryRegExp(texts, blackList);
+                runFound(lines, blackList);
+            }
+            long everyNanos = Long.MAX_VALUE;
+            long foundNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; ++round) {
+                everyNanos = Math.min(everyNanos, runEveryRegExp(texts, blackList));
+                foundNanos = Math.min(foundNanos, runFound(lines, blackList));
+            }
+            System.out.println(String.format("%4d entries: every regexp %10.1f ns/line, found() %8.1f ns/line",
+                                             entryCount, (double) everyNanos / lineCount,
+                                             (double) foundNanos / lineCount));
+        }
+    }
+}
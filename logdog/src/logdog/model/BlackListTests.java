@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+
+public class BlackListTests {
+
+    private static final String LINE =
+        "10-17 12:34:56.789  1234  5678 D ActivityManager: Start proc 4012";
+
+    @Test
+    public void addReplaceAndClear() {
+        BlackList blackList = new BlackList(new LogSource("blacklist", "cat"));
+        assertFalse(blackList.hasItems());
+        assertFalse(blackList.found(LINE));
+
+        assertTrue(blackList.add(".*?ActivityManager\\s*:"));
+        assertTrue(blackList.hasItems());
+        assertTrue(blackList.found(LINE));
+        assertFalse(blackList.add("("));  // invalid, not added
+        assertEquals(".*?ActivityManager\\s*:", blackList.toString());
+
+        assertTrue(blackList.replaceBlackList(".*?WindowManager\\s*:\n\n.*?Start proc\n"));
+        assertEquals(".*?WindowManager\\s*:\n.*?Start proc", blackList.toString());
+        assertTrue(blackList.found(LINE));
+
+        blackList.clear();
+        assertFalse(blackList.hasItems());
+        assertFalse(blackList.found(LINE));
+    }
+
+    @Test
+    public void tagEntriesFoundByTag() {
+        BlackList blackList = new BlackList(new LogSource("blacklist", "cat"));
+        assertTrue(blackList.add(LogSource.parseToLogTag(LINE)));
+        assertTrue(blackList.add(".*?Manager:.*?"));
+        assertTrue(blackList.add(".*?Timeout: waited [0-9]+"));
+
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        String[][] cases = {
+            {LINE, "true"},
+            // ends with "Manager"
+            {"10-17 12:34:56.789  1234  5678 D WindowManager: Start proc 4012", "true"},
+            // the tag text is only in the message, not anchored so found
+            {"10-17 12:34:56.789  1234  5678 D Activity: Manager: 4012", "true"},
+            {"10-17 12:34:56.789  1234  5678 I ActivityManagr: Timeout: waited 5", "true"},
+            {"10-17 12:34:56.789  1234  5678 I Timeout: waited 5", "true"},
+            {"10-17 12:34:56.789  1234  5678 I Timeout: waited", "false"},
+            {"10-17 12:34:56.789  1234  5678 I Other: Manager : 4012", "false"},
+        };
+        for (String[] testCase : cases) {
+            line.set(testCase[0], tsParser);
+            assertEquals(testCase[0], Boolean.parseBoolean(testCase[1]), blackList.found(line));
+            // The same as running every regexp.
+            assertEquals(testCase[0], blackList.found(testCase[0]), blackList.found(line));
+        }
+    }
+
+    @Test
+    public void entriesByKind() {
+        BlackList blackList = new BlackList(new LogSource("blacklist", "cat"));
+        String lineText = "10-17 12:34:56.789  1234  5678 D tag     : value 42 (done)";
+        assertTrue(blackList.replaceBlackList(LogSource.parseToRegExp(lineText) + "\n" +
+                                              LogSource.parseToLogTag(LINE) + "\n" +
+                                              ".*?contained text\n" +
+                                              ".*?Start proc [0-9]+1$\n" +
+                                              ".*?[a-z]+ [0-9]+ \\(later\\)$"));
+
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        String[][] cases = {
+            // whole line
+            {lineText, "true"},
+            {"10-17 12:34:56.789  1234  5678 D tag     : value 43 (done)", "false"},
+            {"10-17 12:34:56.789  1234  5678 D xtag     : value 42 (done)", "true"},
+            // tag, padded as in the line it was made from
+            {"10-17 12:34:56.789  1234  5678 D ActivityManager: anything", "true"},
+            {"10-17 12:34:56.789  1234  5678 D MyActivityManager: anything", "true"},
+            {"10-17 12:34:56.789  1234  5678 D ActivityManager : anything", "false"},
+            // literal anywhere after the timestamp
+            {"10-17 12:34:56.789  1234  5678 D other: has contained text in it", "true"},
+            // regexps, with and without a required literal
+            {"10-17 12:34:56.789  1234  5678 D other: Start proc 4011", "true"},
+            {"10-17 12:34:56.789  1234  5678 D other: Start proc 4012", "false"},
+            {"10-17 12:34:56.789  1234  5678 D other: ends 7 (later)", "true"},
+            {"10-17 12:34:56.789  1234  5678 D other: ends 7 (sooner)", "false"},
+            // no timestamp, never blacklisted
+            {"contained text", "false"},
+        };
+        for (String[] testCase : cases) {
+            line.set(testCase[0], tsParser);
+            assertEquals(testCase[0], Boolean.parseBoolean(testCase[1]), blackList.found(line));
+            // Also the same as running every regexp.
+            assertEquals(testCase[0], Boolean.parseBoolean(testCase[1]), blackList.found(testCase[0]));
+        }
+    }
+
+    @Test
+    public void literalsAndSuffixes() {
+        assertEquals("a.b$c", RegExpLiterals.getLiteral("a\\.b\\$c", 0, 7));
+        assertNull(RegExpLiterals.getLiteral("a.b", 0, 3));
+        assertNull(RegExpLiterals.getLiteral("a\\d", 0, 3));
+        assertNull(RegExpLiterals.getLiteral("a\\", 0, 2));
+        assertNull(RegExpLiterals.getLiteral("", 0, 0));
+
+        SuffixTrie trie = new SuffixTrie();
+        for (int index = 0; index < 1000; ++index) {
+            trie.add("line " + index, index);
+        }
+        trie.add("\u00e5\u00e4", 1000);
+        trie.add("line 7", 1001);  // already added
+        assertEquals(1001, trie.size());
+        assertEquals(999, trie.findSuffix("a line 999", 0, 10));
+        assertEquals(5, trie.findSuffix("xline 5", 0, 7));
+        assertEquals(SuffixTrie.NOT_FOUND, trie.findSuffix("xline 5", 2, 7));
+        assertEquals(SuffixTrie.NOT_FOUND, trie.findSuffix("line 1000", 0, 9));
+        assertEquals(1000, trie.findSuffix("x\u00e5\u00e4", 0, 3));
+    }
+
+    @Test
+    public void hitsCountedAndKept() {
+        BlackList blackList = new BlackList(new LogSource("blacklist", "cat"));
+        assertTrue(blackList.replaceBlackList(".*?proc [0-9]+1$\n.*?proc [0-9]+2$\n.*?never$"));
+
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        for (int index = 0; index < 300; ++index) {
+            line.set("10-17 12:34:56.789  1234  5678 D tag: proc " + index, tsParser);
+            blackList.found(line);
+        }
+        assertArrayEquals(new long[] {29, 29, 0}, blackList.getHits());
+
+        // Sorted by hits, still found the same.
+        for (int index = 0; index < 64 * 1024; ++index) {
+            line.set("10-17 12:34:56.789  1234  5678 D tag: proc 12", tsParser);
+            assertTrue(blackList.found(line));
+        }
+        line.set("10-17 12:34:56.789  1234  5678 D tag: proc 11", tsParser);
+        assertTrue(blackList.found(line));
+        assertArrayEquals(new long[] {30, 29 + 64 * 1024, 0}, blackList.getHits());
+        assertEquals(".*?proc [0-9]+1$\n.*?proc [0-9]+2$\n.*?never$", blackList.toString());
+
+        assertTrue(blackList.replaceBlackList(".*?proc [0-9]+2$\n.*?new$"));
+        assertArrayEquals(new long[] {29 + 64 * 1024, 0}, blackList.getHits());
+    }
+
+    @Test
+    public void tagVerdictsCachedUntilEdited() {
+        BlackList blackList = new BlackList(new LogSource("blacklist", "cat"));
+        assertTrue(blackList.add(LogSource.parseToLogTag(LINE)));
+
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        line.set(LINE, tsParser);
+        for (int index = 0; index < 3; ++index) {
+            assertTrue(blackList.found(line));
+        }
+        line.set("10-17 12:34:56.789  1234  5678 D WindowManager: Start proc 4012", tsParser);
+        assertFalse(blackList.found(line));
+
+        assertTrue(blackList.replaceBlackList(".*?WindowManager:"));
+        assertTrue(blackList.found(line));
+        line.set(LINE, tsParser);
+        assertFalse(blackList.found(line));
+        blackList.clear();
+        line.set("10-17 12:34:56.789  1234  5678 D WindowManager: Start proc 4012", tsParser);
+        assertFalse(blackList.found(line));
+    }
+
+    @Test
+    public void leastRecentlyUsedVerdictDropped() {
+        TagVerdictCache cache = new TagVerdictCache(3);
+        TimestampParser tsParser = new TimestampParser();
+        LogLine[] lines = new LogLine[4];
+        for (int index = 0; index < lines.length; ++index) {
+            lines[index] = new LogLine();
+            lines[index].set("10-17 12:34:56.789  1234  5678 D tag" + index + ": text", tsParser);
+            assertEquals(TagVerdictCache.NOT_CACHED, cache.get(lines[index], 0));
+        }
+        cache.put(lines[0], 0, 10);
+        cache.put(lines[1], 0, 11);
+        cache.put(lines[2], 0, 12);
+        assertEquals(10, cache.get(lines[0], 0));  // now the newest
+        assertEquals(TagVerdictCache.NOT_CACHED, cache.get(lines[0], 1));
+        cache.put(lines[3], 0, 13);  // drops tag1
+        assertEquals(3, cache.size());
+        assertEquals(TagVerdictCache.NOT_CACHED, cache.get(lines[1], 0));
+        assertEquals(10, cache.get(lines[0], 0));
+        assertEquals(12, cache.get(lines[2], 0));
+        assertEquals(13, cache.get(lines[3], 0));
+        cache.clear();
+        assertEquals(TagVerdictCache.NOT_CACHED, cache.get(lines[0], 0));
+    }
+}
@@ -30,11 +30,9 @@
 
 package logdog.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
+import logdog.utils.AdbClient;
 import logdog.utils.Logger;
 
 public class CpuGovernor {
@@ -60,12 +58,7 @@ public class CpuGovernor {
 
     public String getCrntGovernor() {
         try {
-            Runtime rt = Runtime.getRuntime();
-            String getGovernorsCommand = "adb shell cat " + GOVERNOR_PATH + GOVERNOR_CRNT_VALUE;
-            Process process = rt.exec(getGovernorsCommand);
-            InputStream stream = process.getInputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-            return reader.readLine();
+            return AdbClient.getDefault().shell("cat " + GOVERNOR_PATH + GOVERNOR_CRNT_VALUE);
         } catch (IOException excep) {
             Logger.logExcep(excep);
         }
@@ -75,13 +68,9 @@ public class CpuGovernor {
     public boolean populate() {
         boolean ret = false;
         try {
-            Runtime rt = Runtime.getRuntime();
-            String getGovernorsCommand = "adb shell cat " + GOVERNOR_PATH + GOVERNOR_AVAILABLE_VALUES;
-            Process process = rt.exec(getGovernorsCommand);
-            InputStream stream = process.getInputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-            String governors = reader.readLine();
-            if (governors != null) {
+            String governors =
+                AdbClient.getDefault().shell("cat " + GOVERNOR_PATH + GOVERNOR_AVAILABLE_VALUES).trim();
+            if (governors.length() > 0) {
                 mGovernors = governors.split(" ");
                 ret = true;
             }
@@ -93,10 +82,9 @@ public class CpuGovernor {
 
     public boolean setGovernor(String governor) {
         try {
-            Runtime rt = Runtime.getRuntime();
             String setGovernorCommand =
-                String.format("adb shell echo %s > " + GOVERNOR_PATH + GOVERNOR_CRNT_VALUE, governor);
-            rt.exec(setGovernorCommand);
+                String.format("echo %s > " + GOVERNOR_PATH + GOVERNOR_CRNT_VALUE, governor);
+            AdbClient.getDefault().shell(setGovernorCommand);
             Thread.sleep(1000);
             return governor.equals(getCrntGovernor());
         } catch (IOException excep) {
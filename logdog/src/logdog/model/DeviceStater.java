@@ -30,15 +30,21 @@
 
 package logdog.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
-import logdog.utils.Logger;
+import logdog.utils.AdbClient;
 
 /**
- * Class for polling the Android device state.
+ * Class for tracking the Android device state. The adb server tells
+ * us when devices are connected or change state, the kernel log
+ * property is polled while the device is available.
+ *
+ * The state and kernel log are those of the default device, see
+ * AdbClient.isDevice(). getSerials() gives all connected devices.
  *
  */
 public class DeviceStater extends Thread {
@@ -70,6 +76,12 @@ public class DeviceStater extends Thread {
     };
     private KERNEL_LOG mKernelLog = KERNEL_LOG.UNKNOWN;
 
+    // Serials of all devices ready for use, sorted.
+    private volatile List<String> mSerials = Collections.emptyList();
+
+    private final AdbClient mAdbClient;
+    private volatile AdbClient.DeviceTracker mTracker;
+
     public DEVICE_STATE getDeviceState() {
         return mDeviceState;
     }
@@ -78,42 +90,74 @@ public class DeviceStater extends Thread {
         return mKernelLog;
     }
 
+    public List<String> getSerials() {
+        return mSerials;
+    }
+
     public DeviceStater() {
+        this(AdbClient.getDefault());
+    }
+
+    public DeviceStater(AdbClient adbClient) {
+        mAdbClient = adbClient;
         setName("DeviceStater");
     }
 
-    private KERNEL_LOG getKernelLog(Runtime rt) throws IOException {
-        Process process = rt.exec("adb -d shell getprop sys.kernel.log");
-        InputStream stream = process.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-        String kernelLog = reader.readLine();
-        if (kernelLog != null) {
+    private KERNEL_LOG getKernelLog(AdbClient adbClient) {
+        try {
+            String kernelLog = adbClient.shell("getprop sys.kernel.log").trim();
             if (kernelLog.equals("logcat")) {
                 return KERNEL_LOG.LOGCAT;
             }
             if (kernelLog.equals("default")) {
                 return KERNEL_LOG.DEFAULT;
             }
+        } catch (IOException excep) {
+            // The device just went away.
         }
         return KERNEL_LOG.UNKNOWN;
+    }
 
+    private DEVICE_STATE getDeviceState(Map<String, String> devices) {
+        for (Map.Entry<String, String> entry : devices.entrySet()) {
+            if (mAdbClient.isDevice(entry.getKey()) &&
+                entry.getValue().equals(AdbClient.STATE_DEVICE)) {
+                return DEVICE_STATE.AVAILABLE;
+            }
+        }
+        return DEVICE_STATE.NOT_AVAILABLE;
     }
 
-    private DEVICE_STATE getDeviceState(Runtime rt) throws IOException {
-        // TODO? Consider replacing this with code from DDMS using a
-        // socket instead (openAdbConnection() in DeviceMonitor.java,
-        // initAdbSocketAddr() in AndroidDebugBridge.java etc).
-        Process process = rt.exec("adb -d get-state");
-        InputStream stream = process.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-        String deviceState = reader.readLine();
-        if (deviceState == null) {
-            return DEVICE_STATE.UNKNOWN;
+    private static List<String> getSerials(Map<String, String> devices) {
+        ArrayList<String> serials = new ArrayList<String>(devices.size());
+        for (Map.Entry<String, String> entry : devices.entrySet()) {
+            if (entry.getValue().equals(AdbClient.STATE_DEVICE)) {
+                serials.add(entry.getKey());
+            }
         }
-        if (deviceState.equals("device")) {
-            return DEVICE_STATE.AVAILABLE;
+        Collections.sort(serials);
+        return Collections.unmodifiableList(serials);
+    }
+
+    private void update(DEVICE_STATE newDeviceState, KERNEL_LOG kernelLog, List<String> serials) {
+        if (mListener != null &&
+            (newDeviceState != mDeviceState || kernelLog != mKernelLog ||
+             !serials.equals(mSerials))) {
+            mDeviceState = newDeviceState;
+            mKernelLog = kernelLog;
+            mSerials = serials;
+            mListener.onDeviceChanged(this);
+        }
+    }
+
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        // Make a blocking read of the device list return.
+        AdbClient.DeviceTracker tracker = mTracker;
+        if (tracker != null) {
+            tracker.close();
         }
-        return DEVICE_STATE.NOT_AVAILABLE;
     }
 
     @Override
@@ -122,28 +166,46 @@ public class DeviceStater extends Thread {
             mListener.onDeviceChanged(this);
         }
 
-        Runtime rt = Runtime.getRuntime();
         while (!isInterrupted()) {  // does not reset the interrupt flag
-            DEVICE_STATE newDeviceState = DEVICE_STATE.UNKNOWN;
-            KERNEL_LOG kernelLog = KERNEL_LOG.UNKNOWN;
             try {
-                Thread.sleep(POLL_INTERVAL_MS);
                 if (mListener == null) {
+                    Thread.sleep(POLL_INTERVAL_MS);
                     continue;
                 }
 
-                newDeviceState = getDeviceState(rt);
-                kernelLog = getKernelLog(rt);
+                mTracker = mAdbClient.trackDevices();
+                if (isInterrupted()) {
+                    break;  // interrupt() was called before mTracker was set
+                }
+                DEVICE_STATE deviceState = DEVICE_STATE.UNKNOWN;
+                List<String> serials = mSerials;
+                while (!isInterrupted()) {
+                    // Wakes up when the devices change or to poll the kernel log.
+                    Map<String, String> devices = mTracker.next(POLL_INTERVAL_MS);
+                    if (devices != null) {
+                        deviceState = getDeviceState(devices);
+                        serials = getSerials(devices);
+                    }
+                    KERNEL_LOG kernelLog = deviceState == DEVICE_STATE.AVAILABLE ?
+                        getKernelLog(mAdbClient) : KERNEL_LOG.UNKNOWN;
+                    update(deviceState, kernelLog, serials);
+                }
             } catch (IOException excep) {
-                Logger.logExcep(excep);
+                // The adb server is not running, try again later.
+                update(DEVICE_STATE.UNKNOWN, KERNEL_LOG.UNKNOWN, Collections.<String>emptyList());
+                try {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                } catch (InterruptedException interruptedExcep) {
+                    interrupt();
+                }
             } catch (InterruptedException excep) {
                 // This should take us out of the while loop.
+                interrupt();
             } finally {
-                if (mListener != null &&
-                    (newDeviceState != mDeviceState || kernelLog != mKernelLog)) {
-                    mDeviceState = newDeviceState;
-                    mKernelLog = kernelLog;
-                    mListener.onDeviceChanged(this);
+                AdbClient.DeviceTracker tracker = mTracker;
+                if (tracker != null) {
+                    tracker.close();
+                    mTracker = null;
                 }
             }
         }
@@ -30,9 +30,9 @@
 
 package logdog.model;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 import logdog.utils.Logger;
@@ -40,9 +40,12 @@ import logdog.view.UIUtils;
 
 public class FileDumper implements LogSourceListener {
 
+    private static final byte[] sLineSeparator = System.getProperty("line.separator").getBytes(LogLine.UTF8);
+
     private String mName;
     private File mFile;
-    private BufferedWriter mBufferedWriter;
+    // Lines are written as the UTF-8 bytes read from the log source.
+    private BufferedOutputStream mStream;
 
     public FileDumper(String name) {
         mName= name;
@@ -53,14 +56,13 @@ public class FileDumper implements LogSourceListener {
     }
 
     public boolean start() {
-        if (mBufferedWriter != null && !stop()) {
+        if (mStream != null && !stop()) {
             return false;
         }
 
         try {
             File file = mName == null ? mFile : UIUtils.getCurrentDirTimeStampedFile(mName);
-            FileWriter fileWriter = new FileWriter(file.getAbsolutePath());
-            mBufferedWriter = new BufferedWriter(fileWriter);
+            mStream = new BufferedOutputStream(new FileOutputStream(file.getAbsolutePath()));
         } catch (IOException excep) {
             Logger.logExcep(excep);
             return false;
@@ -70,10 +72,10 @@ public class FileDumper implements LogSourceListener {
     }
 
     public boolean stop() {
-        if (mBufferedWriter != null) {
+        if (mStream != null) {
             try {
-                mBufferedWriter.close();
-                mBufferedWriter = null;
+                mStream.close();
+                mStream = null;
             } catch (IOException excep) {
                 Logger.logExcep(excep);
                 return false;
@@ -83,17 +85,28 @@ public class FileDumper implements LogSourceListener {
     }
 
     public boolean isDumping() {
-        return mBufferedWriter != null;
+        return mStream != null;
+    }
+
+    public void writeLine(String line) {
+        if (mStream != null) {
+            try {
+                mStream.write(line.getBytes(LogLine.UTF8));
+                mStream.write(sLineSeparator);
+            } catch (IOException excep) {
+                Logger.logExcep(excep);
+            }
+        }
     }
 
 
     /* LogSourceListener */
 
-    public void onLogLine(String line) {
-        if (mBufferedWriter != null) {
+    public void onLogLine(LogLine line) {
+        if (mStream != null) {
             try {
-                mBufferedWriter.append(line);
-                mBufferedWriter.newLine();
+                line.writeTo(mStream);
+                mStream.write(sLineSeparator);
             } catch (IOException excep) {
                 Logger.logExcep(excep);
             }
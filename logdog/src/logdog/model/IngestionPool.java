@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads reading, filtering and dispatching log lines for all
+ * LogSources and LogcatMuxes on all devices. Threads are reused when
+ * LogSources are restarted and devices come and go instead of
+ * creating new ones each time.
+ *
+ * The stages block while waiting for lines so each running Task
+ * occupies one thread. Reading is done once per device by LogcatMux,
+ * not once per logcat buffer, which keeps the number of tasks down
+ * when watching many devices.
+ */
+final class IngestionPool {
+
+    private static final String POOL_THREAD_NAME = "logdog ingestion %d";
+
+    private static final ExecutorService sExecutor =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName(String.format(POOL_THREAD_NAME, mCount.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private IngestionPool() {
+    }
+
+    /**
+     * Run 'runnable' once on a pool thread.
+     *
+     * @param name Used as thread name while running.
+     * @param runnable
+     */
+    static void execute(String name, Runnable runnable) {
+        new Task(name, runnable).start();
+    }
+
+    /**
+     * A Runnable that can be started several times, each time on a
+     * pool thread, and that can be interrupted and joined like a
+     * Thread.
+     */
+    static class Task {
+        private final String mName;
+        private final Runnable mRunnable;
+        private volatile Thread mThread;
+        private volatile boolean mInterrupted;
+        private volatile CountDownLatch mExited;
+
+        /**
+         * Constructor.
+         *
+         * @param name Used as thread name while running.
+         * @param runnable
+         */
+        Task(String name, Runnable runnable) {
+            mName = name;
+            mRunnable = runnable;
+        }
+
+        void start() {
+            final CountDownLatch exited = new CountDownLatch(1);
+            mInterrupted = false;
+            mExited = exited;
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Thread thread = Thread.currentThread();
+                    String poolName = thread.getName();
+                    thread.setName(mName);
+                    Thread.interrupted();  // left over from a late interrupt()
+                    mThread = thread;
+                    if (mInterrupted) {
+                        thread.interrupt();  // interrupt() came before we got here
+                    }
+                    try {
+                        mRunnable.run();
+                    } finally {
+                        mThread = null;
+                        Thread.interrupted();  // don't pass it on to the next task
+                        thread.setName(poolName);
+                        exited.countDown();
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return true if started and not done yet.
+         */
+        boolean isAlive() {
+            CountDownLatch exited = mExited;
+            return exited != null && exited.getCount() > 0;
+        }
+
+        void interrupt() {
+            mInterrupted = true;
+            Thread thread = mThread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Wait for the task to be done.
+         *
+         * @param timeoutMs
+         *
+         * @return false on timeout.
+         */
+        boolean join(long timeoutMs) throws InterruptedException {
+            CountDownLatch exited = mExited;
+            return exited == null || exited.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits the bytes read from a log stream into lines without creating
+ * any objects per line. Data is read from a channel into one large
+ * buffer and lines are found by scanning for '\n' in place. Trailing
+ * '\r' characters are removed so "\r\n" and "\r\r\n" line endings
+ * from adb on some hosts are handled as well.
+ *
+ * Lines only containing ASCII characters, which is most of logcat
+ * output, are copied to the LogLine as is. Other lines are decoded as
+ * UTF-8 into a reused char buffer first.
+ *
+ * Not thread-safe, owned by the LogSource reader thread.
+ */
+class LineFramer implements LogLineReader {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    // Longer lines are split, must be smaller than BUFFER_SIZE.
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final ReadableByteChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final byte[] mBytes;
+    private int mStart;  // start of data not yet returned as a line
+    private int mScan;   // where to continue looking for '\n'
+    private int mEnd;    // end of data read
+    private boolean mEof;
+
+    // The current line.
+    private int mLineStart;
+    private int mLineEnd;
+    private boolean mLineAscii;
+
+    private final CharsetDecoder mDecoder;
+    private char[] mChars = new char[1024];
+
+    LineFramer(ReadableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    LineFramer(ReadableByteChannel channel, int bufferSize) {
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+        mBytes = mBuffer.array();
+        mDecoder = LogLine.UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Find the next line, reading from the channel if needed. The last
+     * line is returned even if it isn't terminated by '\n'.
+     *
+     * @return false if the end of the stream has been reached
+     *
+     * @throws IOException
+     */
+    @Override
+    public boolean nextLine() throws IOException {
+        int maxLineLength = Math.min(MAX_LINE_LENGTH, mBytes.length / 2);
+        while (true) {
+            for (int index = mScan; index < mEnd; ++index) {
+                if (mBytes[index] == '\n') {
+                    frame(mStart, index);
+                    mStart = mScan = index + 1;
+                    return true;
+                }
+            }
+            mScan = mEnd;
+
+            if (mEnd - mStart >= maxLineLength) {
+                frame(mStart, mStart + maxLineLength);
+                mStart += maxLineLength;
+                return true;
+            }
+            if (mEof && mEnd > mStart) {
+                frame(mStart, mEnd);
+                mStart = mEnd;
+                return true;
+            }
+            if (mEof) {
+                return false;
+            }
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        if (mEnd == mBytes.length) {
+            // Move the partial line to the start of the buffer.
+            int count = mEnd - mStart;
+            System.arraycopy(mBytes, mStart, mBytes, 0, count);
+            mScan -= mStart;
+            mStart = 0;
+            mEnd = count;
+        }
+        mBuffer.limit(mBytes.length);
+        mBuffer.position(mEnd);
+        int count = mChannel.read(mBuffer);  // blocks until data is available
+        if (count < 0) {
+            mEof = true;
+        } else {
+            mEnd += count;
+        }
+    }
+
+    private void frame(int start, int end) {
+        while (end > start && mBytes[end - 1] == '\r') {
+            --end;
+        }
+        int highBits = 0;
+        for (int index = start; index < end; ++index) {
+            highBits |= mBytes[index];
+        }
+        mLineStart = start;
+        mLineEnd = end;
+        mLineAscii = highBits >= 0;
+    }
+
+    /**
+     * Copy the current line to 'logLine' and parse its header.
+     *
+     * @param logLine
+     * @param tsParser Parser owned by the calling thread.
+     */
+    @Override
+    public void copyTo(LogLine logLine, TimestampParser tsParser) {
+        int count = mLineEnd - mLineStart;
+        if (mLineAscii) {
+            logLine.setAscii(mBytes, mLineStart, count, tsParser);
+            return;
+        }
+
+        // UTF-8 never gives more chars than bytes.
+        if (mChars.length < count) {
+            mChars = new char[Math.max(count, mChars.length * 2)];
+        }
+        ByteBuffer in = ByteBuffer.wrap(mBytes, mLineStart, count);
+        CharBuffer out = CharBuffer.wrap(mChars);
+        mDecoder.reset();
+        mDecoder.decode(in, out, true);
+        mDecoder.flush(out);
+        logLine.setChars(mBytes, mLineStart, count, mChars, out.position(), tsParser);
+    }
+}
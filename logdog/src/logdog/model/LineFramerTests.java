@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class LineFramerTests {
+
+    private TimestampParser mTsParser = new TimestampParser();
+
+    private ArrayList<String> frame(String text, int bufferSize) throws IOException {
+        byte[] bytes = text.getBytes(LogLine.UTF8);
+        LineFramer framer = new LineFramer(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                                           bufferSize);
+        ArrayList<String> lines = new ArrayList<String>();
+        LogLine line = new LogLine();
+        while (framer.nextLine()) {
+            framer.copyTo(line, mTsParser);
+            lines.add(line.getText());
+        }
+        return lines;
+    }
+
+    @Test
+    public void splitLinesWithAnyLineEnding() throws IOException {
+        ArrayList<String> lines = frame("first\nsecond\r\nthird\r\r\n\nlast", 1024);
+        assertEquals(5, lines.size());
+        assertEquals("first", lines.get(0));
+        assertEquals("second", lines.get(1));
+        assertEquals("third", lines.get(2));
+        assertEquals("", lines.get(3));
+        assertEquals("last", lines.get(4));
+    }
+
+    @Test
+    public void decodeNonAsciiLines() throws IOException {
+        ArrayList<String> lines = frame("10-17 12:34:56.789  1234  5678 I tag     : r\u00e4ksm\u00f6rg\u00e5s\n" +
+                                        "ascii\n", 1024);
+        assertEquals(2, lines.size());
+        assertEquals("10-17 12:34:56.789  1234  5678 I tag     : r\u00e4ksm\u00f6rg\u00e5s", lines.get(0));
+        assertEquals("ascii", lines.get(1));
+
+        LogLine line = new LogLine();
+        line.set(lines.get(0), mTsParser);
+        assertEquals("tag", line.getTag());
+        assertEquals('I', line.getLevel());
+    }
+
+    @Test
+    public void linesSpanningBufferRefills() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            text.append("line number ").append(i).append('\n');
+        }
+        ArrayList<String> lines = frame(text.toString(), 64);
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals("line number " + i, lines.get(i));
+        }
+    }
+
+    @Test
+    public void splitTooLongLines() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            text.append('x');
+        }
+        ArrayList<String> lines = frame(text.toString() + "\nnext\n", 64);
+        assertTrue(lines.size() > 2);
+        assertEquals("next", lines.get(lines.size() - 1));
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < lines.size() - 1; ++i) {
+            assertTrue(lines.get(i).length() < 64);
+            joined.append(lines.get(i));
+        }
+        assertEquals(text.toString(), joined.toString());
+    }
+}
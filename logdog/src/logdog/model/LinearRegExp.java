@@ -0,0 +1,1040 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.MatchResult;
+
+/**
+ * Regular expression matching in time linear in the length of the
+ * text, whatever the expression. java.util.regex backtracks, so a
+ * regexp like ".*?a.*?b.*?c" may try every way to split a long line
+ * that almost matches. Here the expression is compiled to a program
+ * for a Pike VM instead: all ways are followed at once, one step per
+ * char, in the order backtracking would try them. The match and its
+ * groups are therefore the ones Pattern would find. The arrays of the
+ * VM are kept per thread, see Scratch, so matching a line allocates
+ * nothing but the MatchResult.
+ *
+ * Only what LogLineMatchers use is supported: literals, escapes like
+ * \d \s \w, '.', classes with ranges, capturing and (?:) groups,
+ * alternation, greedy and lazy quantifiers, '^' and '$'. compile()
+ * gives null for anything else, e.g. back references, lookarounds,
+ * flags or possessive quantifiers, and the Pattern is used instead.
+ * Quantified groups that may match nothing, like "(a*)*" or
+ * "(.*?){1,2}", are not supported either: Pattern takes or skips their
+ * empty iterations in ways a Pike VM doesn't follow, which gives other
+ * groups. Nor are capturing groups inside a repeated part, other than
+ * the repeated group itself, like "((a){1,2}){1,2}" or "(?:(a))*":
+ * Pattern keeps what they captured in an iteration it backtracks out
+ * of.
+ */
+final class LinearRegExp {
+
+    // Instructions:
+    private static final int CHAR = 0;   // mArgs = the code point
+    private static final int ANY = 1;    // any char but a line terminator
+    private static final int CLASS = 2;  // mArgs = index in mClasses
+    private static final int MATCH = 3;
+    private static final int JMP = 4;    // mArgs = target
+    private static final int SPLIT = 5;  // mArgs = preferred target, mArgs2 = the other
+    private static final int SAVE = 6;   // mArgs = group start or end slot
+    private static final int BOL = 7;
+    private static final int EOL = 8;
+
+    private static final int MAX_PROGRAM_SIZE = 5000;
+    private static final int MAX_REPEAT = 1000;
+
+    private final int[] mOps;
+    private final int[] mArgs;
+    private final int[] mArgs2;
+    private final CharClass[] mClasses;
+    private final int mGroupCount;
+    private final int mSlotCount;
+    // lookingAt() is called for every line, from several threads.
+    private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(mOps.length, mSlotCount);
+        }
+    };
+
+    /**
+     * Thrown while compiling when the expression is not supported.
+     */
+    @SuppressWarnings("serial")
+    private static class UnsupportedException extends Exception {
+    }
+
+    private LinearRegExp(Program program, int groupCount) {
+        mOps = Arrays.copyOf(program.mOps, program.mSize);
+        mArgs = Arrays.copyOf(program.mArgs, program.mSize);
+        mArgs2 = Arrays.copyOf(program.mArgs2, program.mSize);
+        mClasses = program.mClasses.toArray(new CharClass[program.mClasses.size()]);
+        mGroupCount = groupCount;
+        mSlotCount = 2 * (groupCount + 1);
+    }
+
+    /**
+     * Compile 'regExp' if it is supported.
+     *
+     * @param regExp Must be a valid java.util.regex expression.
+     *
+     * @return null if 'regExp' is not supported.
+     */
+    static LinearRegExp compile(String regExp) {
+        try {
+            Parser parser = new Parser(regExp);
+            Node node = parser.parse();
+            Program program = new Program();
+            program.emit(SAVE, 0, 0);
+            node.emit(program);
+            program.emit(SAVE, 1, 0);
+            program.emit(MATCH, 0, 0);
+            return new LinearRegExp(program, parser.mGroupCount);
+        } catch (UnsupportedException excep) {
+            return null;
+        }
+    }
+
+    int getGroupCount() {
+        return mGroupCount;
+    }
+
+    /**
+     * Match the expression against text[start, end) starting at
+     * 'start', like Matcher.lookingAt() with the region set to [start,
+     * end).
+     *
+     * @param text
+     * @param start
+     * @param end
+     *
+     * @return null if there is no match.
+     */
+    MatchResult lookingAt(CharSequence text, int start, int end) {
+        Scratch scratch = mScratch.get();
+        Threads current = scratch.mCurrent;
+        Threads next = scratch.mNext;
+        int[] caps = scratch.mCaps;
+        Arrays.fill(caps, -1);
+        int[] matched = null;
+
+        current.clear();
+        addThread(current, 0, caps, text, start, start, end);
+        int pos = start;
+        while (current.mCount > 0) {
+            int cp = -1;
+            int nextPos = pos;
+            if (pos < end) {
+                char ch = text.charAt(pos);
+                cp = ch;
+                nextPos = pos + 1;
+                if (Character.isHighSurrogate(ch) && nextPos < end &&
+                    Character.isLowSurrogate(text.charAt(nextPos))) {
+                    cp = Character.toCodePoint(ch, text.charAt(nextPos));
+                    ++nextPos;
+                }
+            }
+
+            next.clear();
+            for (int index = 0; index < current.mCount; ++index) {
+                int pc = current.mPcs[index];
+                int op = mOps[pc];
+                if (op == MATCH) {
+                    // Threads after this one have lower priority.
+                    matched = Arrays.copyOfRange(current.mCaps, index * mSlotCount,
+                                                 (index + 1) * mSlotCount);
+                    break;
+                }
+                if (cp == -1) {
+                    continue;
+                }
+                boolean step;
+                if (op == CHAR) {
+                    step = cp == mArgs[pc];
+                } else if (op == ANY) {
+                    step = !isLineTerminator(cp);
+                } else {
+                    step = mClasses[mArgs[pc]].contains(cp);
+                }
+                if (step) {
+                    System.arraycopy(current.mCaps, index * mSlotCount, caps, 0, mSlotCount);
+                    addThread(next, pc + 1, caps, text, nextPos, start, end);
+                }
+            }
+
+            Threads swap = current;
+            current = next;
+            next = swap;
+            if (cp == -1) {
+                break;
+            }
+            pos = nextPos;
+        }
+        return matched != null ? new Result(text, matched, mGroupCount) : null;
+    }
+
+    /**
+     * Follow the instructions not consuming a char from 'pc' and add
+     * those that do, and MATCH, to 'list' in priority order.
+     */
+    private void addThread(Threads list, int pc, int[] caps, CharSequence text,
+                           int pos, int start, int end) {
+        if (list.mVisited[pc] == list.mGeneration) {
+            return;  // already reached by a thread with higher priority
+        }
+        list.mVisited[pc] = list.mGeneration;
+        switch (mOps[pc]) {
+        case JMP:
+            addThread(list, mArgs[pc], caps, text, pos, start, end);
+            break;
+        case SPLIT:
+            addThread(list, mArgs[pc], caps, text, pos, start, end);
+            addThread(list, mArgs2[pc], caps, text, pos, start, end);
+            break;
+        case SAVE:
+            int slot = mArgs[pc];
+            int old = caps[slot];
+            caps[slot] = pos;
+            addThread(list, pc + 1, caps, text, pos, start, end);
+            caps[slot] = old;
+            break;
+        case BOL:
+            if (pos == start) {
+                addThread(list, pc + 1, caps, text, pos, start, end);
+            }
+            break;
+        case EOL:
+            if (isEol(text, pos, end)) {
+                addThread(list, pc + 1, caps, text, pos, start, end);
+            }
+            break;
+        default:
+            System.arraycopy(caps, 0, list.mCaps, list.mCount * mSlotCount, mSlotCount);
+            list.mPcs[list.mCount++] = pc;
+            break;
+        }
+    }
+
+    private static boolean isLineTerminator(int cp) {
+        return cp == '\n' || cp == '\r' || cp == 0x85 || cp == 0x2028 || cp == 0x2029;
+    }
+
+    /**
+     * @return true if '$' matches at 'pos', i.e. at the end or before
+     *         a line terminator ending the text.
+     */
+    private static boolean isEol(CharSequence text, int pos, int end) {
+        if (pos == end) {
+            return true;
+        }
+        if (pos == end - 2) {
+            return text.charAt(pos) == '\r' && text.charAt(pos + 1) == '\n';
+        }
+        if (pos == end - 1) {
+            char ch = text.charAt(pos);
+            if (ch == '\n' && pos > 0 && text.charAt(pos - 1) == '\r') {
+                return false;  // between '\r' and '\n'
+            }
+            return isLineTerminator(ch);
+        }
+        return false;
+    }
+
+
+    /*------ Sub classes ------*/
+
+    /**
+     * The threads of one step of the Pike VM, in priority order.
+     */
+    private static final class Threads {
+        final int[] mPcs;
+        final int[] mCaps;  // mSlotCount per thread
+        int mCount;
+        final int[] mVisited;
+        int mGeneration;
+
+        Threads(int programSize, int slotCount) {
+            mPcs = new int[programSize];
+            mCaps = new int[programSize * slotCount];
+            mVisited = new int[programSize];
+        }
+
+        void clear() {
+            mCount = 0;
+            if (++mGeneration == 0) {  // wrapped, forget old generations
+                Arrays.fill(mVisited, 0);
+                mGeneration = 1;
+            }
+        }
+    }
+
+    /**
+     * What lookingAt() needs, per thread and sized for the program.
+     */
+    private static final class Scratch {
+        final Threads mCurrent;
+        final Threads mNext;
+        final int[] mCaps;
+
+        Scratch(int programSize, int slotCount) {
+            mCurrent = new Threads(programSize, slotCount);
+            mNext = new Threads(programSize, slotCount);
+            mCaps = new int[slotCount];
+        }
+    }
+
+    /**
+     * The result of lookingAt().
+     */
+    private static final class Result implements MatchResult {
+        private final CharSequence mText;
+        private final int[] mCaps;
+        private final int mGroupCount;
+
+        Result(CharSequence text, int[] caps, int groupCount) {
+            mText = text;
+            mCaps = caps;
+            mGroupCount = groupCount;
+        }
+
+        @Override
+        public int start() {
+            return start(0);
+        }
+
+        @Override
+        public int start(int group) {
+            checkGroup(group);
+            return mCaps[2 * group];
+        }
+
+        @Override
+        public int end() {
+            return end(0);
+        }
+
+        @Override
+        public int end(int group) {
+            checkGroup(group);
+            return mCaps[2 * group + 1];
+        }
+
+        @Override
+        public String group() {
+            return group(0);
+        }
+
+        @Override
+        public String group(int group) {
+            checkGroup(group);
+            int start = mCaps[2 * group];
+            int end = mCaps[2 * group + 1];
+            return start == -1 || end == -1 ? null : mText.subSequence(start, end).toString();
+        }
+
+        @Override
+        public int groupCount() {
+            return mGroupCount;
+        }
+
+        private void checkGroup(int group) {
+            if (group < 0 || group > mGroupCount) {
+                throw new IndexOutOfBoundsException("No group " + group);
+            }
+        }
+    }
+
+    /**
+     * A set of code points.
+     */
+    private static final class CharClass {
+        private static final int ASCII_COUNT = 128;
+
+        private final boolean[] mAscii = new boolean[ASCII_COUNT];
+        private final int[] mRanges;  // sorted, first and last of each range
+        private final boolean mNegated;
+
+        CharClass(ArrayList<int[]> ranges, boolean negated) {
+            mRanges = merge(ranges);
+            mNegated = negated;
+            for (int ch = 0; ch < ASCII_COUNT; ++ch) {
+                mAscii[ch] = inRanges(ch) != negated;
+            }
+        }
+
+        boolean contains(int cp) {
+            if (cp < ASCII_COUNT) {
+                return mAscii[cp];
+            }
+            return inRanges(cp) != mNegated;
+        }
+
+        /**
+         * @return The ranges of the code points not in this class.
+         */
+        ArrayList<int[]> getComplement() {
+            ArrayList<int[]> complement = new ArrayList<int[]>();
+            int next = 0;
+            for (int index = 0; index < mRanges.length; index += 2) {
+                if (mRanges[index] > next) {
+                    complement.add(new int[] {next, mRanges[index] - 1});
+                }
+                next = mRanges[index + 1] + 1;
+            }
+            if (next <= Character.MAX_CODE_POINT) {
+                complement.add(new int[] {next, Character.MAX_CODE_POINT});
+            }
+            return complement;
+        }
+
+        ArrayList<int[]> getRanges() {
+            if (mNegated) {
+                return getComplement();
+            }
+            ArrayList<int[]> ranges = new ArrayList<int[]>();
+            for (int index = 0; index < mRanges.length; index += 2) {
+                ranges.add(new int[] {mRanges[index], mRanges[index + 1]});
+            }
+            return ranges;
+        }
+
+        private boolean inRanges(int cp) {
+            int low = 0;
+            int high = mRanges.length / 2 - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (cp < mRanges[2 * mid]) {
+                    high = mid - 1;
+                } else if (cp > mRanges[2 * mid + 1]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] merge(ArrayList<int[]> ranges) {
+            int[][] sorted = ranges.toArray(new int[ranges.size()][]);
+            Arrays.sort(sorted, new java.util.Comparator<int[]>() {
+                @Override
+                public int compare(int[] lhs, int[] rhs) {
+                    return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+                }
+            });
+            int[] merged = new int[2 * sorted.length];
+            int count = 0;
+            for (int[] range : sorted) {
+                if (count > 0 && range[0] <= merged[count - 1] + 1) {
+                    merged[count - 1] = Math.max(merged[count - 1], range[1]);
+                } else {
+                    merged[count++] = range[0];
+                    merged[count++] = range[1];
+                }
+            }
+            return Arrays.copyOf(merged, count);
+        }
+    }
+
+    /**
+     * The program being compiled.
+     */
+    private static final class Program {
+        int[] mOps = new int[64];
+        int[] mArgs = new int[64];
+        int[] mArgs2 = new int[64];
+        int mSize;
+        final ArrayList<CharClass> mClasses = new ArrayList<CharClass>();
+
+        int emit(int op, int arg, int arg2) throws UnsupportedException {
+            if (mSize == MAX_PROGRAM_SIZE) {
+                throw new UnsupportedException();
+            }
+            if (mSize == mOps.length) {
+                mOps = Arrays.copyOf(mOps, 2 * mSize);
+                mArgs = Arrays.copyOf(mArgs, 2 * mSize);
+                mArgs2 = Arrays.copyOf(mArgs2, 2 * mSize);
+            }
+            mOps[mSize] = op;
+            mArgs[mSize] = arg;
+            mArgs2[mSize] = arg2;
+            return mSize++;
+        }
+
+        /**
+         * Emit a SPLIT to be patched by patchSplit() when the other
+         * target is known.
+         */
+        int emitSplit() throws UnsupportedException {
+            return emit(SPLIT, 0, 0);
+        }
+
+        /**
+         * @param pc A SPLIT.
+         * @param next The target when taking the loop or optional part.
+         * @param out The target when skipping it.
+         * @param greedy If true 'next' is preferred.
+         */
+        void patchSplit(int pc, int next, int out, boolean greedy) {
+            mArgs[pc] = greedy ? next : out;
+            mArgs2[pc] = greedy ? out : next;
+        }
+    }
+
+    /**
+     * A parsed part of the expression.
+     */
+    private abstract static class Node {
+        abstract void emit(Program program) throws UnsupportedException;
+
+        /**
+         * @return true if this may match without consuming a char.
+         */
+        abstract boolean canMatchEmpty();
+
+        /**
+         * @return true if this is or has a capturing group.
+         */
+        boolean hasGroup() {
+            return false;
+        }
+    }
+
+    private static final class CharNode extends Node {
+        private final int mCodePoint;
+
+        CharNode(int codePoint) {
+            mCodePoint = codePoint;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            program.emit(CHAR, mCodePoint, 0);
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            return false;
+        }
+    }
+
+    private static final class ClassNode extends Node {
+        private final CharClass mClass;
+
+        ClassNode(CharClass charClass) {
+            mClass = charClass;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            int index = program.mClasses.indexOf(mClass);
+            if (index == -1) {
+                index = program.mClasses.size();
+                program.mClasses.add(mClass);
+            }
+            program.emit(CLASS, index, 0);
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            return false;
+        }
+    }
+
+    /**
+     * An instruction without arguments: ANY, BOL or EOL.
+     */
+    private static final class OpNode extends Node {
+        private final int mOp;
+
+        OpNode(int op) {
+            mOp = op;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            program.emit(mOp, 0, 0);
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            return mOp != ANY;
+        }
+    }
+
+    private static final class CatNode extends Node {
+        private final ArrayList<Node> mNodes;
+
+        CatNode(ArrayList<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            for (Node node : mNodes) {
+                node.emit(program);
+            }
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            for (Node node : mNodes) {
+                if (!node.canMatchEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean hasGroup() {
+            for (Node node : mNodes) {
+                if (node.hasGroup()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class AltNode extends Node {
+        private final ArrayList<Node> mNodes;
+
+        AltNode(ArrayList<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            ArrayList<Integer> jumps = new ArrayList<Integer>();
+            for (int index = 0; index < mNodes.size(); ++index) {
+                if (index == mNodes.size() - 1) {
+                    mNodes.get(index).emit(program);
+                    break;
+                }
+                int split = program.emitSplit();
+                mNodes.get(index).emit(program);
+                jumps.add(program.emit(JMP, 0, 0));
+                program.patchSplit(split, split + 1, program.mSize, true);
+            }
+            for (int jump : jumps) {
+                program.mArgs[jump] = program.mSize;
+            }
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            for (Node node : mNodes) {
+                if (node.canMatchEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasGroup() {
+            for (Node node : mNodes) {
+                if (node.hasGroup()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class GroupNode extends Node {
+        private final int mGroup;
+        private final Node mNode;
+
+        GroupNode(int group, Node node) {
+            mGroup = group;
+            mNode = node;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            program.emit(SAVE, 2 * mGroup, 0);
+            mNode.emit(program);
+            program.emit(SAVE, 2 * mGroup + 1, 0);
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            return mNode.canMatchEmpty();
+        }
+
+        @Override
+        boolean hasGroup() {
+            return true;
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        private final Node mNode;
+        private final int mMin;
+        private final int mMax;  // -1 if no limit
+        private final boolean mGreedy;
+
+        RepeatNode(Node node, int min, int max, boolean greedy) {
+            mNode = node;
+            mMin = min;
+            mMax = max;
+            mGreedy = greedy;
+        }
+
+        @Override
+        void emit(Program program) throws UnsupportedException {
+            for (int count = 0; count < mMin; ++count) {
+                mNode.emit(program);
+            }
+            if (mMax == -1) {
+                // Loop back with a SPLIT rather than a JMP: if the loop
+                // is back where it started without consuming anything
+                // that thread dies, but like Pattern the iteration is
+                // still taken before leaving the loop.
+                int split = program.emitSplit();
+                mNode.emit(program);
+                int loop = program.emitSplit();
+                program.patchSplit(split, split + 1, program.mSize, mGreedy);
+                program.patchSplit(loop, split, program.mSize, mGreedy);
+                return;
+            }
+            // Each optional copy is skipped with the rest of them.
+            ArrayList<Integer> splits = new ArrayList<Integer>();
+            for (int count = mMin; count < mMax; ++count) {
+                splits.add(program.emitSplit());
+                mNode.emit(program);
+            }
+            for (int split : splits) {
+                program.patchSplit(split, split + 1, program.mSize, mGreedy);
+            }
+        }
+
+        @Override
+        boolean canMatchEmpty() {
+            return mMin == 0 || mNode.canMatchEmpty();
+        }
+
+        @Override
+        boolean hasGroup() {
+            return mNode.hasGroup();
+        }
+    }
+
+    /**
+     * Recursive descent parser of the supported syntax.
+     */
+    private static final class Parser {
+        private final String mRegExp;
+        private int mPos;
+        int mGroupCount;
+
+        Parser(String regExp) {
+            mRegExp = regExp;
+        }
+
+        Node parse() throws UnsupportedException {
+            Node node = parseAlternation();
+            if (mPos != mRegExp.length()) {
+                throw new UnsupportedException();  // unbalanced ')'
+            }
+            return node;
+        }
+
+        private boolean more() {
+            return mPos < mRegExp.length();
+        }
+
+        private char peek() {
+            return mRegExp.charAt(mPos);
+        }
+
+        private int nextCodePoint() throws UnsupportedException {
+            if (!more()) {
+                throw new UnsupportedException();
+            }
+            int cp = mRegExp.codePointAt(mPos);
+            mPos += Character.charCount(cp);
+            return cp;
+        }
+
+        private Node parseAlternation() throws UnsupportedException {
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            nodes.add(parseConcatenation());
+            while (more() && peek() == '|') {
+                ++mPos;
+                nodes.add(parseConcatenation());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new AltNode(nodes);
+        }
+
+        private Node parseConcatenation() throws UnsupportedException {
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            while (more() && peek() != '|' && peek() != ')') {
+                nodes.add(parseRepeat());
+            }
+            return new CatNode(nodes);
+        }
+
+        private Node parseRepeat() throws UnsupportedException {
+            Node node = parseAtom();
+            while (more()) {
+                int min;
+                int max;
+                char ch = peek();
+                if (ch == '?') {
+                    min = 0;
+                    max = 1;
+                } else if (ch == '*') {
+                    min = 0;
+                    max = -1;
+                } else if (ch == '+') {
+                    min = 1;
+                    max = -1;
+                } else if (ch == '{') {
+                    int close = mRegExp.indexOf('}', mPos);
+                    if (close == -1) {
+                        throw new UnsupportedException();
+                    }
+                    String[] bounds = mRegExp.substring(mPos + 1, close).split(",", -1);
+                    if (bounds.length > 2) {
+                        throw new UnsupportedException();
+                    }
+                    min = parseBound(bounds[0]);
+                    max = bounds.length == 1 ? min :
+                        (bounds[1].length() == 0 ? -1 : parseBound(bounds[1]));
+                    if (max != -1 && max < min) {
+                        throw new UnsupportedException();
+                    }
+                    mPos = close;
+                } else {
+                    break;
+                }
+                ++mPos;
+
+                boolean greedy = true;
+                if (more() && peek() == '?') {
+                    greedy = false;
+                    ++mPos;
+                } else if (more() && peek() == '+') {
+                    throw new UnsupportedException();  // possessive
+                }
+                if (min != 1 || max != 1) {
+                    // See the class doc.
+                    Node body = node instanceof GroupNode ? ((GroupNode) node).mNode : node;
+                    if (node.canMatchEmpty() || body.hasGroup()) {
+                        throw new UnsupportedException();
+                    }
+                }
+                node = new RepeatNode(node, min, max, greedy);
+            }
+            return node;
+        }
+
+        private static int parseBound(String bound) throws UnsupportedException {
+            if (bound.length() == 0 || bound.length() > 4) {
+                throw new UnsupportedException();
+            }
+            for (int index = 0; index < bound.length(); ++index) {
+                if (!Character.isDigit(bound.charAt(index)) || bound.charAt(index) > '9') {
+                    throw new UnsupportedException();
+                }
+            }
+            int value = Integer.parseInt(bound);
+            if (value > MAX_REPEAT) {
+                throw new UnsupportedException();
+            }
+            return value;
+        }
+
+        private Node parseAtom() throws UnsupportedException {
+            char ch = peek();
+            switch (ch) {
+            case '(':
+                ++mPos;
+                int group = -1;
+                if (more() && peek() == '?') {
+                    if (!mRegExp.startsWith("?:", mPos)) {
+                        throw new UnsupportedException();  // lookaround, flags etc.
+                    }
+                    mPos += 2;
+                } else {
+                    group = ++mGroupCount;
+                }
+                Node node = parseAlternation();
+                if (!more() || peek() != ')') {
+                    throw new UnsupportedException();
+                }
+                ++mPos;
+                return group == -1 ? node : new GroupNode(group, node);
+            case '[':
+                ++mPos;
+                return new ClassNode(parseClass());
+            case '.':
+                ++mPos;
+                return new OpNode(ANY);
+            case '^':
+                ++mPos;
+                return new OpNode(BOL);
+            case '$':
+                ++mPos;
+                return new OpNode(EOL);
+            case '\\':
+                ++mPos;
+                char escaped = (char) nextCodePoint();
+                CharClass charClass = getEscapeClass(escaped);
+                if (charClass != null) {
+                    return new ClassNode(charClass);
+                }
+                return new CharNode(getEscapedChar(escaped));
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new UnsupportedException();
+            default:
+                return new CharNode(nextCodePoint());
+            }
+        }
+
+        private CharClass parseClass() throws UnsupportedException {
+            boolean negated = false;
+            if (more() && peek() == '^') {
+                negated = true;
+                ++mPos;
+            }
+            if (more() && peek() == ']') {
+                throw new UnsupportedException();
+            }
+            ArrayList<int[]> ranges = new ArrayList<int[]>();
+            while (true) {
+                if (!more()) {
+                    throw new UnsupportedException();
+                }
+                char ch = peek();
+                if (ch == ']') {
+                    ++mPos;
+                    break;
+                }
+                if (ch == '[' || mRegExp.startsWith("&&", mPos)) {
+                    throw new UnsupportedException();  // union or intersection
+                }
+                int first;
+                if (ch == '\\') {
+                    ++mPos;
+                    char escaped = (char) nextCodePoint();
+                    CharClass charClass = getEscapeClass(escaped);
+                    if (charClass != null) {
+                        ranges.addAll(charClass.getRanges());
+                        continue;
+                    }
+                    first = getEscapedChar(escaped);
+                } else {
+                    first = nextCodePoint();
+                }
+                int last = first;
+                if (mRegExp.startsWith("-", mPos) && mPos + 1 < mRegExp.length() &&
+                    mRegExp.charAt(mPos + 1) != ']') {
+                    ++mPos;
+                    if (peek() == '[') {
+                        throw new UnsupportedException();
+                    }
+                    if (peek() == '\\') {
+                        ++mPos;
+                        char escaped = (char) nextCodePoint();
+                        if (getEscapeClass(escaped) != null) {
+                            throw new UnsupportedException();
+                        }
+                        last = getEscapedChar(escaped);
+                    } else {
+                        last = nextCodePoint();
+                    }
+                    if (last < first) {
+                        throw new UnsupportedException();
+                    }
+                }
+                ranges.add(new int[] {first, last});
+            }
+            return new CharClass(ranges, negated);
+        }
+
+        /**
+         * @return The class of an escape like \d, or null if 'escaped'
+         *         is not one.
+         */
+        private static CharClass getEscapeClass(char escaped) {
+            ArrayList<int[]> ranges = new ArrayList<int[]>();
+            switch (Character.toLowerCase(escaped)) {
+            case 'd':
+                ranges.add(new int[] {'0', '9'});
+                break;
+            case 's':
+                ranges.add(new int[] {'\t', '\r'});  // \t \n \x0B \f \r
+                ranges.add(new int[] {' ', ' '});
+                break;
+            case 'w':
+                ranges.add(new int[] {'0', '9'});
+                ranges.add(new int[] {'A', 'Z'});
+                ranges.add(new int[] {'_', '_'});
+                ranges.add(new int[] {'a', 'z'});
+                break;
+            default:
+                return null;
+            }
+            return new CharClass(ranges, Character.isUpperCase(escaped));
+        }
+
+        private static int getEscapedChar(char escaped) throws UnsupportedException {
+            switch (escaped) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            default:
+                if (escaped < 128 && !Character.isLetterOrDigit(escaped)) {
+                    return escaped;
+                }
+                throw new UnsupportedException();  // \b, \Q, \x, \p, back references etc.
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+public class LinearRegExpTests {
+
+    private static final String[] REGEXPS = {
+        ".*?GC_CONCURRENT freed ([0-9].*?)K, .*?$",
+        "()I/(\\w+)\\s*\\(\\s*(\\d+)\\): (.*)",
+        ".*?(a|ab)(c|bcd)(d*)",
+        ".*?value\\[([0-9]+)\\] ([-+]?[0-9]*\\.?[0-9]+)",
+        "(x+x+)+y",
+        ".*(\\d{2,3}?)(\\d*)",
+        "(?:ab|a)*?b",
+        "([^ :]+)\\s*: ([a-f0-9]{4})?.*?$",
+        "[\\w-]+ \\S+ [^\\d\\s]?",
+        "^.{3}(.)",
+        ".*?\\.$",
+        "(.+?){1,2}$",
+        "(a|b?c)*d",
+    };
+
+    private static final String[] TEXTS = {
+        "D/dalvikvm( 1234): GC_CONCURRENT freed 1234K, 45% free 1234K/5678K",
+        "I/ActivityManager(  456): Start proc com.foo for activity",
+        "abcd",
+        "xabcdd",
+        "tag: value[42] -12.5 end",
+        "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx",
+        "xxxxy",
+        "12345",
+        "aabab",
+        "my-tag foo! bar",
+        "abcdef\n",
+        "bab",
+        "ends with a dot.",
+        "cc",
+        "abccd",
+        "\u00e5\u00e4\u00f6 \ud83d\ude00 : beef",
+        "",
+    };
+
+    private static void assertSameMatch(String regExp, String text) {
+        LinearRegExp linear = LinearRegExp.compile(regExp);
+        assertNotNull(regExp, linear);
+        Matcher matcher = Pattern.compile(regExp).matcher(text);
+        MatchResult result = linear.lookingAt(text, 0, text.length());
+        String message = regExp + " on '" + text + "'";
+        if (!matcher.lookingAt()) {
+            assertNull(message, result);
+            return;
+        }
+        assertNotNull(message, result);
+        assertEquals(message, matcher.groupCount(), result.groupCount());
+        for (int group = 0; group <= matcher.groupCount(); ++group) {
+            assertEquals(message + " group " + group, matcher.group(group), result.group(group));
+            assertEquals(message + " group " + group, matcher.start(group), result.start(group));
+        }
+    }
+
+    @Test
+    public void sameMatchesAsPattern() {
+        for (String regExp : REGEXPS) {
+            for (String text : TEXTS) {
+                assertSameMatch(regExp, text);
+            }
+        }
+    }
+
+    @Test
+    public void matchInRegion() {
+        String text = "10-17 12:34:56.789  1234  5678 D tag     : value 12";
+        LinearRegExp linear = LinearRegExp.compile("^()\\s+(\\d+).*?value (\\d+)$");
+        MatchResult result = linear.lookingAt(text, 18, text.length());
+        assertNotNull(result);
+        assertEquals("1234", result.group(2));
+        assertEquals("12", result.group(3));
+        assertNull(linear.lookingAt(text, 0, text.length()));
+        assertEquals("1", linear.lookingAt(text, 18, text.length() - 1).group(3));
+    }
+
+    @Test
+    public void unsupportedGiveNull() {
+        assertNull(LinearRegExp.compile("(a)\\1"));
+        assertNull(LinearRegExp.compile("(?i)abc"));
+        assertNull(LinearRegExp.compile("a(?=b)"));
+        assertNull(LinearRegExp.compile("a*+"));
+        assertNull(LinearRegExp.compile("\\bword\\b"));
+        assertNull(LinearRegExp.compile("[a-z&&[^e]]"));
+        assertNull(LinearRegExp.compile("(a{1000}){1000}"));
+        assertNotNull(LinearRegExp.compile("a{2,5}?[-a-z\\]]"));
+    }
+
+    @Test
+    public void quantifiedEmptyGroupsLeftToPattern() {
+        // "(.*?){1,2}$" on "cc" gives group 1 at 1 with Pattern but
+        // a Pike VM would give 0, the empty iteration is taken first.
+        Matcher matcher = Pattern.compile("(.*?){1,2}$").matcher("cc");
+        assertTrue(matcher.lookingAt());
+        assertEquals(1, matcher.start(1));
+        assertNull(LinearRegExp.compile("(.*?){1,2}$"));
+        assertNull(LinearRegExp.compile("(a*)*"));
+        assertNull(LinearRegExp.compile("(?:x?)+y"));
+        assertNull(LinearRegExp.compile("(^|b)+"));
+        assertNotNull(LinearRegExp.compile("(.*?)$"));
+        assertSameMatch("(.+?){1,2}$", "cc");
+    }
+
+    @Test
+    public void groupsInRepeatedPartsLeftToPattern() {
+        // Pattern gives group 2 at 1..2, the iteration at 2..3 is
+        // backtracked out of but what it captured is kept.
+        Matcher matcher = Pattern.compile("((a){1,2}){1,2}").matcher("aaa");
+        assertTrue(matcher.lookingAt());
+        assertEquals(1, matcher.start(2));
+        assertNull(LinearRegExp.compile("((a){1,2}){1,2}"));
+        assertNull(LinearRegExp.compile("(?:(a))*a+$"));
+        assertNull(LinearRegExp.compile("(a|(b))+"));
+        assertSameMatch("(a){1,2}", "aaa");
+        assertSameMatch("(x+x+)+y", "xxxy");
+        assertSameMatch("((a{1,2}){1,2})", "aaa");
+    }
+
+    @Test
+    public void linearTime() {
+        // Takes Pattern exponential time.
+        StringBuilder text = new StringBuilder();
+        for (int index = 0; index < 5000; ++index) {
+            text.append('x');
+        }
+        LinearRegExp linear = LinearRegExp.compile("(x+x+)+y");
+        long start = System.currentTimeMillis();
+        assertNull(linear.lookingAt(text, 0, text.length()));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+}
@@ -0,0 +1,490 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.MatchResult;
+
+/**
+ * A log line together with the fields parsed from its '-v threadtime'
+ * header:
+ *
+ *   "MM-dd HH:mm:ss.SSS  pid  tid L tag     : message"
+ *
+ * The header is parsed once by the LogSource reader loop and the
+ * result is handed to all LogSourceListeners. The LogSource reuses
+ * the same LogLine object for every line so listeners must not keep a
+ * reference to it, use getText() to keep the line.
+ *
+ * The line is kept as the UTF-8 bytes read from the log source and
+ * this class is a CharSequence view over them, so matching and
+ * filtering don't need a String. For lines that aren't pure ASCII the
+ * decoded characters are kept as well. A String is only created when
+ * getText() is called.
+ */
+public class LogLine implements CharSequence {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Length of the "MM-dd HH:mm:ss.SSS" timestamp starting each line.
+    static final int TIMESTAMP_LEN = 18;
+    // Where the level is with '-threadtime' and 5 digit pids and tids.
+    private static final int THREADTIME_LEVEL_INDEX = 31;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] mBytes = new byte[INITIAL_CAPACITY];
+    private int mByteCount;
+    // If false the characters are in mChars, else each byte is a character.
+    private boolean mAscii = true;
+    private char[] mChars;
+    private int mLength;
+    private String mText;  // created on demand
+
+    private long mMillis;
+    private int mNanos;
+    private int mPid;
+    private int mTid;
+    private char mLevel;
+    private int mTagStart;
+    private int mTagEnd;
+    private int mMsgStart;
+    private int mBufferId;
+
+    // The matches of the trigger LogLineMatchers, found on the filter
+    // thread and reused on the Dispatcher thread, see
+    // LogLineMatcherEngine.getTriggerType(). Only valid for the
+    // snapshot in mTriggerKey.
+    private Object mTriggerKey;
+    private MatchResult[] mTriggerMatches = new MatchResult[0];
+
+    public LogLine() {
+        clearHeader();
+    }
+
+    /**
+     * Set the text of this line and parse its header. Lines not
+     * having a threadtime header (e.g. "--------- beginning of main")
+     * are kept but hasHeader() will return false.
+     *
+     * @param text
+     * @param tsParser Parser owned by the calling thread.
+     */
+    void set(String text, TimestampParser tsParser) {
+        byte[] bytes = text.getBytes(UTF8);
+        if (bytes.length == text.length()) {
+            setAscii(bytes, 0, bytes.length, tsParser);
+        } else {
+            char[] chars = text.toCharArray();
+            setChars(bytes, 0, bytes.length, chars, chars.length, tsParser);
+        }
+        mText = text;
+    }
+
+    /**
+     * Set the content of this line from bytes only containing ASCII
+     * characters and parse its header.
+     *
+     * @param bytes
+     * @param offset
+     * @param count
+     * @param tsParser Parser owned by the calling thread or null if
+     *                 the header is set with setHeader() instead.
+     */
+    void setAscii(byte[] bytes, int offset, int count, TimestampParser tsParser) {
+        copyBytes(bytes, offset, count);
+        mAscii = true;
+        mLength = count;
+        mText = null;
+        parseHeader(tsParser);
+    }
+
+    /**
+     * Set the content of this line from UTF-8 bytes and the characters
+     * decoded from them and parse its header.
+     *
+     * @param bytes
+     * @param offset
+     * @param count
+     * @param chars
+     * @param charCount
+     * @param tsParser Parser owned by the calling thread or null if
+     *                 the header is set with setHeader() instead.
+     */
+    void setChars(byte[] bytes, int offset, int count, char[] chars, int charCount,
+                  TimestampParser tsParser) {
+        copyBytes(bytes, offset, count);
+        if (mChars == null || mChars.length < charCount) {
+            mChars = new char[Math.max(charCount, INITIAL_CAPACITY)];
+        }
+        System.arraycopy(chars, 0, mChars, 0, charCount);
+        mAscii = false;
+        mLength = charCount;
+        mText = null;
+        parseHeader(tsParser);
+    }
+
+    private void copyBytes(byte[] bytes, int offset, int count) {
+        if (mBytes.length < count) {
+            mBytes = new byte[Math.max(count, mBytes.length * 2)];
+        }
+        System.arraycopy(bytes, offset, mBytes, 0, count);
+        mByteCount = count;
+    }
+
+    /**
+     * Write the line as UTF-8 without creating a String.
+     *
+     * @param stream
+     *
+     * @throws IOException
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        stream.write(mBytes, 0, mByteCount);
+    }
+
+    /**
+     * Put the first 'count' UTF-8 bytes of the line in 'buffer'.
+     *
+     * @param buffer
+     * @param count At most getByteCount().
+     */
+    void writeTo(ByteBuffer buffer, int count) {
+        buffer.put(mBytes, 0, count);
+    }
+
+    int getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Set the header fields directly, used when they are known
+     * without parsing the text e.g. when decoding binary logcat.
+     *
+     * @param millis
+     * @param nanos Nanoseconds within the second.
+     * @param pid
+     * @param tid
+     * @param level
+     * @param tagStart
+     * @param tagEnd
+     * @param msgStart
+     */
+    void setHeader(long millis, int nanos, int pid, int tid, char level,
+                   int tagStart, int tagEnd, int msgStart) {
+        mMillis = millis;
+        mNanos = nanos;
+        mPid = pid;
+        mTid = tid;
+        mLevel = level;
+        mTagStart = tagStart;
+        mTagEnd = tagEnd;
+        mMsgStart = msgStart;
+    }
+
+    /**
+     * Set the logcat buffer the line was read from, see LogcatMux.
+     *
+     * @param bufferId
+     */
+    void setBufferId(int bufferId) {
+        mBufferId = bufferId;
+    }
+
+    /**
+     * Make this line a copy of 'other'.
+     *
+     * @param other
+     */
+    void copyFrom(LogLine other) {
+        copyBytes(other.mBytes, 0, other.mByteCount);
+        mAscii = other.mAscii;
+        if (!mAscii) {
+            if (mChars == null || mChars.length < other.mLength) {
+                mChars = new char[Math.max(other.mLength, INITIAL_CAPACITY)];
+            }
+            System.arraycopy(other.mChars, 0, mChars, 0, other.mLength);
+        }
+        mLength = other.mLength;
+        mText = other.mText;
+        mMillis = other.mMillis;
+        mNanos = other.mNanos;
+        mPid = other.mPid;
+        mTid = other.mTid;
+        mLevel = other.mLevel;
+        mTagStart = other.mTagStart;
+        mTagEnd = other.mTagEnd;
+        mMsgStart = other.mMsgStart;
+        mBufferId = other.mBufferId;
+        mTriggerKey = null;
+    }
+
+    private void clearHeader() {
+        mTriggerKey = null;
+        mMillis = -1;
+        mNanos = 0;
+        mPid = -1;
+        mTid = -1;
+        mLevel = 0;
+        mTagStart = -1;
+        mTagEnd = -1;
+        mMsgStart = -1;
+        mBufferId = -1;
+    }
+
+    private void parseHeader(TimestampParser tsParser) {
+        clearHeader();
+        if (tsParser == null || !hasTimestamp(this)) {
+            return;
+        }
+        mMillis = tsParser.parse(this);
+        if (mMillis == -1) {
+            return;
+        }
+        mNanos = (int) (mMillis % 1000) * 1000000;
+        if (!parseFields(this)) {
+            // Keep the timestamp, the rest is unknown.
+            long millis = mMillis;
+            int nanos = mNanos;
+            clearHeader();
+            mMillis = millis;
+            mNanos = nanos;
+        }
+    }
+
+    /**
+     * Parse everything in the header of 'text' except the timestamp.
+     */
+    private boolean parseFields(CharSequence text) {
+        int len = text.length();
+        if (!hasTimestamp(text)) {
+            return false;
+        }
+
+        // The pid and tid are right aligned with a width of 5 but
+        // may be wider so we can't use fixed positions.
+        int index = skipSpaces(text, TIMESTAMP_LEN, len);
+        int start = index;
+        int pid = 0;
+        for (; index < len && isDigit(text.charAt(index)); ++index) {
+            pid = pid * 10 + (text.charAt(index) - '0');
+        }
+        if (index == start) {
+            return false;
+        }
+        mPid = pid;
+
+        index = skipSpaces(text, index, len);
+        start = index;
+        int tid = 0;
+        for (; index < len && isDigit(text.charAt(index)); ++index) {
+            tid = tid * 10 + (text.charAt(index) - '0');
+        }
+        if (index == start) {
+            return false;
+        }
+        mTid = tid;
+
+        index = skipSpaces(text, index, len);
+        if (index + 1 >= len || text.charAt(index + 1) != ' ') {
+            return false;
+        }
+        mLevel = text.charAt(index);
+
+        // The tag is left aligned and padded with spaces up to a
+        // width of 8 followed by ':'.
+        mTagStart = index + 2;
+        int colon = mTagStart;
+        while (colon < len && text.charAt(colon) != ':') {
+            ++colon;
+        }
+        if (colon == len) {
+            return false;
+        }
+        int tagEnd = colon;
+        while (tagEnd > mTagStart && text.charAt(tagEnd - 1) == ' ') {
+            --tagEnd;
+        }
+        mTagEnd = tagEnd;
+        mMsgStart = colon + 1;
+        if (mMsgStart < len && text.charAt(mMsgStart) == ' ') {
+            ++mMsgStart;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static int skipDigits(CharSequence text, int index, int len) {
+        while (index < len && isDigit(text.charAt(index))) {
+            ++index;
+        }
+        return index;
+    }
+
+    private static int skipSpaces(CharSequence text, int index, int len) {
+        while (index < len && text.charAt(index) == ' ') {
+            ++index;
+        }
+        return index;
+    }
+
+    /**
+     * Quick check that 'text' starts with something looking like
+     * "MM-dd HH:mm:ss.SSS".
+     */
+    static boolean hasTimestamp(CharSequence text) {
+        return text.length() > TIMESTAMP_LEN &&
+            isDigit(text.charAt(0)) && text.charAt(2) == '-' &&
+            text.charAt(5) == ' ' && text.charAt(8) == ':' &&
+            text.charAt(11) == ':' && text.charAt(14) == '.' &&
+            isDigit(text.charAt(17));
+    }
+
+    /**
+     * Get the level character from a stored log line, used when the
+     * parsed LogLine is no longer available e.g. when painting the
+     * log view so nothing is allocated. Only the pid and tid are
+     * skipped, the rest of the header needn't be valid.
+     *
+     * @param text
+     *
+     * @return the level character, the character at the threadtime
+     * level position if the pid and tid can't be skipped or 0 if the
+     * line is too short.
+     */
+    static char parseLevel(CharSequence text) {
+        int len = text.length();
+        if (hasTimestamp(text)) {
+            int index = skipSpaces(text, TIMESTAMP_LEN, len);
+            int start = index;
+            index = skipDigits(text, index, len);
+            if (index > start) {
+                index = skipSpaces(text, index, len);
+                start = index;
+                index = skipDigits(text, index, len);
+                if (index > start) {
+                    index = skipSpaces(text, index, len);
+                    if (index + 1 < len && text.charAt(index + 1) == ' ') {
+                        return text.charAt(index);
+                    }
+                }
+            }
+        }
+        return len > THREADTIME_LEVEL_INDEX ? text.charAt(THREADTIME_LEVEL_INDEX) : 0;
+    }
+
+    /**
+     * Get the line as a String. The String is created on the first
+     * call for each line.
+     */
+    public String getText() {
+        if (mText == null) {
+            mText = mAscii ?
+                new String(mBytes, 0, mLength, UTF8) :
+                new String(mChars, 0, mLength);
+        }
+        return mText;
+    }
+
+    public boolean hasHeader() {return mMillis != -1;}
+    // Milliseconds since the epoch or -1 if the timestamp is missing.
+    public long getMillis() {return mMillis;}
+    // Nanoseconds within the second, full precision only for binary logcat.
+    public int getNanos() {return mNanos;}
+    public int getPid() {return mPid;}
+    public int getTid() {return mTid;}
+    public char getLevel() {return mLevel;}
+    public int getTagStart() {return mTagStart;}
+    public int getTagEnd() {return mTagEnd;}
+    public int getMsgStart() {return mMsgStart;}
+    // The logcat buffer id (LogcatMux.LOG_ID_*) or -1 if not known.
+    public int getBufferId() {return mBufferId;}
+
+    /**
+     * Forget the trigger matches of this line and make room for new
+     * ones.
+     *
+     * @param key The snapshot the matches are for.
+     * @param count
+     *
+     * @return Array of at least 'count' nulls to put the matches in.
+     */
+    MatchResult[] resetTriggerMatches(Object key, int count) {
+        if (mTriggerMatches.length < count) {
+            mTriggerMatches = new MatchResult[count];
+        } else {
+            Arrays.fill(mTriggerMatches, 0, count, null);
+        }
+        mTriggerKey = key;
+        return mTriggerMatches;
+    }
+
+    Object getTriggerKey() {return mTriggerKey;}
+    MatchResult getTriggerMatch(int index) {return mTriggerMatches[index];}
+
+    public String getTag() {
+        return mTagStart != -1 ? getText().substring(mTagStart, mTagEnd) : null;
+    }
+
+    public String getMessage() {
+        return mMsgStart != -1 ? getText().substring(mMsgStart) : getText();
+    }
+
+
+    // CharSequence
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mAscii ? (char) mBytes[index] : mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getText().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
@@ -36,11 +36,11 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.regex.Matcher;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import logdog.Prefs;
 import logdog.model.LogSourceTriggerList.Type;
 import logdog.utils.Logger;
 import logdog.utils.Utils;
@@ -163,9 +163,14 @@ public class LogLineMatcher implements LogSourceListener {
     private LogSource mSource;
     private String mRegExp;
     private Pattern mPattern;
+    // Used instead of mPattern if the linear regexp preference is set
+    // and the regexp is supported, see LinearRegExp:
+    private LinearRegExp mLinearRegExp;
     private Groups mGroups;
     private int mPresentationId;
     private LogSourceTriggerList.Type mTriggerType = LogSourceTriggerList.Type.None;
+    // Shared with the copies made by createForDevice():
+    private LogLineMatcherProfile mProfile = new LogLineMatcherProfile();
 
     /* Members used while editing this LogLineMatcher. */
     private enum EDITMODE {
@@ -185,7 +190,11 @@ public class LogLineMatcher implements LogSourceListener {
     private int mPresentationId_Edit;
     private LogSourceTriggerList.Type mTriggerType_Edit = LogSourceTriggerList.Type.None;
 
-    private Date mPrevTimeDiffDate;  // only used when mTimeDiff is true
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private long mPrevTimeDiffMillis = NO_TIME;  // only used when mTimeDiff is true
+
+    // Given by the LogLineMatcherManager when registered, see MatchBatch:
+    private int mId = -1;
 
     void setModified() {
         mEditMode = EDITMODE.MODIFIED;
@@ -220,6 +229,9 @@ public class LogLineMatcher implements LogSourceListener {
     public String getRegExp() {return mRegExp;};
     public Groups getGroups() {return mGroups;};
     public int getPresentationId() {return mPresentationId;};
+    public LogLineMatcherProfile getProfile() {return mProfile;};
+    public int getId() {return mId;};
+    void setId(int id) {mId = id;};
     public String getTriggerTypeAsString() {
         return mTriggerType.toString();
     }
@@ -276,7 +288,7 @@ public class LogLineMatcher implements LogSourceListener {
     }
 
     public void clearState() {
-        mPrevTimeDiffDate = null;
+        mPrevTimeDiffMillis = NO_TIME;
         if (mGroups != null) {
             for (int index = 0; index < mGroups.size(); ++index) {
                 mGroups.get(index).clearState();
@@ -370,7 +382,12 @@ public class LogLineMatcher implements LogSourceListener {
         // The compiled regexp will be prepended with the timestamp
         // expression. Because of this we must save the original regexp.
         mPattern = LogSource.compileRegExp(regExp.trim());  // throws
+        if (mRegExp != null && !mRegExp.equals(regExp.trim())) {
+            mProfile.clear();
+        }
         mRegExp = regExp.trim();
+        Prefs prefs = new Prefs();
+        mLinearRegExp = prefs.getLinearRegExp() ? LogSource.compileLinearRegExp(mRegExp) : null;
 
         mGroups = groups;
         mPresentationId = presentationId;
@@ -544,11 +561,35 @@ public class LogLineMatcher implements LogSourceListener {
                 mPattern.pattern().equals(llmOther.mPattern.pattern()));
     }
 
+    /**
+     * @return true if using a log source on any device, see
+     *         LogSource.ANY_DEVICE.
+     */
+    boolean isAnyDevice() {
+        return LogSource.ANY_DEVICE.equals(mSource.getDeviceSerial());
+    }
+
+    /**
+     * Create a copy of this LogLineMatcher using the same log source
+     * on a certain device, used when isAnyDevice() is true.
+     *
+     * @param serial
+     *
+     * @return
+     */
+    LogLineMatcher createForDevice(String serial) throws InvalidException {
+        String sourceName = LogSource.getSourceName(LogSource.getBaseName(mSource.getName()), serial);
+        LogLineMatcher llm =
+            new LogLineMatcher(mName, mEvent, mEnabled, mTimeDiff, sourceName, mRegExp,
+                               mGroups != null ? mGroups.copy() : null, mPresentationId,
+                               mTriggerType.toString(), mLLMMgr);
+        llm.mActive = mActive;
+        llm.mProfile = mProfile;
+        return llm;
+    }
+
     void registerToLogSource() {
-        mSource.addListener(this);
-        if (mTriggerType != LogSourceTriggerList.Type.None) {
-            mSource.addTrigger(this);
-        }
+        mSource.addMatcher(this);
     }
 
     void registerToLogSource(LogSource logSource) {
@@ -558,8 +599,7 @@ public class LogLineMatcher implements LogSourceListener {
     }
 
     void unRegisterFromLogSource() {
-        mSource.removeListener(this);
-        mSource.removeTrigger(this);
+        mSource.removeMatcher(this);
     }
 
     private void createFlagXmlElem(Document doc, Element llmElement, String elemName, boolean value) {
@@ -631,87 +671,142 @@ public class LogLineMatcher implements LogSourceListener {
 
     // LogSourceListener
 
-    public void onLogLine(final String logLine) {
-        if (!mActive || !mEnabled) {
-            return;
+    public void onLogLine(final LogLine logLine) {
+        MatchResult matcher = match(logLine);
+        if (matcher != null) {
+            MatchBatch batch = new MatchBatch(4);
+            onMatch(logLine, matcher, batch);
+            LogLineMatcherManager.onMatchedLogLines(batch);
         }
+    }
 
-        Matcher matcher = mPattern.matcher(logLine);
-        while (matcher.find()) {
-            int groupCount = mGroups != null ? mGroups.size() : 0;
-            int regExpGroupCount = matcher.groupCount();
-            Date date = LogSource.getDate(matcher.group(1));
-
-            if (mTimeDiff) {
-                if (mPrevTimeDiffDate != null) {
-                    int seriesIndex = 0;
-                    long value = date.getTime() - mPrevTimeDiffDate.getTime();
-                    mLLMMgr.onMatchedLogLine(this, seriesIndex, date, value);
-                }
-                mPrevTimeDiffDate = date;
+    /**
+     * Match 'logLine' without changing any state, so this may be
+     * called for several lines at once on different threads. Pass the
+     * result on to onMatch() in line order.
+     *
+     * @param logLine
+     *
+     * @return The result if the line matched, otherwise null.
+     */
+    MatchResult match(LogLine logLine) {
+        if (!isMatching()) {
+            return null;
+        }
+        return evaluate(logLine);
+    }
+
+    /**
+     * @return false if match() would return null for every line, i.e.
+     * when not active or not enabled.
+     */
+    boolean isMatching() {
+        return mActive && mEnabled;
+    }
+
+    /**
+     * Run the regexp on 'logLine', also when not active or enabled
+     * since a trigger pauses and resumes its LogSource either way, see
+     * LogLineMatcherEngine.getTriggerType().
+     *
+     * @param logLine
+     *
+     * @return The result if the line matched, otherwise null.
+     */
+    MatchResult evaluate(LogLine logLine) {
+        // Only some evaluations are timed, see LogLineMatcherProfile.
+        LogLineMatcherProfile profile = mProfile;
+        boolean timed = profile.onEvaluate();
+        long startNanos = timed ? System.nanoTime() : 0;
+
+        // Matched once, against what follows the timestamp.
+        MatchResult matcher;
+        LinearRegExp linearRegExp = mLinearRegExp;
+        if (linearRegExp != null) {
+            matcher = LogSource.matchRegExp(linearRegExp, logLine);
+        } else {
+            matcher = LogSource.matchRegExp(mPattern, logLine);
+        }
+
+        if (timed) {
+            profile.addSample(System.nanoTime() - startNanos);
+        }
+        if (matcher != null) {
+            profile.onHit();
+        }
+        return matcher;
+    }
+
+    /**
+     * Take the values of a matched line and add them to 'batch', which
+     * the caller passes on to the manager. Must be called in line
+     * order since the time and value diffs depend on the previous
+     * line.
+     *
+     * @param logLine
+     * @param matcher From match(), for 'logLine'.
+     * @param batch
+     */
+    void onMatch(LogLine logLine, MatchResult matcher, MatchBatch batch) {
+        int groupCount = mGroups != null ? mGroups.size() : 0;
+        int regExpGroupCount = matcher.groupCount();
+        // Group 1 is empty, the timestamp has already been parsed
+        // by the LogSource.
+        long millis = logLine.getMillis();
+        int batchCount = batch.getCount();  // for mProfile
+
+        if (mTimeDiff) {
+            if (mPrevTimeDiffMillis != NO_TIME) {
+                int seriesIndex = 0;
+                long value = millis - mPrevTimeDiffMillis;
+                batch.add(this, seriesIndex, millis, value);
             }
-            if (regExpGroupCount > 1) {
-                if (date != null) {
-
-                    int seriesIndex = mTimeDiff ? 1 : 0;
-
-                    // Start from 2 since the entire expression is at
-                    // index 0 and the timestamp is at index 1.
-                    for (int regExpGroupNo = 2; regExpGroupNo <= regExpGroupCount; ++regExpGroupNo, ++seriesIndex) {
-
-                        // Get the value. For now we handle decimal and hex formats.
-                        //double value = Double.parseDouble(matcher.group(groupNo));
-                        //System.out.println(String.format("groupNo=%d %f", groupNo, value));
-                        String strVal = matcher.group(regExpGroupNo);
-                        boolean isHex = (strVal.length() > 1 &&
-                                         (strVal.charAt(1) == 'x' || strVal.charAt(1) == 'X'));
-                        boolean isFloat = false;
-                        if (isHex) {
-                            strVal = strVal.substring(2);  // skip 0x
-                        } else {
-                            isFloat = strVal.contains(".");
-                        }
+            mPrevTimeDiffMillis = millis;
+        }
+        if (regExpGroupCount > 1) {
+            int seriesIndex = mTimeDiff ? 1 : 0;
 
-                        try {
-                            float value = 0.0f;
-                            if (isFloat) {
-                                value = Float.parseFloat(strVal);
-                            } else {
-                                value = Long.parseLong(strVal, isHex ? 16 : 10);
-                            }
+            // Start from 2 since the entire expression is at
+            // index 0 and the timestamp is at index 1.
+            for (int regExpGroupNo = 2; regExpGroupNo <= regExpGroupCount; ++regExpGroupNo, ++seriesIndex) {
 
-                            // Notify the manager about this matched logline so it
-                            // can be forwarded to any listeners (ChartView).
-                            mLLMMgr.onMatchedLogLine(this, seriesIndex, date, value);
-
-                            int groupIndex = regExpGroupNo - 2;
-                            if (groupIndex >= 0 && groupIndex < groupCount) {
-                                Group group = mGroups.get(groupIndex);
-                                if (group.getHasValueDiff()) {
-                                    ++seriesIndex;
-                                }
-                                if (group.showValueDiff(value)) {
-                                    mLLMMgr.onMatchedLogLine(this, seriesIndex, date,
-                                                             group.getDiffValue(value));
-                                }
-                            }
-                        } catch (NumberFormatException excep) {
-                            String msg =
-                                String.format(NUMBERFORMATEXCEP_STR, mName, regExpGroupNo,
-                                              isHex, strVal, excep.getMessage());
-                            Logger.log(msg + excep);
+                // Get the value, see NumberParser for the formats.
+                int valueStart = matcher.start(regExpGroupNo);
+                int valueEnd = matcher.end(regExpGroupNo);
+                try {
+                    float value = NumberParser.parseValue(logLine, valueStart, valueEnd);
+
+                    // The manager forwards the batch to any
+                    // listeners (ChartView).
+                    batch.add(this, seriesIndex, millis, value);
+
+                    int groupIndex = regExpGroupNo - 2;
+                    if (groupIndex >= 0 && groupIndex < groupCount) {
+                        Group group = mGroups.get(groupIndex);
+                        if (group.getHasValueDiff()) {
+                            ++seriesIndex;
+                        }
+                        if (group.showValueDiff(value)) {
+                            batch.add(this, seriesIndex, millis, group.getDiffValue(value));
                         }
                     }
+                } catch (NumberFormatException excep) {
+                    String strVal = matcher.group(regExpGroupNo);
+                    boolean isHex = valueStart >= 0 &&
+                        NumberParser.isHex(logLine, valueStart, valueEnd);
+                    String msg =
+                        String.format(NUMBERFORMATEXCEP_STR, mName, regExpGroupNo,
+                                      isHex, strVal, excep.getMessage());
+                    Logger.log(msg + excep);
                 }
-            } else if (regExpGroupCount == 1) {
-                // This is just a match i.e. we don't have any value.
-                // Notify the manager about this matched logline so it
-                // can be forwarded to any listeners (ChartView).
-                int seriesIndex = mTimeDiff ? 1 : 0;
-                int value = 1;
-                mLLMMgr.onMatchedLogLine(this, seriesIndex, date, value);
             }
+        } else if (regExpGroupCount == 1) {
+            // This is just a match i.e. we don't have any value.
+            int seriesIndex = mTimeDiff ? 1 : 0;
+            int value = 1;
+            batch.add(this, seriesIndex, millis, value);
         }
+        mProfile.addValues(batch.getCount() - batchCount);
     }
 
 
@@ -0,0 +1,559 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.MatchResult;
+
+/**
+ * Passes the lines of a LogSource on to its LogLineMatchers, but only
+ * to those that may match. A required literal is taken from the
+ * regexp of each LogLineMatcher, see RegExpLiterals, and one
+ * AhoCorasick automaton finds all of them in one pass over the
+ * line. A LogLineMatcher whose literal is not in the line is skipped
+ * without running its regexp, which is what happens to almost every
+ * LogLineMatcher for almost every line. LogLineMatchers without a
+ * literal get every line.
+ *
+ * LogLineMatchers written for one log tag, see
+ * RegExpLiterals.getLogTag(), are first looked up by the tag of the
+ * line. Those for the tag of the line are selected without running the
+ * automaton, their literal is looked for directly in the line. The
+ * automaton is only run for the LogLineMatchers without a tag, and when
+ * the message has a ':': the regexps are not anchored, so on lines of
+ * other tags they are still tried if their tag literal, e.g.
+ * "ActivityManager:", is in the message.
+ *
+ * The Dispatcher of the LogSource passes on all lines it has ready at
+ * once, see onLogLines(). Large batches are split in chunks that are
+ * matched in parallel on a ForkJoinPool, see LogLineMatcher.match().
+ * The matches are then passed on to LogLineMatcher.onMatch() in line
+ * order on the Dispatcher thread, as the time and value diffs depend
+ * on the previous match.
+ *
+ * The values matched from each batch of lines are collected in one
+ * MatchBatch and passed on to the LLMMgrListeners in one go, see
+ * LLMMgrBatchListener.
+ *
+ * LogLineMatchers that are triggers, see LogSourceTriggerList, are
+ * also matched by the filter stage of the LogSource, before the line
+ * is passed on, see getTriggerType(). They are selected the same way
+ * but only among the triggers, and their matches are kept in the
+ * LogLine so the Dispatcher thread doesn't run their regexps again.
+ *
+ * add() and remove() are called from the UI while lines are passed
+ * on by the Dispatcher thread of the LogSource, so they replace the
+ * immutable Compiled snapshot instead of changing it.
+ */
+class LogLineMatcherEngine implements LogSourceBatchListener {
+
+    private static final int NO_LITERAL = -1;
+    private static final int NO_TRIGGER = -1;
+    // Lines matched by one task, and the least number of lines
+    // worth splitting:
+    private static final int CHUNK_LINES = 256;
+    private static final int PARALLEL_MIN_LINES = 2 * CHUNK_LINES;
+
+    // Shared by all LogSources.
+    private static final ForkJoinPool sPool = new ForkJoinPool();
+
+    /**
+     * Immutable snapshot of the LogLineMatchers and the automaton.
+     */
+    private static class Compiled {
+        final LogLineMatcher[] mLLMs;  // in the order they were added
+        final int[] mLiteralIds;       // per LogLineMatcher, or NO_LITERAL
+        final String[] mLiterals;      // per LogLineMatcher, or null
+        // Per LogLineMatcher, index in LogLine.resetTriggerMatches() or NO_TRIGGER:
+        final int[] mTriggerIds;
+        final int mTriggerCount;
+        final AhoCorasick mAhoCorasick;
+        // Indexes in mLLMs:
+        final LogTagMap<int[]> mTagged = new LogTagMap<int[]>();
+        final int[] mAllTagged;  // for lines without a tag
+        final int[] mUntagged;
+        // The literal ids of the tag literals and, per literal id, the
+        // indexes in mLLMs of the LogLineMatchers having it as tag
+        // literal:
+        final int[] mTagLiteralIds;
+        final int[][] mByTagLiteral;
+
+        Compiled(LogLineMatcher[] llms) {
+            mLLMs = llms;
+            mLiteralIds = new int[llms.length];
+            mLiterals = new String[llms.length];
+            mTriggerIds = new int[llms.length];
+            int triggerCount = 0;
+            HashMap<String, Integer> ids = new HashMap<String, Integer>();
+            ArrayList<String> literals = new ArrayList<String>();
+            String[] tags = new String[llms.length];
+            int[] tagLiteralIds = new int[llms.length];
+            int allTaggedCount = 0;
+            for (int index = 0; index < llms.length; ++index) {
+                mTriggerIds[index] = llms[index].getTriggerType() != LogSourceTriggerList.Type.None ?
+                    triggerCount++ : NO_TRIGGER;
+                String regExp = llms[index].getRegExp();
+                String tag = RegExpLiterals.getLogTag(regExp);
+                tags[index] = tag;
+                if (tag != null) {
+                    int[] bucket = mTagged.get(tag);
+                    bucket = bucket == null ? new int[1] : Arrays.copyOf(bucket, bucket.length + 1);
+                    bucket[bucket.length - 1] = index;
+                    mTagged.put(tag, bucket);
+                    ++allTaggedCount;
+                    tagLiteralIds[index] = getLiteralId(RegExpLiterals.getLogTagLiteral(regExp),
+                                                        ids, literals);
+                }
+
+                String literal = RegExpLiterals.getRequiredLiteral(regExp);
+                mLiterals[index] = literal;
+                mLiteralIds[index] = literal != null ?
+                    getLiteralId(literal, ids, literals) : NO_LITERAL;
+            }
+            mTriggerCount = triggerCount;
+            mAhoCorasick = new AhoCorasick(literals.toArray(new String[literals.size()]));
+
+            mByTagLiteral = new int[literals.size()][];
+            int tagLiteralCount = 0;
+            for (int index = 0; index < llms.length; ++index) {
+                if (tags[index] != null) {
+                    int id = tagLiteralIds[index];
+                    int[] byTag = mByTagLiteral[id];
+                    if (byTag == null) {
+                        byTag = new int[1];
+                        ++tagLiteralCount;
+                    } else {
+                        byTag = Arrays.copyOf(byTag, byTag.length + 1);
+                    }
+                    byTag[byTag.length - 1] = index;
+                    mByTagLiteral[id] = byTag;
+                }
+            }
+            mTagLiteralIds = new int[tagLiteralCount];
+            tagLiteralCount = 0;
+            for (int id = 0; id < mByTagLiteral.length; ++id) {
+                if (mByTagLiteral[id] != null) {
+                    mTagLiteralIds[tagLiteralCount++] = id;
+                }
+            }
+
+            mAllTagged = new int[allTaggedCount];
+            mUntagged = new int[llms.length - allTaggedCount];
+            int taggedCount = 0;
+            int untaggedCount = 0;
+            for (int index = 0; index < llms.length; ++index) {
+                if (tags[index] != null) {
+                    mAllTagged[taggedCount++] = index;
+                } else {
+                    mUntagged[untaggedCount++] = index;
+                }
+            }
+        }
+
+        private static int getLiteralId(String literal, HashMap<String, Integer> ids,
+                                        ArrayList<String> literals) {
+            Integer id = ids.get(literal);
+            if (id == null) {
+                id = literals.size();
+                ids.put(literal, id);
+                literals.add(literal);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Selects the LogLineMatchers that may match a line. Holds the
+     * state for that so one is needed per thread.
+     */
+    private static class Selector {
+        private int[] mFound = new int[0];
+        private int mFoundCount;
+        private int mStamp;
+        private boolean mScanned;
+        private int[] mSelected = new int[0];  // per index in Compiled.mLLMs
+        int mScanCount;  // lines the automaton was run on, for tests
+        private int[][] mBuckets = new int[0][];
+        // Indexes in Compiled.mLLMs, from select():
+        int[] mCandidates = new int[0];
+
+        /**
+         * Put the indexes of the LogLineMatchers that may match 'line'
+         * in mCandidates.
+         *
+         * @param compiled
+         * @param line
+         * @param triggers If true only triggers are selected.
+         *
+         * @return The number of indexes in mCandidates.
+         */
+        int select(Compiled compiled, LogLine line, boolean triggers) {
+            // Only what follows the timestamp is matched, see
+            // LogSource.matchRegExp().
+            if (!line.hasHeader()) {
+                return 0;
+            }
+            if (mCandidates.length < compiled.mLLMs.length) {
+                mCandidates = new int[compiled.mLLMs.length];
+                mSelected = new int[compiled.mLLMs.length];
+            }
+            if (++mStamp == 0) {  // wrapped, forget old stamps
+                Arrays.fill(mFound, 0);
+                Arrays.fill(mSelected, 0);
+                mStamp = 1;
+            }
+            mScanned = false;
+
+            int count = 0;
+            if (compiled.mTagged.size() > 0) {
+                if (line.getTagStart() == -1) {
+                    count = select(compiled, compiled.mAllTagged, line, triggers, count);
+                } else {
+                    if (mBuckets.length < compiled.mTagged.getMaxSuffixCount()) {
+                        mBuckets = new int[compiled.mTagged.getMaxSuffixCount()][];
+                    }
+                    int bucketCount = compiled.mTagged.getSuffixes(line, mBuckets);
+                    for (int index = 0; index < bucketCount; ++index) {
+                        count = selectForTag(compiled, mBuckets[index], line, triggers, count);
+                    }
+
+                    // Those of other tags may still match the message,
+                    // if it has the ':' of their tag literal.
+                    if (hasColon(line, line.getMsgStart()) && !mScanned) {
+                        scan(compiled.mAhoCorasick, line);
+                    }
+                    if (mScanned && mFoundCount > 0) {
+                        for (int id : compiled.mTagLiteralIds) {
+                            if (mFound[id] == mStamp) {
+                                count = select(compiled, compiled.mByTagLiteral[id], line, triggers,
+                                               count);
+                            }
+                        }
+                    }
+                }
+            }
+            return select(compiled, compiled.mUntagged, line, triggers, count);
+        }
+
+        /**
+         * Add those of the LogLineMatchers at 'indexes' in
+         * compiled.mLLMs which have no literal or whose literal is in
+         * the line to mCandidates.
+         */
+        private int select(Compiled compiled, int[] indexes, LogLine line, boolean triggers,
+                           int count) {
+            for (int index : indexes) {
+                if ((triggers && compiled.mTriggerIds[index] == NO_TRIGGER) ||
+                    mSelected[index] == mStamp) {
+                    continue;
+                }
+                int id = compiled.mLiteralIds[index];
+                if (id != NO_LITERAL) {
+                    if (!mScanned) {
+                        scan(compiled.mAhoCorasick, line);
+                    }
+                    if (mFound[id] != mStamp) {
+                        continue;
+                    }
+                }
+                mSelected[index] = mStamp;
+                mCandidates[count++] = index;
+            }
+            return count;
+        }
+
+        /**
+         * Add those of the LogLineMatchers for the tag of the line at
+         * 'indexes' whose literal is in the line to mCandidates. The
+         * literals are looked for one by one, there are few of them.
+         */
+        private int selectForTag(Compiled compiled, int[] indexes, LogLine line, boolean triggers,
+                                 int count) {
+            for (int index : indexes) {
+                if ((triggers && compiled.mTriggerIds[index] == NO_TRIGGER) ||
+                    mSelected[index] == mStamp) {
+                    continue;
+                }
+                String literal = compiled.mLiterals[index];
+                if (literal != null && !contains(line, literal)) {
+                    continue;
+                }
+                mSelected[index] = mStamp;
+                mCandidates[count++] = index;
+            }
+            return count;
+        }
+
+        private static boolean contains(LogLine line, String literal) {
+            int length = literal.length();
+            int last = line.length() - length;
+            char first = literal.charAt(0);
+            for (int start = LogLine.TIMESTAMP_LEN; start <= last; ++start) {
+                if (line.charAt(start) != first) {
+                    continue;
+                }
+                int index = 1;
+                while (index < length && line.charAt(start + index) == literal.charAt(index)) {
+                    ++index;
+                }
+                if (index == length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean hasColon(LogLine line, int start) {
+            for (int index = start; index < line.length(); ++index) {
+                if (line.charAt(index) == ':') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void scan(AhoCorasick ahoCorasick, LogLine line) {
+            if (mFound.length < ahoCorasick.getLiteralCount()) {
+                mFound = new int[ahoCorasick.getLiteralCount()];
+            }
+            mFoundCount = ahoCorasick.find(line, LogLine.TIMESTAMP_LEN, line.length(), mFound, mStamp);
+            mScanned = true;
+            ++mScanCount;
+        }
+    }
+
+    /**
+     * A line matched by a LogLineMatcher, waiting to be passed on.
+     */
+    private static class Match {
+        final LogLine mLine;
+        final LogLineMatcher mLLM;
+        final MatchResult mMatcher;
+
+        Match(LogLine line, LogLineMatcher llm, MatchResult matcher) {
+            mLine = line;
+            mLLM = llm;
+            mMatcher = matcher;
+        }
+    }
+
+    /**
+     * Matches lines[mStart, mEnd) and keeps the matches in line order.
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveAction {
+        private final Compiled mCompiled;
+        private final Selector mSelector;
+        private final LogLine[] mLines;
+        private final int mStart;
+        private final int mEnd;
+        final ArrayList<Match> mMatches = new ArrayList<Match>();
+
+        ChunkTask(Compiled compiled, Selector selector, LogLine[] lines, int start, int end) {
+            mCompiled = compiled;
+            mSelector = selector;
+            mLines = lines;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            for (int lineIndex = mStart; lineIndex < mEnd; ++lineIndex) {
+                LogLine line = mLines[lineIndex];
+                int count = mSelector.select(mCompiled, line, false);
+                for (int index = 0; index < count; ++index) {
+                    int llmIndex = mSelector.mCandidates[index];
+                    LogLineMatcher llm = mCompiled.mLLMs[llmIndex];
+                    MatchResult matcher = match(mCompiled, llmIndex, line);
+                    if (matcher != null) {
+                        mMatches.add(new Match(line, llm, matcher));
+                    }
+                }
+            }
+        }
+    }
+
+    private volatile Compiled mCompiled = new Compiled(new LogLineMatcher[0]);
+
+    // Only touched by the Dispatcher thread, and by one ChunkTask each
+    // while the Dispatcher thread waits for them:
+    private final Selector mSelector = new Selector();
+    // Only touched by the filter thread:
+    private final Selector mTriggerSelector = new Selector();
+    private final MatchBatch mBatch = new MatchBatch(64);
+    private final ArrayList<Selector> mChunkSelectors = new ArrayList<Selector>();
+
+    synchronized void add(LogLineMatcher llm) {
+        if (Arrays.asList(mCompiled.mLLMs).contains(llm)) {
+            return;
+        }
+        LogLineMatcher[] llms = Arrays.copyOf(mCompiled.mLLMs, mCompiled.mLLMs.length + 1);
+        llms[llms.length - 1] = llm;
+        mCompiled = new Compiled(llms);
+    }
+
+    synchronized void remove(LogLineMatcher llm) {
+        ArrayList<LogLineMatcher> llms =
+            new ArrayList<LogLineMatcher>(Arrays.asList(mCompiled.mLLMs));
+        if (!llms.remove(llm)) {
+            return;
+        }
+        mCompiled = new Compiled(llms.toArray(new LogLineMatcher[llms.size()]));
+    }
+
+    boolean isEmpty() {
+        return mCompiled.mLLMs.length == 0;
+    }
+
+    /**
+     * @return The number of lines the automaton was run on by
+     * onLogLine(), for tests.
+     */
+    int getScanCount() {
+        return mSelector.mScanCount;
+    }
+
+    /**
+     * Match the triggers on 'line' and keep their matches in it for
+     * when it is passed on. Called by the filter stage of the
+     * LogSource for every line, also those it then drops.
+     *
+     * @param line
+     *
+     * @return The type of the trigger added first of those matching,
+     * or None.
+     */
+    LogSourceTriggerList.Type getTriggerType(LogLine line) {
+        Compiled compiled = mCompiled;
+        if (compiled.mTriggerCount == 0) {
+            return LogSourceTriggerList.Type.None;
+        }
+        MatchResult[] matches = line.resetTriggerMatches(compiled, compiled.mTriggerCount);
+        int first = compiled.mLLMs.length;
+        int count = mTriggerSelector.select(compiled, line, true);
+        for (int index = 0; index < count; ++index) {
+            int llmIndex = mTriggerSelector.mCandidates[index];
+            MatchResult matcher = compiled.mLLMs[llmIndex].evaluate(line);
+            matches[compiled.mTriggerIds[llmIndex]] = matcher;
+            if (matcher != null && llmIndex < first) {
+                first = llmIndex;
+            }
+        }
+        return first < compiled.mLLMs.length ?
+            compiled.mLLMs[first].getTriggerType() : LogSourceTriggerList.Type.None;
+    }
+
+    /**
+     * Match the LogLineMatcher at 'index' in compiled.mLLMs on 'line',
+     * or take its match from getTriggerType() if it is a trigger.
+     */
+    private static MatchResult match(Compiled compiled, int index, LogLine line) {
+        int triggerId = compiled.mTriggerIds[index];
+        LogLineMatcher llm = compiled.mLLMs[index];
+        if (triggerId == NO_TRIGGER || line.getTriggerKey() != compiled) {
+            return llm.match(line);
+        }
+        return llm.isMatching() ? line.getTriggerMatch(triggerId) : null;
+    }
+
+
+    // LogSourceBatchListener
+
+    @Override
+    public void onLogLine(LogLine line) {
+        matchLine(mCompiled, line);
+        flushBatch();
+    }
+
+    private void matchLine(Compiled compiled, LogLine line) {
+        int count = mSelector.select(compiled, line, false);
+        for (int index = 0; index < count; ++index) {
+            int llmIndex = mSelector.mCandidates[index];
+            LogLineMatcher llm = compiled.mLLMs[llmIndex];
+            MatchResult matcher = match(compiled, llmIndex, line);
+            if (matcher != null) {
+                llm.onMatch(line, matcher, mBatch);
+            }
+        }
+    }
+
+    /**
+     * Pass the values matched so far on to the LLMMgrListeners.
+     */
+    private void flushBatch() {
+        if (mBatch.getCount() > 0) {
+            LogLineMatcherManager.onMatchedLogLines(mBatch);
+            mBatch.clear();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("serial")
+    public void onLogLines(LogLine[] lines, int count) {
+        if (count < PARALLEL_MIN_LINES) {
+            Compiled compiled = mCompiled;
+            for (int index = 0; index < count; ++index) {
+                matchLine(compiled, lines[index]);
+            }
+            flushBatch();
+            return;
+        }
+
+        Compiled compiled = mCompiled;
+        final ArrayList<ChunkTask> tasks = new ArrayList<ChunkTask>();
+        for (int start = 0; start < count; start += CHUNK_LINES) {
+            int chunk = tasks.size();
+            if (chunk == mChunkSelectors.size()) {
+                mChunkSelectors.add(new Selector());
+            }
+            tasks.add(new ChunkTask(compiled, mChunkSelectors.get(chunk), lines,
+                                    start, Math.min(start + CHUNK_LINES, count)));
+        }
+        sPool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // Pass the matches on in line order.
+        for (ChunkTask task : tasks) {
+            for (Match match : task.mMatches) {
+                match.mLLM.onMatch(match.mLine, match.mMatcher, mBatch);
+            }
+        }
+        flushBatch();
+    }
+}
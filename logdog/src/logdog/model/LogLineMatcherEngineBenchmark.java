@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.Random;
+
+
+/**
+ * Compares passing each log line to every LogLineMatcher with passing
+ * it through a LogLineMatcherEngine. Run with:
+ *
+ *   java -cp classes logdog.model.LogLineMatcherEngineBenchmark [matchers] [lines]
+ *
+ * Prints the time per line of each after a warmup round. Batches are
+ * matched in parallel as passed on by the Dispatcher of a LogSource.
+ */
+public class LogLineMatcherEngineBenchmark {
+
+    private static final String[] TAGS = {
+        "ActivityManager", "dalvikvm", "WindowManager", "PowerManagerService",
+        "wpa_supplicant", "ConnectivityService", "AudioFlinger", "SurfaceFlinger"
+    };
+
+    private static final int BATCH_LINES = 4096;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private static LogLine[] createLines(int lineCount) {
+        Random random = new Random(4711);
+        TimestampParser tsParser = new TimestampParser();
+        LogLine[] lines = new LogLine[lineCount];
+        for (int index = 0; index < lineCount; ++index) {
+            String tag = TAGS[random.nextInt(TAGS.length)];
+            lines[index] = new LogLine();
+            lines[index].set(String.format("10-17 12:%02d:%02d.%03d  %4d  %4d D %-8s: event %d " +
+                                           "value[%d] state %s",
+                                           index / 60000 % 60, index / 1000 % 60, index % 1000,
+                                           random.nextInt(5000), random.nextInt(5000), tag,
+                                           random.nextInt(1000), random.nextInt(100000),
+                                           random.nextBoolean() ? "on" : "off"),
+                             tsParser);
+        }
+        return lines;
+    }
+
+    private static LogLineMatcher[] createLLMs(int llmCount) throws Exception {
+        LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, llmCount);
+        LogLineMatcher[] llms = new LogLineMatcher[llmCount];
+        for (int index = 0; index < llmCount; ++index) {
+            // Most find nothing, as most LogLineMatchers for most lines.
+            String regExp = String.format(".*?%s: event %d value\\[([0-9]+)\\].*?",
+                                          TAGS[index % TAGS.length], index);
+            llms[index] = new LogLineMatcher("benchmark " + index, false, true, false,
+                                             "logcat_main", regExp, null, 0, "None", llmMgr);
+            llms[index].setActive(true);
+        }
+        return llms;
+    }
+
+    private static long runEveryMatcher(LogLine[] lines, LogLineMatcher[] llms) {
+        long start = System.nanoTime();
+        for (LogLine line : lines) {
+            for (LogLineMatcher llm : llms) {
+                llm.onLogLine(line);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runEngine(LogLine[] lines, LogLineMatcherEngine engine) {
+        long start = System.nanoTime();
+        for (LogLine line : lines) {
+            engine.onLogLine(line);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runEngineBatches(LogLine[] lines, LogLineMatcherEngine engine) {
+        LogLine[] batch = new LogLine[BATCH_LINES];
+        long start = System.nanoTime();
+        for (int first = 0; first < lines.length; first += BATCH_LINES) {
+            int count = Math.min(BATCH_LINES, lines.length - first);
+            System.arraycopy(lines, first, batch, 0, count);
+            engine.onLogLines(batch, count);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int llmCount = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int lineCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        LogLine[] lines = createLines(lineCount);
+        LogLineMatcher[] llms = createLLMs(llmCount);
+        LogLineMatcherEngine engine = new LogLineMatcherEngine();
+        for (LogLineMatcher llm : llms) {
+            engine.add(llm);
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS; ++round) {
+            runEveryMatcher(lines, llms);
+            runEngine(lines, engine);
+            runEngineBatches(lines, engine);
+        }
+        long everyMatcherNanos = Long.MAX_VALUE;
+        long engineNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; ++round) {
+            everyMatcherNanos = Math.min(everyMatcherNanos, runEveryMatcher(lines, llms));
+            engineNanos = Math.min(engineNanos, runEngine(lines, engine));
+            batchNanos = Math.min(batchNanos, runEngineBatches(lines, engine));
+        }
+        System.out.println(String.format("%d matchers, %d lines", llmCount, lineCount));
+        System.out.println(String.format("every matcher: %8.1f ns/line", (double) everyMatcherNanos / lineCount));
+        System.out.println(String.format("engine:        %8.1f ns/line", (double) engineNanos / lineCount));
+        System.out.println(String.format("engine, %d line batches: %8.1f ns/line", BATCH_LINES,
+                                         (double) batchNanos / lineCount));
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+
+
+public class LogLineMatcherEngineTests {
+
+    @Test
+    public void requiredLiterals() {
+        assertEquals("GC_CONCURRENT freed ",
+                     RegExpLiterals.getRequiredLiteral(".*?GC_CONCURRENT freed ([0-9].*?)K, .*?$"));
+        assertEquals("] convert-gain[",
+                     RegExpLiterals.getRequiredLiteral(".*?V \\[PRM\\] .*? colorTemp\\[([0-9].*?)\\] " +
+                                                       "aeLevel\\[([0-9].*?)\\] gain\\[([0-9].*?)\\] " +
+                                                       "convert-gain\\[([0-9].*?)\\] .*?"));
+        assertEquals("a.b", RegExpLiterals.getRequiredLiteral(".*a\\.b+"));
+        assertEquals("optional", RegExpLiterals.getRequiredLiteral("(x)?optional"));
+        assertNull(RegExpLiterals.getRequiredLiteral("first|second"));
+        assertNull(RegExpLiterals.getRequiredLiteral("(?i)case"));
+        assertNull(RegExpLiterals.getRequiredLiteral(".*?[0-9]+"));
+    }
+
+    @Test
+    public void logTags() {
+        assertEquals("ActivityManager", RegExpLiterals.getLogTag(".*?ActivityManager:.*?"));
+        assertEquals("tag", RegExpLiterals.getLogTag(".*?tag     : value ([0-9]+)"));
+        assertEquals("a.b", RegExpLiterals.getLogTag(".*a\\.b:"));
+        assertNull(RegExpLiterals.getLogTag("ActivityManager:.*?"));
+        assertNull(RegExpLiterals.getLogTag(".*?D tag:.*?"));
+        assertNull(RegExpLiterals.getLogTag(".*?a.b:.*?"));
+        assertNull(RegExpLiterals.getLogTag(".*?tag:?.*?"));
+        assertNull(RegExpLiterals.getLogTag(".*?tag:.*?|other"));
+        assertEquals("tag     :", RegExpLiterals.getLogTagLiteral(".*?tag     : value ([0-9]+)"));
+        assertEquals("a.b:", RegExpLiterals.getLogTagLiteral(".*a\\.b:"));
+        assertNull(RegExpLiterals.getLogTagLiteral(".*?D tag:.*?"));
+    }
+
+    @Test
+    public void lookUpTagAndSuffixes() {
+        LogTagMap<String> map = new LogTagMap<String>();
+        for (int index = 0; index < 100; ++index) {
+            map.put("tag" + index, "value" + index);
+        }
+        map.put("Manager", "manager");
+        map.put("ActivityManager", "activity");
+        assertEquals(102, map.size());
+        assertEquals("value42", map.get("tag42"));
+        assertEquals("value7", map.get("xtag7y", 1, 5));
+        assertNull(map.get("tag100"));
+
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.789  1234  5678 D ActivityManager: started", new TimestampParser());
+        String[] values = new String[map.getMaxSuffixCount()];
+        assertEquals(2, map.getSuffixes(line, values));
+        assertEquals("activity", values[0]);
+        assertEquals("manager", values[1]);
+    }
+
+    @Test
+    public void findAllLiterals() {
+        AhoCorasick ahoCorasick = new AhoCorasick(new String[] {"he", "she", "his", "hers", "\u00e5\u00e4"});
+        assertEquals(5, ahoCorasick.getLiteralCount());
+        int[] found = new int[5];
+        assertEquals(3, ahoCorasick.find("ushers", 0, 6, found, 1));
+        assertArrayEquals(new int[] {1, 1, 0, 1, 0}, found);
+        assertEquals(1, ahoCorasick.find("x\u00e5\u00e4", 0, 3, found, 2));
+        assertEquals(2, found[4]);
+        assertEquals(0, ahoCorasick.find("ushers", 0, 2, found, 3));
+    }
+
+    /**
+     * Listener counting the matches of each LogLineMatcher.
+     */
+    static class CountingLLMMgrListener implements LLMMgrListener {
+        final IdentityHashMap<LogLineMatcher, Integer> mCounts =
+            new IdentityHashMap<LogLineMatcher, Integer>();
+
+        @Override
+        public void registeringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public void unRegisteringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public synchronized void onMatchedLogLine(LogLineMatcher llm, int seriesIndex,
+                                                  Date date, float value) {
+            mCounts.put(llm, getCount(llm) + 1);
+        }
+
+        synchronized int getCount(LogLineMatcher llm) {
+            Integer count = mCounts.get(llm);
+            return count != null ? count : 0;
+        }
+    }
+
+    @Test
+    public void sameMatchesAsEveryMatcher() throws Exception {
+        CountingLLMMgrListener listener = new CountingLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 4);
+            LogLineMatcher withLiteral =
+                new LogLineMatcher("with literal", true, true, false, "logcat_main",
+                                   ".*?line [0-9]*7$", null, 0, "None", llmMgr);
+            LogLineMatcher withoutLiteral =
+                new LogLineMatcher("without literal", true, true, false, "logcat_main",
+                                   ".*?(?:tag1|tag2):.*?", null, 0, "None", llmMgr);
+            LogLineMatcher neverFound =
+                new LogLineMatcher("never found", true, true, false, "logcat_main",
+                                   ".*?not in the log.*?", null, 0, "None", llmMgr);
+            LogLineMatcher tagged =
+                new LogLineMatcher("tagged", true, true, false, "logcat_main",
+                                   ".*?tag3:.*?", null, 0, "None", llmMgr);
+            LogLineMatcher[] llms = {withLiteral, withoutLiteral, neverFound, tagged};
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            for (LogLineMatcher llm : llms) {
+                llm.setActive(true);
+                engine.add(llm);
+            }
+            engine.add(withLiteral);  // already added, ignored
+
+            TimestampParser tsParser = new TimestampParser();
+            LogLine line = new LogLine();
+            int lineCount = 1000;
+            for (int index = 0; index < lineCount; ++index) {
+                line.set(String.format("10-17 12:00:%02d.%03d  1234  5678 D tag%d: line %d",
+                                       index / 1000 % 60, index % 1000, index % 7, index), tsParser);
+                engine.onLogLine(line);
+            }
+            assertEquals(lineCount / 10, listener.getCount(withLiteral));
+            assertEquals(286, listener.getCount(withoutLiteral));
+            assertEquals(0, listener.getCount(neverFound));
+            assertEquals(143, listener.getCount(tagged));
+
+            engine.remove(withLiteral);
+            line.set("10-17 12:00:00.000  1234  5678 D tag1: line 7", tsParser);
+            engine.onLogLine(line);
+            assertEquals(lineCount / 10, listener.getCount(withLiteral));
+            assertEquals(287, listener.getCount(withoutLiteral));
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+
+    @Test
+    public void tagInMessageStillMatches() throws Exception {
+        CountingLLMMgrListener listener = new CountingLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 4);
+            // Looks like it is for the tag "Timeout" but isn't anchored.
+            LogLineMatcher timeout =
+                new LogLineMatcher("timeout", true, true, false, "logcat_main",
+                                   ".*?Timeout: waited ([0-9]+)", null, 0, "None", llmMgr);
+            timeout.setActive(true);
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            engine.add(timeout);
+
+            TimestampParser tsParser = new TimestampParser();
+            LogLine line = new LogLine();
+            line.set("10-17 12:00:00.000  1234  5678 I ActivityManager: Timeout: waited 5", tsParser);
+            engine.onLogLine(line);
+            assertEquals(1, listener.getCount(timeout));
+            line.set("10-17 12:00:00.001  1234  5678 I Timeout: waited 3", tsParser);
+            engine.onLogLine(line);
+            assertEquals(2, listener.getCount(timeout));
+            line.set("10-17 12:00:00.002  1234  5678 I ActivityManager: Timeout waited 5", tsParser);
+            engine.onLogLine(line);
+            assertEquals(2, listener.getCount(timeout));
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+
+    @Test
+    public void taggedLineSelectedWithoutScan() throws Exception {
+        CountingLLMMgrListener listener = new CountingLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 4);
+            LogLineMatcher startProc =
+                new LogLineMatcher("start proc", true, true, false, "logcat_main",
+                                   ".*?ActivityManager: Start proc ([0-9]+)", null, 0, "None", llmMgr);
+            startProc.setActive(true);
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            engine.add(startProc);
+
+            TimestampParser tsParser = new TimestampParser();
+            LogLine line = new LogLine();
+            line.set("10-17 12:00:00.000  1234  5678 I ActivityManager: Start proc 42", tsParser);
+            engine.onLogLine(line);
+            line.set("10-17 12:00:00.001  1234  5678 I ActivityManager: Kill proc 42", tsParser);
+            engine.onLogLine(line);
+            line.set("10-17 12:00:00.002  1234  5678 I Other: nothing to see", tsParser);
+            engine.onLogLine(line);
+            assertEquals(1, listener.getCount(startProc));
+            assertEquals(0, engine.getScanCount());
+
+            // A ':' in the message may be the tag literal of another tag.
+            line.set("10-17 12:00:00.003  1234  5678 I Other: ActivityManager: Start proc 7", tsParser);
+            engine.onLogLine(line);
+            assertEquals(2, listener.getCount(startProc));
+            assertEquals(1, engine.getScanCount());
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+
+    /**
+     * Listener keeping the values of each series of one
+     * LogLineMatcher in the order they are notified.
+     */
+    static class SeriesLLMMgrListener implements LLMMgrListener {
+        final LogLineMatcher mLLM;
+        final ArrayList<ArrayList<Float>> mSeries = new ArrayList<ArrayList<Float>>();
+
+        SeriesLLMMgrListener(LogLineMatcher llm) {
+            mLLM = llm;
+        }
+
+        @Override
+        public void registeringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public void unRegisteringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public synchronized void onMatchedLogLine(LogLineMatcher llm, int seriesIndex,
+                                                  Date date, float value) {
+            if (llm != mLLM) {
+                return;
+            }
+            while (mSeries.size() <= seriesIndex) {
+                mSeries.add(new ArrayList<Float>());
+            }
+            mSeries.get(seriesIndex).add(value);
+        }
+    }
+
+    @Test
+    public void batchMatchedInLineOrder() throws Exception {
+        LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 1);
+        LogLineMatcher llm =
+            new LogLineMatcher("time diff", true, true, true, "logcat_main",
+                               ".*?tag[0-9]: line ([0-9]+)$", null, 0, "None", llmMgr);
+        llm.setActive(true);
+        SeriesLLMMgrListener listener = new SeriesLLMMgrListener(llm);
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            engine.add(llm);
+
+            // Enough lines to be split in chunks matched in parallel.
+            int lineCount = 5000;
+            TimestampParser tsParser = new TimestampParser();
+            LogLine[] lines = new LogLine[lineCount];
+            for (int index = 0; index < lineCount; ++index) {
+                lines[index] = new LogLine();
+                lines[index].set(String.format("10-17 12:00:%02d.%03d  1234  5678 D tag%d: line %d",
+                                               index / 1000 % 60, index % 1000, index % 7, index),
+                                 tsParser);
+            }
+            engine.onLogLines(lines, lineCount);
+
+            // Series 0 is the time diff, series 1 the value.
+            assertEquals(2, listener.mSeries.size());
+            assertEquals(lineCount - 1, listener.mSeries.get(0).size());
+            for (float diff : listener.mSeries.get(0)) {
+                assertEquals(1.0f, diff, 0.0f);
+            }
+            assertEquals(lineCount, listener.mSeries.get(1).size());
+            for (int index = 0; index < lineCount; ++index) {
+                assertEquals(index, listener.mSeries.get(1).get(index), 0.0f);
+            }
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+
+    /**
+     * Batch listener keeping the number of calls and all values.
+     */
+    static class BatchLLMMgrListener implements LLMMgrBatchListener {
+        int mCalls;
+        final ArrayList<Long> mMillis = new ArrayList<Long>();
+        final ArrayList<Float> mValues = new ArrayList<Float>();
+
+        @Override
+        public void registeringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public void unRegisteringLLM(LogLineMatcher llm) {
+        }
+
+        @Override
+        public void onMatchedLogLine(LogLineMatcher llm, int seriesIndex,
+                                     Date date, float value) {
+            fail("onMatchedLogLine() called for a LLMMgrBatchListener");
+        }
+
+        @Override
+        public synchronized void onMatchedLogLines(MatchBatch batch) {
+            ++mCalls;
+            for (int index = 0; index < batch.getCount(); ++index) {
+                assertEquals(-1, batch.getLLMIds()[index]);  // not registered
+                mMillis.add(batch.getMillis()[index]);
+                mValues.add(batch.getValues()[index]);
+            }
+        }
+    }
+
+    @Test
+    public void batchDeliveredInOneCall() throws Exception {
+        LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 1);
+        LogLineMatcher llm =
+            new LogLineMatcher("value", true, true, false, "logcat_main",
+                               ".*?tag[0-9]: line ([0-9]+)$", null, 0, "None", llmMgr);
+        llm.setActive(true);
+        BatchLLMMgrListener listener = new BatchLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            engine.add(llm);
+
+            TimestampParser tsParser = new TimestampParser();
+            for (int lineCount : new int[] {100, 2000}) {
+                LogLine[] lines = new LogLine[lineCount];
+                for (int index = 0; index < lineCount; ++index) {
+                    lines[index] = new LogLine();
+                    lines[index].set(String.format("10-17 12:00:%02d.%03d  1234  5678 D tag1: line %d",
+                                                   index / 1000 % 60, index % 1000, index), tsParser);
+                }
+                listener.mCalls = 0;
+                listener.mMillis.clear();
+                listener.mValues.clear();
+                engine.onLogLines(lines, lineCount);
+
+                assertEquals(1, listener.mCalls);
+                assertEquals(lineCount, listener.mValues.size());
+                for (int index = 0; index < lineCount; ++index) {
+                    assertEquals(index, listener.mValues.get(index), 0.0f);
+                    assertEquals(lines[index].getMillis(), (long) listener.mMillis.get(index));
+                }
+            }
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+
+    @Test
+    public void triggersMatchedOnce() throws Exception {
+        CountingLLMMgrListener listener = new CountingLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        try {
+            LogLineMatcherManager llmMgr = new LogLineMatcherManager(null, 3);
+            LogLineMatcher pause =
+                new LogLineMatcher("pause", true, true, false, "logcat_main",
+                                   ".*?tag1: stop.*?", null, 0, "Pause", llmMgr);
+            LogLineMatcher resume =
+                new LogLineMatcher("resume", true, true, false, "logcat_main",
+                                   ".*?: stop now$", null, 0, "Resume", llmMgr);
+            LogLineMatcher other =
+                new LogLineMatcher("other", true, true, false, "logcat_main",
+                                   ".*?tag1: .*?", null, 0, "None", llmMgr);
+            LogLineMatcherEngine engine = new LogLineMatcherEngine();
+            for (LogLineMatcher llm : new LogLineMatcher[] {other, pause, resume}) {
+                llm.setActive(true);
+                engine.add(llm);
+            }
+
+            TimestampParser tsParser = new TimestampParser();
+            LogLine line = new LogLine();
+            line.set("10-17 12:00:00.000  1234  5678 D tag1: go on", tsParser);
+            assertEquals(LogSourceTriggerList.Type.None, engine.getTriggerType(line));
+            engine.onLogLine(line);
+            line.set("10-17 12:00:01.000  1234  5678 D tag2: stop now", tsParser);
+            assertEquals(LogSourceTriggerList.Type.Resume, engine.getTriggerType(line));
+            engine.onLogLine(line);
+            // Both match, the one added first decides.
+            line.set("10-17 12:00:02.000  1234  5678 D tag1: stop now", tsParser);
+            assertEquals(LogSourceTriggerList.Type.Pause, engine.getTriggerType(line));
+            engine.onLogLine(line);
+
+            assertEquals(1, listener.getCount(pause));
+            assertEquals(2, listener.getCount(resume));
+            assertEquals(2, listener.getCount(other));
+            // Not run again when passed on.
+            assertEquals(1, pause.getProfile().getEvaluated());
+            assertEquals(2, resume.getProfile().getEvaluated());
+
+            // A trigger pauses its LogSource also when not active.
+            pause.setActive(false);
+            line.set("10-17 12:00:03.000  1234  5678 D tag1: stop", tsParser);
+            assertEquals(LogSourceTriggerList.Type.Pause, engine.getTriggerType(line));
+            engine.onLogLine(line);
+            assertEquals(1, listener.getCount(pause));
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+        }
+    }
+}
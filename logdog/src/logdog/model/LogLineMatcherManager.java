@@ -37,10 +37,16 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -54,9 +60,11 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import logdog.Prefs;
 import logdog.model.LogLineMatcher.Group;
 import logdog.model.LogLineMatcher.Groups;
 import logdog.utils.Logger;
+import logdog.utils.Utils;
 
 /**
  * Model class for handling LogLineMatchers, editing, reading and
@@ -76,6 +84,23 @@ public class LogLineMatcherManager {
     // String resources.
     private static final String FILE_NOT_READABLE_STR = "File '%s' is not readable";
     private static final String NEW_LLM_NAME_STR = "<New LogLinematcher %d>";
+    private static final String PROFILE_CSV_HEADER_STR =
+        "name,log_source,evaluated,hits,values,timed,total_ns,mean_ns,p99_ns";
+
+    // The ids given to registered LogLineMatchers, see MatchBatch:
+    private static final BitSet sLLMIds = new BitSet();
+
+    private static synchronized int allocateLLMId() {
+        int id = sLLMIds.nextClearBit(0);
+        sLLMIds.set(id);
+        return id;
+    }
+
+    private static synchronized void freeLLMId(int id) {
+        if (id >= 0) {
+            sLLMIds.clear(id);
+        }
+    }
 
     // Make this class observable using LLMMgrListener.
     private static ArrayList<LLMMgrListener> mLLMMgrListeners = new ArrayList<LLMMgrListener>(2);
@@ -152,8 +177,7 @@ public class LogLineMatcherManager {
                 // only register to LS if the LLM is enabled.
                 add(llm);
                 if (llm.isEnabled()) {
-                    llm.registerToLogSource();
-                    notifyRegisterLLM(llm);
+                    register(llm);
                 }
             }
         }
@@ -230,6 +254,12 @@ public class LogLineMatcherManager {
         return mLLMs;
     }
 
+    // The copies per device of registered LogLineMatchers using a log
+    // source on any device, see register(). Keyed by identity as
+    // LogLineMatcher.equals() is true for duplicates.
+    private IdentityHashMap<LogLineMatcher, ArrayList<LogLineMatcher>> mDeviceLLMs =
+        new IdentityHashMap<LogLineMatcher, ArrayList<LogLineMatcher>>();
+
     private int mNewLLMId;
 
     private static final int TIMEDURATION_MIN = 10;  // minutes
@@ -315,6 +345,39 @@ public class LogLineMatcherManager {
         mCountDuration_Edit = parseIntValue(countDurationValue, COUNTDURATION_MIN, COUNTDURATION_MAX);
     }
 
+    /**
+     * Analyze the cost of the regexps of all new LogLineMatchers and
+     * those with a modified regexp, see RegExpCostAnalyzer. Called
+     * before editSave() so the user can be warned about a regexp that
+     * would slow down the ingestion before it goes live. The reports
+     * are logged as well.
+     *
+     * @param sampleLines Provides the lines to time the regexps
+     * against for each log source.
+     *
+     * @return One report for each analyzed LogLineMatcher.
+     */
+    public ArrayList<RegExpCostAnalyzer.Report> editAnalyzeCost(RegExpCostAnalyzer.SampleLines sampleLines) {
+        boolean linear = new Prefs().getLinearRegExp();
+        ArrayList<RegExpCostAnalyzer.Report> reports = new ArrayList<RegExpCostAnalyzer.Report>(2);
+        for (LogLineMatcher llm : mLLMs) {
+            String regExp = llm.getRegExp_Edit();
+            if (llm.isDeleted() || Utils.emptyString(regExp) || regExp.trim().equals(llm.getRegExp())) {
+                continue;
+            }
+            try {
+                RegExpCostAnalyzer.Report report =
+                    RegExpCostAnalyzer.analyze(llm.getName_Edit(), regExp.trim(), linear,
+                                               sampleLines.getSampleLines(llm.getSourceName_Edit()));
+                Logger.log(report.toString());
+                reports.add(report);
+            } catch (PatternSyntaxException excep) {
+                // Reported by editSave().
+            }
+        }
+        return reports;
+    }
+
     public void editSave() {
         try {
             setLLMsActivate(false);
@@ -454,15 +517,13 @@ public class LogLineMatcherManager {
         for (int index = 0; index < mLLMs.size();) {
             LogLineMatcher llm = mLLMs.get(index);
             if (!llm.isNew()) {
-                llm.unRegisterFromLogSource();
-                notifyUnRegisterLLM(llm);
+                unRegister(llm);
             }
             if (llm.isDeleted()) {
                 mLLMs.remove(index);
             } else {
                 llm.editCommit();
-                llm.registerToLogSource();
-                notifyRegisterLLM(llm);
+                register(llm);
                 ++index;
             }
         }
@@ -486,9 +547,89 @@ public class LogLineMatcherManager {
                 llm.setActive(active);
             }
         }
+        for (ArrayList<LogLineMatcher> deviceLLMs : mDeviceLLMs.values()) {
+            for (LogLineMatcher llm : deviceLLMs) {
+                llm.setActive(active);
+            }
+        }
+    }
+
+    /**
+     * Register 'llm' to its log source and notify the listeners. For a
+     * LogLineMatcher using a log source on any device, a copy is
+     * registered to the log source on each connected device instead,
+     * and more are added by updateDeviceLLMs() when other devices are
+     * connected.
+     *
+     * @param llm
+     */
+    private void register(LogLineMatcher llm) {
+        if (llm.isAnyDevice()) {
+            ArrayList<LogLineMatcher> deviceLLMs = new ArrayList<LogLineMatcher>(4);
+            mDeviceLLMs.put(llm, deviceLLMs);
+            addDeviceLLMs(llm, deviceLLMs);
+        } else {
+            llm.registerToLogSource();
+            notifyRegisterLLM(llm);
+        }
+    }
+
+    private void unRegister(LogLineMatcher llm) {
+        ArrayList<LogLineMatcher> deviceLLMs = mDeviceLLMs.remove(llm);
+        if (deviceLLMs != null) {
+            for (LogLineMatcher deviceLLM : deviceLLMs) {
+                deviceLLM.unRegisterFromLogSource();
+                notifyUnRegisterLLM(deviceLLM);
+            }
+        } else {
+            llm.unRegisterFromLogSource();
+            notifyUnRegisterLLM(llm);
+        }
+    }
+
+    /**
+     * Register a copy of 'llm' for each connected device not having
+     * one already. The copies are kept when a device is disconnected
+     * so its series remain and continue if it comes back.
+     *
+     * @param llm
+     * @param deviceLLMs The copies registered so far.
+     */
+    private void addDeviceLLMs(LogLineMatcher llm, ArrayList<LogLineMatcher> deviceLLMs) {
+        for (String serial : LogSource.getDeviceSerials()) {
+            boolean found = false;
+            for (LogLineMatcher deviceLLM : deviceLLMs) {
+                if (serial.equals(deviceLLM.getSource().getDeviceSerial())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                try {
+                    LogLineMatcher deviceLLM = llm.createForDevice(serial);
+                    deviceLLMs.add(deviceLLM);
+                    deviceLLM.registerToLogSource();
+                    notifyRegisterLLM(deviceLLM);
+                } catch (LogLineMatcher.InvalidException excep) {
+                    Logger.logExcep(excep);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when devices have been connected, see
+     * LogSource.setDeviceSerials().
+     */
+    public void updateDeviceLLMs() {
+        for (Map.Entry<LogLineMatcher, ArrayList<LogLineMatcher>> entry : mDeviceLLMs.entrySet()) {
+            addDeviceLLMs(entry.getKey(), entry.getValue());
+        }
     }
 
     private void notifyRegisterLLM(LogLineMatcher llm) {
+        freeLLMId(llm.getId());
+        llm.setId(allocateLLMId());
         for (LLMMgrListener listener : mLLMMgrListeners) {
             listener.registeringLLM(llm);
         }
@@ -498,6 +639,8 @@ public class LogLineMatcherManager {
         for (LLMMgrListener listener : mLLMMgrListeners) {
             listener.unRegisteringLLM(llm);
         }
+        freeLLMId(llm.getId());
+        llm.setId(-1);
     }
 
     private void notifyEditCommitBegin() {
@@ -510,8 +653,7 @@ public class LogLineMatcherManager {
         if (mLLMs != null) {
             for (LogLineMatcher llm : mLLMs) {
                 if (llm != null) {
-                    llm.unRegisterFromLogSource();
-                    notifyUnRegisterLLM(llm);
+                    unRegister(llm);
                 }
             }
             mLLMs.clear();
@@ -526,6 +668,11 @@ public class LogLineMatcherManager {
                 }
             }
         }
+        for (ArrayList<LogLineMatcher> deviceLLMs : mDeviceLLMs.values()) {
+            for (LogLineMatcher llm : deviceLLMs) {
+                llm.clearState();
+            }
+        }
     }
 
     public void clearStateLLMsPresentationId(int presentationId) {
@@ -536,13 +683,18 @@ public class LogLineMatcherManager {
                 }
             }
         }
+        for (ArrayList<LogLineMatcher> deviceLLMs : mDeviceLLMs.values()) {
+            for (LogLineMatcher llm : deviceLLMs) {
+                if (llm.getPresentationId() == presentationId) {
+                    llm.clearState();
+                }
+            }
+        }
     }
 
     public void setFileLogSource(FileLogSource fileLogSource) {
         for (int index = 0; index < mLLMs.size(); ++index) {
-            LogLineMatcher llm = mLLMs.get(index);
-            llm.unRegisterFromLogSource();
-            notifyUnRegisterLLM(llm);
+            unRegister(mLLMs.get(index));
         }
         for (int index = 0; index < mLLMs.size(); ++index) {
             LogLineMatcher llm = mLLMs.get(index);
@@ -556,19 +708,83 @@ public class LogLineMatcherManager {
         fileLogSource.startSourcing();
     }
 
+    private static String quoteCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
     /**
-     * Called by LogLineMatcher objects when a log line matches its regexp.
+     * Write the LogLineMatcherProfile of every LogLineMatcher as
+     * comma separated values, one line for each LogLineMatcher.
      *
-     * @param llm
-     * @param seriesIndex
-     * @param millis
-     * @param value
+     * @param file
+     */
+    public void dumpProfile(File file) throws IOException {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(file));
+            writer.write(PROFILE_CSV_HEADER_STR);
+            writer.write("\n");
+            for (LogLineMatcher llm : mLLMs) {
+                LogLineMatcherProfile profile = llm.getProfile();
+                writer.write(quoteCsv(llm.getName()));
+                writer.write(',');
+                writer.write(quoteCsv(llm.getSource().getName()));
+                long[] values = {
+                    profile.getEvaluated(),
+                    profile.getHits(),
+                    profile.getValues(),
+                    profile.getSamples(),
+                    profile.getTotalNanos(),
+                    profile.getMeanNanos(),
+                    profile.getP99Nanos(),
+                };
+                for (long value : values) {
+                    writer.write(',');
+                    writer.write(Long.toString(value));
+                }
+                writer.write("\n");
+            }
+        } catch (IOException excep) {
+            Logger.logExcep(excep);
+            throw excep;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException excep) {
+                    Logger.logExcep(excep);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called with the values LogLineMatchers have matched from a batch
+     * of log lines, see LogLineMatcherEngine. A LLMMgrBatchListener
+     * gets them in one call, other listeners one call per value.
+     *
+     * @param batch
      */
-    public void onMatchedLogLine(LogLineMatcher llm, int seriesIndex,
-                                 Date date, float value) {
-        if (mLLMMgrListeners != null)  {
-            for (LLMMgrListener listener : mLLMMgrListeners) {
-                listener.onMatchedLogLine(llm, seriesIndex, date, value);
+    static void onMatchedLogLines(MatchBatch batch) {
+        int count = batch.getCount();
+        if (count == 0) {
+            return;
+        }
+        for (LLMMgrListener listener : mLLMMgrListeners) {
+            if (listener instanceof LLMMgrBatchListener) {
+                ((LLMMgrBatchListener) listener).onMatchedLogLines(batch);
+                continue;
+            }
+            LogLineMatcher[] llms = batch.getLLMs();
+            int[] seriesIndexes = batch.getSeriesIndexes();
+            long[] millis = batch.getMillis();
+            float[] values = batch.getValues();
+            for (int index = 0; index < count; ++index) {
+                listener.onMatchedLogLine(llms[index], seriesIndexes[index],
+                                          new Date(millis[index]), values[index]);
             }
         }
     }
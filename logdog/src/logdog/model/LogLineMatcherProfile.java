@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts, for one LogLineMatcher, the lines its regexp has been
+ * evaluated for, the hits and the values passed on to the
+ * LogLineMatcherManager, see LogLineMatcher.match() and onMatch().
+ *
+ * Calling System.nanoTime() twice for every line would cost about as
+ * much as a simple regexp, so only every SAMPLE_INTERVAL:th evaluation
+ * is timed. The total time is estimated from these samples and the
+ * p99 is taken from a histogram of them. The counters may be updated
+ * from several threads at once, see LogLineMatcherEngine, and read
+ * from any thread.
+ */
+public final class LogLineMatcherProfile {
+
+    /*------ Static class members and methods ------*/
+
+    // Must be a power of two.
+    static final int SAMPLE_INTERVAL = 64;
+
+    // Four buckets for each power of two, i.e. the p99 is at most 25%
+    // off. Bucket 'n' for n < 4 holds exactly 'n' nanoseconds.
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket
+     *
+     * @return The largest number of nanoseconds in 'bucket'.
+     */
+    static long getBucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int msb = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (msb - SUB_BUCKET_BITS)) - 1;
+    }
+
+
+    /*------ Object members and methods ------*/
+
+    private final AtomicLong mEvaluated = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mValues = new AtomicLong();
+    private final AtomicLong mSamples = new AtomicLong();
+    private final AtomicLong mSampledNanos = new AtomicLong();
+    private final AtomicLongArray mHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Count one evaluation of the regexp.
+     *
+     * @return true if this evaluation should be timed and passed on to
+     *         addSample().
+     */
+    boolean onEvaluate() {
+        return (mEvaluated.incrementAndGet() & (SAMPLE_INTERVAL - 1)) == 0;
+    }
+
+    void addSample(long nanos) {
+        mSamples.incrementAndGet();
+        mSampledNanos.addAndGet(nanos);
+        mHistogram.incrementAndGet(getBucket(nanos));
+    }
+
+    void onHit() {
+        mHits.incrementAndGet();
+    }
+
+    void addValues(int count) {
+        mValues.addAndGet(count);
+    }
+
+    /**
+     * Called when the regexp has changed since the old numbers no
+     * longer tell anything. Counts made at the same time by other
+     * threads may or may not be kept.
+     */
+    void clear() {
+        mEvaluated.set(0);
+        mHits.set(0);
+        mValues.set(0);
+        mSamples.set(0);
+        mSampledNanos.set(0);
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            mHistogram.set(bucket, 0);
+        }
+    }
+
+    public long getEvaluated() {return mEvaluated.get();}
+    public long getHits() {return mHits.get();}
+    public long getValues() {return mValues.get();}
+    public long getSamples() {return mSamples.get();}
+
+    /**
+     * @return The mean time of the timed evaluations, or 0 if none has
+     *         been timed yet.
+     */
+    public long getMeanNanos() {
+        long samples = mSamples.get();
+        return samples > 0 ? mSampledNanos.get() / samples : 0;
+    }
+
+    /**
+     * @return The estimated total time spent evaluating the regexp.
+     */
+    public long getTotalNanos() {
+        return getMeanNanos() * mEvaluated.get();
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     *
+     * @return The upper bound of the histogram bucket holding the
+     *         given percentile of the timed evaluations, or 0 if none
+     *         has been timed yet.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long samples = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            counts[bucket] = mHistogram.get(bucket);
+            samples += counts[bucket];
+        }
+        if (samples == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100));
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            count += counts[bucket];
+            if (count >= rank) {
+                return getBucketMax(bucket);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LogLineMatcherProfileTests {
+
+    @Test
+    public void bucketsCoverAllNanos() {
+        long prevMax = -1;
+        for (int bucket = 0; bucket < 4 * 62; ++bucket) {
+            long max = LogLineMatcherProfile.getBucketMax(bucket);
+            assertTrue(max > prevMax);
+            assertEquals(bucket, LogLineMatcherProfile.getBucket(prevMax + 1));
+            assertEquals(bucket, LogLineMatcherProfile.getBucket(max));
+            prevMax = max;
+        }
+        assertEquals(Long.MAX_VALUE, prevMax);
+    }
+
+    @Test
+    public void everyIntervalTimed() {
+        LogLineMatcherProfile profile = new LogLineMatcherProfile();
+        int timed = 0;
+        for (int index = 0; index < 10 * LogLineMatcherProfile.SAMPLE_INTERVAL; ++index) {
+            if (profile.onEvaluate()) {
+                profile.addSample(100);
+                ++timed;
+            }
+        }
+        assertEquals(10, timed);
+        assertEquals(10 * LogLineMatcherProfile.SAMPLE_INTERVAL, profile.getEvaluated());
+        assertEquals(100, profile.getMeanNanos());
+        assertEquals(100 * profile.getEvaluated(), profile.getTotalNanos());
+    }
+
+    @Test
+    public void p99() {
+        LogLineMatcherProfile profile = new LogLineMatcherProfile();
+        assertEquals(0, profile.getP99Nanos());
+
+        for (int index = 0; index < 990; ++index) {
+            profile.addSample(100);
+        }
+        for (int index = 0; index < 10; ++index) {
+            profile.addSample(10000);
+        }
+        long p99 = profile.getP99Nanos();
+        assertTrue(p99 >= 100 && p99 < 125);
+
+        profile.addSample(10000);
+        p99 = profile.getP99Nanos();
+        assertTrue(p99 >= 10000 && p99 < 12500);
+    }
+
+    @Test
+    public void clear() {
+        LogLineMatcherProfile profile = new LogLineMatcherProfile();
+        profile.onEvaluate();
+        profile.onHit();
+        profile.addValues(2);
+        profile.addSample(50);
+        profile.clear();
+        assertEquals(0, profile.getEvaluated());
+        assertEquals(0, profile.getHits());
+        assertEquals(0, profile.getValues());
+        assertEquals(0, profile.getSamples());
+        assertEquals(0, profile.getP99Nanos());
+    }
+}
@@ -34,8 +34,16 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Random;
 
+import logdog.utils.AdbClient;
+import logdog.utils.FakeAdbServer;
+
 public class LogLineMatcherTests {
 
     public static LogLineMatcher createValidLLM(int id, int groupCount) {
@@ -98,6 +106,94 @@ public class LogLineMatcherTests {
         assertNull(llm);
     }
 
+    /**
+     * Collects the LogLineMatchers registered by a
+     * LogLineMatcherManager and their matches.
+     */
+    static class CollectingLLMMgrListener implements LLMMgrListener {
+        final ArrayList<LogLineMatcher> mRegistered = new ArrayList<LogLineMatcher>();
+        final ArrayList<LogLineMatcher> mMatched = new ArrayList<LogLineMatcher>();
+
+        @Override
+        public synchronized void registeringLLM(LogLineMatcher llm) {
+            mRegistered.add(llm);
+        }
+
+        @Override
+        public synchronized void unRegisteringLLM(LogLineMatcher llm) {
+            mRegistered.remove(llm);
+        }
+
+        @Override
+        public synchronized void onMatchedLogLine(LogLineMatcher llm, int seriesIndex,
+                                                  Date date, float value) {
+            if (!mMatched.contains(llm)) {
+                mMatched.add(llm);
+            }
+            notifyAll();
+        }
+
+        synchronized boolean waitForMatched(int count, long timeoutMs) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMs;
+            while (mMatched.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            return mMatched.size() >= count;
+        }
+    }
+
+    @Test
+    public void anyDeviceMatcherPerDevice() throws Exception {
+        File file = File.createTempFile("logdog", ".logdog");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write("<LogLineMatchers><LogLineMatcher>" +
+                     "<Name>Start proc</Name>" +
+                     "<Source>logcat_events@*</Source>" +
+                     "<RegExp>.*?Start proc (\\d+)</RegExp>" +
+                     "</LogLineMatcher></LogLineMatchers>");
+        writer.close();
+
+        FakeAdbServer server = new FakeAdbServer();
+        AdbClient defaultClient = AdbClient.getDefault();
+        CollectingLLMMgrListener listener = new CollectingLLMMgrListener();
+        LogLineMatcherManager.addLLMMgrListener(listener);
+        LogLineMatcherManager llmMgr = null;
+        try {
+            AdbClient.setDefault(server.createClient());
+            server.setDevice("SER1", AdbClient.STATE_DEVICE);
+            server.setShellOutput("logcat -v threadtime -D -b all",
+                                  "--------- beginning of events\n" +
+                                  "10-17 12:34:56.789  1234  5678 I am_proc : Start proc 4012\n");
+            LogSource.setDeviceSerials(Arrays.asList("SER1", "SER2"));
+            llmMgr = LogLineMatcherManager.createFromFile(file);
+
+            // One copy per device, none for the one in the file.
+            assertEquals(2, listener.mRegistered.size());
+            assertEquals("logcat_events@SER1", listener.mRegistered.get(0).getSource().getName());
+            assertEquals("logcat_events@SER2", listener.mRegistered.get(1).getSource().getName());
+            assertTrue(listener.waitForMatched(2, 5000));
+
+            LogSource.setDeviceSerials(Arrays.asList("SER1", "SER2", "SER3"));
+            llmMgr.updateDeviceLLMs();
+            assertEquals(3, listener.mRegistered.size());
+            assertEquals("logcat_events@SER3", listener.mRegistered.get(2).getSource().getName());
+            assertTrue(listener.waitForMatched(3, 5000));
+            assertTrue(server.getServices().contains("host:transport:SER3"));
+
+            llmMgr.unRegisterAllLLMs();
+            assertEquals(0, listener.mRegistered.size());
+        } finally {
+            LogLineMatcherManager.removeLLMMgrListener(listener);
+            LogSource.setDeviceSerials(new ArrayList<String>());
+            if (llmMgr != null) {
+                llmMgr.unRegisterAllLLMs();
+            }
+            AdbClient.setDefault(defaultClient);
+            server.close();
+        }
+    }
+
    // @Test
     // public void saveOneValidToFile() {
     //     File xmlPath = new File("./test_save_one_valid.logdog");
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring buffer of preallocated LogLine slots between the
+ * LogSource reader thread (the single producer) and the threads
+ * dispatching lines to the LogSourceListeners (the consumers).
+ *
+ * This is done the same way as the LMAX disruptor: every stage owns
+ * a Sequence telling how far it has come, and a stage only reads
+ * slots up to the Sequence of the stage before it. Passing lines
+ * between stages never takes a lock. A stage waiting for data spins
+ * and yields for a short while and then blocks until signalled, so
+ * idle LogSources don't burn CPU. The producer only waits when the
+ * slowest consumer is a full buffer behind.
+ */
+class LogLineRingBuffer {
+
+    static final long INITIAL_SEQUENCE = -1;
+
+    // Wait strategy, see waitIdle().
+    private static final int SPIN_COUNT = 100;
+    private static final int YIELD_COUNT = 100;
+    // Upper bound for a missed signal:
+    private static final long BLOCK_TIMEOUT_MS = 10;
+
+    /**
+     * A sequence number owned by one stage. When the stage is done
+     * (its upstream is done and it has caught up) it is marked as
+     * done so the stages after it can finish as well.
+     */
+    static class Sequence {
+        private final AtomicLong mValue = new AtomicLong(INITIAL_SEQUENCE);
+        private volatile boolean mDone;
+
+        long get() {return mValue.get();}
+        void set(long value) {mValue.lazySet(value);}
+        boolean isDone() {return mDone;}
+        void setDone(boolean done) {mDone = done;}
+    }
+
+    private final LogLine[] mLines;
+    private final boolean[] mDropped;
+    private final int mMask;
+    private final Sequence mCursor = new Sequence();  // last published slot
+    // Sequences of the last stages, the producer must not pass them.
+    private volatile Sequence[] mGates = new Sequence[0];
+
+    private final Object mWaitLock = new Object();
+    private final AtomicInteger mWaiterCount = new AtomicInteger();
+
+    // Only touched by the producer:
+    private long mNext = INITIAL_SEQUENCE;
+    private long mCachedGate = INITIAL_SEQUENCE;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Number of slots, must be a power of two.
+     */
+    LogLineRingBuffer(int capacity) {
+        assert Integer.bitCount(capacity) == 1 : "LogLineRingBuffer: capacity must be a power of two";
+        mLines = new LogLine[capacity];
+        for (int index = 0; index < capacity; ++index) {
+            mLines[index] = new LogLine();
+        }
+        mDropped = new boolean[capacity];
+        mMask = capacity - 1;
+    }
+
+    int getCapacity() {
+        return mLines.length;
+    }
+
+    Sequence getCursor() {
+        return mCursor;
+    }
+
+    LogLine get(long sequence) {
+        return mLines[(int) sequence & mMask];
+    }
+
+    // Set by the filter stage for lines that should not be dispatched.
+    void setDropped(long sequence, boolean dropped) {
+        mDropped[(int) sequence & mMask] = dropped;
+    }
+
+    boolean isDropped(long sequence) {
+        return mDropped[(int) sequence & mMask];
+    }
+
+    /**
+     * Claim the next slot. Waits if the slowest stage is a full
+     * buffer behind. Only called by the producer.
+     *
+     * @return the sequence of the claimed slot, fill it using get()
+     * and then call publish().
+     */
+    long next() throws InterruptedException {
+        long next = mNext + 1;
+        long wrapPoint = next - mLines.length;
+        if (wrapPoint > mCachedGate) {
+            long gate;
+            int idle = 0;
+            while (wrapPoint > (gate = getMinimumGate())) {
+                idle = waitIdle(idle);
+            }
+            mCachedGate = gate;
+        }
+        mNext = next;
+        return next;
+    }
+
+    void publish(long sequence) {
+        mCursor.set(sequence);
+        signal();
+    }
+
+    /**
+     * Called by a stage when it has processed all slots up to and
+     * including 'value'.
+     */
+    void advance(Sequence sequence, long value) {
+        sequence.set(value);
+        signal();
+    }
+
+    /**
+     * Called by a stage when it is done.
+     */
+    void finish(Sequence sequence) {
+        sequence.setDone(true);
+        signal();
+    }
+
+    /**
+     * Called by the producer when it has stopped producing. The stages
+     * will finish when they have caught up.
+     */
+    void close() {
+        finish(mCursor);
+    }
+
+    /**
+     * Called before the producer starts again after close().
+     */
+    void reopen() {
+        mCursor.setDone(false);
+    }
+
+    private long getMinimumGate() {
+        long min = mCursor.get();
+        for (Sequence gate : mGates) {
+            long value = gate.get();
+            if (value < min) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Add a Sequence that the producer must not pass. The Sequence is
+     * set to the current cursor i.e. its stage will only see lines
+     * published from now on.
+     *
+     * @param sequence
+     */
+    synchronized void addGate(Sequence sequence) {
+        sequence.set(mCursor.get());
+        Sequence[] gates = new Sequence[mGates.length + 1];
+        System.arraycopy(mGates, 0, gates, 0, mGates.length);
+        gates[mGates.length] = sequence;
+        mGates = gates;
+        // The producer may have moved before it saw the new gate.
+        sequence.set(mCursor.get());
+    }
+
+    /**
+     * Wait until 'upstream' has reached 'sequence'.
+     *
+     * @param sequence
+     * @param upstream Sequence of the stage before the caller.
+     *
+     * @return the highest sequence that can be read, less than
+     * 'sequence' if 'upstream' is done and there is nothing more to read.
+     */
+    long waitFor(long sequence, Sequence upstream) throws InterruptedException {
+        long available;
+        int idle = 0;
+        while ((available = upstream.get()) < sequence) {
+            if (upstream.isDone() && upstream.get() < sequence) {
+                return upstream.get();
+            }
+            idle = waitIdle(idle);
+        }
+        return available;
+    }
+
+    private void signal() {
+        if (mWaiterCount.get() > 0) {
+            synchronized (mWaitLock) {
+                mWaitLock.notifyAll();
+            }
+        }
+    }
+
+    private int waitIdle(int idle) throws InterruptedException {
+        if (idle < SPIN_COUNT) {
+            // busy spin
+        } else if (idle < SPIN_COUNT + YIELD_COUNT) {
+            Thread.yield();
+        } else {
+            mWaiterCount.incrementAndGet();
+            try {
+                synchronized (mWaitLock) {
+                    mWaitLock.wait(BLOCK_TIMEOUT_MS);
+                }
+            } finally {
+                mWaiterCount.decrementAndGet();
+            }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return idle + 1;
+    }
+}
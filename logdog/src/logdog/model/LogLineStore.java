@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import logdog.utils.Logger;
+
+/**
+ * Keeps the last lines of a log source as UTF-8 bytes outside of the
+ * Java heap, for the log view. The bytes are appended to large direct
+ * ByteBuffer arenas and an index, also kept in direct buffers, holds
+ * the offset, length and time of each line. A String is only created
+ * when a line is asked for, see get().
+ *
+ * When there is no room left for a line the oldest lines are dropped,
+ * the arenas are used as a ring. Arenas and index pages are allocated
+ * when first needed so a short log doesn't cost more than it uses.
+ *
+ * With a spill directory the arenas and index pages are instead
+ * memory-mapped segment files, so many more lines than fit in memory
+ * can be kept, e.g. for an overnight test. The operating system keeps
+ * the recently used segments in its page cache and pages in older
+ * ones when they are read, the rolling ring then reuses the oldest
+ * segment. Each file is deleted as soon as it is mapped, the disk
+ * space is given back when the mapping is garbage collected.
+ *
+ * All methods are synchronized, lines are added from a Dispatcher
+ * thread of the LogSource and read from the UI thread.
+ */
+public final class LogLineStore {
+
+    private static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+    // The index: per line offset (long), length (int) and time (long).
+    private static final int INDEX_OFFSET = 0;
+    private static final int INDEX_LENGTH = 8;
+    private static final int INDEX_MILLIS = 12;
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int INDEX_PAGE_BITS = 16;
+    private static final int INDEX_PAGE_LINES = 1 << INDEX_PAGE_BITS;
+    // Sizes the index from the number of bytes, a smaller average
+    // line length than that fills the index before the arenas.
+    private static final int MIN_AVERAGE_LINE_BYTES = 48;
+
+    private final File mSpillDirectory;  // null for direct buffers
+    private final int mArenaSize;  // a power of two
+    private final ByteBuffer[] mArenas;
+    private int mArenaCount;  // in use, less than mArenas.length if out of memory
+    private final ByteBuffer[] mIndexPages;
+    private final int mMaxLines;
+
+    // Line numbers since created, the lines kept are [mFirst, mNext).
+    private long mFirst;
+    private long mNext;
+    // Offset of the next line, since created. Offset 'o' is at
+    // (o % mArenaSize) in arena (o / mArenaSize % mArenaCount).
+    private long mWriteOffset;
+    private byte[] mBytes = new byte[256];  // for get()
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes The bytes to keep lines in, at least one arena
+     *                 is used.
+     */
+    public LogLineStore(long maxBytes) {
+        this(maxBytes, DEFAULT_ARENA_SIZE, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes The bytes to keep lines in, at least one arena
+     *                 is used.
+     * @param spillDirectory Where to put the memory-mapped segment
+     *                       files, null to use direct buffers.
+     */
+    public LogLineStore(long maxBytes, File spillDirectory) {
+        this(maxBytes, DEFAULT_ARENA_SIZE, spillDirectory);
+    }
+
+    LogLineStore(long maxBytes, int arenaSize, File spillDirectory) {
+        assert Integer.bitCount(arenaSize) == 1 : "LogLineStore: 'arenaSize' must be a power of two";
+        mSpillDirectory = spillDirectory;
+        mArenaSize = arenaSize;
+        int arenaCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                                                     (maxBytes + arenaSize - 1) / arenaSize));
+        mArenas = new ByteBuffer[arenaCount];
+        mArenaCount = arenaCount;
+        long maxLines = Math.max(INDEX_PAGE_LINES,
+                                 (long) arenaCount * arenaSize / MIN_AVERAGE_LINE_BYTES);
+        int pageCount = (int) Math.min((maxLines + INDEX_PAGE_LINES - 1) / INDEX_PAGE_LINES,
+                                       Integer.MAX_VALUE / INDEX_PAGE_LINES);
+        mIndexPages = new ByteBuffer[pageCount];
+        mMaxLines = pageCount * INDEX_PAGE_LINES;
+    }
+
+    /**
+     * @return The most lines kept at once.
+     */
+    public int getMaxLines() {
+        return mMaxLines;
+    }
+
+    public synchronized int size() {
+        return (int) (mNext - mFirst);
+    }
+
+    /**
+     * Forget all lines. The memory is kept for the next lines.
+     */
+    public synchronized void clear() {
+        mFirst = mNext;
+    }
+
+    /**
+     * Add a line, as its UTF-8 bytes.
+     *
+     * @param line
+     *
+     * @return true if older lines were dropped to make room.
+     */
+    public boolean add(LogLine line) {
+        synchronized (this) {
+            long first = mFirst;
+            int length = Math.min(line.getByteCount(), mArenaSize);
+            ByteBuffer arena = reserve(length);
+            if (arena == null) {
+                return false;
+            }
+            line.writeTo(arena, length);
+            commit(length, line.getMillis());
+            return mFirst != first;
+        }
+    }
+
+    /**
+     * Add a line.
+     *
+     * @param text
+     * @param millis Time of the line, -1 if unknown.
+     *
+     * @return true if older lines were dropped to make room.
+     */
+    public boolean add(String text, long millis) {
+        byte[] bytes = text.getBytes(LogLine.UTF8);
+        synchronized (this) {
+            long first = mFirst;
+            int length = Math.min(bytes.length, mArenaSize);
+            ByteBuffer arena = reserve(length);
+            if (arena == null) {
+                return false;
+            }
+            arena.put(bytes, 0, length);
+            commit(length, millis);
+            return mFirst != first;
+        }
+    }
+
+    /**
+     * @param index 0 for the oldest line kept.
+     *
+     * @return The line, or null if 'index' is out of range e.g. when
+     * lines were dropped since size() was called.
+     */
+    public synchronized String get(int index) {
+        if (index < 0 || index >= mNext - mFirst) {
+            return null;
+        }
+        long line = mFirst + index;
+        ByteBuffer page = getIndexPage(line);
+        int entry = getIndexEntry(line);
+        long offset = page.getLong(entry + INDEX_OFFSET);
+        int length = page.getInt(entry + INDEX_LENGTH);
+        if (mBytes.length < length) {
+            mBytes = new byte[Math.max(length, mBytes.length * 2)];
+        }
+        ByteBuffer arena = mArenas[getArena(offset)];
+        arena.position((int) (offset & (mArenaSize - 1)));
+        arena.get(mBytes, 0, length);
+        return new String(mBytes, 0, length, LogLine.UTF8);
+    }
+
+    /**
+     * @param index 0 for the oldest line kept.
+     *
+     * @return The time of the line in milliseconds, -1 if unknown.
+     */
+    public synchronized long getMillis(int index) {
+        checkIndex(index);
+        long line = mFirst + index;
+        return getIndexPage(line).getLong(getIndexEntry(line) + INDEX_MILLIS);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mNext - mFirst) {
+            throw new IndexOutOfBoundsException(String.format("LogLineStore: index %d, size %d",
+                                                              index, mNext - mFirst));
+        }
+    }
+
+    /**
+     * Make room for a line of 'length' bytes, dropping the oldest
+     * lines if needed.
+     *
+     * @return The arena positioned where the line is to be put, or
+     * null if out of memory.
+     */
+    private ByteBuffer reserve(int length) {
+        long offset = mWriteOffset;
+        long position = offset & (mArenaSize - 1);
+        if (position + length > mArenaSize) {
+            offset += mArenaSize - position;  // lines don't span arenas
+            position = 0;
+        }
+        int arenaIndex = getArena(offset);
+        if (mArenas[arenaIndex] == null) {
+            mArenas[arenaIndex] = allocate(mArenaSize, arenaIndex == 0);
+            if (mArenas[arenaIndex] == null) {
+                if (arenaIndex == 0) {
+                    return null;
+                }
+                // Use the arenas we have as the ring.
+                Logger.log(String.format("LogLineStore: out of memory or disk space, keeping %d MB of lines",
+                                         (long) arenaIndex * mArenaSize / (1024 * 1024)));
+                mArenaCount = arenaIndex;
+                mFirst = mNext;  // the offsets of the lines kept are no longer valid
+                offset = 0;
+                mWriteOffset = 0;
+                arenaIndex = 0;
+            }
+        }
+        long lineNumber = mNext;
+        if (getIndexPage(lineNumber) == null) {
+            ByteBuffer page = allocate(INDEX_PAGE_LINES * INDEX_ENTRY_SIZE, true);
+            if (page == null) {
+                return null;
+            }
+            mIndexPages[(int) (lineNumber / INDEX_PAGE_LINES % mIndexPages.length)] = page;
+        }
+
+        // Drop the lines whose index entries or bytes are reused, the
+        // bytes up to 'end' were last used by offsets up to end - capacity.
+        long reused = offset + length - (long) mArenaCount * mArenaSize;
+        while (mFirst < mNext && (mNext - mFirst >= mMaxLines || getOffset(mFirst) < reused)) {
+            ++mFirst;
+        }
+        mWriteOffset = offset;
+        ByteBuffer arena = mArenas[arenaIndex];
+        arena.position((int) position);
+        return arena;
+    }
+
+    /**
+     * Allocate a direct buffer, or map a new segment file if spilling.
+     *
+     * @param size
+     * @param logFailure Log why if the buffer can't be allocated.
+     *
+     * @return The buffer, or null if out of memory or disk space.
+     */
+    private ByteBuffer allocate(int size, boolean logFailure) {
+        try {
+            if (mSpillDirectory == null) {
+                return ByteBuffer.allocateDirect(size);
+            }
+            return mapSegment(size);
+        } catch (OutOfMemoryError excep) {
+            if (logFailure) {
+                Logger.logExcep(excep);
+            }
+        } catch (IOException excep) {
+            if (logFailure) {
+                Logger.logExcep(excep);
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer mapSegment(int size) throws IOException {
+        if (!mSpillDirectory.isDirectory() && !mSpillDirectory.mkdirs()) {
+            throw new IOException("LogLineStore: can't create " + mSpillDirectory);
+        }
+        File file = File.createTempFile("logdog", ".segment", mSpillDirectory);
+        RandomAccessFile segment = null;
+        try {
+            segment = new RandomAccessFile(file, "rw");
+            segment.setLength(size);
+            // The mapping stays valid when the file is closed.
+            return segment.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            if (segment != null) {
+                segment.close();
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();  // e.g. Windows, mapped files can't be deleted
+            }
+        }
+    }
+
+    private void commit(int length, long millis) {
+        long line = mNext;
+        ByteBuffer page = getIndexPage(line);
+        int entry = getIndexEntry(line);
+        page.putLong(entry + INDEX_OFFSET, mWriteOffset);
+        page.putInt(entry + INDEX_LENGTH, length);
+        page.putLong(entry + INDEX_MILLIS, millis);
+        mWriteOffset += length;
+        ++mNext;
+    }
+
+    private int getArena(long offset) {
+        return (int) (offset / mArenaSize % mArenaCount);
+    }
+
+    private long getOffset(long line) {
+        return getIndexPage(line).getLong(getIndexEntry(line) + INDEX_OFFSET);
+    }
+
+    private ByteBuffer getIndexPage(long line) {
+        return mIndexPages[(int) (line / INDEX_PAGE_LINES % mIndexPages.length)];
+    }
+
+    private static int getIndexEntry(long line) {
+        return (int) (line & (INDEX_PAGE_LINES - 1)) * INDEX_ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+
+public class LogLineStoreTests {
+
+    @Test
+    public void addAndGet() {
+        LogLineStore store = new LogLineStore(1024, 1024, null);
+        assertEquals(0, store.size());
+        assertNull(store.get(0));
+
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.789  1234  5678 D tag: r\u00e4ksm\u00f6rg\u00e5s", new TimestampParser());
+        assertFalse(store.add(line));
+        assertFalse(store.add("-- marker --", 4711));
+        assertEquals(2, store.size());
+        assertEquals(line.getText(), store.get(0));
+        assertEquals(line.getMillis(), store.getMillis(0));
+        assertEquals("-- marker --", store.get(1));
+        assertEquals(4711, store.getMillis(1));
+        assertNull(store.get(2));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.add("after clear", -1));
+        assertEquals("after clear", store.get(0));
+    }
+
+    @Test
+    public void oldestDroppedWhenFull() {
+        // Four arenas of 64 bytes, lines of 20 bytes: three per arena.
+        LogLineStore store = new LogLineStore(256, 64, null);
+        int added = 0;
+        for (; added < 12; ++added) {
+            assertFalse(store.add(String.format("line %015d", added), added));
+        }
+        assertEquals(12, store.size());
+
+        // Only the line whose bytes are reused is dropped.
+        assertTrue(store.add(String.format("line %015d", added), added));
+        ++added;
+        assertEquals(12, store.size());
+        for (int index = 0; index < store.size(); ++index) {
+            int expected = added - store.size() + index;
+            assertEquals(String.format("line %015d", expected), store.get(index));
+            assertEquals(expected, store.getMillis(index));
+        }
+
+        for (; added < 1000; ++added) {
+            store.add(String.format("line %015d", added), added);
+        }
+        assertEquals(String.format("line %015d", 999), store.get(store.size() - 1));
+        assertTrue(store.size() >= 10 && store.size() <= 12);
+    }
+
+    @Test
+    public void indexLimitsLineCount() {
+        LogLineStore store = new LogLineStore(16 * 1024 * 1024, 1024 * 1024, null);
+        int maxLines = store.getMaxLines();
+        for (int index = 0; index < maxLines; ++index) {
+            assertFalse(store.add("x", index));
+        }
+        assertTrue(store.add("y", maxLines));
+        assertEquals(maxLines, store.size());
+        assertEquals(1, store.getMillis(0));
+        assertEquals("y", store.get(maxLines - 1));
+    }
+
+    @Test
+    public void spilledToSegmentFiles() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "logdog-tests-" + System.nanoTime());
+        // Eight segments of 64 KB, rolled over a few times.
+        LogLineStore store = new LogLineStore(512 * 1024, 64 * 1024, directory);
+        int added = 0;
+        for (; added < 100000; ++added) {
+            store.add(String.format("line %015d", added), added);
+        }
+        assertEquals(String.format("line %015d", added - 1), store.get(store.size() - 1));
+        int first = added - store.size();
+        assertEquals(String.format("line %015d", first), store.get(0));
+        assertEquals(first, store.getMillis(0));
+        assertTrue(store.size() > 20000);
+
+        // The files are deleted when mapped.
+        String[] files = directory.list();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+        directory.delete();
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LogLineTests {
+
+    private TimestampParser mTsParser = new TimestampParser();
+
+    @Test
+    public void parseThreadtimeHeader() {
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.789  1234  5678 D dalvikvm: GC_CONCURRENT freed 1024K, 12% free", mTsParser);
+        assertTrue(line.hasHeader());
+        assertEquals(1234, line.getPid());
+        assertEquals(5678, line.getTid());
+        assertEquals('D', line.getLevel());
+        assertEquals("dalvikvm", line.getTag());
+        assertEquals("GC_CONCURRENT freed 1024K, 12% free", line.getMessage());
+    }
+
+    @Test
+    public void parseWidePidAndPaddedTag() {
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.789 123456 123457 W GC      : message", mTsParser);
+        assertTrue(line.hasHeader());
+        assertEquals(123456, line.getPid());
+        assertEquals(123457, line.getTid());
+        assertEquals('W', line.getLevel());
+        assertEquals("GC", line.getTag());
+        assertEquals("message", line.getMessage());
+    }
+
+    @Test
+    public void parseWithoutHeader() {
+        LogLine line = new LogLine();
+        line.set("--------- beginning of main", mTsParser);
+        assertFalse(line.hasHeader());
+        assertEquals(-1, line.getMillis());
+        assertNull(line.getTag());
+        assertEquals("--------- beginning of main", line.getMessage());
+    }
+
+    @Test
+    public void parseLevelOfStoredLine() {
+        assertEquals('D', LogLine.parseLevel("10-17 12:34:56.789  1234  5678 D dalvikvm: GC_CONCURRENT"));
+        assertEquals('W', LogLine.parseLevel("10-17 12:34:56.789 123456 123457 W GC      : message"));
+        // No ':' after the tag, the level is still known.
+        assertEquals('E', LogLine.parseLevel("10-17 12:34:56.789  1234  5678 E no colon here"));
+        assertEquals(0, LogLine.parseLevel("--------- beginning of main"));
+    }
+}
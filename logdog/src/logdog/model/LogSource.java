@@ -31,20 +31,20 @@
 package logdog.model;
 
 import java.awt.Color;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import logdog.model.BlackList.BlackListListener;
@@ -78,18 +78,79 @@ public class LogSource {
     public static int COUNT = 7;
     private static ArrayList<LogSource> sLogSources = new ArrayList<LogSource>(COUNT); // capacity
 
+    // The logcat sources of a certain device are named
+    // <source name>@<serial>, e.g. "logcat_main@CB5A1234". Without a
+    // serial the device is the one adb picks with '-d'. ANY_DEVICE as
+    // serial names the source on every connected device, see
+    // LogLineMatcherManager.
+    public static final String DEVICE_SEPARATOR = "@";
+    public static final String ANY_DEVICE = "*";
+
+    // Serials of the connected devices, see setDeviceSerials():
+    private static volatile List<String> sDeviceSerials = Collections.emptyList();
+
     public static String[] getSourceNames() {
         return sSourceName;
     }
 
-    protected static String sLogCatTSRegExp = "^(\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}.\\d{3})";
+    /**
+     * Get the name of a log source on a certain device.
+     *
+     * @param sourceName e.g. "logcat_main"
+     * @param serial The serial of the device, ANY_DEVICE or null for
+     *               the default device.
+     *
+     * @return e.g. "logcat_main@CB5A1234"
+     */
+    public static String getSourceName(String sourceName, String serial) {
+        return serial == null ? sourceName : sourceName + DEVICE_SEPARATOR + serial;
+    }
+
+    /**
+     * Get the device serial part of a log source name.
+     *
+     * @param sourceName
+     *
+     * @return the serial, ANY_DEVICE or null for the default device.
+     */
+    public static String getDeviceSerial(String sourceName) {
+        int index = sourceName.indexOf(DEVICE_SEPARATOR);
+        return index != -1 ? sourceName.substring(index + 1) : null;
+    }
+
+    /**
+     * Get a log source name without the device serial part.
+     *
+     * @param sourceName
+     *
+     * @return
+     */
+    public static String getBaseName(String sourceName) {
+        int index = sourceName.indexOf(DEVICE_SEPARATOR);
+        return index != -1 ? sourceName.substring(0, index) : sourceName;
+    }
+
+    /**
+     * Called when devices are connected or disconnected.
+     *
+     * @param serials The serials of all devices ready for use.
+     */
+    public static void setDeviceSerials(List<String> serials) {
+        sDeviceSerials = Collections.unmodifiableList(new ArrayList<String>(serials));
+    }
+
+    public static List<String> getDeviceSerials() {
+        return sDeviceSerials;
+    }
+
+    // Stands in for the timestamp group the regexps used to start
+    // with, see compileRegExp():
+    private static final String sTimestampGroup = "()";
     // This is the position in a log line when using -v threadtime
     // where the log tag starts i.e. the timestamp, pid and tid are
     // skipped.
     private static final int sThreadtimeLogTagStartPos = 33;
 
-    protected static SimpleDateFormat sTSFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
-
     public static LogSource findLogSourceByName(String sourceName) {
         // Look if we already got a LogSource:
         synchronized (sLogSources)  {
@@ -123,19 +184,28 @@ public class LogSource {
 
         // We haven't, create the LogSource if the name is valid:
         // The FILE LogSource should not be here since it is created per file.
+        String baseName = getBaseName(sourceName);
+        String serial = getDeviceSerial(sourceName);
+        if (serial != null && serial.length() == 0) {
+            return null;
+        }
         LogSource logSource = null;
-        if (sourceName.equals(sSourceName[LOGCAT_MAIN_AND_SYSTEM])) {
-            logSource = new LS_LogCatmainAndSystem();
-        } else if (sourceName.equals(sSourceName[LOGCAT_MAIN])) {
-            logSource = new LS_LogCatMain();
-        } else if (sourceName.equals(sSourceName[LOGCAT_SYSTEM])) {
-            logSource = new LS_LogCatSystem();
-        } else if (sourceName.equals(sSourceName[LOGCAT_EVENTS])) {
-            logSource = new LS_LogCatEvents();
-        } else if (sourceName.equals(sSourceName[LOGCAT_RADIO])) {
-            logSource = new LS_LogCatRadio();
-        } else if (sourceName.equals(sSourceName[LOGCAT_ALL])) {
-            logSource = new LS_LogCatAll();
+        if (ANY_DEVICE.equals(serial)) {
+            if (findLogSource(baseName, false) != null) {
+                logSource = new LS_AnyDevice(sourceName);
+            }
+        } else if (baseName.equals(sSourceName[LOGCAT_MAIN_AND_SYSTEM])) {
+            logSource = new LS_LogCatmainAndSystem(serial);
+        } else if (baseName.equals(sSourceName[LOGCAT_MAIN])) {
+            logSource = new LS_LogCatMain(serial);
+        } else if (baseName.equals(sSourceName[LOGCAT_SYSTEM])) {
+            logSource = new LS_LogCatSystem(serial);
+        } else if (baseName.equals(sSourceName[LOGCAT_EVENTS])) {
+            logSource = new LS_LogCatEvents(serial);
+        } else if (baseName.equals(sSourceName[LOGCAT_RADIO])) {
+            logSource = new LS_LogCatRadio(serial);
+        } else if (baseName.equals(sSourceName[LOGCAT_ALL])) {
+            logSource = new LS_LogCatAll(serial);
         }
 
         if (logSource != null) {
@@ -167,7 +237,9 @@ public class LogSource {
     public static void saveAllToFile(boolean saveToFile) {
         synchronized (sLogSources)  {
             for (LogSource logSource : sLogSources) {
-                logSource.setSaveToFile(saveToFile);
+                if (!(logSource instanceof LS_AnyDevice)) {  // never gets any lines
+                    logSource.setSaveToFile(saveToFile);
+                }
             }
         }
     }
@@ -362,17 +434,37 @@ public class LogSource {
     private volatile boolean mFeeding = true;
 
     protected final String mName;
-    private final String mRunCmdLine;
-    private Thread mThread;
-    private volatile Process mProcess;
+    // Either mStream is read by mReader or the lines of the buffers in
+    // mBufferMask are passed on by mMux.
+    private final LogSourceStream mStream;
+    private final LogcatMux mMux;
+    private final int mBufferMask;
+    private StreamReader mReader;
+    private volatile boolean mSubscribed;
+    // Edited with mListeners locked, mListenerSnapshot is a copy for
+    // readers that must not lock.
     private ArrayList<LogSourceListener> mListeners = new ArrayList<LogSourceListener>(2);
+    private volatile LogSourceListener[] mListenerSnapshot = new LogSourceListener[0];
     private static ArrayList<LogSourceLifeListener> mLifeListeners =
         new ArrayList<LogSourceLifeListener>(2);
     private static ArrayList<LogSourceFeedListener> mFeedListeners =
         new ArrayList<LogSourceFeedListener>(2);
     private FileDumper mFileDumper;
+    // Listener for all LogLineMatchers, added with the first one:
+    private final LogLineMatcherEngine mMatcherEngine = new LogLineMatcherEngine();
+
+    // Lines read by mReader or passed on by LogcatMux go through
+    // mRingBuffer to the filter stage and then to the Dispatchers, see
+    // start().
+    private static final int RING_BUFFER_SIZE = 16 * 1024;  // must be a power of two
+    private static final int STAGE_JOIN_TIMEOUT_MS = 3000;
+    private final LogLineRingBuffer mRingBuffer = new LogLineRingBuffer(RING_BUFFER_SIZE);
+    private final LogLineRingBuffer.Sequence mFilterSequence = new LogLineRingBuffer.Sequence();
+    private IngestionPool.Task mFilterTask;
+    // One Dispatcher per listener class, guarded by mListeners:
+    private ArrayList<Dispatcher> mDispatchers = new ArrayList<Dispatcher>(3);
+
     private BlackList mBlackList = new BlackList(this);
-    private LogSourceTriggerList mTriggerList = new LogSourceTriggerList();
 
     private Color greenColor = new Color(64, 135, 64);
     private Color redColor = new Color(255, 0, 0);
@@ -388,13 +480,47 @@ public class LogSource {
      * @return
      */
     public LogSource(String name, String runCmdline) {
-        assert !Utils.emptyString(name) : "LogSource: 'name' cannot be empty";
+        this(name, new ProcessStream(runCmdline));
         assert !Utils.emptyString(runCmdline) : "LogSource: 'commandline' cannot be empty";
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     * @param stream
+     *
+     * @return
+     */
+    public LogSource(String name, LogSourceStream stream) {
+        this(name, stream, null, 0);
+    }
+
+    /**
+     * Constructor for logcat sources sharing one reader.
+     *
+     * @param name
+     * @param mux
+     * @param bufferMask The logcat buffers to get lines from, see
+     *                   LogcatMux.getBufferMask().
+     *
+     * @return
+     */
+    LogSource(String name, LogcatMux mux, int bufferMask) {
+        this(name, null, mux, bufferMask);
+    }
+
+    private LogSource(String name, LogSourceStream stream, LogcatMux mux, int bufferMask) {
+        assert !Utils.emptyString(name) : "LogSource: 'name' cannot be empty";
         mName = name;
-        mRunCmdLine = runCmdline;
+        mStream = stream;
+        mMux = mux;
+        mBufferMask = bufferMask;
         mFileDumper = new FileDumper(mName);
+        mRingBuffer.addGate(mFilterSequence);
         if (logdog.DEBUG) {
-            Logger.log(String.format("LogSource '%s': c-tor: mRunCmdLine=%s", mName, mRunCmdLine));
+            Logger.log(String.format("LogSource '%s': c-tor: mStream=%s mBufferMask=0x%x",
+                                     mName, mStream, mBufferMask));
         }
     }
 
@@ -402,12 +528,14 @@ public class LogSource {
         synchronized (mListeners) {
             if (listener != null && !mListeners.contains(listener)) {
                 mListeners.add(listener);
+                mListenerSnapshot = mListeners.toArray(new LogSourceListener[mListeners.size()]);
+                getDispatcher(listener.getClass()).add(listener);
 
                 // Start the LogSource on a separate thread if the
                 // first listener and the LogSource is active.
                 // 'FileLogSource' is not active when created,
                 // thus start() have to be called manually.
-                if (mActive && mListeners.size() == 1 && mThread == null) {
+                if (mActive && mListeners.size() == 1 && !isRunning()) {
                     start();
                 }
             }
@@ -418,6 +546,8 @@ public class LogSource {
         synchronized (mListeners) {
             if (listener != null && mListeners.contains(listener)) {
                 mListeners.remove(listener);
+                mListenerSnapshot = mListeners.toArray(new LogSourceListener[mListeners.size()]);
+                getDispatcher(listener.getClass()).remove(listener);
 
                 // Skip this to prevent restarting the log source when
                 // unregistering the last LogLineMatcher while editing:
@@ -428,8 +558,49 @@ public class LogSource {
         }
     }
 
+    /**
+     * Add a LogLineMatcher. Unlike addListener() it is not passed
+     * every line, only those that contain the literal text its regexp
+     * requires, see LogLineMatcherEngine.
+     *
+     * @param llm
+     */
+    void addMatcher(LogLineMatcher llm) {
+        synchronized (mListeners) {
+            mMatcherEngine.add(llm);
+            addListener(mMatcherEngine);
+        }
+    }
+
+    void removeMatcher(LogLineMatcher llm) {
+        synchronized (mListeners) {
+            mMatcherEngine.remove(llm);
+            if (mMatcherEngine.isEmpty()) {
+                removeListener(mMatcherEngine);
+            }
+        }
+    }
+
+    /**
+     * Get the Dispatcher for the given listener class, create it if
+     * missing. Must be called with mListeners locked.
+     */
+    private Dispatcher getDispatcher(Class<?> clazz) {
+        for (Dispatcher dispatcher : mDispatchers) {
+            if (dispatcher.mClass == clazz) {
+                return dispatcher;
+            }
+        }
+        Dispatcher dispatcher = new Dispatcher(clazz);
+        mDispatchers.add(dispatcher);
+        if (isRunning()) {
+            dispatcher.start();
+        }
+        return dispatcher;
+    }
+
     public LogSourceListener hasListenerOfType(Class<?> clazz) {
-        for (LogSourceListener listener : mListeners) {
+        for (LogSourceListener listener : mListenerSnapshot) {
             if (listener.getClass() == clazz) {
                 return listener;
             }
@@ -441,6 +612,14 @@ public class LogSource {
         return mName;
     }
 
+    /**
+     * @return the serial of the device, ANY_DEVICE or null for the
+     *         default device.
+     */
+    public String getDeviceSerial() {
+        return getDeviceSerial(mName);
+    }
+
     private void setSaveToFile(boolean saveToFile) {
         if (mFileDumper.isDumping()) {
             removeListener(mFileDumper);
@@ -457,202 +636,336 @@ public class LogSource {
     }
 
     public boolean isAlive() {
-        return mThread != null && mThread.isAlive();
+        return isRunning();
+    }
+
+    private boolean isRunning() {
+        return mSubscribed || (mReader != null && mReader.isAlive());
     }
 
     /**
-     * //TODO Make this logsource specific??
+     * Parse the timestamp at the start of the given string. The
+     * reader threads use their own TimestampParser, this uses one
+     * per calling thread.
      *
      * @param tsString
      *
-     * @return
+     * @return null if 'tsString' doesn't start with a timestamp
      */
     public static Date getDate(String tsString) {
-        Date date = null;
-        try {
-            date = sTSFormat.parse(tsString);
-        } catch (ParseException excep) {
-            Logger.logExcep(excep);
-        }
-        return date;
+        long millis = TimestampParser.forThread().parse(tsString);
+        return millis == -1 ? null : new Date(millis);
     }
 
     public Color getLogLineColor(String logLine) {
-        // Because we use '-threadtime' in logcat the type of logline
-        // will be at index 31.
-        if (logLine.length() > 31) {
-            switch(logLine.charAt(31))  {
-            case 'I':
-                return greenColor;
-            case 'W':
-                return orangeColor;
-            case 'E':
-                return redColor;
-            case 'D':
-                return blueColor;
-            }
+        return getLogLineColor(LogLine.parseLevel(logLine));
+    }
+
+    public Color getLogLineColor(char level) {
+        switch(level)  {
+        case 'I':
+            return greenColor;
+        case 'W':
+            return orangeColor;
+        case 'E':
+            return redColor;
+        case 'D':
+            return blueColor;
         }
         return Color.white;
     }
 
     /**
-     * Add the timestamp part of the regexp first and then compile the regexp.
+     * Compile a LogLineMatcher, BlackList or trigger regexp. These are
+     * written to match what follows the timestamp of a line, see
+     * matchRegExp(). The timestamp used to be matched by an
+     * expression put first; the empty group put first now keeps the
+     * groups of the regexp numbered from 2 as before.
      *
      * @param regExp
      *
      * @return
      */
     public static Pattern compileRegExp(String regExp) {
-        return Pattern.compile(sLogCatTSRegExp + regExp);
+        return Pattern.compile(sTimestampGroup + regExp);
+    }
+
+    /**
+     * Compile a LogLineMatcher regexp, as compileRegExp() does, for
+     * matching in linear time, see LinearRegExp.
+     *
+     * @param regExp Must be valid, i.e. compileRegExp() has not thrown.
+     *
+     * @return null if the regexp is not supported by LinearRegExp.
+     */
+    static LinearRegExp compileLinearRegExp(String regExp) {
+        return LinearRegExp.compile(sTimestampGroup + regExp);
+    }
+
+    /**
+     * Get the regexp a Pattern from compileRegExp() was compiled from.
+     *
+     * @param pattern
+     *
+     * @return
+     */
+    static String getRegExp(Pattern pattern) {
+        return pattern.pattern().substring(sTimestampGroup.length());
     }
 
-    private void destroyProcess() {
-        if (mProcess != null) {
-            mProcess.destroy();
-            mProcess = null;
+    /**
+     * Match a Pattern from compileRegExp() against the part of a line
+     * after the timestamp. The timestamp itself is never matched, a
+     * LogLine has already parsed it, see LogLine.getMillis().
+     *
+     * @param pattern
+     * @param text A LogLine or the text of one.
+     *
+     * @return The Matcher if the line has a timestamp and the regexp
+     * matches, otherwise null.
+     */
+    public static Matcher matchRegExp(Pattern pattern, CharSequence text) {
+        boolean hasTimestamp = text instanceof LogLine ?
+            ((LogLine) text).hasHeader() : LogLine.hasTimestamp(text);
+        if (!hasTimestamp) {
+            return null;
         }
+        Matcher matcher = pattern.matcher(text);
+        matcher.region(LogLine.TIMESTAMP_LEN, text.length());
+        return matcher.lookingAt() ? matcher : null;
     }
 
     /**
-     * Create and start thread that reads lines from the log source.
+     * Match a LinearRegExp from compileLinearRegExp() as
+     * matchRegExp(Pattern, CharSequence) does.
+     *
+     * @param regExp
+     * @param line
+     *
+     * @return null if the line has no timestamp or if the regexp
+     * doesn't match.
+     */
+    static MatchResult matchRegExp(LinearRegExp regExp, LogLine line) {
+        if (!line.hasHeader()) {
+            return null;
+        }
+        return regExp.lookingAt(line, LogLine.TIMESTAMP_LEN, line.length());
+    }
+
+    /**
+     * Start reading lines from the log source into mRingBuffer, or
+     * subscribe to the LogcatMux doing that, and then the task
+     * filtering them and one task per Dispatcher passing them on to
+     * the listeners. All run on IngestionPool threads.
      *
      * @return
      */
     protected boolean start() {
-        if (mThread != null) {
-            Logger.log(String.format("LogSource '%s': start() already called i.e. mThread != null",
-                                     mName));
+        if (isRunning()) {
+            Logger.log(String.format("LogSource '%s': start() already called", mName));
             return false;
         }
 
-        mThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                if (logdog.DEBUG) {
-                    Logger.log(String.format("LogSource '%s': entering thread", mName));
+        // Let the stages from a previous run drain before restarting them.
+        joinStages();
+        mRingBuffer.reopen();
+        mFilterSequence.setDone(false);
+        if (mFilterTask == null) {
+            mFilterTask = new IngestionPool.Task("LogSource " + mName + " filter", new Runnable() {
+                @Override
+                public void run() {
+                    filterLines();
                 }
+            });
+        }
+        mFilterTask.start();
+        synchronized (mListeners) {
+            for (Dispatcher dispatcher : mDispatchers) {
+                dispatcher.start();
+            }
+        }
 
-                synchronized (mLifeListeners) {
-                    for (LogSourceLifeListener listener : mLifeListeners) {
-                        listener.onStarted(LogSource.this);
-                    }
+        if (mStream == null) {
+            mSubscribed = true;
+            // Same as when having an own reader, the listeners are not
+            // called on the caller's thread.
+            IngestionPool.execute("LogSource " + mName + " started", new Runnable() {
+                @Override
+                public void run() {
+                    notifyStarted();
                 }
+            });
+            mMux.subscribe(this, mBufferMask);
+            return true;
+        }
 
-                mProcess = null;
-                while (!mThread.isInterrupted()) {  // does not reset the interrupt flag
-                    try {
-                        if (logdog.DEBUG) {
-                            Logger.log(String.format("LogSource '%s': executing '%s'",
-                                                     mName, mRunCmdLine));
-                        }
+        mReader = new StreamReader("LogSource " + mName, mStream, mOneShot,
+                                   new StreamReader.Sink() {
+            private long mSequence;
 
-                        Runtime rt = Runtime.getRuntime();
-                        mProcess = rt.exec(mRunCmdLine);
-
-                        InputStream stream = mProcess.getInputStream();
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-                        String line = null;
-                        // We will wait here if adb is waiting for the device to become available.
-                        while ((line = reader.readLine()) != null && !mThread.isInterrupted()) {
-
-                            // Check if a trigger has occurred:
-                            LogSourceTriggerList.Type triggerType = mTriggerList.getTriggerType(line);
-                            if (triggerType == LogSourceTriggerList.Type.Resume && !mFeeding) {
-                                mFeeding = true;
-                                synchronized (mFeedListeners) {
-                                    for (LogSourceFeedListener listener : mFeedListeners) {
-                                        listener.onFeedingStarted(LogSource.this);
-                                    }
-                                }
-                            }
-
-                            if (line.length() == 0 || !mFeeding) {
-                                continue;
-                            }
-
-                            synchronized (mListeners) {
-                                char firstChar = line.charAt(0);
-                                if (firstChar == '\r' || firstChar == '\n' ||
-                                    mBlackList.found(line)) {
-                                    continue;
-                                }
-                                // Notify all listening LogLineMatchers and others. Not
-                                // allowed to throw.
-                                for (LogSourceListener listener : mListeners) {
-                                    listener.onLogLine(line);
-                                }
-                            }
-
-                            if (triggerType == LogSourceTriggerList.Type.Pause && mFeeding) {
-                                mFeeding = false;
-                                synchronized (mFeedListeners) {
-                                    for (LogSourceFeedListener listener : mFeedListeners) {
-                                        listener.onFeedingStopped(LogSource.this);
-                                    }
-                                }
-                            }
-                        }
-                    } catch (IOException excep) {
-                        Logger.log(String.format("LogSource '%s': failed to read from log stream, " +
-                                                 "retrying...\n%s", mName, excep.getMessage()));
-                    } catch (RuntimeException excep) {
-                        Logger.log(String.format("LogSource '%s': RuntimeException, retrying...\n%s",
-                                                 mName, excep.getMessage()));
-                    }
-                    destroyProcess();
-                    if (mOneShot) {
-                        mThread.interrupt();
-                    }
-                }
+            @Override
+            public void onStart() {
+                notifyStarted();
+            }
 
-                destroyProcess();
-                mThread = null;
-                if (logdog.DEBUG) {
-                    Logger.log(String.format("LogSource '%s': exiting thread", mName));
-                }
+            @Override
+            public LogLine claim() throws InterruptedException {
+                mSequence = mRingBuffer.next();
+                return mRingBuffer.get(mSequence);
+            }
+
+            @Override
+            public void publish(LogLine line) {
+                mRingBuffer.publish(mSequence);
+            }
+
+            @Override
+            public void onExit() {
+                // The stages exit when they have handled the remaining lines.
+                mRingBuffer.close();
             }
         });
-        mThread.setName("LogSource " + mName);
-        mThread.start();
+        mReader.start();
         return true;
     }
 
-    private void stop() {
-        if (mThread != null) {
-            try {
-                synchronized (mLifeListeners) {
-                    for (LogSourceLifeListener listener : mLifeListeners) {
-                        listener.onStopped(this);
-                    }
+    private void notifyStarted() {
+        synchronized (mLifeListeners) {
+            for (LogSourceLifeListener listener : mLifeListeners) {
+                listener.onStarted(LogSource.this);
+            }
+        }
+    }
+
+    /**
+     * Called by LogcatMux on its reader thread for each line in the
+     * buffers of this LogSource.
+     *
+     * @param line
+     */
+    void publish(LogLine line) throws InterruptedException {
+        long sequence = mRingBuffer.next();  // waits if the buffer is full
+        mRingBuffer.get(sequence).copyFrom(line);
+        mRingBuffer.publish(sequence);
+    }
+
+    private void joinStages() {
+        try {
+            if (mFilterTask != null) {
+                mFilterTask.join(STAGE_JOIN_TIMEOUT_MS);
+            }
+            synchronized (mListeners) {
+                for (Dispatcher dispatcher : mDispatchers) {
+                    dispatcher.join();
+                }
+            }
+        } catch (InterruptedException excep) {
+            Logger.logExcep(excep);
+        }
+    }
+
+    /**
+     * The filter stage: runs on mFilterTask and marks lines that
+     * should not be dispatched, i.e. when feeding is paused, empty
+     * lines and blacklisted lines.
+     */
+    private void filterLines() {
+        long next = mFilterSequence.get() + 1;
+        try {
+            while (true) {
+                long available = mRingBuffer.waitFor(next, mRingBuffer.getCursor());
+                if (available < next) {
+                    break;  // the reader is done and we have caught up
                 }
-                mThread.interrupt();
-                mThread.join(3000);
-                if (mProcess != null && mThread.isAlive()) {
-                    // This causes an InterruptedException in the
-                    // thread if it is not dead yet:
-                    mProcess.destroy();
+                for (; next <= available; ++next) {
+                    mRingBuffer.setDropped(next, !filterLine(mRingBuffer.get(next)));
                 }
-            } catch (InterruptedException excep) {
-                Logger.logExcep(excep);
+                mRingBuffer.advance(mFilterSequence, available);
+            }
+        } catch (InterruptedException excep) {
+            // Exit thread.
+        }
+        mRingBuffer.finish(mFilterSequence);
+    }
+
+    /**
+     * Check triggers and the blacklist.
+     *
+     * @param logLine
+     *
+     * @return true if the line should be dispatched to the listeners.
+     */
+    private boolean filterLine(LogLine line) {
+        // Check if a trigger has occurred, the triggers are
+        // LogLineMatchers flagged in mMatcherEngine:
+        LogSourceTriggerList.Type triggerType = mMatcherEngine.getTriggerType(line);
+        if (triggerType == LogSourceTriggerList.Type.Resume && !mFeeding) {
+            mFeeding = true;
+            synchronized (mFeedListeners) {
+                for (LogSourceFeedListener listener : mFeedListeners) {
+                    listener.onFeedingStarted(LogSource.this);
+                }
+            }
+        }
+
+        if (line.length() == 0 || !mFeeding) {
+            return false;
+        }
+
+        char firstChar = line.charAt(0);
+        if (firstChar == '\r' || firstChar == '\n' ||
+            mBlackList.found(line)) {
+            return false;
+        }
+
+        if (triggerType == LogSourceTriggerList.Type.Pause && mFeeding) {
+            mFeeding = false;
+            synchronized (mFeedListeners) {
+                for (LogSourceFeedListener listener : mFeedListeners) {
+                    listener.onFeedingStopped(LogSource.this);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        synchronized (mLifeListeners) {
+            for (LogSourceLifeListener listener : mLifeListeners) {
+                listener.onStopped(this);
             }
         }
+        if (mSubscribed) {
+            mMux.unsubscribe(this);
+            mSubscribed = false;
+            mRingBuffer.close();
+        } else {
+            mReader.stop();
+        }
     }
 
 
     // BlackList stuff
-    // Use 'mListeners' as sync object since used in reader thread
-    // when accessing mBlackList.
+    // BlackList publishes its entries as an immutable snapshot, the
+    // filter thread never waits for edits made here.
 
     public boolean hasBlackList() {
-        synchronized (mListeners) {
-            return mBlackList.hasItems();
-        }
+        return mBlackList.hasItems();
     }
 
     public String getBlackListAsString() {
-        synchronized (mListeners) {
-            return mBlackList.toString();
-        }
+        return mBlackList.toString();
+    }
+
+    /**
+     * @return The number of lines blacklisted by each entry, in the
+     * order of getBlackListAsString().
+     */
+    public long[] getBlackListHits() {
+        return mBlackList.getHits();
     }
 
     public void setBlackListListener(BlackListListener listener) {
@@ -660,78 +973,168 @@ public class LogSource {
     }
 
     public boolean addToBlackList(String regExp) {
-        synchronized (mListeners) {
-            return mBlackList.add(regExp);
-        }
+        return mBlackList.add(regExp);
     }
 
     public boolean replaceBlackList(String blacklistLines) {
-        synchronized (mListeners) {
-            return mBlackList.replaceBlackList(blacklistLines);
-        }
+        return mBlackList.replaceBlackList(blacklistLines);
     }
 
     public int readBlackList(File file) throws IOException {
-        synchronized (mListeners) {
-            return mBlackList.readFrom(file);
-        }
+        return mBlackList.readFrom(file);
     }
 
     public void saveBlackList(File file) throws IOException {
-        synchronized (mListeners) {
-            mBlackList.saveTo(file);
-        }
+        mBlackList.saveTo(file);
     }
 
     public void clearBlackList() {
-        synchronized (mListeners) {
-            mBlackList.clear();
-        }
+        mBlackList.clear();
     }
 
-    public void addTrigger(LogLineMatcher llm) {
-        mTriggerList.add(llm);
-    }
+    /**
+     * Passes lines that were not dropped by the filter stage on to all
+     * listeners of one class. Each Dispatcher has a thread and a
+     * position in mRingBuffer of its own so disk writes, the UI and
+     * the LogLineMatchers don't wait for each other.
+     */
+    private class Dispatcher implements Runnable {
+        private final Class<?> mClass;
+        // Replaced, not changed, with mListeners locked.
+        private volatile LogSourceListener[] mClassListeners = new LogSourceListener[0];
+        private final LogLineRingBuffer.Sequence mSequence = new LogLineRingBuffer.Sequence();
+        private final IngestionPool.Task mDispatchTask;
+        // Lines collected for LogSourceBatchListeners:
+        private final boolean mBatch;
+        private LogLine[] mBatchLines = new LogLine[64];
+
+        Dispatcher(Class<?> clazz) {
+            mClass = clazz;
+            mBatch = LogSourceBatchListener.class.isAssignableFrom(clazz);
+            mRingBuffer.addGate(mSequence);
+            mDispatchTask = new IngestionPool.Task("LogSource " + mName + " " + clazz.getSimpleName(),
+                                                   this);
+        }
+
+        void add(LogSourceListener listener) {
+            LogSourceListener[] listeners = Arrays.copyOf(mClassListeners,
+                                                          mClassListeners.length + 1);
+            listeners[listeners.length - 1] = listener;
+            mClassListeners = listeners;
+        }
+
+        void remove(LogSourceListener listener) {
+            ArrayList<LogSourceListener> listeners =
+                new ArrayList<LogSourceListener>(Arrays.asList(mClassListeners));
+            listeners.remove(listener);
+            mClassListeners = listeners.toArray(new LogSourceListener[listeners.size()]);
+        }
+
+        void start() {
+            if (!mDispatchTask.isAlive()) {
+                mDispatchTask.start();
+            }
+        }
+
+        void join() throws InterruptedException {
+            mDispatchTask.join(STAGE_JOIN_TIMEOUT_MS);
+        }
+
+        @Override
+        public void run() {
+            long next = mSequence.get() + 1;
+            try {
+                while (true) {
+                    long available = mRingBuffer.waitFor(next, mFilterSequence);
+                    if (available < next) {
+                        break;  // the filter stage is done and we have caught up
+                    }
+                    int count = 0;
+                    for (; next <= available; ++next) {
+                        if (mRingBuffer.isDropped(next)) {
+                            continue;
+                        }
+                        if (!mBatch) {
+                            dispatch(mRingBuffer.get(next));
+                            continue;
+                        }
+                        if (count == mBatchLines.length) {
+                            mBatchLines = Arrays.copyOf(mBatchLines, count * 2);
+                        }
+                        mBatchLines[count++] = mRingBuffer.get(next);
+                    }
+                    if (count > 0) {
+                        dispatch(mBatchLines, count);
+                    }
+                    // The slots up to 'available' may be reused from here.
+                    mRingBuffer.advance(mSequence, available);
+                }
+            } catch (InterruptedException excep) {
+                // Exit thread.
+            }
+        }
 
-    public void removeTrigger(LogLineMatcher llm) {
-        mTriggerList.remove(llm);
+        private void dispatch(LogLine logLine) {
+            // Notify all listening LogLineMatchers and others. Not
+            // allowed to throw.
+            for (LogSourceListener listener : mClassListeners) {
+                try {
+                    listener.onLogLine(logLine);
+                } catch (RuntimeException excep) {
+                    Logger.log(String.format("LogSource '%s': RuntimeException in listener\n%s",
+                                             mName, excep.getMessage()));
+                }
+            }
+        }
+
+        private void dispatch(LogLine[] logLines, int count) {
+            for (LogSourceListener listener : mClassListeners) {
+                try {
+                    ((LogSourceBatchListener) listener).onLogLines(logLines, count);
+                } catch (RuntimeException excep) {
+                    Logger.log(String.format("LogSource '%s': RuntimeException in listener\n%s",
+                                             mName, excep.getMessage()));
+                }
+            }
+        }
     }
 }
 
 class LS_LogCat extends LogSource {
-    public LS_LogCat(int sourceIndex, String buffername) {
-        super(sSourceName[sourceIndex],
-              String.format("adb -d logcat -b %s -v threadtime", buffername));
+    public LS_LogCat(int sourceIndex, String buffername, String serial) {
+        super(getSourceName(sSourceName[sourceIndex], serial), LogcatMux.getInstance(serial),
+              LogcatMux.getBufferMask(buffername));
     }
 }
 
 class LS_LogCatMain extends LS_LogCat {
-    public LS_LogCatMain() {
-        super(LOGCAT_MAIN, "main");
+    public LS_LogCatMain(String serial) {
+        super(LOGCAT_MAIN, "main", serial);
     }
 }
 
 class LS_LogCatmainAndSystem extends LogSource {
-    public LS_LogCatmainAndSystem() {
-        super(sSourceName[LOGCAT_MAIN_AND_SYSTEM], "adb -d logcat -b main -b system -v threadtime");
+    public LS_LogCatmainAndSystem(String serial) {
+        super(getSourceName(sSourceName[LOGCAT_MAIN_AND_SYSTEM], serial),
+              LogcatMux.getInstance(serial), LogcatMux.getBufferMask("main", "system"));
     }
 }
 
 class LS_LogCatSystem extends LS_LogCat {
-    public LS_LogCatSystem() {
-        super(LOGCAT_SYSTEM, "system");
+    public LS_LogCatSystem(String serial) {
+        super(LOGCAT_SYSTEM, "system", serial);
     }
 }
 
 class LS_LogCatEvents extends LS_LogCat {
-    public LS_LogCatEvents() {
-        super(LOGCAT_EVENTS, "events");
+    public LS_LogCatEvents(String serial) {
+        super(LOGCAT_EVENTS, "events", serial);
     }
 }
 
 class LS_LogCatRadio extends LS_LogCat {
-    public LS_LogCatRadio() {
-        super(LOGCAT_RADIO, "radio");
+    public LS_LogCatRadio(String serial) {
+        super(LOGCAT_RADIO, "radio", serial);
     }
 }
 
@@ -739,10 +1142,27 @@ class LS_LogCatRadio extends LS_LogCat {
  * This log source emits logs for main, system, radio, events and kernel.
  */
 class LS_LogCatAll extends LogSource {
-    public LS_LogCatAll() {
+    public LS_LogCatAll(String serial) {
         // Enable as much logging as possible including the kernel logs.
-        super(sSourceName[LOGCAT_ALL],
-              "adb -d logcat -b main -b system -b radio -b events -v threadtime");
-        Utils.adbSetKernelLogProp(true);  // asynchronous
+        super(getSourceName(sSourceName[LOGCAT_ALL], serial), LogcatMux.getInstance(serial),
+              LogcatMux.getBufferMask("main", "system", "radio", "events", "kernel"));
+        Utils.adbSetKernelLogProp(LogcatMux.getAdbClient(serial), true);  // asynchronous
+    }
+}
+
+/**
+ * Stands for a logcat source on every connected device, e.g.
+ * "logcat_main@*". Never started, LogLineMatcherManager registers a
+ * copy of each LogLineMatcher using it to the source of each device.
+ */
+class LS_AnyDevice extends LogSource {
+    public LS_AnyDevice(String sourceName) {
+        super(sourceName, (LogcatMux) null, 0);
+        mActive = false;
+    }
+
+    @Override
+    protected boolean start() {
+        return false;
     }
 }
@@ -31,6 +31,7 @@
 package logdog.model;
 
 public interface LogSourceListener {
-    // Called for each log line read from a LogSource.
-    void onLogLine(String line);
+    // Called for each log line read from a LogSource. The LogLine
+    // is reused for the next line so don't keep a reference to it.
+    void onLogLine(LogLine line);
 }
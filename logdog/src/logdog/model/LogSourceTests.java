@@ -34,6 +34,18 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import logdog.utils.AdbClient;
+import logdog.utils.FakeAdbServer;
 
 
 public class LogSourceTests {
@@ -79,4 +91,248 @@ public class LogSourceTests {
             assert(false);
         }
     }
+
+    /**
+     * Listener collecting the text of all lines.
+     */
+    static class CollectingListener implements LogSourceListener {
+        final ArrayList<String> mLines = new ArrayList<String>();
+
+        @Override
+        public synchronized void onLogLine(LogLine line) {
+            mLines.add(line.getText());
+            notifyAll();
+        }
+
+        synchronized boolean waitForCount(int count, long timeoutMs) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMs;
+            while (mLines.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            return mLines.size() >= count;
+        }
+    }
+
+    static File createLogFile(int lineCount) throws IOException {
+        File file = File.createTempFile("logdog", ".log");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        for (int index = 0; index < lineCount; ++index) {
+            writer.write(String.format("10-17 12:%02d:%02d.%03d  1234  5678 D tag%d: line %d\n",
+                                       index / 60000 % 60, index / 1000 % 60, index % 1000,
+                                       index % 7, index));
+        }
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void fileLogSourceDispatchesAllLinesInOrder() throws Exception {
+        // More lines than slots in the ring buffer.
+        int lineCount = 40000;
+        FileLogSource logSource = new FileLogSource(createLogFile(lineCount));
+        CollectingListener listener = new CollectingListener();
+        logSource.addListener(listener);
+        logSource.setActive(true);
+        logSource.startSourcing();
+
+        assertTrue(listener.waitForCount(lineCount, 20000));
+        assertEquals(lineCount, listener.mLines.size());
+        for (int index = 0; index < lineCount; ++index) {
+            assertTrue(listener.mLines.get(index).endsWith("line " + index));
+        }
+    }
+
+    @Test
+    public void logcatThroughAdbServer() throws Exception {
+        FakeAdbServer server = new FakeAdbServer();
+        try {
+            server.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+            server.setShellOutput("logcat -v threadtime",
+                                  "--------- beginning of main\r\n" +
+                                  "10-17 12:34:56.789  1234  5678 D tag     : first\r\n" +
+                                  "10-17 12:34:56.790  1234  5678 I tag     : second\r\n");
+            LogSource logSource = new LogSource("adb", new AdbShellStream(server.createClient(),
+                                                                          "logcat -v threadtime"));
+            CollectingListener listener = new CollectingListener();
+            logSource.addListener(listener);
+
+            assertTrue(listener.waitForCount(3, 5000));
+            assertEquals("--------- beginning of main", listener.mLines.get(0));
+            assertEquals("10-17 12:34:56.789  1234  5678 D tag     : first", listener.mLines.get(1));
+            assertEquals("10-17 12:34:56.790  1234  5678 I tag     : second", listener.mLines.get(2));
+            assertTrue(server.getServices().contains("shell:logcat -v threadtime"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void demultiplexLogcatBuffers() throws Exception {
+        FakeAdbServer server = new FakeAdbServer();
+        try {
+            server.setShellOutput("logcat -v threadtime -D -b all",
+                                  "--------- beginning of main\n" +
+                                  "10-17 12:34:56.789  1234  5678 D tag     : main 1\n" +
+                                  "--------- beginning of system\n" +
+                                  "10-17 12:34:56.790  1000  1001 I tag     : system 1\n" +
+                                  "--------- switch to main\n" +
+                                  "10-17 12:34:56.791  1234  5678 D tag     : main 2\n" +
+                                  "--------- beginning of radio\n" +
+                                  "10-17 12:34:56.792  2000  2001 I tag     : radio 1\n" +
+                                  "--------- switch to system\n" +
+                                  "10-17 12:34:56.793  1000  1001 I tag     : system 2\n");
+            LogcatMux mux = new LogcatMux(new AdbShellStream(server.createClient(),
+                                                             "logcat -v threadtime -D -b all"));
+            LogSource main = new LogSource("main", mux, LogcatMux.getBufferMask("main"));
+            LogSource mainAndSystem = new LogSource("main_and_system", mux,
+                                                    LogcatMux.getBufferMask("main", "system"));
+            CollectingListener mainListener = new CollectingListener();
+            CollectingListener mainAndSystemListener = new CollectingListener();
+            main.addListener(mainListener);
+            mainAndSystem.addListener(mainAndSystemListener);
+            // Both are subscribed when logcat starts.
+            server.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+
+            assertTrue(mainListener.waitForCount(3, 5000));
+            assertTrue(mainAndSystemListener.waitForCount(6, 5000));
+            assertEquals("--------- beginning of main", mainListener.mLines.get(0));
+            assertTrue(mainListener.mLines.get(1).endsWith("main 1"));
+            assertTrue(mainListener.mLines.get(2).endsWith("main 2"));
+            assertTrue(mainAndSystemListener.mLines.get(3).endsWith("system 1"));
+            assertTrue(mainAndSystemListener.mLines.get(5).endsWith("system 2"));
+            for (String line : mainAndSystemListener.mLines) {
+                assertFalse(line.contains("radio"));
+                assertFalse(line.contains("switch to"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void lateSubscriberGetsItsBacklog() throws Exception {
+        FakeAdbServer server = new FakeAdbServer();
+        try {
+            server.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+            server.setShellOutput("logcat -v threadtime -D -b all",
+                                  "--------- beginning of main\n" +
+                                  "10-17 12:34:56.789  1234  5678 D tag     : main 1\n" +
+                                  "--------- beginning of radio\n" +
+                                  "10-17 12:34:56.790  2000  2001 I tag     : radio 1\n");
+            server.setShellOutput("logcat -v threadtime -D -d -b radio",
+                                  "--------- beginning of radio\n" +
+                                  "10-17 12:34:56.700  2000  2001 I tag     : radio 0\n" +
+                                  "10-17 12:34:56.790  2000  2001 I tag     : radio 1\n");
+            LogcatMux mux = new LogcatMux(new AdbShellStream(server.createClient(),
+                                                             "logcat -v threadtime -D -b all"),
+                                          server.createClient());
+            LogSource main = new LogSource("main", mux, LogcatMux.getBufferMask("main"));
+            CollectingListener mainListener = new CollectingListener();
+            main.addListener(mainListener);
+            assertTrue(mainListener.waitForCount(2, 5000));
+
+            // Subscribes while logcat is read, the radio lines read
+            // so far only went to the main LogSource.
+            LogSource radio = new LogSource("radio", mux, LogcatMux.getBufferMask("radio"));
+            CollectingListener radioListener = new CollectingListener();
+            radio.addListener(radioListener);
+
+            assertTrue(radioListener.waitForCount(3, 5000));
+            assertFalse(radioListener.waitForCount(4, 500));
+            assertEquals("--------- beginning of radio", radioListener.mLines.get(0));
+            assertTrue(radioListener.mLines.get(1).endsWith("radio 0"));
+            assertTrue(radioListener.mLines.get(2).endsWith("radio 1"));
+            assertTrue(server.getServices().contains("shell:logcat -v threadtime -D -d -b radio"));
+            radio.removeListener(radioListener);
+            main.removeListener(mainListener);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Stream giving the next of a number of texts each time it is
+     * opened, as if logcat was restarted.
+     */
+    static class ReconnectingStream implements LogSourceStream {
+        final String[] mTexts;
+        final ArrayList<Long> mResumeMillis = new ArrayList<Long>();
+
+        ReconnectingStream(String... texts) {
+            mTexts = texts;
+        }
+
+        @Override
+        public synchronized ReadableByteChannel open(long resumeMillis) {
+            int index = mResumeMillis.size();
+            mResumeMillis.add(resumeMillis);
+            String text = index < mTexts.length ? mTexts[index] : "";
+            return Channels.newChannel(new ByteArrayInputStream(text.getBytes(LogLine.UTF8)));
+        }
+
+        @Override
+        public boolean isBinary() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void reconnectResumesAfterLastLine() throws Exception {
+        ReconnectingStream stream = new ReconnectingStream(
+            "10-17 12:34:56.789  1234  5678 D tag     : first\n" +
+            "10-17 12:34:56.790  1234  5678 D tag     : second\n" +
+            "10-17 12:34:56.790  1234  5678 D tag     : third\n",
+            // logcat -T gives lines at the resume time again
+            "10-17 12:34:56.790  1234  5678 D tag     : second\n" +
+            "10-17 12:34:56.790  1234  5678 D tag     : third\n" +
+            "--------- beginning of main\n" +
+            "10-17 12:34:56.790  1234  5678 D tag     : fourth\n" +
+            "10-17 12:34:56.791  1234  5678 D tag     : fifth\n");
+        LogSource logSource = new LogSource("reconnect", stream);
+        CollectingListener listener = new CollectingListener();
+        logSource.addListener(listener);
+
+        assertTrue(listener.waitForCount(6, 5000));
+        assertFalse(listener.waitForCount(7, 1000));
+        logSource.removeListener(listener);
+        assertEquals(6, listener.mLines.size());
+        assertTrue(listener.mLines.get(0).endsWith("first"));
+        assertTrue(listener.mLines.get(2).endsWith("third"));
+        assertEquals("--------- beginning of main", listener.mLines.get(3));
+        assertTrue(listener.mLines.get(4).endsWith("fourth"));
+        assertTrue(listener.mLines.get(5).endsWith("fifth"));
+
+        assertEquals(-1L, (long) stream.mResumeMillis.get(0));
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.790  1234  5678 D tag     : third", tsParser);
+        assertEquals(line.getMillis(), (long) stream.mResumeMillis.get(1));
+    }
+
+    @Test
+    public void regExpMatchedAfterTimestamp() {
+        Pattern pattern = LogSource.compileRegExp(".*?tag     : value ([0-9]+) of ([0-9]+)");
+        TimestampParser tsParser = new TimestampParser();
+        LogLine line = new LogLine();
+        line.set("10-17 12:34:56.789  1234  5678 D tag     : value 12 of 34", tsParser);
+
+        Matcher matcher = LogSource.matchRegExp(pattern, line);
+        assertNotNull(matcher);
+        // Numbered as when the timestamp was group 1.
+        assertEquals(3, matcher.groupCount());
+        assertEquals("", matcher.group(1));
+        assertEquals("12", matcher.group(2));
+        assertEquals("34", matcher.group(3));
+        assertNotNull(LogSource.matchRegExp(pattern, line.getText()));
+
+        // The timestamp is not part of what is matched.
+        assertNull(LogSource.matchRegExp(LogSource.compileRegExp("10-17.*"), line));
+        line.set("tag     : value 12 of 34", tsParser);
+        assertNull(LogSource.matchRegExp(pattern, line));
+    }
 }
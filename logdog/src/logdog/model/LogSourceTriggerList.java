@@ -31,22 +31,18 @@
 package logdog.model;
 
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
-
-import logdog.utils.Logger;
-
 /**
- * Class for defining and managing trigger events i.e. when a
- * LogSource should be started or stopped.
+ * Class for defining trigger events i.e. when a LogSource should be
+ * started or stopped.
+ *
+ * A LogLineMatcher with a trigger type other than None is a trigger
+ * for its LogSource. The triggers are matched together with the other
+ * LogLineMatchers of the LogSource, see
+ * LogLineMatcherEngine.getTriggerType(). When more than one trigger
+ * matches a line the one added first decides.
  */
 public class LogSourceTriggerList {
 
-    private Map<LogLineMatcher, Pattern> mPatterns = new HashMap<LogLineMatcher, Pattern>(6);
-
     // Don't change the names in this enum because they are mapped
     // directly to what's in the xml file and in the UI (LLMView).
     public enum Type {
@@ -63,43 +59,4 @@ public class LogSourceTriggerList {
         }
         return Type.None;
     }
-
-    /**
-     * Constructor.
-     */
-    public LogSourceTriggerList() {
-    }
-
-    public Type getTriggerType(String logLine) {
-        //TODO Is this method fast enough?
-        for (Map.Entry<LogLineMatcher, Pattern> entry : mPatterns.entrySet()) {
-            Matcher matcher = entry.getValue().matcher(logLine);
-            if (matcher.find()) {
-                return entry.getKey().getTriggerType();
-            }
-        }
-        return Type.None;
-    }
-
-    public void add(LogLineMatcher llm) {
-        if (mPatterns.containsKey(llm)) {
-            Logger.log("LogSourceTriggerList: attempted to add the same LLM more than once.");
-        } else {
-            try {
-                String regExp = llm.getRegExp().trim();
-                Pattern pattern = LogSource.compileRegExp(regExp);
-                mPatterns.put(llm, pattern);
-            } catch (PatternSyntaxException excep) {
-                Logger.logExcep(excep);
-            }
-        }
-    }
-
-    public void remove(LogLineMatcher llm) {
-        if (mPatterns.containsKey(llm)) {
-            mPatterns.remove(llm);
-        } else {
-            Logger.log("LogSourceTriggerList: attempted to remove no existing LLM.");
-        }
-    }
 }
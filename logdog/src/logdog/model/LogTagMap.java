@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+/**
+ * Map from log tag to a value, looked up with the tag of a LogLine
+ * without creating a String for it. Only filled before it is used,
+ * with put(), so it is safe to share once filled.
+ */
+final class LogTagMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    private int mMinKeyLength = Integer.MAX_VALUE;
+    private int mMaxKeyLength;
+
+    LogTagMap() {
+        mKeys = new String[MIN_CAPACITY];
+        mValues = new Object[MIN_CAPACITY];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void put(String tag, V value) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        int slot = findSlot(tag, 0, tag.length(), hash(tag, 0, tag.length()));
+        if (mKeys[slot] == null) {
+            mKeys[slot] = tag;
+            ++mSize;
+            mMinKeyLength = Math.min(mMinKeyLength, tag.length());
+            mMaxKeyLength = Math.max(mMaxKeyLength, tag.length());
+        }
+        mValues[slot] = value;
+    }
+
+    V get(String tag) {
+        return get(tag, 0, tag.length());
+    }
+
+    /**
+     * Get the value of the tag text[start, end).
+     */
+    @SuppressWarnings("unchecked")
+    V get(CharSequence text, int start, int end) {
+        if (mSize == 0) {
+            return null;
+        }
+        return (V) mValues[findSlot(text, start, end, hash(text, start, end))];
+    }
+
+    /**
+     * Get the values of the tag of 'line' and of all tags it ends
+     * with, e.g. "Manager" for "ActivityManager".
+     *
+     * @param line
+     * @param values Filled with the values found.
+     *
+     * @return The number of values put in 'values'.
+     */
+    @SuppressWarnings("unchecked")
+    int getSuffixes(LogLine line, V[] values) {
+        int tagStart = line.getTagStart();
+        int tagEnd = line.getTagEnd();
+        if (mSize == 0 || tagStart == -1) {
+            return 0;
+        }
+        int count = 0;
+        int first = Math.max(tagStart, tagEnd - mMaxKeyLength);
+        int last = tagEnd - mMinKeyLength;
+        for (int start = first; start <= last && count < values.length; ++start) {
+            Object value = mValues[findSlot(line, start, tagEnd, hash(line, start, tagEnd))];
+            if (value != null) {
+                values[count++] = (V) value;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The longest number of values getSuffixes() can give.
+     */
+    int getMaxSuffixCount() {
+        return mSize == 0 ? 0 : mMaxKeyLength - mMinKeyLength + 1;
+    }
+
+    // The same as String.hashCode().
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int index = start; index < end; ++index) {
+            hash = 31 * hash + text.charAt(index);
+        }
+        return hash;
+    }
+
+    private int findSlot(CharSequence text, int start, int end, int hash) {
+        int mask = mKeys.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (mKeys[slot] != null && !equals(mKeys[slot], text, start, end)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean equals(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int index = 0; index < key.length(); ++index) {
+            if (key.charAt(index) != text.charAt(start + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] keys = mKeys;
+        Object[] values = mValues;
+        mKeys = new String[keys.length * 2];
+        mValues = new Object[keys.length * 2];
+        for (int index = 0; index < keys.length; ++index) {
+            if (keys[index] != null) {
+                int slot = findSlot(keys[index], 0, keys[index].length(),
+                                    keys[index].hashCode());
+                mKeys[slot] = keys[index];
+                mValues[slot] = values[index];
+            }
+        }
+    }
+}
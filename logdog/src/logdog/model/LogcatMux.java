@@ -0,0 +1,492 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import logdog.Prefs;
+import logdog.utils.AdbClient;
+
+/**
+ * Runs one logcat for all buffers on the device and passes each line
+ * on to the LogSources of its buffer. Enabling another logcat
+ * LogSource therefore doesn't start another logcat on the device or
+ * another reader on the host, and lines in several LogSources are
+ * only read once.
+ *
+ * The buffer of a line is known from the lid field of binary entries.
+ * For text the "--------- switch to <buffer>" dividers printed by
+ * 'logcat -D' tell which buffer the following lines come from.
+ *
+ * The lines are passed on from the reader thread so the slowest
+ * subscribed LogSource sets the pace for all of them.
+ *
+ * logcat first gives what is already in the buffers of the device, but
+ * only the LogSources subscribed when reading starts get that. A
+ * LogSource subscribing later gets the lines already in its buffers
+ * from a one-off 'logcat -d' for them, see Backlog. Its live lines
+ * are held back until then and those also in the dump are skipped.
+ *
+ * There is one LogcatMux per device, see getInstance(), so watching
+ * several devices takes one reader per device.
+ */
+class LogcatMux implements StreamReader.Sink {
+
+    // Buffer ids as in log_id_t in Android:
+    static final int LOG_ID_MAIN = 0;
+    static final int LOG_ID_RADIO = 1;
+    static final int LOG_ID_EVENTS = 2;
+    static final int LOG_ID_SYSTEM = 3;
+    static final int LOG_ID_CRASH = 4;
+    static final int LOG_ID_STATS = 5;
+    static final int LOG_ID_SECURITY = 6;
+    static final int LOG_ID_KERNEL = 7;
+
+    private static final String[] sBufferNames = {
+        "main", "radio", "events", "system", "crash", "stats", "security", "kernel"
+    };
+
+    private static final String DIVIDER = "--------- ";
+    private static final String DIVIDER_BEGINNING = DIVIDER + "beginning of ";
+    private static final String DIVIDER_SWITCH = DIVIDER + "switch to ";
+
+    // One instance per device, the default device has serial null.
+    private static final HashMap<String, LogcatMux> sInstances = new HashMap<String, LogcatMux>();
+
+    private static class Subscription {
+        final LogSource mLogSource;
+        final int mBufferMask;
+        // Set while the lines already in the buffers are read.
+        volatile Backlog mBacklog;
+
+        Subscription(LogSource logSource, int bufferMask) {
+            mLogSource = logSource;
+            mBufferMask = bufferMask;
+        }
+    }
+
+    /**
+     * Tells the buffer of each line from the lid of binary entries or
+     * the dividers of 'logcat -D'. Only used by one reader thread.
+     */
+    private static class BufferTracker {
+        private int mCrntBufferId = LOG_ID_MAIN;
+
+        void reset() {
+            mCrntBufferId = LOG_ID_MAIN;
+        }
+
+        /**
+         * Set the buffer id of 'line' if not known.
+         *
+         * @param line
+         *
+         * @return The buffer id or -1 if the line is only a divider
+         * telling the buffer or from an unknown buffer.
+         */
+        int track(LogLine line) {
+            int bufferId = line.getBufferId();
+            if (bufferId == -1) {
+                if (!line.hasHeader() && startsWith(line, DIVIDER)) {
+                    if (startsWith(line, DIVIDER_SWITCH)) {
+                        mCrntBufferId = getBufferId(line, DIVIDER_SWITCH.length());
+                        return -1;  // only there to tell the buffer
+                    }
+                    if (startsWith(line, DIVIDER_BEGINNING)) {
+                        mCrntBufferId = getBufferId(line, DIVIDER_BEGINNING.length());
+                    }
+                }
+                bufferId = mCrntBufferId;
+                line.setBufferId(bufferId);
+            }
+            return bufferId >= 0 && bufferId < 32 ? bufferId : -1;
+        }
+    }
+
+    /**
+     * Reads the lines already in the buffers of a subscription that
+     * came after reading started. The live lines of the subscription
+     * are kept, as copies, until the dump has been passed on and then
+     * the ones not in the dump follow.
+     */
+    private class Backlog implements StreamReader.Sink {
+        private final Subscription mSubscription;
+        private final StreamReader mReader;
+        private final LogLine mLine = new LogLine();
+        private final BufferTracker mTracker = new BufferTracker();
+        // The timestamp of the last dumped line and the number of
+        // dumped lines having it, as in StreamReader.
+        private long mLastMillis = -1;
+        private int mLastNanos;
+        private int mLastCount;
+        // Guarded by 'this':
+        private ArrayList<LogLine> mLive = new ArrayList<LogLine>();
+
+        Backlog(Subscription subscription, LogSourceStream stream) {
+            mSubscription = subscription;
+            mReader = new StreamReader(subscription.mLogSource.getName() + " backlog",
+                                       stream, true, this);
+        }
+
+        /**
+         * Keep a live line until the dump has been passed on.
+         *
+         * @param line
+         *
+         * @return false if the dump is done and the line is to be
+         * passed on now.
+         */
+        synchronized boolean hold(LogLine line) {
+            if (mLive == null) {
+                return false;
+            }
+            LogLine copy = new LogLine();
+            copy.copyFrom(line);
+            mLive.add(copy);
+            return true;
+        }
+
+        @Override
+        public void onStart() {
+            mTracker.reset();
+        }
+
+        @Override
+        public LogLine claim() {
+            return mLine;
+        }
+
+        @Override
+        public void publish(LogLine line) throws InterruptedException {
+            int bufferId = mTracker.track(line);
+            if (bufferId == -1 || (mSubscription.mBufferMask & (1 << bufferId)) == 0) {
+                return;
+            }
+            if (line.hasHeader()) {
+                if (line.getMillis() == mLastMillis && line.getNanos() == mLastNanos) {
+                    ++mLastCount;
+                } else {
+                    mLastMillis = line.getMillis();
+                    mLastNanos = line.getNanos();
+                    mLastCount = 1;
+                }
+            }
+            mSubscription.mLogSource.publish(line);
+        }
+
+        @Override
+        public synchronized void onExit() {
+            // The live lines up to the last dumped one were dumped.
+            int skip = mLastCount;
+            try {
+                for (LogLine line : mLive) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;  // unsubscribed
+                    }
+                    if (mLastMillis != -1 && line.hasHeader()) {
+                        long millis = line.getMillis();
+                        int nanos = line.getNanos();
+                        if (millis < mLastMillis || (millis == mLastMillis && nanos < mLastNanos)) {
+                            continue;
+                        }
+                        if (millis == mLastMillis && nanos == mLastNanos && skip > 0) {
+                            --skip;
+                            continue;
+                        }
+                    }
+                    mSubscription.mLogSource.publish(line);
+                }
+            } catch (InterruptedException excep) {
+                Thread.currentThread().interrupt();
+            }
+            mLive = null;
+            mSubscription.mBacklog = null;
+        }
+    }
+
+    private final LogSourceStream mStream;  // null to create from the settings
+    private final String mSerial;
+    // For the backlog streams, null to get from mSerial when mStream is null.
+    private final AdbClient mAdbClient;
+    private StreamReader mReader;
+    private boolean mBinary;
+    // Copied on write, read by the reader thread without locking.
+    private volatile Subscription[] mSubscriptions = new Subscription[0];
+
+    // Only touched by the reader thread:
+    private final LogLine mLine = new LogLine();
+    private final BufferTracker mTracker = new BufferTracker();
+
+    /**
+     * Get the LogcatMux of a device.
+     *
+     * @param serial The serial of the device or null for the default
+     *               device.
+     *
+     * @return
+     */
+    static synchronized LogcatMux getInstance(String serial) {
+        LogcatMux mux = sInstances.get(serial);
+        if (mux == null) {
+            mux = new LogcatMux(null, serial, null);
+            sInstances.put(serial, mux);
+        }
+        return mux;
+    }
+
+    /**
+     * Get the AdbClient talking to a device.
+     *
+     * @param serial The serial of the device or null for the default
+     *               device.
+     *
+     * @return
+     */
+    static AdbClient getAdbClient(String serial) {
+        AdbClient adbClient = AdbClient.getDefault();
+        return serial == null ? adbClient : adbClient.forSerial(serial);
+    }
+
+    /**
+     * Create the stream running logcat for all buffers on the device,
+     * binary if enabled in the settings else '-v threadtime'.
+     */
+    private LogSourceStream createStream() {
+        Prefs prefs = new Prefs();
+        AdbClient adbClient = getAdbClient(mSerial);
+        if (prefs.getBinaryLogcat()) {
+            return new AdbShellStream(adbClient, "logcat -B -b all", true);
+        }
+        return new AdbShellStream(adbClient, "logcat -v threadtime -D -b all");
+    }
+
+    /**
+     * Create the stream dumping what is already in the buffers in
+     * 'bufferMask', in the same format as the stream being read.
+     *
+     * @return null if there is no device to run logcat on
+     */
+    private LogSourceStream createBacklogStream(int bufferMask) {
+        AdbClient adbClient = mAdbClient;
+        if (adbClient == null) {
+            if (mStream != null) {
+                return null;
+            }
+            adbClient = getAdbClient(mSerial);
+        }
+        StringBuilder command = new StringBuilder(mBinary ? "logcat -B -d" : "logcat -v threadtime -D -d");
+        for (int id = 0; id < sBufferNames.length; ++id) {
+            if ((bufferMask & (1 << id)) != 0) {
+                command.append(" -b ").append(sBufferNames[id]);
+            }
+        }
+        return new AdbShellStream(adbClient, command.toString(), mBinary);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stream The stream to read or null to create it from the
+     *               settings each time reading starts.
+     */
+    LogcatMux(LogSourceStream stream) {
+        this(stream, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stream The stream to read.
+     * @param adbClient Runs 'logcat -d' for subscriptions made after
+     *                  reading started.
+     */
+    LogcatMux(LogSourceStream stream, AdbClient adbClient) {
+        this(stream, null, adbClient);
+    }
+
+    private LogcatMux(LogSourceStream stream, String serial, AdbClient adbClient) {
+        mStream = stream;
+        mSerial = serial;
+        mAdbClient = adbClient;
+    }
+
+    /**
+     * Get the id of a buffer.
+     *
+     * @param name e.g. "main"
+     *
+     * @return the id or -1 if unknown
+     */
+    static int getBufferId(String name) {
+        for (int id = 0; id < sBufferNames.length; ++id) {
+            if (sBufferNames[id].equals(name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the mask to subscribe to the given buffers with.
+     *
+     * @param names e.g. "main", "system"
+     *
+     * @return
+     */
+    static int getBufferMask(String... names) {
+        int mask = 0;
+        for (String name : names) {
+            int id = getBufferId(name);
+            assert id != -1 : "LogcatMux: unknown buffer " + name;
+            if (id != -1) {
+                mask |= 1 << id;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Start passing on lines of the buffers in 'bufferMask' to
+     * 'logSource'. Starts reading if this is the first subscriber,
+     * else the lines already in the buffers are read first.
+     *
+     * @param logSource
+     * @param bufferMask
+     */
+    synchronized void subscribe(LogSource logSource, int bufferMask) {
+        Subscription subscription = new Subscription(logSource, bufferMask);
+        boolean reading = mReader != null && mReader.isAlive();
+        Backlog backlog = null;
+        if (reading) {
+            LogSourceStream backlogStream = createBacklogStream(bufferMask);
+            if (backlogStream != null) {
+                backlog = new Backlog(subscription, backlogStream);
+                subscription.mBacklog = backlog;
+            }
+        }
+
+        Subscription[] subscriptions = new Subscription[mSubscriptions.length + 1];
+        System.arraycopy(mSubscriptions, 0, subscriptions, 0, mSubscriptions.length);
+        subscriptions[mSubscriptions.length] = subscription;
+        mSubscriptions = subscriptions;
+
+        if (backlog != null) {
+            backlog.mReader.start();
+        } else if (!reading) {
+            LogSourceStream stream = mStream != null ? mStream : createStream();
+            mBinary = stream.isBinary();
+            String name = mSerial != null ? "LogcatMux " + mSerial : "LogcatMux";
+            mReader = new StreamReader(name, stream, false, this);
+            mReader.start();
+        }
+    }
+
+    /**
+     * Stop passing on lines to 'logSource'. Stops reading if this was
+     * the last subscriber.
+     *
+     * @param logSource
+     */
+    synchronized void unsubscribe(LogSource logSource) {
+        int count = mSubscriptions.length;
+        for (int index = 0; index < count; ++index) {
+            if (mSubscriptions[index].mLogSource == logSource) {
+                Backlog backlog = mSubscriptions[index].mBacklog;
+                if (backlog != null) {
+                    backlog.mReader.stop();
+                }
+                Subscription[] subscriptions = new Subscription[count - 1];
+                System.arraycopy(mSubscriptions, 0, subscriptions, 0, index);
+                System.arraycopy(mSubscriptions, index + 1, subscriptions, index, count - index - 1);
+                mSubscriptions = subscriptions;
+                break;
+            }
+        }
+
+        if (mSubscriptions.length == 0 && mReader != null) {
+            mReader.stop();
+            mReader = null;
+        }
+    }
+
+
+    /* StreamReader.Sink */
+
+    @Override
+    public void onStart() {
+        mTracker.reset();
+    }
+
+    @Override
+    public LogLine claim() {
+        return mLine;
+    }
+
+    @Override
+    public void publish(LogLine line) throws InterruptedException {
+        int bufferId = mTracker.track(line);
+        if (bufferId == -1) {
+            return;
+        }
+
+        int bit = 1 << bufferId;
+        for (Subscription subscription : mSubscriptions) {
+            if ((subscription.mBufferMask & bit) != 0) {
+                Backlog backlog = subscription.mBacklog;
+                if (backlog == null || !backlog.hold(line)) {
+                    subscription.mLogSource.publish(line);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onExit() {
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix) {
+        int length = prefix.length();
+        if (text.length() < length) {
+            return false;
+        }
+        for (int index = 0; index < length; ++index) {
+            if (text.charAt(index) != prefix.charAt(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getBufferId(CharSequence line, int start) {
+        return getBufferId(line.subSequence(start, line.length()).toString().trim());
+    }
+}
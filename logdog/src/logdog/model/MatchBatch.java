@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.util.Arrays;
+
+/**
+ * The values matched by LogLineMatchers from a batch of log lines,
+ * kept in parallel arrays so they can be passed on to the
+ * LLMMgrBatchListeners in one call, see LogLineMatcherEngine. Element
+ * 'index' of each array, for index < getCount(), belongs to the same
+ * value.
+ *
+ * The LogLineMatcher ids are those given out by the
+ * LogLineMatcherManager when registering them, see
+ * LogLineMatcher.getId(), so a listener can look up its data for a
+ * LogLineMatcher in an array.
+ */
+public final class MatchBatch {
+
+    private LogLineMatcher[] mLLMs;
+    private int[] mLLMIds;
+    private int[] mSeriesIndexes;
+    private long[] mMillis;
+    private float[] mValues;
+    private int mCount;
+
+    MatchBatch(int capacity) {
+        mLLMs = new LogLineMatcher[capacity];
+        mLLMIds = new int[capacity];
+        mSeriesIndexes = new int[capacity];
+        mMillis = new long[capacity];
+        mValues = new float[capacity];
+    }
+
+    void add(LogLineMatcher llm, int seriesIndex, long millis, float value) {
+        if (mCount == mLLMIds.length) {
+            int capacity = Math.max(16, mCount * 2);
+            mLLMs = Arrays.copyOf(mLLMs, capacity);
+            mLLMIds = Arrays.copyOf(mLLMIds, capacity);
+            mSeriesIndexes = Arrays.copyOf(mSeriesIndexes, capacity);
+            mMillis = Arrays.copyOf(mMillis, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+        mLLMs[mCount] = llm;
+        mLLMIds[mCount] = llm.getId();
+        mSeriesIndexes[mCount] = seriesIndex;
+        mMillis[mCount] = millis;
+        mValues[mCount] = value;
+        ++mCount;
+    }
+
+    void clear() {
+        Arrays.fill(mLLMs, 0, mCount, null);
+        mCount = 0;
+    }
+
+    public int getCount() {return mCount;}
+
+    /**
+     * The LogLineMatcher of each value. Use it to check that an id
+     * still belongs to the LogLineMatcher it was looked up for, the
+     * id of an unregistered LogLineMatcher is given to the next one
+     * registered.
+     */
+    public LogLineMatcher[] getLLMs() {return mLLMs;}
+
+    // The LogLineMatcher.getId() of each value, -1 if not registered.
+    public int[] getLLMIds() {return mLLMIds;}
+    public int[] getSeriesIndexes() {return mSeriesIndexes;}
+    // Time of the log line of each value, in milliseconds since the epoch.
+    public long[] getMillis() {return mMillis;}
+    public float[] getValues() {return mValues;}
+}
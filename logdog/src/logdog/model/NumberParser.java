@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+/**
+ * Parses the value of a LogLineMatcher group straight from the
+ * matched line, without creating a String for it. The formats are
+ * those LogLineMatcher has always taken:
+ *
+ *   hex      if the second char is 'x' or 'X', e.g. "0x1f"
+ *   float    if there is a '.', e.g. "-12.5"
+ *   decimal  otherwise, e.g. "-42"
+ *
+ * Values that are common and simple to parse exactly are parsed
+ * here, anything else, including invalid values, is passed on to
+ * Long.parseLong() or Float.parseFloat() so the result, or the
+ * NumberFormatException, is always the same as theirs.
+ */
+final class NumberParser {
+
+    // Floats with up to this many digits are exact...
+    private static final long MAX_FLOAT_MANTISSA = 1L << 24;
+    // ...and so are powers of ten up to 10^10.
+    private static final float[] POWERS_OF_TEN = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    // Digits not overflowing a long:
+    private static final int MAX_DECIMAL_DIGITS = 18;
+    private static final int MAX_HEX_DIGITS = 15;
+
+    private NumberParser() {
+    }
+
+    /**
+     * @param text
+     * @param start
+     * @param end
+     *
+     * @return true if text[start, end) is taken as a hex value by
+     *         parseValue().
+     */
+    static boolean isHex(CharSequence text, int start, int end) {
+        if (end - start <= 1) {
+            return false;
+        }
+        char ch = text.charAt(start + 1);
+        return ch == 'x' || ch == 'X';
+    }
+
+    /**
+     * Parse the value text[start, end).
+     *
+     * @param text
+     * @param start
+     * @param end
+     *
+     * @return
+     * @throws NumberFormatException if not a valid value.
+     */
+    static float parseValue(CharSequence text, int start, int end) {
+        if (start < 0) {
+            throw new NumberFormatException("null");  // group didn't match
+        }
+        if (isHex(text, start, end)) {
+            return parseHex(text, start + 2, end);
+        }
+        for (int index = start; index < end; ++index) {
+            if (text.charAt(index) == '.') {
+                return parseFloat(text, start, end, index);
+            }
+        }
+        return parseDecimal(text, start, end);
+    }
+
+    private static float parseHex(CharSequence text, int start, int end) {
+        if (end == start || end - start > MAX_HEX_DIGITS) {
+            return Long.parseLong(text.subSequence(start, end).toString(), 16);
+        }
+        long value = 0;
+        for (int index = start; index < end; ++index) {
+            int digit = Character.digit(text.charAt(index), 16);
+            if (digit == -1) {
+                return Long.parseLong(text.subSequence(start, end).toString(), 16);
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private static float parseDecimal(CharSequence text, int start, int end) {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (text.charAt(index) == '-' || text.charAt(index) == '+')) {
+            negative = text.charAt(index) == '-';
+            ++index;
+        }
+        if (index == end || end - index > MAX_DECIMAL_DIGITS) {
+            return Long.parseLong(text.subSequence(start, end).toString());
+        }
+        long value = 0;
+        for (; index < end; ++index) {
+            char ch = text.charAt(index);
+            if (ch < '0' || ch > '9') {
+                return Long.parseLong(text.subSequence(start, end).toString());
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse "[+-]digits.digits" exactly as Float.parseFloat() does:
+     * the mantissa and the power of ten are both exact floats so the
+     * division is correctly rounded.
+     */
+    private static float parseFloat(CharSequence text, int start, int end, int dot) {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (text.charAt(index) == '-' || text.charAt(index) == '+')) {
+            negative = text.charAt(index) == '-';
+            ++index;
+        }
+        int fractionDigits = end - dot - 1;
+        if (dot == index && fractionDigits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Float.parseFloat(text.subSequence(start, end).toString());
+        }
+        long mantissa = 0;
+        for (; index < end; ++index) {
+            if (index == dot) {
+                continue;
+            }
+            char ch = text.charAt(index);
+            if (ch < '0' || ch > '9' || mantissa >= MAX_FLOAT_MANTISSA) {
+                return Float.parseFloat(text.subSequence(start, end).toString());
+            }
+            mantissa = mantissa * 10 + (ch - '0');
+        }
+        if (mantissa > MAX_FLOAT_MANTISSA) {
+            return Float.parseFloat(text.subSequence(start, end).toString());
+        }
+        float value = (float) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+/**
+ * Compares NumberParser with parsing a String for each of the value
+ * formats LogLineMatcher takes. Run with:
+ *
+ *   java -cp classes logdog.model.NumberParserBenchmark [values]
+ *
+ * Prints the time and, if the JVM can tell, the bytes allocated per
+ * value after a warmup round.
+ */
+public class NumberParserBenchmark {
+
+    private static final String[][] FORMATS = {
+        {"decimal", "1234"},
+        {"negative decimal", "-98765"},
+        {"hex", "0x7f3a"},
+        {"float", "-12.375"},
+    };
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    // Keeps the results alive.
+    private static float sSum;
+
+    /**
+     * How LogLineMatcher parsed values before NumberParser.
+     */
+    private static float parseWithStrings(String strVal) {
+        boolean isHex = (strVal.length() > 1 &&
+                         (strVal.charAt(1) == 'x' || strVal.charAt(1) == 'X'));
+        boolean isFloat = false;
+        if (isHex) {
+            strVal = strVal.substring(2);  // skip 0x
+        } else {
+            isFloat = strVal.contains(".");
+        }
+        if (isFloat) {
+            return Float.parseFloat(strVal);
+        }
+        return Long.parseLong(strVal, isHex ? 16 : 10);
+    }
+
+    private static long runStrings(String line, int start, int end, int count) {
+        long startNanos = System.nanoTime();
+        float sum = 0;
+        for (int index = 0; index < count; ++index) {
+            // As matcher.group() did.
+            sum += parseWithStrings(line.substring(start, end));
+        }
+        sSum += sum;
+        return System.nanoTime() - startNanos;
+    }
+
+    private static long runNumberParser(String line, int start, int end, int count) {
+        long startNanos = System.nanoTime();
+        float sum = 0;
+        for (int index = 0; index < count; ++index) {
+            sum += NumberParser.parseValue(line, start, end);
+        }
+        sSum += sum;
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The bytes allocated by this thread, or -1 if not known.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void report(String name, long nanos, long bytes, int count) {
+        System.out.println(String.format("  %-14s %8.1f ns/value %8s bytes/value", name,
+                                         (double) nanos / count,
+                                         bytes < 0 ? "?" : String.format("%.1f", (double) bytes / count)));
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        for (String[] format : FORMATS) {
+            String line = "10-17 12:34:56.789  1234  5678 D sensor  : value[" + format[1] + "]";
+            int start = line.indexOf('[') + 1;
+            int end = line.indexOf(']');
+
+            for (int round = 0; round < WARMUP_ROUNDS; ++round) {
+                runStrings(line, start, end, count);
+                runNumberParser(line, start, end, count);
+            }
+            long stringsNanos = Long.MAX_VALUE;
+            long numberParserNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; ++round) {
+                stringsNanos = Math.min(stringsNanos, runStrings(line, start, end, count));
+                numberParserNanos = Math.min(numberParserNanos,
+                                             runNumberParser(line, start, end, count));
+            }
+            long bytes = getAllocatedBytes();
+            runStrings(line, start, end, count);
+            long stringsBytes = bytes < 0 ? -1 : getAllocatedBytes() - bytes;
+            bytes = getAllocatedBytes();
+            runNumberParser(line, start, end, count);
+            long numberParserBytes = bytes < 0 ? -1 : getAllocatedBytes() - bytes;
+
+            System.out.println(String.format("%s \"%s\":", format[0], format[1]));
+            report("strings", stringsNanos, stringsBytes, count);
+            report("NumberParser", numberParserNanos, numberParserBytes, count);
+        }
+        System.out.println("sum of all values: " + sSum);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+
+public class NumberParserTests {
+
+    /**
+     * How LogLineMatcher parsed values before NumberParser.
+     */
+    static float parseWithStrings(String strVal) {
+        boolean isHex = (strVal.length() > 1 &&
+                         (strVal.charAt(1) == 'x' || strVal.charAt(1) == 'X'));
+        boolean isFloat = false;
+        if (isHex) {
+            strVal = strVal.substring(2);  // skip 0x
+        } else {
+            isFloat = strVal.contains(".");
+        }
+        if (isFloat) {
+            return Float.parseFloat(strVal);
+        }
+        return Long.parseLong(strVal, isHex ? 16 : 10);
+    }
+
+    private static void assertSameValue(String strVal) {
+        String line = "value[" + strVal + "]";
+        Float expected = null;
+        try {
+            expected = parseWithStrings(strVal);
+        } catch (NumberFormatException excep) {
+            // expected stays null
+        }
+        try {
+            float value = NumberParser.parseValue(line, 6, 6 + strVal.length());
+            assertNotNull("'" + strVal + "' is not valid", expected);
+            assertEquals("'" + strVal + "'", Float.floatToIntBits(expected), Float.floatToIntBits(value));
+        } catch (NumberFormatException excep) {
+            assertNull("'" + strVal + "' is valid", expected);
+        }
+    }
+
+    @Test
+    public void sameValuesAsParsingStrings() {
+        String[] values = {
+            "0", "42", "-42", "+7", "-0", "123456789012345678", "1234567890123456789",
+            "99999999999999999999", "0x1f", "0XFF", "0x", "0x-5", "0x7fffffffffffffff", "1x10",
+            "12.5", "-12.5", "-0.0", ".5", "1.", ".", "-.", "3.14159265", "16777216.5",
+            "0.1234567891", "0.12345678912", "1.5f", "1.5e3", " 1.5", "1.2.3", "abc", "", "-",
+            "12a", "\uff11\uff12"
+        };
+        for (String value : values) {
+            assertSameValue(value);
+        }
+
+        Random random = new Random(4711);
+        for (int count = 0; count < 100000; ++count) {
+            int digits = 1 + random.nextInt(9);
+            int dot = random.nextInt(digits + 1);
+            StringBuilder sb = new StringBuilder();
+            if (random.nextBoolean()) {
+                sb.append('-');
+            }
+            for (int index = 0; index < digits; ++index) {
+                if (index == dot) {
+                    sb.append('.');
+                }
+                sb.append((char) ('0' + random.nextInt(10)));
+            }
+            assertSameValue(sb.toString());
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void groupNotMatched() {
+        NumberParser.parseValue("value", -1, -1);
+    }
+}
@@ -0,0 +1,683 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import logdog.utils.Logger;
+
+/**
+ * Estimates what a LogLineMatcher regexp will cost before it goes
+ * live, see LogLineMatcherManager.editAnalyzeCost(). The regexp is
+ * scanned for constructs that may make java.util.regex backtrack
+ * exponentially or polynomially, and it is timed against sample log
+ * lines, normally those shown by the LogSourceView of its log source.
+ *
+ * The sample lines are matched one by one against a regexp that
+ * doesn't use the engine's literal prefilter, so the numbers are for
+ * the worst case where every line has to be matched.
+ */
+public final class RegExpCostAnalyzer {
+
+    /*------ Static class members and methods ------*/
+
+    // Above this the matcher alone limits ingestion to less than
+    // 200000 lines per second.
+    static final long SLOW_MEAN_NANOS = 5000;
+    // A single line taking longer than this stalls the Dispatcher
+    // thread noticeably.
+    static final long SLOW_WORST_NANOS = 1000000;
+    // Matching a line is aborted after this.
+    static final long LINE_TIMEOUT_NANOS = 100000000;
+    public static final int MAX_SAMPLE_LINES = 20000;
+    private static final int WARMUP_LINES = 1000;
+
+    // String resources.
+    private static final String NESTED_QUANTIFIER_STR =
+        "Nested quantifier in '%s' may backtrack exponentially.";
+    private static final String OVERLAPPING_ALTERNATIVES_STR =
+        "Alternatives in '%s' overlap and may backtrack exponentially.";
+    private static final String ADJACENT_QUANTIFIERS_STR =
+        "'%s' repeats the same characters twice and may backtrack polynomially.";
+    private static final String REPORT_STR = "LogLineMatcher '%s': %d sample lines, %.0f lines/s, worst %.1f us";
+    private static final String REPORT_TIMEDOUT_STR =
+        "LogLineMatcher '%s': matching a sample line took more than %d ms";
+    private static final String REPORT_NO_LINES_STR = "LogLineMatcher '%s': no sample lines";
+
+    /**
+     * Provides the sample lines for a log source.
+     */
+    public interface SampleLines {
+        /**
+         * @param sourceName
+         *
+         * @return null if there are no sample lines.
+         */
+        List<String> getSampleLines(String sourceName);
+    }
+
+    /**
+     * Read the first MAX_SAMPLE_LINES lines of a log file to use as
+     * sample lines.
+     *
+     * @param file
+     *
+     * @return
+     */
+    public static ArrayList<String> readSampleLines(File file) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>(1000);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while (lines.size() < MAX_SAMPLE_LINES && (line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException excep) {
+            Logger.logExcep(excep);
+            throw excep;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException excep) {
+                    Logger.logExcep(excep);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Analyze a LogLineMatcher regexp.
+     *
+     * @param name The name of the LogLineMatcher, for the report.
+     * @param regExp Regular expression without the initial timestamp group.
+     * @param linear true if LinearRegExp is used when supported.
+     * @param sampleLines Log lines, may be null.
+     *
+     * @return
+     */
+    static Report analyze(String name, String regExp, boolean linear, List<String> sampleLines)
+        throws PatternSyntaxException {
+        Pattern pattern = LogSource.compileRegExp(regExp);  // throws
+        LinearRegExp linearRegExp = linear ? LogSource.compileLinearRegExp(regExp) : null;
+
+        // LinearRegExp never backtracks.
+        Report report = new Report(name);
+        if (linearRegExp == null) {
+            report.mRisks = findBacktrackingRisks(regExp);
+        }
+        if (sampleLines != null) {
+            measure(report, pattern, linearRegExp, sampleLines);
+        }
+        return report;
+    }
+
+    private static void measure(Report report, Pattern pattern, LinearRegExp linearRegExp,
+                                List<String> sampleLines) {
+        TimestampParser tsParser = new TimestampParser();
+        ArrayList<LogLine> lines = new ArrayList<LogLine>(Math.min(sampleLines.size(), MAX_SAMPLE_LINES));
+        for (String text : sampleLines) {
+            if (lines.size() == MAX_SAMPLE_LINES) {
+                break;
+            }
+            // As the engine does, see matchRegExp().
+            LogLine line = new LogLine();
+            line.set(text, tsParser);
+            if (line.hasHeader()) {
+                lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        DeadlineText text = new DeadlineText();
+        Matcher matcher = pattern.matcher("");
+        try {
+            // Warmup, then the time for all lines, then the worst line.
+            for (int index = 0; index < lines.size() && index < WARMUP_LINES; ++index) {
+                text.reset(lines.get(index), System.nanoTime() + LINE_TIMEOUT_NANOS);
+                lookingAt(matcher, linearRegExp, text);
+            }
+
+            long startNanos = System.nanoTime();
+            for (LogLine line : lines) {
+                text.reset(line, System.nanoTime() + LINE_TIMEOUT_NANOS);
+                lookingAt(matcher, linearRegExp, text);
+            }
+            report.mTotalNanos = System.nanoTime() - startNanos;
+
+            for (LogLine line : lines) {
+                long lineStartNanos = System.nanoTime();
+                text.reset(line, lineStartNanos + LINE_TIMEOUT_NANOS);
+                lookingAt(matcher, linearRegExp, text);
+                long nanos = System.nanoTime() - lineStartNanos;
+                if (nanos > report.mWorstNanos) {
+                    report.mWorstNanos = nanos;
+                    report.mWorstLine = line.toString();
+                }
+            }
+            report.mLineCount = lines.size();
+        } catch (TimeoutException excep) {
+            report.mTimedOut = true;
+            report.mWorstLine = text.mLine.toString();
+        }
+    }
+
+    private static boolean lookingAt(Matcher matcher, LinearRegExp linearRegExp, DeadlineText text) {
+        if (linearRegExp != null) {
+            return linearRegExp.lookingAt(text, LogLine.TIMESTAMP_LEN, text.length()) != null;
+        }
+        matcher.reset(text);
+        matcher.region(LogLine.TIMESTAMP_LEN, text.length());
+        return matcher.lookingAt();
+    }
+
+    /**
+     * Find constructs java.util.regex may spend a very long time on
+     * when a line almost matches:
+     *
+     * - A repeated group containing an unbounded quantifier, e.g. "(a+)+".
+     * - A repeated group with alternatives starting with the same
+     *   characters, e.g. "(a|ab)*".
+     * - Adjacent unbounded quantifiers of overlapping characters, e.g.
+     *   ".*\d+".
+     *
+     * Possessive quantifiers and atomic groups are left out since they
+     * don't backtrack. Newer JREs avoid some of the exponential cases,
+     * but not all and not the polynomial ones. This is a heuristic, it may both warn about
+     * regexps that are fine and miss some that are not.
+     *
+     * @param regExp Regular expression without the initial timestamp group.
+     *
+     * @return A description of each construct found.
+     */
+    static ArrayList<String> findBacktrackingRisks(String regExp) {
+        ArrayList<String> risks = new ArrayList<String>(2);
+        try {
+            Parser parser = new Parser(regExp);
+            findRisks(parser.parse(), risks);
+        } catch (RuntimeException excep) {
+            // The regexp has already been compiled so this is a
+            // construct Parser doesn't know, skip the analysis.
+            Logger.logExcep(excep);
+        }
+        return risks;
+    }
+
+    private static void findRisks(List<List<Node>> alternatives, List<String> risks) {
+        for (List<Node> sequence : alternatives) {
+            Node prev = null;
+            for (Node node : sequence) {
+                if (node.mAlternatives != null) {
+                    if (node.isRepeated()) {
+                        if (containsUnbounded(node.mAlternatives)) {
+                            risks.add(String.format(NESTED_QUANTIFIER_STR, node.mSource));
+                        } else if (hasOverlappingAlternatives(node.mAlternatives)) {
+                            risks.add(String.format(OVERLAPPING_ALTERNATIVES_STR, node.mSource));
+                        }
+                    }
+                    findRisks(node.mAlternatives, risks);
+                } else if (prev != null && prev.mAlternatives == null &&
+                           prev.isUnbounded() && node.isUnbounded() &&
+                           overlaps(prev.mAtom, node.mAtom)) {
+                    risks.add(String.format(ADJACENT_QUANTIFIERS_STR, prev.mSource + node.mSource));
+                }
+                prev = node;
+            }
+        }
+    }
+
+    private static boolean containsUnbounded(List<List<Node>> alternatives) {
+        for (List<Node> sequence : alternatives) {
+            for (Node node : sequence) {
+                if (node.isUnbounded() ||
+                    (node.mAlternatives != null && containsUnbounded(node.mAlternatives))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasOverlappingAlternatives(List<List<Node>> alternatives) {
+        for (int first = 0; first < alternatives.size(); ++first) {
+            for (int second = first + 1; second < alternatives.size(); ++second) {
+                List<Node> lhs = alternatives.get(first);
+                List<Node> rhs = alternatives.get(second);
+                if (lhs.isEmpty() || rhs.isEmpty()) {
+                    continue;
+                }
+                String lhsAtom = lhs.get(0).mAtom;
+                String rhsAtom = rhs.get(0).mAtom;
+                if (lhsAtom != null && rhsAtom != null && overlaps(lhsAtom, rhsAtom)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if some printable ASCII character or tab matches both atoms.
+     */
+    private static boolean overlaps(String lhsAtom, String rhsAtom) {
+        try {
+            Matcher lhs = Pattern.compile(lhsAtom).matcher("");
+            Matcher rhs = Pattern.compile(rhsAtom).matcher("");
+            for (char ch = ' '; ch <= '~' + 1; ++ch) {
+                String text = String.valueOf(ch <= '~' ? ch : '\t');
+                if (lhs.reset(text).matches() && rhs.reset(text).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (PatternSyntaxException excep) {
+            // A backreference for instance, may match anything.
+            return true;
+        }
+    }
+
+
+    /*------ Sub classes ------*/
+
+    /**
+     * The result of analyze().
+     */
+    public static final class Report {
+
+        private final String mName;
+        private ArrayList<String> mRisks = new ArrayList<String>(0);
+        private int mLineCount;
+        private long mTotalNanos;
+        private long mWorstNanos;
+        private String mWorstLine;
+        private boolean mTimedOut;
+
+        private Report(String name) {
+            mName = name;
+        }
+
+        public String getName() {return mName;}
+        public List<String> getRisks() {return mRisks;}
+        public int getLineCount() {return mLineCount;}
+        public long getWorstNanos() {return mWorstNanos;}
+        public String getWorstLine() {return mWorstLine;}
+        public boolean isTimedOut() {return mTimedOut;}
+
+        public long getMeanNanos() {
+            return mLineCount > 0 ? mTotalNanos / mLineCount : 0;
+        }
+
+        public double getLinesPerSecond() {
+            return mTotalNanos > 0 ? mLineCount * 1e9 / mTotalNanos : 0;
+        }
+
+        /**
+         * @return true if matching the sample lines shows that the
+         *         regexp would limit the ingestion.
+         */
+        public boolean isSlow() {
+            return mTimedOut || getMeanNanos() > SLOW_MEAN_NANOS || mWorstNanos > SLOW_WORST_NANOS;
+        }
+
+        public boolean hasWarning() {
+            return isSlow() || !mRisks.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(200);
+            if (mTimedOut) {
+                text.append(String.format(REPORT_TIMEDOUT_STR, mName, LINE_TIMEOUT_NANOS / 1000000));
+            } else if (mLineCount == 0) {
+                text.append(String.format(REPORT_NO_LINES_STR, mName));
+            } else {
+                text.append(String.format(REPORT_STR, mName, mLineCount, getLinesPerSecond(),
+                                          mWorstNanos / 1000.0));
+            }
+            for (String risk : mRisks) {
+                text.append("\n  ").append(risk);
+            }
+            return text.toString();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class TimeoutException extends RuntimeException {
+    }
+
+    /**
+     * A LogLine which throws TimeoutException when read after a
+     * deadline. The time is only checked now and then since a
+     * backtracking regexp reads the same characters over and over.
+     */
+    private static class DeadlineText implements CharSequence {
+
+        private static final int CHECK_INTERVAL = 4096;
+
+        LogLine mLine;
+        private long mDeadlineNanos;
+        private int mReads;
+
+        void reset(LogLine line, long deadlineNanos) {
+            mLine = line;
+            mDeadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++mReads == CHECK_INTERVAL) {
+                mReads = 0;
+                if (System.nanoTime() > mDeadlineNanos) {
+                    throw new TimeoutException();
+                }
+            }
+            return mLine.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return mLine.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return mLine.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return mLine.toString();
+        }
+    }
+
+    /**
+     * A regexp item, an atom or a group, with its quantifier.
+     */
+    private static class Node {
+        // The regexp text of a single character atom, null for a group:
+        String mAtom;
+        // The alternatives of a group, null for an atom:
+        List<List<Node>> mAlternatives;
+        String mSource;
+        int mMin = 1;
+        int mMax = 1;  // -1 if unbounded
+        boolean mPossessive;
+
+        boolean isUnbounded() {
+            return mMax < 0 && !mPossessive;
+        }
+
+        boolean isRepeated() {
+            return (mMax < 0 || mMax > 1) && !mPossessive;
+        }
+    }
+
+    /**
+     * Splits a java.util.regex regexp, known to compile, into Nodes.
+     * Zero-width items like anchors and lookarounds are left out.
+     */
+    private static class Parser {
+
+        private final String mRegExp;
+        private int mPos;
+
+        Parser(String regExp) {
+            mRegExp = regExp;
+        }
+
+        List<List<Node>> parse() {
+            return parseAlternatives();
+        }
+
+        private boolean atEnd() {
+            return mPos >= mRegExp.length();
+        }
+
+        private char peek() {
+            return mRegExp.charAt(mPos);
+        }
+
+        private List<List<Node>> parseAlternatives() {
+            List<List<Node>> alternatives = new ArrayList<List<Node>>(1);
+            alternatives.add(parseSequence());
+            while (!atEnd() && peek() == '|') {
+                ++mPos;
+                alternatives.add(parseSequence());
+            }
+            return alternatives;
+        }
+
+        private List<Node> parseSequence() {
+            List<Node> sequence = new ArrayList<Node>(8);
+            while (!atEnd() && peek() != '|' && peek() != ')') {
+                int start = mPos;
+                Node node = new Node();
+                boolean zeroWidth = false;
+                char ch = mRegExp.charAt(mPos++);
+                switch (ch) {
+                case '(':
+                    zeroWidth = parseGroupPrefix(node);
+                    node.mAlternatives = parseAlternatives();
+                    ++mPos;  // ')'
+                    break;
+                case '[':
+                    parseClass();
+                    node.mAtom = mRegExp.substring(start, mPos);
+                    break;
+                case '\\':
+                    zeroWidth = parseEscape();
+                    node.mAtom = mRegExp.substring(start, mPos);
+                    break;
+                case '^':
+                case '$':
+                    zeroWidth = true;
+                    break;
+                case '.':
+                    node.mAtom = ".";
+                    break;
+                default:
+                    node.mAtom = Pattern.quote(String.valueOf(ch));
+                    break;
+                }
+                parseQuantifier(node);
+                node.mSource = mRegExp.substring(start, mPos);
+                if (!zeroWidth) {
+                    sequence.add(node);
+                } else if (!sequence.isEmpty()) {
+                    // Don't treat the items around an anchor as adjacent.
+                    sequence.add(new Node());
+                }
+            }
+            return sequence;
+        }
+
+        /**
+         * Skip what follows "(" up to the group's content.
+         *
+         * @return true if the group is zero-width.
+         */
+        private boolean parseGroupPrefix(Node node) {
+            if (atEnd() || peek() != '?') {
+                return false;
+            }
+            ++mPos;
+            char ch = mRegExp.charAt(mPos++);
+            switch (ch) {
+            case ':':
+                return false;
+            case '>':
+                // Atomic groups don't backtrack into themselves.
+                node.mPossessive = true;
+                return false;
+            case '=':
+            case '!':
+                return true;
+            case '<':
+                if (peek() == '=' || peek() == '!') {
+                    ++mPos;
+                    return true;
+                }
+                mPos = mRegExp.indexOf('>', mPos) + 1;  // named group
+                return false;
+            default:
+                // Flags, "(?i)" or "(?i:".
+                while (peek() != ')' && peek() != ':') {
+                    ++mPos;
+                }
+                if (peek() == ':') {
+                    ++mPos;
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        private void parseClass() {
+            int depth = 1;
+            if (peek() == '^') {
+                ++mPos;
+            }
+            if (peek() == ']') {
+                ++mPos;
+            }
+            while (depth > 0) {
+                char ch = mRegExp.charAt(mPos++);
+                if (ch == '\\') {
+                    parseEscape();
+                } else if (ch == '[') {
+                    ++depth;
+                } else if (ch == ']') {
+                    --depth;
+                }
+            }
+        }
+
+        /**
+         * Skip what follows "\".
+         *
+         * @return true if the escape is zero-width, e.g. "\b".
+         */
+        private boolean parseEscape() {
+            char ch = mRegExp.charAt(mPos++);
+            switch (ch) {
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'G':
+            case 'z':
+            case 'Z':
+                return true;
+            case 'p':
+            case 'P':
+                if (peek() == '{') {
+                    mPos = mRegExp.indexOf('}', mPos) + 1;
+                } else {
+                    ++mPos;
+                }
+                break;
+            case 'x':
+                if (peek() == '{') {
+                    mPos = mRegExp.indexOf('}', mPos) + 1;
+                } else {
+                    mPos += 2;
+                }
+                break;
+            case 'u':
+                mPos += 4;
+                break;
+            case 'c':
+                ++mPos;
+                break;
+            case 'k':
+                mPos = mRegExp.indexOf('>', mPos) + 1;
+                break;
+            case 'Q':
+                int end = mRegExp.indexOf("\\E", mPos);
+                mPos = end < 0 ? mRegExp.length() : end + 2;
+                break;
+            default:
+                while (ch >= '0' && ch <= '9' && !atEnd() && Character.isDigit(peek())) {
+                    ++mPos;
+                }
+                break;
+            }
+            return false;
+        }
+
+        private void parseQuantifier(Node node) {
+            if (atEnd()) {
+                return;
+            }
+            char ch = peek();
+            if (ch == '*') {
+                node.mMin = 0;
+                node.mMax = -1;
+            } else if (ch == '+') {
+                node.mMin = 1;
+                node.mMax = -1;
+            } else if (ch == '?') {
+                node.mMin = 0;
+                node.mMax = 1;
+            } else if (ch == '{') {
+                int end = mRegExp.indexOf('}', mPos);
+                String[] bounds = mRegExp.substring(mPos + 1, end).split(",", -1);
+                node.mMin = Integer.parseInt(bounds[0].trim());
+                if (bounds.length == 1) {
+                    node.mMax = node.mMin;
+                } else {
+                    String max = bounds[1].trim();
+                    node.mMax = max.isEmpty() ? -1 : Integer.parseInt(max);
+                }
+                mPos = end;
+            } else {
+                return;
+            }
+            ++mPos;
+            if (!atEnd() && peek() == '+') {
+                node.mPossessive = true;
+                ++mPos;
+            } else if (!atEnd() && peek() == '?') {
+                ++mPos;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RegExpCostAnalyzerTests {
+
+    private static List<String> createLines(int count, String message) {
+        ArrayList<String> lines = new ArrayList<String>(count);
+        for (int index = 0; index < count; ++index) {
+            lines.add("10-17 12:34:56.789  1234  5678 D sensor  : " + message);
+        }
+        return lines;
+    }
+
+    @Test
+    public void risksFound() {
+        String[] risky = {
+            "(a+)+b",
+            ".*(x*y?)*$",
+            "(?:\\d|\\w)+;",
+            "(a|ab)*c",
+            "(\\s*){2,5}x",
+            ".*\\d+ ms",
+            "[a-z]+\\w* =",
+        };
+        for (String regExp : risky) {
+            assertEquals(regExp, 1, RegExpCostAnalyzer.findBacktrackingRisks(regExp).size());
+        }
+    }
+
+    @Test
+    public void noRisksFound() {
+        String[] fine = {
+            ".* V Preeffect: EFFECT_CMD_SET_VOLUME vol = ([0-9]+)$",
+            ".*? sensor  : value\\[(-?[0-9]+\\.[0-9]+)\\]",
+            "(a++)+b",
+            "(?>a+)+b",
+            "(\\d|x)+",
+            "\\d+\\s+\\d+",
+            "[^\\]]+\\]",
+            "(?<name>\\w+): (?i:done)",
+            "\\Q(a+)+\\E",
+            "\\d+\\b\\d+",
+        };
+        for (String regExp : fine) {
+            assertEquals(regExp, Arrays.asList(new String[0]),
+                         RegExpCostAnalyzer.findBacktrackingRisks(regExp));
+        }
+    }
+
+    @Test
+    public void sampleLinesMeasured() {
+        List<String> lines = createLines(2000, "value[42]");
+        lines.add("not a log line");
+        RegExpCostAnalyzer.Report report =
+            RegExpCostAnalyzer.analyze("fast", ".*? sensor  : value\\[([0-9]+)\\]", false, lines);
+        assertEquals(2000, report.getLineCount());
+        assertTrue(report.getLinesPerSecond() > 0);
+        assertTrue(report.getWorstNanos() >= report.getMeanNanos());
+        assertNotNull(report.getWorstLine());
+        assertFalse(report.isTimedOut());
+
+        report = RegExpCostAnalyzer.analyze("none", "x", false, null);
+        assertEquals(0, report.getLineCount());
+        assertFalse(report.hasWarning());
+    }
+
+    @Test(timeout = 10000)
+    public void catastrophicBacktrackingTimesOut() {
+        List<String> lines = createLines(3, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!");
+        RegExpCostAnalyzer.Report report =
+            RegExpCostAnalyzer.analyze("slow", ".*?: (.*a){12}$", false, lines);
+        assertTrue(report.isTimedOut());
+        assertTrue(report.isSlow());
+        assertEquals(1, report.getRisks().size());
+
+        // LinearRegExp doesn't backtrack.
+        report = RegExpCostAnalyzer.analyze("linear", ".*?: (.*a){12}$", true, lines);
+        assertFalse(report.isTimedOut());
+        assertEquals(3, report.getLineCount());
+        assertTrue(report.getRisks().isEmpty());
+    }
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+package logdog.model;
+
+/**
+ * Finds a literal string that must occur in every line matched by a
+ * regular expression, e.g. "GC_CONCURRENT freed " in
+ * ".*?GC_CONCURRENT freed ([0-9].*?)K, .*?$". Lines not containing
+ * the literal need not be matched against the regular expression at
+ * all, see LogLineMatcherEngine.
+ *
+ * Only what is certainly required is used: nothing is found in
+ * alternations, optional atoms or character classes, and expressions
+ * with inline flags (e.g. "(?i)") or other constructs not understood
+ * here give no literal at all.
+ *
+ * The log tag a regular expression is written for, as by
+ * LogSource.parseToLogTag(), is found in the same way, see
+ * getLogTag().
+ */
+final class RegExpLiterals {
+
+    private RegExpLiterals() {
+    }
+
+    /**
+     * Thrown internally when the literal cannot be known.
+     */
+    @SuppressWarnings("serial")
+    private static class UnknownException extends Exception {
+    }
+
+    /**
+     * Get the longest literal required by 'regExp'.
+     *
+     * @param regExp As given by the user, without the timestamp group.
+     *
+     * @return null if there is no required literal or if 'regExp' is
+     *         not understood.
+     */
+    static String getRequiredLiteral(String regExp) {
+        try {
+            String literal = parse(regExp, 0, regExp.length());
+            return literal.length() > 0 ? literal : null;
+        } catch (UnknownException excep) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the log tag 'regExp' is written for, i.e. if it starts with
+     * ".*?" or ".*" followed by literal text up to a ':', like the
+     * regexps from LogSource.parseToLogTag(). Such a regexp mostly
+     * matches lines with that tag, or with a tag ending with it, but
+     * as it is not anchored it also matches lines having the text in
+     * their message, see getLogTagLiteral().
+     *
+     * @param regExp As given by the user, without the timestamp group.
+     *
+     * @return The tag without padding, or null if 'regExp' is not
+     *         written for one tag.
+     */
+    static String getLogTag(String regExp) {
+        String literal = getLogTagLiteral(regExp);
+        return literal != null ? literal.substring(0, literal.length() - 1).trim() : null;
+    }
+
+    /**
+     * Get the text a regexp written for a log tag, see getLogTag(),
+     * requires in the line: the tag with its padding and the ':'.
+     *
+     * @param regExp As given by the user, without the timestamp group.
+     *
+     * @return The literal, or null if 'regExp' is not written for one
+     *         tag.
+     */
+    static String getLogTagLiteral(String regExp) {
+        int end = regExp.length();
+        int index;
+        if (regExp.startsWith(".*?")) {
+            index = 3;
+        } else if (regExp.startsWith(".*")) {
+            index = 2;
+        } else {
+            return null;
+        }
+
+        StringBuilder tag = new StringBuilder();
+        while (index < end && regExp.charAt(index) != ':') {
+            char ch = regExp.charAt(index);
+            if (ch == '\\' && index + 1 < end &&
+                !Character.isLetterOrDigit(regExp.charAt(index + 1))) {
+                ch = regExp.charAt(index + 1);
+                ++index;
+            } else if (".[]()*+?{}|^$\\".indexOf(ch) != -1) {
+                return null;
+            }
+            tag.append(ch);
+            ++index;
+        }
+        if (index == end) {
+            return null;
+        }
+        // Neither the ':' nor the char before it may be optional.
+        if (index + 1 < end && "?*{".indexOf(regExp.charAt(index + 1)) != -1) {
+            return null;
+        }
+        try {
+            if (hasAlternation(regExp, index, end)) {
+                return null;
+            }
+        } catch (UnknownException excep) {
+            return null;
+        }
+
+        String trimmed = tag.toString().trim();
+        for (int pos = 0; pos < trimmed.length(); ++pos) {
+            if (Character.isWhitespace(trimmed.charAt(pos))) {
+                return null;  // e.g. the level first, "D tag:"
+            }
+        }
+        return trimmed.length() > 0 ? tag.append(':').toString() : null;
+    }
+
+    /**
+     * Get the text matched by regExp[start, end) if it is nothing but
+     * literal text, like the regexps from LogSource.parseToRegExp().
+     *
+     * @param regExp
+     * @param start
+     * @param end
+     *
+     * @return The literal, or null if regExp[start, end) is empty or
+     *         not only literal text.
+     */
+    static String getLiteral(String regExp, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+        StringBuilder literal = new StringBuilder(end - start);
+        for (int index = start; index < end; ++index) {
+            char ch = regExp.charAt(index);
+            if (ch == '\\') {
+                if (index + 1 == end || Character.isLetterOrDigit(regExp.charAt(index + 1))) {
+                    return null;
+                }
+                ch = regExp.charAt(++index);
+            } else if (".[]()*+?{}|^$".indexOf(ch) != -1) {
+                return null;
+            }
+            literal.append(ch);
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Get the longest required literal in regExp[start, end).
+     *
+     * @return "" if none.
+     */
+    private static String parse(String regExp, int start, int end) throws UnknownException {
+        if (hasAlternation(regExp, start, end)) {
+            return "";
+        }
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int index = start;
+        while (index < end) {
+            char ch = regExp.charAt(index);
+            String atomLiteral = null;  // the atom is this literal if non-null
+            int atomEnd;
+            switch (ch) {
+            case '\\':
+                if (index + 1 >= end) {
+                    throw new UnknownException();
+                }
+                char escaped = regExp.charAt(index + 1);
+                atomEnd = index + 2;
+                if (escaped == 'Q') {
+                    int quoteEnd = regExp.indexOf("\\E", atomEnd);
+                    if (quoteEnd == -1 || quoteEnd > end) {
+                        quoteEnd = end;
+                    }
+                    atomLiteral = regExp.substring(atomEnd, quoteEnd);
+                    atomEnd = Math.min(quoteEnd + 2, end);
+                } else if (escaped == 't') {
+                    atomLiteral = "\t";
+                } else if (escaped == 'n') {
+                    atomLiteral = "\n";
+                } else if (escaped == 'r') {
+                    atomLiteral = "\r";
+                } else if (escaped == 'f') {
+                    atomLiteral = "\f";
+                } else if (escaped == 'x' || escaped == 'u' || escaped == 'c' ||
+                           escaped == 'p' || escaped == 'P' || escaped == 'k' ||
+                           Character.isDigit(escaped)) {
+                    throw new UnknownException();  // not worth parsing
+                } else if (!Character.isLetter(escaped)) {
+                    atomLiteral = String.valueOf(escaped);
+                }
+                // else a class like \d or an anchor like \b
+                break;
+            case '[':
+                atomEnd = skipClass(regExp, index, end);
+                break;
+            case '(':
+                atomEnd = skipGroup(regExp, index, end);
+                break;
+            case ')':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new UnknownException();  // not an atom, not understood
+            case '.':
+            case '^':
+            case '$':
+                atomEnd = index + 1;
+                break;
+            default:
+                atomLiteral = String.valueOf(ch);
+                atomEnd = index + 1;
+                break;
+            }
+
+            // Look at the quantifier of the atom.
+            int quantEnd = atomEnd;
+            boolean optional = false;
+            boolean repeated = false;
+            if (quantEnd < end) {
+                char quant = regExp.charAt(quantEnd);
+                if (quant == '?' || quant == '*') {
+                    optional = true;
+                    ++quantEnd;
+                } else if (quant == '+') {
+                    repeated = true;
+                    ++quantEnd;
+                } else if (quant == '{') {
+                    int close = regExp.indexOf('}', quantEnd);
+                    if (close == -1 || close >= end) {
+                        throw new UnknownException();
+                    }
+                    String min = regExp.substring(quantEnd + 1, close).split(",", -1)[0].trim();
+                    optional = min.length() == 0 || min.equals("0");
+                    repeated = true;
+                    quantEnd = close + 1;
+                }
+                if (quantEnd > atomEnd && quantEnd < end) {
+                    char suffix = regExp.charAt(quantEnd);
+                    if (suffix == '?' || suffix == '+') {  // lazy or possessive
+                        ++quantEnd;
+                    }
+                }
+            }
+
+            if (ch == '(' && !optional) {
+                // A required group, look inside it but it breaks the run.
+                String inner = parseGroup(regExp, index, atomEnd);
+                best = longest(best, run.toString());
+                best = longest(best, inner);
+                run.setLength(0);
+            } else if (atomLiteral != null && !optional) {
+                if (repeated) {
+                    // The literal is there once, then maybe more of the last char.
+                    run.append(atomLiteral);
+                    best = longest(best, run.toString());
+                    run.setLength(0);
+                } else {
+                    run.append(atomLiteral);
+                }
+            } else {
+                best = longest(best, run.toString());
+                run.setLength(0);
+            }
+            index = quantEnd;
+        }
+        return longest(best, run.toString());
+    }
+
+    /**
+     * Get the longest required literal in the group regExp[start, end)
+     * where regExp[start] is '(' and regExp[end - 1] is ')'.
+     */
+    private static String parseGroup(String regExp, int start, int end) throws UnknownException {
+        int innerStart = start + 1;
+        if (innerStart < end && regExp.charAt(innerStart) == '?') {
+            if (regExp.startsWith("?:", innerStart)) {
+                innerStart += 2;
+            } else if (regExp.startsWith("?=", innerStart) || regExp.startsWith("?!", innerStart) ||
+                       regExp.startsWith("?<=", innerStart) || regExp.startsWith("?<!", innerStart)) {
+                return "";  // lookaround, doesn't take part in the match
+            } else {
+                throw new UnknownException();  // inline flags, named groups etc.
+            }
+        }
+        return parse(regExp, innerStart, end - 1);
+    }
+
+    /**
+     * @return true if regExp[start, end) has a '|' outside groups and
+     *         classes.
+     */
+    private static boolean hasAlternation(String regExp, int start, int end) throws UnknownException {
+        int index = start;
+        while (index < end) {
+            char ch = regExp.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+            } else if (ch == '[') {
+                index = skipClass(regExp, index, end);
+            } else if (ch == '(') {
+                index = skipGroup(regExp, index, end);
+            } else if (ch == '|') {
+                return true;
+            } else {
+                ++index;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index after the class starting at regExp[start].
+     */
+    private static int skipClass(String regExp, int start, int end) throws UnknownException {
+        int index = start + 1;
+        if (index < end && regExp.charAt(index) == '^') {
+            ++index;
+        }
+        if (index < end && regExp.charAt(index) == ']') {
+            ++index;  // a leading ']' is a literal
+        }
+        int depth = 1;
+        while (index < end) {
+            char ch = regExp.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+                continue;
+            }
+            if (ch == '[') {
+                ++depth;
+            } else if (ch == ']' && --depth == 0) {
+                return index + 1;
+            }
+            ++index;
+        }
+        throw new UnknownException();
+    }
+
+    /**
+     * @return the index after the group starting at regExp[start].
+     */
+    private static int skipGroup(String regExp, int start, int end) throws UnknownException {
+        int index = start + 1;
+        int depth = 1;
+        while (index < end) {
+            char ch = regExp.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+                continue;
+            }
+            if (ch == '[') {
+                index = skipClass(regExp, index, end);
+                continue;
+            }
+            if (ch == '(') {
+                ++depth;
+            } else if (ch == ')' && --depth == 0) {
+                return index + 1;
+            }
+            ++index;
+        }
+        throw new UnknownException();
+    }
+
+    private static String longest(String first, String second) {
+        return second.length() > first.length() ? second : first;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+
+import logdog.logdog;
+import logdog.utils.Logger;
+
+/**
+ * Reads LogLines from a LogSourceStream on an IngestionPool thread and
+ * passes them on to a Sink. The stream is opened again if it ends,
+ * until stop() is called.
+ *
+ * When reopening, e.g. after the device rebooted or the USB link went
+ * down, the stream is asked to resume from the timestamp of the last
+ * line passed on, and lines already passed on are skipped. Otherwise
+ * logcat would replay its whole buffer and all lines would be matched
+ * and plotted again. Reopening is delayed with an increasing backoff
+ * as long as it fails.
+ */
+class StreamReader {
+
+    private static final int STOP_JOIN_TIMEOUT_MS = 3000;
+    private static final long RETRY_DELAY_MIN_MS = 250;
+    private static final long RETRY_DELAY_MAX_MS = 10000;
+
+    /**
+     * Where the lines go, called on the reader thread.
+     */
+    interface Sink {
+        void onStart();
+
+        /**
+         * Get the LogLine to copy the next line to.
+         */
+        LogLine claim() throws InterruptedException;
+
+        /**
+         * Called when the line returned by claim() is set.
+         */
+        void publish(LogLine line) throws InterruptedException;
+
+        void onExit();
+    }
+
+    private final String mName;
+    private final LogSourceStream mStream;
+    private final boolean mOneShot;
+    private final Sink mSink;
+    private volatile IngestionPool.Task mTask;
+
+    // Only touched by the reader thread. The timestamp of the last
+    // line passed on and the number of lines passed on having it.
+    private long mLastMillis = -1;
+    private int mLastNanos;
+    private int mLastCount;
+    // Lines up to and including the mLastCount'th line at the last
+    // timestamp are skipped after reopening the stream.
+    private boolean mSkipping;
+    private int mSkipCount;
+
+    /**
+     * Constructor.
+     *
+     * @param name Used for the thread and in logs.
+     * @param stream
+     * @param oneShot If true the stream is only read once.
+     * @param sink
+     */
+    StreamReader(String name, LogSourceStream stream, boolean oneShot, Sink sink) {
+        mName = name;
+        mStream = stream;
+        mOneShot = oneShot;
+        mSink = sink;
+    }
+
+    void start() {
+        mTask = new IngestionPool.Task(mName, new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+        mTask.start();
+    }
+
+    boolean isAlive() {
+        IngestionPool.Task task = mTask;
+        return task != null && task.isAlive();
+    }
+
+    void stop() {
+        IngestionPool.Task task = mTask;
+        if (task != null) {
+            try {
+                task.interrupt();
+                if (!task.join(STOP_JOIN_TIMEOUT_MS)) {
+                    // This makes a blocking read in the thread return
+                    // if it is not dead yet:
+                    mStream.close();
+                }
+            } catch (InterruptedException excep) {
+                Logger.logExcep(excep);
+            }
+        }
+    }
+
+    private void read() {
+        if (logdog.DEBUG) {
+            Logger.log(String.format("%s: entering thread", mName));
+        }
+        mSink.onStart();
+
+        Thread thread = Thread.currentThread();
+        TimestampParser tsParser = new TimestampParser();
+        LogLine scratch = new LogLine();
+        long retryDelayMs = RETRY_DELAY_MIN_MS;
+        while (!thread.isInterrupted()) {  // does not reset the interrupt flag
+            boolean gotLines = false;
+            try {
+                if (logdog.DEBUG) {
+                    Logger.log(String.format("%s: opening '%s' resuming at %d",
+                                             mName, mStream, mLastMillis));
+                }
+
+                // We will wait here until the device becomes available.
+                ReadableByteChannel channel = mStream.open(mLastMillis);
+                mSkipping = mLastMillis != -1;
+                mSkipCount = 0;
+                LogLineReader reader = mStream.isBinary() ?
+                    new BinaryLogDecoder(channel) :
+                    new LineFramer(channel);
+                while (reader.nextLine() && !thread.isInterrupted()) {
+                    // Parse the header once for all stages and
+                    // listeners. Filtering and dispatching is done
+                    // on other threads so reading is never held up by
+                    // a slow listener.
+                    LogLine line;
+                    if (mSkipping) {
+                        // Check lines before claiming a slot for them,
+                        // a claimed slot must be published.
+                        reader.copyTo(scratch, tsParser);
+                        if (!isNew(scratch)) {
+                            continue;
+                        }
+                        line = mSink.claim();  // waits if the buffer is full
+                        line.copyFrom(scratch);
+                    } else {
+                        line = mSink.claim();
+                        reader.copyTo(line, tsParser);
+                        isNew(line);
+                    }
+                    mSink.publish(line);
+                    gotLines = true;
+                }
+            } catch (ClosedByInterruptException excep) {
+                // Interrupted while reading, the flag is set and the
+                // loop ends.
+            } catch (IOException excep) {
+                Logger.log(String.format("%s: failed to read from log stream, retrying...\n%s",
+                                         mName, excep.getMessage()));
+            } catch (InterruptedException excep) {
+                // Interrupted while waiting for the device or a free
+                // slot, set the flag again to get out of the loop.
+                thread.interrupt();
+            } catch (RuntimeException excep) {
+                Logger.log(String.format("%s: RuntimeException, retrying...\n%s",
+                                         mName, excep.getMessage()));
+            }
+            mStream.close();
+            if (mOneShot) {
+                thread.interrupt();
+            } else if (!thread.isInterrupted()) {
+                // Back off while the stream keeps ending without
+                // giving anything.
+                retryDelayMs = gotLines ?
+                    RETRY_DELAY_MIN_MS :
+                    Math.min(retryDelayMs * 2, RETRY_DELAY_MAX_MS);
+                try {
+                    Thread.sleep(retryDelayMs);
+                } catch (InterruptedException excep) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        mStream.close();
+        mSink.onExit();
+        if (logdog.DEBUG) {
+            Logger.log(String.format("%s: exiting thread", mName));
+        }
+    }
+
+    /**
+     * Check if 'line' has not been passed on before and remember its
+     * timestamp.
+     *
+     * @param line
+     *
+     * @return false if the line should be skipped
+     */
+    private boolean isNew(LogLine line) {
+        if (!line.hasHeader()) {
+            return true;  // dividers etc. are needed by LogcatMux
+        }
+
+        long millis = line.getMillis();
+        int nanos = line.getNanos();
+        boolean atLast = millis == mLastMillis && nanos == mLastNanos;
+        if (mSkipping) {
+            if (millis < mLastMillis || (millis == mLastMillis && nanos < mLastNanos)) {
+                return false;
+            }
+            if (atLast && mSkipCount < mLastCount) {
+                ++mSkipCount;
+                return false;
+            }
+            mSkipping = false;
+        }
+
+        if (atLast) {
+            ++mLastCount;
+        } else {
+            mLastMillis = millis;
+            mLastNanos = nanos;
+            mLastCount = 1;
+        }
+        return true;
+    }
+}
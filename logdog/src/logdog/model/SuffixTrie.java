@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.Arrays;
+
+/**
+ * Map from literals to ids that finds whether a text ends with one of
+ * them in one pass backwards over the text, no matter how many
+ * literals there are. The literals are kept reversed in a trie whose edges are
+ * looked up in one open addressing table.
+ *
+ * Only filled before it is used, with add(), so it is safe to share
+ * once filled.
+ */
+final class SuffixTrie {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int ROOT = 0;
+    private static final int MIN_CAPACITY = 64;
+
+    // Edge from a node on a char: key (node << 16 | char) -> node, the
+    // empty slots have key -1.
+    private long[] mEdgeKeys;
+    private int[] mEdgeNodes;
+    private int mEdgeCount;
+    private int[] mIds;  // per node, of the literal ending there or NOT_FOUND
+    private int mNodeCount = 1;  // the root
+    private int mSize;
+
+    SuffixTrie() {
+        mEdgeKeys = new long[MIN_CAPACITY];
+        mEdgeNodes = new int[MIN_CAPACITY];
+        Arrays.fill(mEdgeKeys, -1);
+        mIds = new int[MIN_CAPACITY];
+        Arrays.fill(mIds, NOT_FOUND);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Add a literal, unless already added.
+     *
+     * @param literal Non-empty.
+     * @param id Returned by findSuffix() for 'literal'.
+     */
+    void add(String literal, int id) {
+        int node = ROOT;
+        for (int index = literal.length() - 1; index >= 0; --index) {
+            char ch = literal.charAt(index);
+            int next = getNext(node, ch);
+            if (next == -1) {
+                next = mNodeCount++;
+                if (next == mIds.length) {
+                    mIds = Arrays.copyOf(mIds, next * 2);
+                    Arrays.fill(mIds, next, mIds.length, NOT_FOUND);
+                }
+                putNext(node, ch, next);
+            }
+            node = next;
+        }
+        if (mIds[node] == NOT_FOUND) {
+            mIds[node] = id;
+            ++mSize;
+        }
+    }
+
+    /**
+     * @param text
+     * @param start
+     * @param end
+     *
+     * @return The id of the shortest literal text[start, end) ends
+     * with, or NOT_FOUND.
+     */
+    int findSuffix(CharSequence text, int start, int end) {
+        if (mSize == 0) {
+            return NOT_FOUND;
+        }
+        int node = ROOT;
+        for (int index = end - 1; index >= start; --index) {
+            node = getNext(node, text.charAt(index));
+            if (node == -1) {
+                return NOT_FOUND;
+            }
+            if (mIds[node] != NOT_FOUND) {
+                return mIds[node];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static long key(int node, char ch) {
+        return (long) node << 16 | ch;
+    }
+
+    private int findSlot(long key) {
+        int mask = mEdgeKeys.length - 1;
+        int hash = (int) (key ^ (key >>> 32)) * 0x9e3779b9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (mEdgeKeys[slot] != -1 && mEdgeKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int getNext(int node, char ch) {
+        int slot = findSlot(key(node, ch));
+        return mEdgeKeys[slot] == -1 ? -1 : mEdgeNodes[slot];
+    }
+
+    private void putNext(int node, char ch, int next) {
+        if ((mEdgeCount + 1) * 2 > mEdgeKeys.length) {
+            grow();
+        }
+        long key = key(node, ch);
+        int slot = findSlot(key);
+        mEdgeKeys[slot] = key;
+        mEdgeNodes[slot] = next;
+        ++mEdgeCount;
+    }
+
+    private void grow() {
+        long[] keys = mEdgeKeys;
+        int[] nodes = mEdgeNodes;
+        mEdgeKeys = new long[keys.length * 2];
+        mEdgeNodes = new int[keys.length * 2];
+        Arrays.fill(mEdgeKeys, -1);
+        for (int index = 0; index < keys.length; ++index) {
+            if (keys[index] != -1) {
+                int slot = findSlot(keys[index]);
+                mEdgeKeys[slot] = keys[index];
+                mEdgeNodes[slot] = nodes[index];
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.Arrays;
+
+/**
+ * Bounded map from the log tag of a line, and the padding after it,
+ * to a verdict, dropping the least recently used entry when full.
+ * Looked up with a LogLine without creating a String for its tag, a
+ * String is only created when a tag is put.
+ *
+ * Not thread safe, see BlackList for how it is used.
+ */
+final class TagVerdictCache {
+
+    static final int NOT_CACHED = Integer.MIN_VALUE;
+
+    private static final int NONE = -1;
+
+    private final String[] mTags;  // per entry
+    private final int[] mPaddings;
+    private final int[] mVerdicts;
+    private final int[] mHashes;
+    private final int[] mChain;    // next entry in the same bucket
+    private final int[] mNewer;    // the LRU list, newest first
+    private final int[] mOlder;
+    private final int[] mBuckets;  // first entry of each bucket
+    private int mNewest = NONE;
+    private int mOldest = NONE;
+    private int mSize;
+    private char[] mKey = new char[32];  // for put()
+
+    /**
+     * @param capacity Max number of entries.
+     */
+    TagVerdictCache(int capacity) {
+        mTags = new String[capacity];
+        mPaddings = new int[capacity];
+        mVerdicts = new int[capacity];
+        mHashes = new int[capacity];
+        mChain = new int[capacity];
+        mNewer = new int[capacity];
+        mOlder = new int[capacity];
+        mBuckets = new int[Integer.highestOneBit(capacity) * 2];
+        Arrays.fill(mBuckets, NONE);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        Arrays.fill(mBuckets, NONE);
+        Arrays.fill(mTags, 0, mSize, null);
+        mNewest = NONE;
+        mOldest = NONE;
+        mSize = 0;
+    }
+
+    /**
+     * @param line Must have a tag.
+     * @param padding
+     *
+     * @return The verdict put for the tag of 'line' and 'padding', or
+     * NOT_CACHED.
+     */
+    int get(LogLine line, int padding) {
+        int hash = hash(line, padding);
+        int entry = find(line, padding, hash);
+        if (entry == NONE) {
+            return NOT_CACHED;
+        }
+        if (entry != mNewest) {
+            unlink(entry);
+            linkNewest(entry);
+        }
+        return mVerdicts[entry];
+    }
+
+    /**
+     * @param line Must have a tag, not already in the cache with 'padding'.
+     * @param padding
+     * @param verdict
+     */
+    void put(LogLine line, int padding, int verdict) {
+        int entry;
+        if (mSize < mTags.length) {
+            entry = mSize++;
+        } else {
+            entry = mOldest;
+            unlink(entry);
+            removeFromBucket(entry);
+        }
+        int hash = hash(line, padding);
+        mTags[entry] = getTag(line);
+        mPaddings[entry] = padding;
+        mVerdicts[entry] = verdict;
+        mHashes[entry] = hash;
+        int bucket = hash & (mBuckets.length - 1);
+        mChain[entry] = mBuckets[bucket];
+        mBuckets[bucket] = entry;
+        linkNewest(entry);
+    }
+
+    /**
+     * Create the String of the tag from the chars of 'line', without
+     * decoding the rest of the line.
+     */
+    private String getTag(LogLine line) {
+        int tagStart = line.getTagStart();
+        int length = line.getTagEnd() - tagStart;
+        if (mKey.length < length) {
+            mKey = new char[Math.max(length, mKey.length * 2)];
+        }
+        for (int index = 0; index < length; ++index) {
+            mKey[index] = line.charAt(tagStart + index);
+        }
+        return new String(mKey, 0, length);
+    }
+
+    private static int hash(LogLine line, int padding) {
+        int hash = padding;
+        for (int index = line.getTagStart(); index < line.getTagEnd(); ++index) {
+            hash = 31 * hash + line.charAt(index);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private int find(LogLine line, int padding, int hash) {
+        int entry = mBuckets[hash & (mBuckets.length - 1)];
+        for (; entry != NONE; entry = mChain[entry]) {
+            if (mHashes[entry] == hash && mPaddings[entry] == padding &&
+                equals(mTags[entry], line)) {
+                return entry;
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean equals(String tag, LogLine line) {
+        int tagStart = line.getTagStart();
+        if (tag.length() != line.getTagEnd() - tagStart) {
+            return false;
+        }
+        for (int index = 0; index < tag.length(); ++index) {
+            if (tag.charAt(index) != line.charAt(tagStart + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeFromBucket(int entry) {
+        int bucket = mHashes[entry] & (mBuckets.length - 1);
+        if (mBuckets[bucket] == entry) {
+            mBuckets[bucket] = mChain[entry];
+            return;
+        }
+        int previous = mBuckets[bucket];
+        while (mChain[previous] != entry) {
+            previous = mChain[previous];
+        }
+        mChain[previous] = mChain[entry];
+    }
+
+    private void unlink(int entry) {
+        if (mNewer[entry] != NONE) {
+            mOlder[mNewer[entry]] = mOlder[entry];
+        } else {
+            mNewest = mOlder[entry];
+        }
+        if (mOlder[entry] != NONE) {
+            mNewer[mOlder[entry]] = mNewer[entry];
+        } else {
+            mOldest = mNewer[entry];
+        }
+    }
+
+    private void linkNewest(int entry) {
+        mNewer[entry] = NONE;
+        mOlder[entry] = mNewest;
+        if (mNewest != NONE) {
+            mNewer[mNewest] = entry;
+        } else {
+            mOldest = entry;
+        }
+        mNewest = entry;
+    }
+}
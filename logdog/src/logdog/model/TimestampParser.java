@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import java.util.Calendar;
+
+/**
+ * Parser for the "MM-dd HH:mm:ss.SSS" timestamps starting every
+ * '-v threadtime' log line. The fields are read from fixed positions
+ * and the result is returned as primitive epoch milliseconds.
+ *
+ * Converting the "MM-dd HH" prefix requires a Calendar so it is cached
+ * and only the minutes, seconds and milliseconds are computed for
+ * consecutive lines within the same hour.
+ *
+ * logcat doesn't print the year so it is inferred: the current year
+ * is used unless that puts the timestamp more than one day into the
+ * future, then the previous year is used (reading a December log in
+ * January).
+ *
+ * Not thread-safe, use one object per thread.
+ */
+public class TimestampParser {
+
+    // "MM-dd HH"
+    private static final int PREFIX_LEN = 8;
+    private static final long FUTURE_SLACK_MS = 24 * 60 * 60 * 1000L;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final char[] mPrefix = new char[PREFIX_LEN];
+    private long mPrefixMillis = -1;
+    // If not -1 this is used instead of the current time when
+    // inferring the year.
+    private final long mNowMillis;
+
+    private static final ThreadLocal<TimestampParser> sThreadParser =
+        new ThreadLocal<TimestampParser>() {
+            @Override
+            protected TimestampParser initialValue() {
+                return new TimestampParser();
+            }
+        };
+
+    /**
+     * Get a parser for the calling thread. Used where the caller
+     * doesn't own a parser, e.g. LogSource.getDate().
+     */
+    public static TimestampParser forThread() {
+        return sThreadParser.get();
+    }
+
+    public TimestampParser() {
+        this(-1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param nowMillis Time used as "now" when inferring the year.
+     */
+    TimestampParser(long nowMillis) {
+        mNowMillis = nowMillis;
+    }
+
+    public long parse(CharSequence text) {
+        return parse(text, 0);
+    }
+
+    /**
+     * Parse the timestamp starting at 'start' in 'text'.
+     *
+     * @param text
+     * @param start
+     *
+     * @return milliseconds since the epoch or -1 if there is no valid
+     * timestamp at 'start'.
+     */
+    public long parse(CharSequence text, int start) {
+        if (text.length() - start < LogLine.TIMESTAMP_LEN ||
+            text.charAt(start + 2) != '-' || text.charAt(start + 5) != ' ' ||
+            text.charAt(start + 8) != ':' || text.charAt(start + 11) != ':' ||
+            text.charAt(start + 14) != '.') {
+            return -1;
+        }
+
+        if (!prefixEquals(text, start)) {
+            int month = twoDigits(text, start);
+            int day = twoDigits(text, start + 3);
+            int hour = twoDigits(text, start + 6);
+            if (month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23) {
+                return -1;
+            }
+            mPrefixMillis = prefixMillis(month, day, hour);
+            for (int index = 0; index < PREFIX_LEN; ++index) {
+                mPrefix[index] = text.charAt(start + index);
+            }
+        }
+
+        int minute = twoDigits(text, start + 9);
+        int second = twoDigits(text, start + 12);
+        int millis = threeDigits(text, start + 15);
+        if (minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return -1;
+        }
+        return mPrefixMillis + minute * 60000L + second * 1000L + millis;
+    }
+
+    private boolean prefixEquals(CharSequence text, int start) {
+        if (mPrefixMillis == -1) {
+            return false;
+        }
+        for (int index = 0; index < PREFIX_LEN; ++index) {
+            if (mPrefix[index] != text.charAt(start + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long prefixMillis(int month, int day, int hour) {
+        long now = mNowMillis == -1 ? System.currentTimeMillis() : mNowMillis;
+        mCalendar.setTimeInMillis(now);
+        int year = mCalendar.get(Calendar.YEAR);
+        mCalendar.clear();
+        mCalendar.set(year, month - 1, day, hour, 0, 0);
+        long millis = mCalendar.getTimeInMillis();
+        if (millis - now > FUTURE_SLACK_MS) {
+            mCalendar.set(Calendar.YEAR, year - 1);
+            millis = mCalendar.getTimeInMillis();
+        }
+        return millis;
+    }
+
+    private static int digit(CharSequence text, int index) {
+        int value = text.charAt(index) - '0';
+        return value >= 0 && value <= 9 ? value : -1000;
+    }
+
+    // Returns a negative value if not two digits.
+    private static int twoDigits(CharSequence text, int index) {
+        return digit(text, index) * 10 + digit(text, index + 1);
+    }
+
+    // Returns a negative value if not three digits.
+    private static int threeDigits(CharSequence text, int index) {
+        return digit(text, index) * 100 + digit(text, index + 1) * 10 + digit(text, index + 2);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+public class TimestampParserTests {
+
+    private static long millis(String dateTime) throws ParseException {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse(dateTime).getTime();
+    }
+
+    @Test
+    public void parseSameAsSimpleDateFormat() throws ParseException {
+        TimestampParser parser = new TimestampParser(millis("2014-10-20 00:00:00.000"));
+        assertEquals(millis("2014-10-17 12:34:56.789"), parser.parse("10-17 12:34:56.789"));
+        // Same hour i.e. cached prefix:
+        assertEquals(millis("2014-10-17 12:59:01.002"), parser.parse("10-17 12:59:01.002"));
+        // Next hour:
+        assertEquals(millis("2014-10-17 13:00:00.000"), parser.parse("10-17 13:00:00.000"));
+        // Offset into a log line:
+        assertEquals(millis("2014-10-17 13:00:00.001"),
+                     parser.parse("x 10-17 13:00:00.001  123  456 I tag: msg", 2));
+    }
+
+    @Test
+    public void inferPreviousYear() throws ParseException {
+        TimestampParser parser = new TimestampParser(millis("2015-01-02 10:00:00.000"));
+        assertEquals(millis("2014-12-31 23:59:59.999"), parser.parse("12-31 23:59:59.999"));
+        assertEquals(millis("2015-01-02 09:00:00.000"), parser.parse("01-02 09:00:00.000"));
+    }
+
+    @Test
+    public void parseInvalid() {
+        TimestampParser parser = new TimestampParser();
+        assertEquals(-1, parser.parse("--------- beginning of main"));
+        assertEquals(-1, parser.parse("13-17 12:34:56.789"));
+        assertEquals(-1, parser.parse("10-17 12:60:56.789"));
+        assertEquals(-1, parser.parse("10-17 12:34:56.7x9"));
+        assertEquals(-1, parser.parse("10-17 12:34"));
+    }
+}
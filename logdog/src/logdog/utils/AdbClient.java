@@ -0,0 +1,427 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client speaking the adb host protocol directly to the adb server
+ * instead of executing the adb binary. Each request is sent on a new
+ * connection as a 4 digit hex length followed by the service name and
+ * is answered by "OKAY" or "FAIL" followed by a length prefixed
+ * error message.
+ *
+ * Services for a device (shell:, root: etc.) are requested after
+ * switching the connection to the device with a transport request.
+ * Without a serial number the only USB device is used, same as
+ * 'adb -d'.
+ *
+ * The address of the server can be changed with setDefault(), tests
+ * use this to run against a FakeAdbServer.
+ */
+public class AdbClient {
+
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final int DEFAULT_PORT = 5037;
+    public static final String STATE_DEVICE = "device";
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int WAIT_FOR_DEVICE_POLL_MS = 200;
+    private static final Charset sCharset = Charset.forName("UTF-8");
+
+    private static volatile AdbClient sDefault = new AdbClient(DEFAULT_HOST, DEFAULT_PORT, null);
+    private static boolean sServerStartTried;
+
+    private final String mHost;
+    private final int mPort;
+    private final String mSerial;  // null means the only USB device
+
+    public static AdbClient getDefault() {
+        return sDefault;
+    }
+
+    public static void setDefault(AdbClient client) {
+        sDefault = client;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     * @param port
+     * @param serial Serial number of the device or null to use the only USB device.
+     */
+    public AdbClient(String host, int port, String serial) {
+        mHost = host;
+        mPort = port;
+        mSerial = serial;
+    }
+
+    /**
+     * Get a client for another device on the same adb server.
+     *
+     * @param serial
+     *
+     * @return
+     */
+    public AdbClient forSerial(String serial) {
+        return new AdbClient(mHost, mPort, serial);
+    }
+
+    public String getSerial() {
+        return mSerial;
+    }
+
+    /**
+     * Check if 'serial' is the device this client talks to.
+     *
+     * @param serial
+     *
+     * @return
+     */
+    public boolean isDevice(String serial) {
+        if (mSerial != null) {
+            return mSerial.equals(serial);
+        }
+        // Emulators and devices connected over TCP are not USB devices.
+        return !serial.startsWith("emulator-") && serial.indexOf(':') == -1;
+    }
+
+    /**
+     * Get the state of the device, "device" when it is available.
+     *
+     * @return
+     *
+     * @throws IOException if the device is not found or the server is not running
+     */
+    public String getState() throws IOException {
+        Socket socket = connect();
+        try {
+            request(socket, mSerial == null ?
+                    "host-usb:get-state" :
+                    "host-serial:" + mSerial + ":get-state");
+            return readString(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Wait until the device is available.
+     *
+     * @param timeoutMs Give up after this time, 0 waits forever.
+     *
+     * @return false if timed out
+     *
+     * @throws InterruptedException
+     */
+    public boolean waitForDevice(long timeoutMs) throws InterruptedException {
+        long endMs = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            try {
+                if (STATE_DEVICE.equals(getState())) {
+                    return true;
+                }
+            } catch (IOException excep) {
+                // Not connected yet.
+            }
+            if (timeoutMs > 0 && System.currentTimeMillis() >= endMs) {
+                return false;
+            }
+            Thread.sleep(WAIT_FOR_DEVICE_POLL_MS);
+        }
+    }
+
+    /**
+     * Open a connection to a service on the device. The returned
+     * socket is positioned at the raw output of the service.
+     *
+     * @param service e.g. "shell:logcat -v threadtime"
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public Socket openService(String service) throws IOException {
+        Socket socket = connect();
+        try {
+            request(socket, mSerial == null ?
+                    "host:transport-usb" :
+                    "host:transport:" + mSerial);
+            request(socket, service);
+        } catch (IOException excep) {
+            socket.close();
+            throw excep;
+        }
+        return socket;
+    }
+
+    public Socket openShell(String command) throws IOException {
+        return openService("shell:" + command);
+    }
+
+    /**
+     * Run a command on the device and return its output.
+     *
+     * @param command
+     *
+     * @return the output with trailing line breaks removed
+     *
+     * @throws IOException
+     */
+    public String shell(String command) throws IOException {
+        return runService("shell:" + command);
+    }
+
+    /**
+     * Restart adbd on the device with root permissions.
+     *
+     * @throws IOException
+     */
+    public void root() throws IOException {
+        runService("root:");
+    }
+
+    public void reboot() throws IOException {
+        runService("reboot:");
+    }
+
+    private String runService(String service) throws IOException {
+        Socket socket = openService(service);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream stream = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            String text = new String(output.toByteArray(), sCharset);
+            int end = text.length();
+            while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) {
+                --end;
+            }
+            return text.substring(0, end);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Start tracking the devices connected to the adb server.
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public DeviceTracker trackDevices() throws IOException {
+        Socket socket = connect();
+        try {
+            request(socket, "host:track-devices");
+        } catch (IOException excep) {
+            socket.close();
+            throw excep;
+        }
+        return new DeviceTracker(socket);
+    }
+
+    /**
+     * Connection to the adb server getting the list of devices each
+     * time a device is connected, disconnected or changes state.
+     */
+    public static class DeviceTracker {
+        private final Socket mSocket;
+        private final InputStream mStream;
+
+        DeviceTracker(Socket socket) throws IOException {
+            mSocket = socket;
+            mStream = socket.getInputStream();
+        }
+
+        /**
+         * Wait for the next list of devices. The first list is sent by
+         * the server directly.
+         *
+         * @param timeoutMs
+         *
+         * @return the state of each device by serial number or null if
+         *         nothing changed within 'timeoutMs'
+         *
+         * @throws IOException if the connection was closed
+         */
+        public Map<String, String> next(int timeoutMs) throws IOException {
+            int first;
+            mSocket.setSoTimeout(timeoutMs);
+            try {
+                first = mStream.read();
+            } catch (SocketTimeoutException excep) {
+                return null;
+            }
+            if (first == -1) {
+                throw new EOFException("adb: device tracking ended");
+            }
+            // The rest of the message is sent at once.
+            mSocket.setSoTimeout(0);
+            byte[] length = new byte[4];
+            length[0] = (byte) first;
+            readFully(mStream, length, 1, 3);
+            String list = readString(mStream, parseLength(length));
+
+            Map<String, String> devices = new LinkedHashMap<String, String>();
+            for (String line : list.split("\n")) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    devices.put(line.substring(0, tab), line.substring(tab + 1).trim());
+                }
+            }
+            return devices;
+        }
+
+        public void close() {
+            try {
+                mSocket.close();
+            } catch (IOException excep) {
+                Logger.logExcep(excep);
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        try {
+            return connectNoStart();
+        } catch (ConnectException excep) {
+            if (!startServer()) {
+                throw excep;
+            }
+            return connectNoStart();
+        }
+    }
+
+    private Socket connectNoStart() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MS);
+        } catch (IOException excep) {
+            socket.close();
+            throw excep;
+        }
+        return socket;
+    }
+
+    /**
+     * The adb binary starts the server when it is not running, we do
+     * the same but only try once since it is slow.
+     */
+    private boolean startServer() {
+        synchronized (AdbClient.class) {
+            if (sServerStartTried || !DEFAULT_HOST.equals(mHost) || mPort != DEFAULT_PORT) {
+                return false;
+            }
+            sServerStartTried = true;
+        }
+        try {
+            Process process = Runtime.getRuntime().exec("adb start-server");
+            return process.waitFor() == 0;
+        } catch (IOException excep) {
+            Logger.logExcep(excep);
+        } catch (InterruptedException excep) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Send a request and wait for the server to accept it.
+     */
+    private static void request(Socket socket, String service) throws IOException {
+        byte[] bytes = service.getBytes(sCharset);
+        OutputStream stream = socket.getOutputStream();
+        stream.write(String.format("%04x", bytes.length).getBytes(sCharset));
+        stream.write(bytes);
+        stream.flush();
+
+        byte[] status = new byte[4];
+        InputStream input = socket.getInputStream();
+        readFully(input, status, 0, status.length);
+        String statusStr = new String(status, sCharset);
+        if (statusStr.equals("OKAY")) {
+            return;
+        }
+        if (statusStr.equals("FAIL")) {
+            throw new IOException(String.format("adb: '%s' failed: %s", service, readString(input)));
+        }
+        throw new IOException(String.format("adb: '%s' got unexpected status '%s'",
+                                             service, statusStr));
+    }
+
+    private static String readString(InputStream stream) throws IOException {
+        byte[] length = new byte[4];
+        readFully(stream, length, 0, length.length);
+        return readString(stream, parseLength(length));
+    }
+
+    private static String readString(InputStream stream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        readFully(stream, bytes, 0, length);
+        return new String(bytes, sCharset);
+    }
+
+    private static int parseLength(byte[] length) throws IOException {
+        try {
+            return Integer.parseInt(new String(length, sCharset), 16);
+        } catch (NumberFormatException excep) {
+            throw new IOException("adb: invalid length in reply");
+        }
+    }
+
+    private static void readFully(InputStream stream, byte[] bytes, int offset, int length)
+        throws IOException {
+        while (length > 0) {
+            int count = stream.read(bytes, offset, length);
+            if (count == -1) {
+                throw new EOFException("adb: connection closed by server");
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+}
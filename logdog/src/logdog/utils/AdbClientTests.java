@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdbClientTests {
+
+    private FakeAdbServer mServer;
+    private AdbClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeAdbServer();
+        mClient = mServer.createClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void shellThroughTransport() throws IOException {
+        mServer.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+        mServer.setShellOutput("getprop sys.kernel.log", "logcat\r\n");
+        assertEquals("logcat", mClient.shell("getprop sys.kernel.log"));
+        assertEquals("host:transport-usb", mServer.getServices().get(0));
+        assertEquals("shell:getprop sys.kernel.log", mServer.getServices().get(1));
+
+        mClient.forSerial("CB5A1234").root();
+        assertEquals("host:transport:CB5A1234", mServer.getServices().get(2));
+        assertEquals("root:", mServer.getServices().get(3));
+    }
+
+    @Test
+    public void failWithoutDevice() throws InterruptedException {
+        try {
+            mClient.getState();
+            fail("expected IOException");
+        } catch (IOException excep) {
+            assertTrue(excep.getMessage().contains("device not found"));
+        }
+        assertFalse(mClient.waitForDevice(300));
+
+        mServer.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+        assertTrue(mClient.waitForDevice(300));
+    }
+
+    @Test
+    public void trackDeviceChanges() throws IOException {
+        AdbClient.DeviceTracker tracker = mClient.trackDevices();
+        try {
+            Map<String, String> devices = tracker.next(1000);
+            assertNotNull(devices);
+            assertTrue(devices.isEmpty());
+            assertNull(tracker.next(50));
+
+            mServer.setDevice("CB5A1234", "offline");
+            mServer.setDevice("CB5A1234", AdbClient.STATE_DEVICE);
+            assertEquals("offline", tracker.next(1000).get("CB5A1234"));
+            assertEquals(AdbClient.STATE_DEVICE, tracker.next(1000).get("CB5A1234"));
+        } finally {
+            tracker.close();
+        }
+    }
+
+    @Test
+    public void onlyUsbDevicesWithoutSerial() {
+        assertTrue(mClient.isDevice("CB5A1234"));
+        assertFalse(mClient.isDevice("emulator-5554"));
+        assertFalse(mClient.isDevice("192.168.0.2:5555"));
+        assertFalse(mClient.forSerial("CB5A1234").isDevice("CB5A5678"));
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2013, Sony Mobile Communications Inc
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * This file is part of logdog.
+ */
+
+package logdog.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal adb server used by tests in place of the real one. It knows
+ * the services used by AdbClient and answers shell commands with
+ * canned output.
+ */
+public class FakeAdbServer {
+
+    private static final Charset sCharset = Charset.forName("UTF-8");
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    // Guarded by 'this':
+    private final Map<String, String> mDevices = new LinkedHashMap<String, String>();
+    private final Map<String, byte[]> mShellOutput = new HashMap<String, byte[]>();
+    private final List<String> mServices = new ArrayList<String>();
+    private final List<Socket> mTrackers = new ArrayList<Socket>();
+
+    public FakeAdbServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 10, InetAddress.getByName(AdbClient.DEFAULT_HOST));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        mThread.setName("FakeAdbServer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public AdbClient createClient() {
+        return new AdbClient(AdbClient.DEFAULT_HOST, getPort(), null);
+    }
+
+    public void close() throws IOException {
+        mServerSocket.close();
+        synchronized (this) {
+            for (Socket socket : mTrackers) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Add a device or change its state and notify the trackers.
+     *
+     * @param serial
+     * @param state e.g. "device" or "offline", null removes the device
+     */
+    public synchronized void setDevice(String serial, String state) {
+        if (state == null) {
+            mDevices.remove(serial);
+        } else {
+            mDevices.put(serial, state);
+        }
+        for (Socket socket : new ArrayList<Socket>(mTrackers)) {
+            try {
+                sendDevices(socket.getOutputStream());
+            } catch (IOException excep) {
+                mTrackers.remove(socket);
+            }
+        }
+    }
+
+    public synchronized void setShellOutput(String command, String output) {
+        mShellOutput.put(command, output.getBytes(sCharset));
+    }
+
+    /**
+     * Set binary output, e.g. from 'logcat -B', for exec: or shell:.
+     */
+    public synchronized void setShellOutput(String command, byte[] output) {
+        mShellOutput.put(command, output);
+    }
+
+    /**
+     * Get all services requested so far, including transports.
+     */
+    public synchronized List<String> getServices() {
+        return new ArrayList<String>(mServices);
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException excep) {
+                // Closed.
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        boolean keepOpen = false;
+        try {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            boolean transport = false;
+            while (true) {
+                String service = readRequest(input);
+                if (service == null) {
+                    break;
+                }
+                synchronized (this) {
+                    mServices.add(service);
+                }
+
+                if (service.equals("host:track-devices")) {
+                    synchronized (this) {
+                        output.write("OKAY".getBytes(sCharset));
+                        sendDevices(output);
+                        mTrackers.add(socket);
+                    }
+                    keepOpen = true;
+                    break;
+                } else if (service.startsWith("host:transport")) {
+                    if (!hasDevice()) {
+                        fail(output, "device not found");
+                        break;
+                    }
+                    output.write("OKAY".getBytes(sCharset));
+                    transport = true;
+                } else if (service.endsWith("get-state")) {
+                    if (!hasDevice()) {
+                        fail(output, "device not found");
+                    } else {
+                        output.write("OKAY".getBytes(sCharset));
+                        writeString(output, AdbClient.STATE_DEVICE);
+                    }
+                    break;
+                } else if (transport &&
+                           (service.startsWith("shell:") || service.startsWith("exec:"))) {
+                    byte[] bytes;
+                    synchronized (this) {
+                        bytes = mShellOutput.get(service.substring(service.indexOf(':') + 1));
+                    }
+                    output.write("OKAY".getBytes(sCharset));
+                    if (bytes != null) {
+                        output.write(bytes);
+                    }
+                    break;
+                } else if (transport && (service.equals("root:") || service.equals("reboot:"))) {
+                    output.write("OKAY".getBytes(sCharset));
+                    break;
+                } else {
+                    fail(output, "unknown service");
+                    break;
+                }
+            }
+            output.flush();
+        } catch (IOException excep) {
+            // Client went away.
+        } finally {
+            if (!keepOpen) {
+                try {
+                    socket.close();
+                } catch (IOException excep) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    private synchronized boolean hasDevice() {
+        return mDevices.containsValue(AdbClient.STATE_DEVICE);
+    }
+
+    private void sendDevices(OutputStream output) throws IOException {
+        StringBuilder list = new StringBuilder();
+        for (Map.Entry<String, String> entry : mDevices.entrySet()) {
+            list.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        writeString(output, list.toString());
+        output.flush();
+    }
+
+    private static void fail(OutputStream output, String message) throws IOException {
+        output.write("FAIL".getBytes(sCharset));
+        writeString(output, message);
+    }
+
+    private static void writeString(OutputStream output, String text) throws IOException {
+        byte[] bytes = text.getBytes(sCharset);
+        output.write(String.format("%04x", bytes.length).getBytes(sCharset));
+        output.write(bytes);
+    }
+
+    private static String readRequest(InputStream input) throws IOException {
+        byte[] length = new byte[4];
+        if (!readFully(input, length)) {
+            return null;
+        }
+        byte[] service = new byte[Integer.parseInt(new String(length, sCharset), 16)];
+        if (!readFully(input, service)) {
+            return null;
+        }
+        return new String(service, sCharset);
+    }
+
+    private static boolean readFully(InputStream input, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int count = input.read(bytes, offset, bytes.length - offset);
+            if (count == -1) {
+                return false;
+            }
+            offset += count;
+        }
+        return true;
+    }
+}
@@ -49,17 +49,27 @@ public class Utils {
      * @param useLogCat if true set property to "logcat" else "default"
      */
     public static void adbSetKernelLogProp(final boolean useLogCat) {
+        adbSetKernelLogProp(AdbClient.getDefault(), useLogCat);
+    }
+
+    /**
+     * Set property 'sys.kernel.log' on a certain device.
+     *
+     * @param adbClient talking to the device
+     * @param useLogCat if true set property to "logcat" else "default"
+     */
+    public static void adbSetKernelLogProp(final AdbClient adbClient, final boolean useLogCat) {
         // Run on separate thread in case the device is not avialable yet.
         new Thread(new Runnable() {
             @Override
             public void run() {
-                Runtime rt = Runtime.getRuntime();
                 try {
-                    rt.exec("adb -d root");
-                    rt.exec("adb -d wait-for-device");
-                    Thread.sleep(200);
-                    rt.exec(String.format("adb -d shell setprop sys.kernel.log %s",
-                                          useLogCat ? "logcat" : "default"));
+                    adbClient.waitForDevice(0);
+                    adbClient.root();
+                    Thread.sleep(200);  // let adbd restart
+                    adbClient.waitForDevice(0);
+                    adbClient.shell(String.format("setprop sys.kernel.log %s",
+                                                  useLogCat ? "logcat" : "default"));
                 } catch (IOException excep) {
                     Logger.logExcep(excep);
                 } catch (InterruptedException excep) {
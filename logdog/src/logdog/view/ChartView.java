@@ -50,9 +50,13 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowStateListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -89,14 +93,16 @@ import logdog.controller.ViewSelListener;
 import logdog.model.DeviceStater.KERNEL_LOG;
 import logdog.model.CpuGovernor;
 import logdog.model.FileLogSource;
-import logdog.model.LLMMgrListener;
+import logdog.model.LLMMgrBatchListener;
 import logdog.model.LogLineMatcher;
 import logdog.model.LogLineMatcherManager;
+import logdog.model.MatchBatch;
 import logdog.model.LogSource;
 import logdog.model.DeviceStater;
 import logdog.model.DeviceStater.DEVICE_STATE;
 import logdog.model.DeviceStater.DeviceListener;
 import logdog.model.LogSourceFeedListener;
+import logdog.utils.AdbClient;
 import logdog.utils.Logger;
 import logdog.utils.Utils;
 
@@ -109,7 +115,7 @@ public class ChartView
     implements
     ActionListener,
     MenuListener,
-    LLMMgrListener,
+    LLMMgrBatchListener,
     DeviceListener,
     ViewSelListener,
     SyncedChartPanel.ChartPanelListener,
@@ -148,6 +154,7 @@ public class ChartView
     private static final String LS_FROM_FILE_ACTION_TOOLTIP_STR = "Select logdog file to use as log source";
     private static final String LOGSOURCE_ACTION_TOOLTIP_STR =
         "Start log source and/or display log source view";
+    private static final String DEVICE_SERIES_NAME_STR = "%s [%s]";
     //private static final String SERIES_INSERT_FAILED_STR =
     //    "ChartView: unable to insert data into series, millis=%d value=%f";
     private static final String DEVICE_CONNECTED_STR = "Device connected  ";
@@ -284,6 +291,11 @@ public class ChartView
     private KernelLogAction mKernelLogAction = new KernelLogAction();
     private LSFromFileAction mLSFromFileAction = new LSFromFileAction();
     private LogSourceAction[] mLogSourceActions = new LogSourceAction[LogSource.COUNT - 1];  // Skip "File"
+    // The log sources of each connected device, see updateDeviceMenus():
+    private LogSourceMenu mLogSourceMenu;
+    private List<String> mDeviceSerials = Collections.emptyList();
+    private ArrayList<Component> mDeviceMenuItems = new ArrayList<Component>();
+    private ArrayList<LogSourceAction> mDeviceLogSourceActions = new ArrayList<LogSourceAction>();
     private RebootAction mRebootAction = new RebootAction();
     private ClearAllChartsAction mClearAllChartsAction = new ClearAllChartsAction();
     private ClearChartAction mClearChartAction = new ClearChartAction();
@@ -300,6 +312,11 @@ public class ChartView
     private File mLSFile;  // if non-null we have a FileLogSource as source
     private Map<LogLineMatcher, TimeSeriesCollection> mLLMSeries =
         new HashMap<LogLineMatcher, TimeSeriesCollection>();
+    // The same by LogLineMatcher.getId(), for onMatchedLogLines(). The
+    // arrays are replaced, not changed, when a LogLineMatcher is
+    // registered since they are read by the Dispatcher threads.
+    private volatile LogLineMatcher[] mLLMsById = new LogLineMatcher[0];
+    private volatile TimeSeriesCollection[] mLLMSeriesById = new TimeSeriesCollection[0];
 
     private JPanel mCenterPanel;
     private JLabel mCenterLabel;
@@ -523,10 +540,48 @@ public class ChartView
         }
 
         logSourceMenu.addMenuListener(this);
+        mLogSourceMenu = logSourceMenu;
 
         return logSourceMenu;
     }
 
+    /**
+     * Add a submenu with the log sources of each connected device to
+     * the log source menu.
+     *
+     * @param serials
+     */
+    private void updateDeviceMenus(List<String> serials) {
+        if (serials.equals(mDeviceSerials)) {
+            return;
+        }
+        mDeviceSerials = serials;
+        for (Component item : mDeviceMenuItems) {
+            mLogSourceMenu.remove(item);
+        }
+        mDeviceMenuItems.clear();
+        mDeviceLogSourceActions.clear();
+        if (serials.isEmpty()) {
+            return;
+        }
+
+        JSeparator separator = new JSeparator();
+        mLogSourceMenu.add(separator);
+        mDeviceMenuItems.add(separator);
+        String[] lsNames = LogSource.getSourceNames();
+        for (String serial : serials) {
+            JMenu deviceMenu = new JMenu(serial);
+            for (int index = 0; index < lsNames.length - 1; ++index) {   // Skip "File"
+                LogSourceAction action =
+                    new LogSourceAction(lsNames[index], LogSource.getSourceName(lsNames[index], serial));
+                mDeviceLogSourceActions.add(action);
+                deviceMenu.add(action);
+            }
+            mLogSourceMenu.add(deviceMenu);
+            mDeviceMenuItems.add(deviceMenu);
+        }
+    }
+
     private JMenu createGovernorMenu() {
         if (logdog.DEBUG) {
             Logger.log("ChartView.createGovernorMenu() entering");
@@ -661,6 +716,9 @@ public class ChartView
         for (int index = 0; index < mLogSourceActions.length; ++index) {
             mLogSourceActions[index].updateState();
         }
+        for (LogSourceAction action : mDeviceLogSourceActions) {
+            action.updateState();
+        }
     }
 
     private void updateActions() {
@@ -853,7 +911,17 @@ public class ChartView
         private String mName;
 
         public LogSourceAction(String name) {
-            super(name, LOGSOURCE_ACTION_TOOLTIP_STR, null, KeyEvent.VK_L);
+            this(name, name);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param title Shown in the menu.
+         * @param name The name of the log source.
+         */
+        public LogSourceAction(String title, String name) {
+            super(title, LOGSOURCE_ACTION_TOOLTIP_STR, null, KeyEvent.VK_L);
             mName = name;
         }
 
@@ -898,8 +966,7 @@ public class ChartView
                         @Override
                         public void run() {
                             try {
-                                Runtime rt = Runtime.getRuntime();
-                                rt.exec("adb reboot");
+                                AdbClient.getDefault().reboot();
                             } catch (IOException excep) {
                                 Logger.logExcep(excep);
                             }
@@ -1153,6 +1220,15 @@ public class ChartView
                 seriesName = String.format("%s (%d)", llm.getName(), seriesIndex);
             }
 
+            // The LogLineMatcher of each device has series of its own.
+            String serial = llm.getSource().getDeviceSerial();
+            if (serial != null) {
+                seriesName = String.format(DEVICE_SERIES_NAME_STR, seriesName, serial);
+                if (diffSeriesName != null) {
+                    diffSeriesName = String.format(DEVICE_SERIES_NAME_STR, diffSeriesName, serial);
+                }
+            }
+
             SyncedChartPanel chartPanel = findChartPanel(llm);
             if (chartPanel != null) {
                 TimeSeries series =
@@ -1168,48 +1244,121 @@ public class ChartView
             }
         }
         mLLMSeries.put(llm, dataset);
+        setLLMSeriesById(llm.getId(), llm, dataset);
         updateActions();
     }
 
     public void unRegisteringLLM(LogLineMatcher llm) {
         //TODO Is this really correct??? I think we need to clean up in SyncedChartPanel as well.
         mLLMSeries.remove(llm);
+        int id = llm.getId();
+        if (id >= 0 && id < mLLMsById.length && mLLMsById[id] == llm) {
+            setLLMSeriesById(id, null, null);
+        }
         updateActions();
     }
 
+    private synchronized void setLLMSeriesById(int id, LogLineMatcher llm, TimeSeriesCollection dataset) {
+        if (id < 0) {
+            return;
+        }
+        int length = Math.max(mLLMsById.length, id + 1);
+        LogLineMatcher[] llms = Arrays.copyOf(mLLMsById, length);
+        TimeSeriesCollection[] datasets = Arrays.copyOf(mLLMSeriesById, length);
+        llms[id] = llm;
+        datasets[id] = dataset;
+        // Written first and read last, see onMatchedLogLines().
+        mLLMSeriesById = datasets;
+        mLLMsById = llms;
+    }
+
+    /**
+     * Add a value to a series. Since we can only insert one observation
+     * per time in the chart and we can get several matched log lines
+     * having the same timestamp, we increment the time for at most 9
+     * times to get a timestamp that can be inserted (the resolution in
+     * logcat being 10 ms). If we still fail after 9 retries we report
+     * it as a duplicate.
+     *
+     * @param series
+     * @param millis
+     * @param value
+     * @param notify If false the caller must call fireSeriesChanged().
+     */
+    private static void addToSeries(TimeSeries series, long millis, float value, boolean notify) {
+        Millisecond period = new Millisecond(new Date(millis));
+        int failCount = 0;
+        while (failCount++ < 9) {
+            try {
+                series.add(period, value, notify);
+                break;
+            } catch (SeriesException excep) {
+                period = new Millisecond(new Date(millis + failCount));
+            }
+        }
+        // if (failCount == 9) {
+        //     // We assume the SeriesExceptions above are caused by duplicate
+        //     // observations being inserted. This is the most probable cause.
+        //     ++mDuplicateCount;
+        //     showDuplicateCount();
+        //     String msg = String.format(SERIES_INSERT_FAILED_STR, period.getMillisecond(), value);
+        //     Logger.log(msg);
+        // }
+    }
+
     public void onMatchedLogLine(LogLineMatcher llm, int seriesIndex, Date date, float value) {
-//        synchronized (mChartLock) {
-            TimeSeriesCollection dataset = mLLMSeries.get(llm);
-            if (dataset != null) {
-                TimeSeriesWithStats series = (TimeSeriesWithStats) dataset.getSeries(seriesIndex);
-                if (series != null) {
-                    // Since we can only insert one observation per time in the chart
-                    // and we can get several matched log lines having the same
-                    // timestamp, we increment the time for at most 9 times to get a
-                    // timestamp that can be inserted (the resolution in logcat being 10
-                    // ms). If we still fail after 9 retries we report it as a
-                    // duplicate.
-                    Millisecond millis = new Millisecond(date);
-                    int failCount = 0;
-                    while (failCount++ < 9) {
-                        try {
-                            series.add(millis, value);
-                            break;
-                        } catch (SeriesException excep) {
-                            millis = new Millisecond(new Date(date.getTime() + 1));
-                        }
-                    }
-                    // if (failCount == 9) {
-                    //     // We assume the SeriesExceptions above are caused by duplicate
-                    //     // observations being inserted. This is the most probable cause.
-                    //     ++mDuplicateCount;
-                    //     showDuplicateCount();
-                    //     String msg = String.format(SERIES_INSERT_FAILED_STR, millis.getMillisecond(), value);
-                    //     Logger.log(msg);
-                    // }
-                }
+        TimeSeriesCollection dataset = mLLMSeries.get(llm);
+        if (dataset != null && seriesIndex < dataset.getSeriesCount()) {
+            addToSeries(dataset.getSeries(seriesIndex), date.getTime(), value, true);
+        }
+    }
+
+
+    // LLMMgrBatchListener
+
+    @Override
+    public void onMatchedLogLines(MatchBatch batch) {
+        LogLineMatcher[] llmsById = mLLMsById;
+        TimeSeriesCollection[] seriesById = mLLMSeriesById;
+        LogLineMatcher[] llms = batch.getLLMs();
+        int[] ids = batch.getLLMIds();
+        int[] seriesIndexes = batch.getSeriesIndexes();
+        long[] millis = batch.getMillis();
+        float[] values = batch.getValues();
+
+        // Notify the listeners of each series changed once, not for
+        // every value.
+        ArrayList<TimeSeries> changed = new ArrayList<TimeSeries>(4);
+        for (int index = 0; index < batch.getCount(); ++index) {
+            int id = ids[index];
+            // The id may have been given to another LogLineMatcher.
+            if (id < 0 || id >= llmsById.length || llmsById[id] != llms[index]) {
+                continue;
             }
-//        }
+            TimeSeriesCollection dataset = seriesById[id];
+            int seriesIndex = seriesIndexes[index];
+            if (dataset == null || seriesIndex >= dataset.getSeriesCount()) {
+                continue;
+            }
+            TimeSeries series = dataset.getSeries(seriesIndex);
+            addToSeries(series, millis[index], values[index], false);
+            if (!containsSeries(changed, series)) {
+                changed.add(series);
+            }
+        }
+        for (TimeSeries series : changed) {
+            series.fireSeriesChanged();
+        }
+    }
+
+    private static boolean containsSeries(ArrayList<TimeSeries> seriesList, TimeSeries series) {
+        // Not contains(), TimeSeries.equals() compares all items.
+        for (TimeSeries other : seriesList) {
+            if (other == series) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -1221,6 +1370,15 @@ public class ChartView
         mKernelLog = stater.getKernelLog();
         updateActions();
         mGovernorMenu.update(mDeviceState == DEVICE_STATE.AVAILABLE);
+
+        final List<String> serials = stater.getSerials();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                updateDeviceMenus(serials);
+                mController.onDevicesChanged(serials);
+            }
+        });
     }
 
 
@@ -34,7 +34,6 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Frame;
-import java.awt.ScrollPane;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.ActionListener;
@@ -43,6 +42,7 @@ import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.border.EmptyBorder;
@@ -51,6 +51,7 @@ import javax.swing.border.EmptyBorder;
 public class InputTextDialog extends JDialog implements ActionListener {
 
     private JTextArea mTextArea;   // when multiline
+    private JScrollPane mScrollPane;
     private JTextField mText;
     private boolean mMultiline;
     private String mActionBtnCaption;
@@ -87,6 +88,25 @@ public class InputTextDialog extends JDialog implements ActionListener {
         UIUtils.closeFrameWhenEscapePressed(this.getRootPane(), this);
     }
 
+    /**
+     * Show 'header' to the left of the lines when multiline, e.g. a
+     * number for each line. It is not edited with the lines.
+     *
+     * @param header
+     */
+    public void setLineHeader(String header) {
+        if (!mMultiline) {
+            return;
+        }
+        JTextArea headerArea = new JTextArea(header);
+        headerArea.setEditable(false);
+        headerArea.setFocusable(false);
+        headerArea.setFont(mTextArea.getFont());
+        headerArea.setBackground(getContentPane().getBackground());
+        mScrollPane.setRowHeaderView(headerArea);
+        pack();
+    }
+
     public String getText() {
         if (mCancelled) {
             return null;
@@ -108,15 +128,13 @@ public class InputTextDialog extends JDialog implements ActionListener {
         return leadLabel;
     }
 
-    private ScrollPane createGUICenter(String title, String value) {
+    private JScrollPane createGUICenter(String title, String value) {
         mTextArea = new JTextArea(value);
         UIUtils.useTabToChangeFocus(mTextArea);
         mTextArea.setRows(4);
 
-        ScrollPane scrollPane = new ScrollPane();
-        scrollPane.add(mTextArea);
-
-        return scrollPane;
+        mScrollPane = new JScrollPane(mTextArea);
+        return mScrollPane;
     }
 
     private JPanel createGUISouth() {
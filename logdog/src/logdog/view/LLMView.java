@@ -49,7 +49,9 @@ import java.awt.event.MouseListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.Action;
 import javax.swing.Box;
@@ -68,14 +70,17 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
+import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.text.Caret;
 
 import logdog.Prefs.Directory;
@@ -84,8 +89,11 @@ import logdog.model.LLMEditListener;
 import logdog.model.LogLineMatcher;
 import logdog.model.LogLineMatcher.Group;
 import logdog.model.LogLineMatcherManager;
+import logdog.model.LogLineMatcherProfile;
 import logdog.model.LogSource;
+import logdog.model.LogSourceListener;
 import logdog.model.LogSourceTriggerList;
+import logdog.model.RegExpCostAnalyzer;
 import logdog.utils.Utils;
 import logdog.view.MenuButton.MenuButtonListener;
 
@@ -113,6 +121,8 @@ public class LLMView extends JDialog
     private JCheckBox mEventCB;
     private JCheckBox mEnabledCB;
     private JCheckBox mTimeDiffCB;
+    private ProfileTableModel mProfileTableModel;
+    private Timer mProfileTimer;
 
     // Actions
     private SaveAction mSaveAction = new SaveAction();
@@ -126,6 +136,8 @@ public class LLMView extends JDialog
     private GroupDeleteAction mGroupDeleteAction = new GroupDeleteAction();
     private GroupMoveUpAction mGroupMoveUpAction = new GroupMoveUpAction();
     private GroupMoveDownAction mGroupMoveDownAction = new GroupMoveDownAction();
+    private DumpProfileAction mDumpProfileAction = new DumpProfileAction();
+    private SampleFileAction mSampleFileAction = new SampleFileAction();
 
     // Current index when accessing LogLineMatchers using mLLMCtrl:
     private LogLineMatcher mSelectedLLM;
@@ -170,6 +182,12 @@ public class LLMView extends JDialog
     private static final String CB_CREATE_TIME_DIFF_SERIES_STR = "Create log time series (ms)";
     private static final String GROUP_DELETE_Q_STR =
         "Are you sure you want to delete this regular expression group?";
+    private static final String PROFILE_CAPTION_STR = "Profile";
+    private static final String DUMP_PROFILE_FAILED_STR = "Failed to write profile";
+    private static final String SAMPLE_FILE_FAILED_STR = "Failed to read sample file";
+    private static final String COST_WARNING_TITLE_STR = "Slow regular expression";
+    private static final String COST_WARNING_Q_STR =
+        "These log line matchers may slow down reading the log:\n\n%s\n\nSave anyway?";
 
     private final static String sCommands[] = {
         "Save",
@@ -188,6 +206,8 @@ public class LLMView extends JDialog
         "Delete",
         "Up",
         "Down",
+        "Dump profile",
+        "Sample file...",
     };
 
     private final static String sCommandsTooltip[] = {
@@ -208,6 +228,9 @@ public class LLMView extends JDialog
         "Delete selected regexp group",
         "Move regexp group up",
         "Move regexp group down",
+        "Write the profile of all log line matchers to a CSV file",
+        "Choose a log file to time new regexps against when saving, " +
+        "instead of the lines shown for their log sources",
     };
 
     // Misc
@@ -227,11 +250,51 @@ public class LLMView extends JDialog
     private static final int CMD_GROUP_DELETE = 13;
     private static final int CMD_GROUP_MOVE_UP = 14;
     private static final int CMD_GROUP_MOVE_DOWN = 15;
+    private static final int CMD_DUMP_PROFILE = 16;
+    private static final int CMD_SAMPLE_FILE = 17;
+
+    private static final String[] sProfileColumns = {
+        "Name",
+        "Log source",
+        "Evaluated",
+        "Hits",
+        "Values",
+        "Total (us)",
+        "Mean (ns)",
+        "p99 (ns)",
+    };
+    private static final int PROFILE_REFRESH_MS = 1000;
 
     private MenuButton mPasteRegExp;
 
     private LLMController mLLMCtrl;
 
+    // Chosen using mSampleFileAction, null to use the log lines shown
+    // in the LogSourceView of each log source:
+    private ArrayList<String> mSampleFileLines;
+
+    private RegExpCostAnalyzer.SampleLines mSampleLines = new RegExpCostAnalyzer.SampleLines() {
+        @Override
+        public List<String> getSampleLines(String sourceName) {
+            if (mSampleFileLines != null) {
+                return mSampleFileLines;
+            }
+            String serial = LogSource.getDeviceSerial(sourceName);
+            if (!LogSource.ANY_DEVICE.equals(serial)) {
+                return getLogSourceViewLines(sourceName);
+            }
+            // Use the first device having a LogSourceView.
+            String baseName = LogSource.getBaseName(sourceName);
+            for (String deviceSerial : LogSource.getDeviceSerials()) {
+                List<String> lines = getLogSourceViewLines(LogSource.getSourceName(baseName, deviceSerial));
+                if (lines != null) {
+                    return lines;
+                }
+            }
+            return null;
+        }
+    };
+
     private final int COMP_MARGIN = 14;
     private final int DEF_INSETS = 8;
 
@@ -259,6 +322,7 @@ public class LLMView extends JDialog
     }
 
     public void die() {
+        mProfileTimer.stop();
         LogLineMatcherManager.removeLLMEditListener(this);
         mPasteRegExp.removeListener();
         setVisible(false);
@@ -479,6 +543,17 @@ public class LLMView extends JDialog
                 new DefaultComboBoxModel<String>(LogSource.getSourceNames());
         // Remove "File":
         comboBoxModel.removeElementAt(comboBoxModel.getSize() - 1);
+        // Then the same log sources on any device and on each
+        // connected device:
+        int baseCount = comboBoxModel.getSize();
+        List<String> serials = new ArrayList<String>(LogSource.getDeviceSerials());
+        serials.add(0, LogSource.ANY_DEVICE);
+        for (String serial : serials) {
+            for (int index = 0; index < baseCount; ++index) {
+                comboBoxModel.addElement(LogSource.getSourceName(comboBoxModel.getElementAt(index),
+                                                                 serial));
+            }
+        }
         mLogSourceCombo = new JComboBox<String>(comboBoxModel);
         cons.gridy = 3;
         mCenterPanel.add(mLogSourceCombo, cons);
@@ -569,11 +644,43 @@ public class LLMView extends JDialog
         return mCenterPanel;
     }
 
+    private JPanel createGUIProfile() {
+        JPanel profilePanel = new JPanel(new BorderLayout());
+        UIUtils.addMarginBorder(profilePanel, PROFILE_CAPTION_STR, 0, COMP_MARGIN, 0, COMP_MARGIN);
+
+        mProfileTableModel = new ProfileTableModel();
+        JTable profileTable = new JTable(mProfileTableModel);
+        profileTable.setAutoCreateRowSorter(true);
+        JScrollPane tableScrollPane = new JScrollPane(profileTable);
+        tableScrollPane.setPreferredSize(new Dimension(1000, 140));
+        profilePanel.add(tableScrollPane, BorderLayout.CENTER);
+
+        JPanel panelButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        addButton(panelButtons, mDumpProfileAction);
+        addButton(panelButtons, mSampleFileAction);
+        profilePanel.add(panelButtons, BorderLayout.SOUTH);
+
+        // The counters keep changing while logging.
+        mProfileTimer = new Timer(PROFILE_REFRESH_MS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                mProfileTableModel.fireTableDataChanged();
+            }
+        });
+        mProfileTimer.start();
+
+        return profilePanel;
+    }
+
     private JPanel createGUISouth() {
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(createGUIProfile(), BorderLayout.CENTER);
+
         JPanel panelButtons = new JPanel();
         addButton(panelButtons, mCancelAction);
         addButton(panelButtons, mSaveAction);
-        return panelButtons;
+        southPanel.add(panelButtons, BorderLayout.SOUTH);
+        return southPanel;
     }
 
     private void createGUI() {
@@ -602,8 +709,8 @@ public class LLMView extends JDialog
         UIUtils.closeFrameWhenEscapePressed(rootPane, this);
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setResizable(true);
-        setMinimumSize(new Dimension(1000, 700));
-        setSize(new Dimension(1200, 700));
+        setMinimumSize(new Dimension(1000, 850));
+        setSize(new Dimension(1200, 850));
         setLocationRelativeTo(mOwner);
     }
 
@@ -761,7 +868,13 @@ public class LLMView extends JDialog
             populateGroupList();
 
             DefaultComboBoxModel<String> model = (DefaultComboBoxModel<String>) mLogSourceCombo.getModel();
-            int comboRow = model.getIndexOf(llm.getSourceName_Edit());
+            String sourceName = llm.getSourceName_Edit();
+            int comboRow = model.getIndexOf(sourceName);
+            if (comboRow < 0 && LogSource.getDeviceSerial(sourceName) != null) {
+                // A device not connected right now.
+                model.addElement(sourceName);
+                comboRow = model.getIndexOf(sourceName);
+            }
             if (comboRow >= 0) {
                 mLogSourceCombo.setSelectedIndex(comboRow);
             }
@@ -793,6 +906,10 @@ public class LLMView extends JDialog
                                           mCountDurationRB.isSelected(), mCountDurationField.getText());
                 updateLLM();
 
+                if (!confirmCost(mLLMCtrl.editAnalyzeCost(mSampleLines))) {
+                    return;
+                }
+
                 if (!mLLMCtrl.hasFilePath()) {
                     File xmlPath = UIUtils.showFileDlg(LLMView.this, true, false,
                                                        UIUtils.FILEDLG_FILTER.FILTER_LLM,
@@ -824,6 +941,148 @@ public class LLMView extends JDialog
         }
     }
 
+    private static List<String> getLogSourceViewLines(String sourceName) {
+        LogSource logSource = LogSource.findLogSourceByName(sourceName);
+        if (logSource != null) {
+            LogSourceListener listener = logSource.hasListenerOfType(LogSourceView.class);
+            if (listener != null) {
+                return ((LogSourceView) listener).getLastLogLines(RegExpCostAnalyzer.MAX_SAMPLE_LINES);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ask the user whether to save anyway if any of the regexps
+     * analyzed looks slow.
+     *
+     * @param reports From LLMController.editAnalyzeCost().
+     *
+     * @return true to save.
+     */
+    private boolean confirmCost(List<RegExpCostAnalyzer.Report> reports) {
+        StringBuilder warnings = new StringBuilder(400);
+        for (RegExpCostAnalyzer.Report report : reports) {
+            if (report.hasWarning()) {
+                if (warnings.length() > 0) {
+                    warnings.append("\n");
+                }
+                warnings.append(report.toString());
+            }
+        }
+        if (warnings.length() == 0) {
+            return true;
+        }
+        return JOptionPane.
+            showConfirmDialog(LLMView.this, String.format(COST_WARNING_Q_STR, warnings),
+                              COST_WARNING_TITLE_STR, JOptionPane.YES_NO_OPTION,
+                              JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+    }
+
+    private class SampleFileAction extends UIUtils.ActionBase {
+        public SampleFileAction() {
+            super(sCommands[CMD_SAMPLE_FILE], sCommandsTooltip[CMD_SAMPLE_FILE], null, KeyEvent.VK_F);
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent arg0) {
+            File samplePath = UIUtils.showFileDlg(LLMView.this, false, true,
+                                                  UIUtils.FILEDLG_FILTER.FILTER_NONE,
+                                                  Directory.LOGSOURCE_FILES);
+            if (samplePath == null) {
+                return;
+            }
+            try {
+                mSampleFileLines = RegExpCostAnalyzer.readSampleLines(samplePath);
+                putValue(SHORT_DESCRIPTION, samplePath.getPath());
+            } catch (IOException excep) {
+                JOptionPane.showMessageDialog(LLMView.this, excep.getMessage(),
+                                              SAMPLE_FILE_FAILED_STR,
+                                              JOptionPane.OK_OPTION);
+            }
+        }
+    }
+
+    private class DumpProfileAction extends UIUtils.ActionBase {
+        public DumpProfileAction() {
+            super(sCommands[CMD_DUMP_PROFILE], sCommandsTooltip[CMD_DUMP_PROFILE], null, KeyEvent.VK_P);
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent arg0) {
+            File csvPath = UIUtils.showFileDlg(LLMView.this, true, false,
+                                               UIUtils.FILEDLG_FILTER.FILTER_NONE,
+                                               Directory.LOGDOG_FILES);
+            if (csvPath == null) {
+                return;
+            }
+            try {
+                mLLMCtrl.dumpProfile(csvPath);
+            } catch (IOException excep) {
+                JOptionPane.showMessageDialog(LLMView.this, excep.getMessage(),
+                                              DUMP_PROFILE_FAILED_STR,
+                                              JOptionPane.OK_OPTION);
+            }
+        }
+    }
+
+    /**
+     * Shows the LogLineMatcherProfile of each LogLineMatcher. The
+     * rows follow the LogLineMatchers being edited but the numbers are
+     * those of the saved ones.
+     */
+    private class ProfileTableModel extends AbstractTableModel {
+
+        @Override
+        public int getRowCount() {
+            return mLLMCtrl.getLLMs().size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return sProfileColumns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return sProfileColumns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column < 2 ? String.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            ArrayList<LogLineMatcher> llms = mLLMCtrl.getLLMs();
+            if (row >= llms.size()) {
+                return null;
+            }
+            LogLineMatcher llm = llms.get(row);
+            LogLineMatcherProfile profile = llm.getProfile();
+            switch (column) {
+            case 0:
+                return llm.getName();
+            case 1:
+                return llm.getSource().getName();
+            case 2:
+                return profile.getEvaluated();
+            case 3:
+                return profile.getHits();
+            case 4:
+                return profile.getValues();
+            case 5:
+                return profile.getTotalNanos() / 1000;
+            case 6:
+                return profile.getMeanNanos();
+            case 7:
+                return profile.getP99Nanos();
+            }
+            return null;
+        }
+    }
+
     private void doCancel() {
         mLLMCtrl.editCancel();
         mLLMCtrl.editDone();
@@ -1039,6 +1298,7 @@ public class LLMView extends JDialog
     @Override
     public void onAdded(LogLineMatcher llm) {
         mLLMListModel.addElement(llm);
+        mProfileTableModel.fireTableDataChanged();
         // Fires an event that calls showLLM() which updates mLLMIndex.
         int selIndex = mLLMListModel.getSize() - 1;
         mLLMList.setSelectedIndex(selIndex);
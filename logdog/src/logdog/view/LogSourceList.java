@@ -38,7 +38,7 @@ import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.io.File;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,8 +50,11 @@ import javax.swing.ListCellRenderer;
 import javax.swing.ListModel;
 import javax.swing.SwingUtilities;
 
+import logdog.Prefs;
 import logdog.logdog;
 import logdog.model.FileDumper;
+import logdog.model.LogLine;
+import logdog.model.LogLineStore;
 import logdog.model.LogSource;
 import logdog.utils.Logger;
 import logdog.utils.Utils;
@@ -154,7 +157,7 @@ public class LogSourceList extends JList<String> {
                 String msg = mAcceptAdd ?
                     "--------------- LOGDOG RESUMING LOG OUTPUT ---------------" :
                     "--------------- LOGDOG PAUSING LOG OUTPUT ---------------" ;
-                mLogLineData.add(msg, new Date());
+                mLogLineData.add(msg, System.currentTimeMillis());
             }
         }
     }
@@ -173,13 +176,38 @@ public class LogSourceList extends JList<String> {
     };
 
     void add(String logLine) {
-        add(logLine, new Date());
+        add(logLine, System.currentTimeMillis());
     }
 
-    void add(String logLine, Date date) {
+    /**
+     * Add a log line.
+     *
+     * @param logLine
+     * @param time Time in milliseconds of the log line, -1 if unknown.
+     */
+    void add(String logLine, long time) {
         if (mAcceptAdd) {
             synchronized (mLogLineData) {
-                mLogLineData.add(logLine, date);
+                mLogLineData.add(logLine, time);
+                if (!mScrollLock) {
+                    synchronized (mAddUpdateUISync) {
+                        mAddUpdateUICount++;
+                        mAddUpdateUISync.notify();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a log line without creating a String for it.
+     *
+     * @param logLine
+     */
+    void add(LogLine logLine) {
+        if (mAcceptAdd) {
+            synchronized (mLogLineData) {
+                mLogLineData.add(logLine);
                 if (!mScrollLock) {
                     synchronized (mAddUpdateUISync) {
                         mAddUpdateUICount++;
@@ -285,6 +313,23 @@ public class LogSourceList extends JList<String> {
         changeFontSize(1);
     }
 
+    /**
+     * @param maxCount
+     *
+     * @return A copy of the last 'maxCount' log lines, oldest first.
+     */
+    ArrayList<String> getLastLogLines(int maxCount) {
+        synchronized (mLogLineData) {
+            int count = mLogLineData.getSize();
+            int first = Math.max(0, count - maxCount);
+            ArrayList<String> logLines = new ArrayList<String>(count - first);
+            for (int index = first; index < count; ++index) {
+                logLines.add(mLogLineData.getElementAt(index));
+            }
+            return logLines;
+        }
+    }
+
     void saveToFile(File file) {
         FileDumper fileDumper = new FileDumper(file);
         synchronized (mLogLineData) {
@@ -292,7 +337,7 @@ public class LogSourceList extends JList<String> {
             int count = model.getSize();
             if (fileDumper.start()) {
                 for(int index = 0; index < count; ++index) {
-                    fileDumper.onLogLine((String) model.getElementAt(index));
+                    fileDumper.writeLine((String) model.getElementAt(index));
                 }
                 fileDumper.stop();
             }
@@ -304,24 +349,34 @@ public class LogSourceList extends JList<String> {
     }
 
     /**
-     * This is the list model storing all the data.
+     * This is the list model storing all the data. The lines are kept
+     * as UTF-8 bytes outside of the Java heap, see LogLineStore, and
+     * only decoded when shown. If spilling is enabled in Prefs they
+     * are kept in memory-mapped segment files in the temp directory,
+     * so the whole history of e.g. an overnight test can be scrolled
+     * and searched.
      */
     private class LogLineData extends AbstractListModel<String> {
 
-        private static final int MAX_LOGLINE_COUNT = 100000;
-        private String[] mLogLines = new String[MAX_LOGLINE_COUNT];
-        private long[] mTimes = new long[MAX_LOGLINE_COUNT];
-        private int mBeginIndex = 0;
-        private int mEndIndex = -1;
-        private boolean mFull;
+        private final LogLineStore mStore = createStore();
         private int mMarkListIndex = -1;
 
+        private LogLineStore createStore() {
+            Prefs prefs = new Prefs();
+            long maxBytes = prefs.getLogViewBufferMB() * 1024L * 1024L;
+            if (prefs.getLogViewSpill()) {
+                return new LogLineStore(maxBytes, new File(System.getProperty("java.io.tmpdir"),
+                                                           "logdog-" + System.getProperty("user.name")));
+            }
+            return new LogLineStore(maxBytes);
+        }
+
         void setMarkListIndex(int index) {
             mMarkListIndex = index;
         }
 
         boolean indexIsSelectedAndContainsMarkRegExp(int index) {
-            return index == mMarkListIndex && mRenderer.isMarkMatch(mLogLines[mMarkListIndex]);
+            return index == mMarkListIndex && mRenderer.isMarkMatch(getElementAt(mMarkListIndex));
         }
 
         int getMarkPreviousIndex() {
@@ -331,8 +386,8 @@ public class LogSourceList extends JList<String> {
                     if (--mMarkListIndex <= 0) {
                         mMarkListIndex = maxIndex;
                     }
-                    if (mRenderer.isMarkMatch(mLogLines[mMarkListIndex])) {
-                        fireContentsChanged(this, 0, MAX_LOGLINE_COUNT - 1);
+                    if (mRenderer.isMarkMatch(getElementAt(mMarkListIndex))) {
+                        fireContentsChanged(this, 0, mStore.getMaxLines() - 1);
                         return mMarkListIndex;
                     }
                 }
@@ -347,8 +402,8 @@ public class LogSourceList extends JList<String> {
                     if (++mMarkListIndex > maxIndex) {
                         mMarkListIndex = 0;
                     }
-                    if (mRenderer.isMarkMatch(mLogLines[mMarkListIndex])) {
-                        fireContentsChanged(this, 0, MAX_LOGLINE_COUNT - 1);
+                    if (mRenderer.isMarkMatch(getElementAt(mMarkListIndex))) {
+                        fireContentsChanged(this, 0, mStore.getMaxLines() - 1);
                         return mMarkListIndex;
                     }
                 }
@@ -356,129 +411,79 @@ public class LogSourceList extends JList<String> {
             return -1;
         }
 
-        void add(String logLine, Date date) {
-            if (++mEndIndex == MAX_LOGLINE_COUNT) {
-                mBeginIndex = 1;
-                mEndIndex = 0;
-                mFull = true;
+        void add(String logLine, long time) {
+            onAdded(mStore.add(logLine, time));
+        }
+
+        void add(LogLine logLine) {
+            onAdded(mStore.add(logLine));
+        }
+
+        /**
+         * Notify the listbox about the added line.
+         *
+         * @param dropped True if older lines were dropped to make room.
+         */
+        private void onAdded(boolean dropped) {
+            if (dropped) {
                 if (logdog.DEBUG) {
                     Logger.log("LogSourceList is full");
                 }
-            } else if (mFull && mEndIndex == mBeginIndex) {
-                if (++mBeginIndex == MAX_LOGLINE_COUNT) {
-                    mBeginIndex = 0;
-                }
-            }
-            mLogLines[mEndIndex] = logLine;
-            if (date == null) {
-                mTimes[mEndIndex] = -1;
-            } else {
-                mTimes[mEndIndex] = date.getTime();
-            }
-
-            if (mFull) {
-                // SwingUtilities.invokeLater(new Runnable() {
-                //     @Override
-                //     public void run() {
-                //         fireContentsChanged(this, 0, MAX_LOGLINE_COUNT - 1);
-                //     }
-                // });
-                fireContentsChanged(this, 0, MAX_LOGLINE_COUNT - 1);
+                fireContentsChanged(this, 0, mStore.getMaxLines() - 1);
             } else {
-                // Figure out the index in the listbox and notify it
-                // about the added data:
-                int listIndex = mEndIndex - mBeginIndex;
-                if (listIndex < 0) {
-                    listIndex += MAX_LOGLINE_COUNT;
-                }
-                // final int index = listIndex;
-                // SwingUtilities.invokeLater(new Runnable() {
-                //     @Override
-                //     public void run() {
-                //         fireIntervalAdded(this, index, index);
-                //     }
-                // });
+                int listIndex = getSize() - 1;
                 fireIntervalAdded(this, listIndex, listIndex);
             }
         }
 
         void clear() {
-            mBeginIndex = 0;
-            mEndIndex = -1;
-            mFull = false;
+            mStore.clear();
             mMarkListIndex = -1;
             setSelectedIndex(-1);
             clearSelection();
-            fireContentsChanged(this, 0, MAX_LOGLINE_COUNT - 1);
+            fireContentsChanged(this, 0, mStore.getMaxLines() - 1);
         }
 
         /**
-         * Search in 'mTimes' for the time closest to the given time and return
-         * its index. Now uses a binary search which obviously assumes the
-         * times come in consecutive order. This might not be the case if the
-         * time has been changed on the phone.
+         * Search for the line with the time closest to the given time
+         * and return its index. Uses a binary search which obviously
+         * assumes the times come in consecutive order. This might not
+         * be the case if the time has been changed on the phone.
          *
          * @param time Time in milliseconds.
          *
-         * @return Index inot 'mTimes', -1 if not found.
+         * @return Index in the list, -1 if the list is empty.
          */
         int findIndexForTime(long time) {
             synchronized (mLogLineData) {
-                int beginIndex = mBeginIndex;
-                int endIndex = mEndIndex;
-                // Let endIndex overflow to make coding easier. Compensated for below.
-                if (endIndex < beginIndex) {
-                    endIndex += MAX_LOGLINE_COUNT;
+                int beginIndex = 0;
+                int endIndex = getSize() - 1;
+                if (endIndex < 0) {
+                    return -1;
                 }
-                int range = (endIndex - beginIndex) / 2;
-                int index = beginIndex + range;
-                while (range > 0) {
-                    int testIndex = index;
-                    if (index >= MAX_LOGLINE_COUNT) {
-                        testIndex -= MAX_LOGLINE_COUNT;
-                    }
-                    long crntTime = mTimes[testIndex];
-                    if (crntTime == time) {
-                        return testIndex;
-                    }
-                    if (time > crntTime) {
-                        beginIndex = index;
+                // The first line not before 'time', or the last line.
+                while (beginIndex < endIndex) {
+                    int index = (beginIndex + endIndex) >>> 1;
+                    if (mStore.getMillis(index) < time) {
+                        beginIndex = index + 1;
                     } else {
                         endIndex = index;
                     }
-                    range = (endIndex - beginIndex) / 2;
-                    index = beginIndex + range;
-                    // If we are at the last iteration, then select the higher index.
-                    if (range == 0 && ++index >= MAX_LOGLINE_COUNT) {
-                        index = 0;
-                    }
                 }
-                return index;
+                return beginIndex;
             }
         }
 
         @Override
         public String getElementAt(int listIndex) {
-//            synchronized (mLogLineData) {  //OK?
-                int index = mBeginIndex + listIndex;
-                if (index >= MAX_LOGLINE_COUNT) {
-                    index -= MAX_LOGLINE_COUNT;
-                }
-                return mLogLines[index];
-//            }
+            // Lines may have been dropped since the listbox got the size.
+            String logLine = mStore.get(listIndex);
+            return logLine != null ? logLine : "";
         }
 
         @Override
         public int getSize() {
-//            synchronized (mLogLineData) {  //OK?
-                if (mEndIndex == -1) {
-                    return 0;
-                }
-                if (mEndIndex >= mBeginIndex) {
-                    return mEndIndex - mBeginIndex + 1;
-                }
-                return MAX_LOGLINE_COUNT;
-//            }
+            return mStore.size();
         }
     }
 
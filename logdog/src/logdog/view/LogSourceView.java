@@ -51,7 +51,7 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.util.Date;
+import java.util.ArrayList;
 
 import javax.swing.Action;
 import javax.swing.ImageIcon;
@@ -69,6 +69,7 @@ import logdog.logdog;
 import logdog.controller.MainController;
 import logdog.controller.ViewSelListener;
 import logdog.model.BlackList.BlackListListener;
+import logdog.model.LogLine;
 import logdog.model.LogSource;
 import logdog.model.LogSourceListener;
 import logdog.utils.Logger;
@@ -178,6 +179,9 @@ public class LogSourceView
     private static final String BLACKLIST_EDIT_CAPTION_STR = "Edit blacklist";
     private static final String BLACKLIST_CLEAR_CAPTION_STR = "Blacklist";
     private static final String BLACKLIST_REGEXP_LEAD_STR = "Blacklist regular expression:";
+    private static final String BLACKLIST_EDIT_LEAD_STR =
+        "Blacklist regular expressions, with the lines each has blacklisted:";
+    private static final String BLACKLIST_HITS_FORMAT_STR = "%,d ";
     private static final String BLACKLIST_CLEAR_Q_STR = "Clear blacklist?";
 
     private static final String MARK_TEXT_FIELD_TOOLTIP_STR =
@@ -764,8 +768,17 @@ public class LogSourceView
         @Override
         public void actionPerformed(ActionEvent arg0) {
             InputTextDialog dlg = new InputTextDialog(LogSourceView.this, BLACKLIST_EDIT_CAPTION_STR,
-                                                      BLACKLIST_REGEXP_LEAD_STR,
+                                                      BLACKLIST_EDIT_LEAD_STR,
                                                       mLogSource.getBlackListAsString(), true, false);
+            // Show the hits so entries that never hit can be removed.
+            StringBuilder hits = new StringBuilder();
+            for (long hit : mLogSource.getBlackListHits()) {
+                if (hits.length() > 0) {
+                    hits.append('\n');
+                }
+                hits.append(String.format(BLACKLIST_HITS_FORMAT_STR, hit));
+            }
+            dlg.setLineHeader(hits.toString());
             dlg.setVisible(true);
             mLogSource.replaceBlackList(dlg.getText());
         }
@@ -816,6 +829,18 @@ public class LogSourceView
         }
     }
 
+    /**
+     * Get the last log lines shown, used as sample lines when
+     * analyzing regexps, see LLMView.
+     *
+     * @param maxCount
+     *
+     * @return
+     */
+    public ArrayList<String> getLastLogLines(int maxCount) {
+        return mLogSourceList.getLastLogLines(maxCount);
+    }
+
     public void setWindowTitle(String fileName) {
         if (fileName != null) {
             setTitle(String.format("%s - %s", logdog.getFriendlyVersion(), fileName));
@@ -827,15 +852,14 @@ public class LogSourceView
 
     // LogSourceListener
 
-    public void onLogLine(String line) {
+    public void onLogLine(LogLine line) {
         // We are not on the UI thread so we should really do the below
         // but its to slow and resource consuming.
         // EventQueue.invokeLater(new Runnable() { public void run() {
         // mLogSourceList.add(line); } });
 
         // This works...
-        Date date = LogSource.getDate(line);  // date can be null
-        mLogSourceList.add(line, date);
+        mLogSourceList.add(line);  // copies the bytes, no String
     }
 
     @Override
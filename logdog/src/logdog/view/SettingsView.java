@@ -58,7 +58,11 @@ public class SettingsView extends JDialog implements ActionListener {
     
     // GUI controls
     private JCheckBox mShapesInCharts;
+    private JCheckBox mBinaryLogcat;
+    private JCheckBox mLinearRegExp;
     private JTextField mSearchURL;
+    private JTextField mLogViewBufferMB;
+    private JCheckBox mLogViewSpill;
 
     // Actions
     private SaveAction mSaveAction = new SaveAction();
@@ -68,10 +72,20 @@ public class SettingsView extends JDialog implements ActionListener {
     private static final String TITLE_STR = "Settings";
     private static final String SHAPES_IN_CHARTS_STR = "Support shapes in chart curves";
     private static final String SEARCH_URL_STR = "OpenGrok search URL:";
+    private static final String LOG_VIEW_BUFFER_STR = "Log view memory (MB):";
+    private static final String LOG_VIEW_SPILL_STR =
+        "Keep log view lines in memory-mapped temp files, the memory above is then disk space";
+    private static final String BINARY_LOGCAT_STR =
+        "Read logcat in binary format (Android 5.0 or later, used when a log source is started)";
+    private static final String LINEAR_REGEXP_STR =
+        "Match log line matchers in linear time when possible (used when a matcher is loaded)";
 
     private static final String SEARCH_URL_TOOLTIP_STR =
         "Search URL to use when looking up log lines in OpenGrok. " +
         "Must contain one %s used as a place holder for the actual search string.";
+    private static final String LOG_VIEW_BUFFER_TOOLTIP_STR =
+        "Memory for the lines of each log view, the oldest lines are dropped when full. " +
+        "Used when a log view is opened.";
 
     private final static String sCommands[] = {
         "Save",
@@ -126,11 +140,15 @@ public class SettingsView extends JDialog implements ActionListener {
 
         cons.weightx = 0.25;
         cons.gridx = 0;
-        cons.gridy = 1;
+        cons.gridy = 3;
 
         JLabel label = new JLabel(SEARCH_URL_STR);
         centerPanel.add(label, cons);
 
+        ++cons.gridy;
+        label = new JLabel(LOG_VIEW_BUFFER_STR);
+        centerPanel.add(label, cons);
+
         //// Right column
         cons.fill = GridBagConstraints.HORIZONTAL;
         cons.weightx = 5;
@@ -141,11 +159,31 @@ public class SettingsView extends JDialog implements ActionListener {
         mShapesInCharts.setText(SHAPES_IN_CHARTS_STR);
         centerPanel.add(mShapesInCharts, cons);
 
+        ++cons.gridy;
+        mBinaryLogcat = new JCheckBox();
+        mBinaryLogcat.setText(BINARY_LOGCAT_STR);
+        centerPanel.add(mBinaryLogcat, cons);
+
+        ++cons.gridy;
+        mLinearRegExp = new JCheckBox();
+        mLinearRegExp.setText(LINEAR_REGEXP_STR);
+        centerPanel.add(mLinearRegExp, cons);
+
         ++cons.gridy;
         mSearchURL = new JTextField();
         mSearchURL.setToolTipText(SEARCH_URL_TOOLTIP_STR);
         centerPanel.add(mSearchURL, cons);
 
+        ++cons.gridy;
+        mLogViewBufferMB = new JTextField();
+        mLogViewBufferMB.setToolTipText(LOG_VIEW_BUFFER_TOOLTIP_STR);
+        centerPanel.add(mLogViewBufferMB, cons);
+
+        ++cons.gridy;
+        mLogViewSpill = new JCheckBox();
+        mLogViewSpill.setText(LOG_VIEW_SPILL_STR);
+        centerPanel.add(mLogViewSpill, cons);
+
         return centerPanel;
     }
 
@@ -179,7 +217,11 @@ public class SettingsView extends JDialog implements ActionListener {
 
     private void bindToGUI() {
         mShapesInCharts.setSelected(mPrefs.getShapesInCharts());
+        mBinaryLogcat.setSelected(mPrefs.getBinaryLogcat());
+        mLinearRegExp.setSelected(mPrefs.getLinearRegExp());
         mSearchURL.setText(mPrefs.getWebBrowserSearchString());
+        mLogViewBufferMB.setText(Integer.toString(mPrefs.getLogViewBufferMB()));
+        mLogViewSpill.setSelected(mPrefs.getLogViewSpill());
         pack();
         setVisible(true);
     }
@@ -195,8 +237,16 @@ public class SettingsView extends JDialog implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent arg0) {
             mPrefs.putShapesInCharts(mShapesInCharts.isSelected());
+            mPrefs.putBinaryLogcat(mBinaryLogcat.isSelected());
+            mPrefs.putLinearRegExp(mLinearRegExp.isSelected());
+            mPrefs.putLogViewSpill(mLogViewSpill.isSelected());
             String searchURL = mSearchURL.getText();
             mPrefs.putWebBrowserSearchString(searchURL);
+            try {
+                mPrefs.putLogViewBufferMB(Integer.parseInt(mLogViewBufferMB.getText().trim()));
+            } catch (NumberFormatException excep) {
+                // Keep the previous value.
+            }
             mSaved = true;
             dispose();
             if (mListener != null) {
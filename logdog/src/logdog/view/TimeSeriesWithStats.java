@@ -53,10 +53,12 @@ class TimeSeriesWithStats extends TimeSeries {
     }
 
     @Override
-    public void add(RegularTimePeriod period, double value) {
+    public void add(RegularTimePeriod period, double value, boolean notify) {
+        // add(period, value) calls this one too. Throws SeriesException
+        // if there is a value for 'period' already.
+        super.add(period, value, notify);
         int itemCount = getItemCount();
-        mAverage = (mAverage * itemCount + value) / (itemCount + 1);
-        super.add(period, value);
+        mAverage = (mAverage * (itemCount - 1) + value) / itemCount;
     }
 
     @Override